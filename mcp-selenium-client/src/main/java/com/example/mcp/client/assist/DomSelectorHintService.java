@@ -1,30 +1,32 @@
 package com.example.mcp.client.assist;
 
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
+import com.example.mcp.common.KeywordMatcher;
 import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.time.Duration;
-import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
  * Lightweight DOM crawler that fetches the target page and produces high-confidence selector hints.
  * Fetching happens on the server so we avoid CORS issues in the browser. The output is deliberately
- * compact so it can be stitched into the LLM prompt.
+ * compact so it can be stitched into the LLM prompt. Pages are stream-parsed, cached with HTTP
+ * validators and fetched in parallel when a prompt mentions several URLs (see {@link StaticPageFetcher}).
+ * Fetched candidates are also recorded in the {@link ElementCatalog}.
  */
 @Service
 public class DomSelectorHintService {
@@ -33,39 +35,103 @@ public class DomSelectorHintService {
 
     private static final String USER_AGENT =
             "Mozilla/5.0 (Macintosh; Intel Mac OS X 13_2) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/121 Safari/537.36";
+    private static final String CANDIDATE_QUERY = "input, textarea, select, button, a, [role=button], [role=search]";
+
+    private final StaticPageFetcher<Candidate> fetcher;
+    private final ElementCatalog catalog;
+    private final ExecutorService fetchPool;
+    private final int timeoutMs;
+
+    public DomSelectorHintService(
+            ElementCatalog catalog,
+            @Value("${mcp.assist.static-hints.timeout-ms:10000}") int timeoutMs,
+            @Value("${mcp.assist.static-hints.fresh-ms:30000}") long freshMs,
+            @Value("${mcp.assist.static-hints.cache-size:64}") int cacheSize,
+            @Value("${mcp.assist.static-hints.parallelism:4}") int parallelism) {
+        this.timeoutMs = timeoutMs;
+        this.catalog = catalog;
+        this.fetcher = new StaticPageFetcher<>(CANDIDATE_QUERY, DomSelectorHintService::toCandidate,
+                USER_AGENT, timeoutMs, freshMs, cacheSize);
+        AtomicInteger seq = new AtomicInteger();
+        this.fetchPool = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "dom-hint-fetch-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
 
     public List<SelectorHint> suggest(String url, List<String> keywords, int limit) {
-        if (!StringUtils.hasText(url) || keywords == null || keywords.isEmpty()) {
+        if (!StringUtils.hasText(url)) {
             return List.of();
         }
-        String normalizedUrl = normalize(url);
-        if (normalizedUrl == null) {
+        return suggestAll(List.of(url), keywords, limit);
+    }
+
+    /** Fetches every URL of the prompt in parallel and ranks the merged candidates. */
+    public List<SelectorHint> suggestFromPrompt(String prompt, List<String> keywords, int limit) {
+        return suggestAll(PromptAnalysisUtils.extractUrls(prompt), keywords, limit);
+    }
+
+    public List<SelectorHint> suggestAll(List<String> urls, List<String> keywords, int limit) {
+        if (urls == null || urls.isEmpty() || keywords == null || keywords.isEmpty()) {
             return List.of();
         }
-        try {
-            Document doc = Jsoup.connect(normalizedUrl)
-                    .userAgent(USER_AGENT)
-                    .timeout((int) Duration.ofSeconds(10).toMillis())
-                    .get();
-            Elements candidates = doc.select("input, textarea, select, button, a, [role=button], [role=search]");
-            List<SelectorHint> scored = new ArrayList<>();
-            for (Element el : candidates) {
-                if (isSkippable(el)) {
-                    continue;
-                }
-                SelectorHint hint = buildHint(el, keywords);
+        Map<String, CompletableFuture<List<Candidate>>> pending = new LinkedHashMap<>();
+        for (String url : urls) {
+            String normalizedUrl = StringUtils.hasText(url) ? normalize(url) : null;
+            if (normalizedUrl != null) {
+                pending.computeIfAbsent(normalizedUrl, u -> fetcher.fetchAsync(u, fetchPool));
+            }
+        }
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords, 0);
+        Map<String, SelectorHint> best = new LinkedHashMap<>();
+        long deadline = System.currentTimeMillis() + timeoutMs + 2_000L;
+        boolean catalogChanged = false;
+        for (Map.Entry<String, CompletableFuture<List<Candidate>>> entry : pending.entrySet()) {
+            List<Candidate> candidates;
+            try {
+                long remaining = Math.max(1, deadline - System.currentTimeMillis());
+                candidates = entry.getValue().get(remaining, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.debug("Selector hint fetch failed for {}: {}", entry.getKey(), e.getMessage());
+                continue;
+            }
+            catalogChanged |= catalog.recordPage(entry.getKey(), "static", candidates.stream()
+                    .filter(c -> StringUtils.hasText(c.selector()))
+                    .map(c -> new ElementCatalog.Entry(c.selector(), c.tag(), c.attributes(), null))
+                    .toList(), true);
+            for (Candidate candidate : candidates) {
+                SelectorHint hint = buildHint(candidate, matcher);
                 if (hint != null && hint.score() > 0.15) {
-                    scored.add(hint);
+                    best.merge(hint.selector(), hint, (a, b) -> a.score() >= b.score() ? a : b);
                 }
             }
-            return scored.stream()
-                    .sorted(Comparator.comparingDouble(SelectorHint::score).reversed())
-                    .limit(limit)
-                    .collect(Collectors.toList());
-        } catch (Exception e) {
-            log.debug("Selector hint fetch failed for {}: {}", url, e.getMessage());
-            return List.of();
         }
+        if (catalogChanged) {
+            catalog.persist();
+        }
+        return best.values().stream()
+                .sorted(Comparator.comparingDouble(SelectorHint::score).reversed())
+                .limit(limit)
+                .collect(Collectors.toList());
+    }
+
+    public void invalidate(String url) {
+        String normalizedUrl = StringUtils.hasText(url) ? normalize(url) : null;
+        if (normalizedUrl != null) {
+            fetcher.invalidate(normalizedUrl);
+        }
+    }
+
+    /** Runs on the streaming parser thread for every candidate element as soon as it is closed. */
+    private static Candidate toCandidate(Element el) {
+        if (isSkippable(el)) {
+            return null;
+        }
+        return new Candidate(el.tagName(), extractAttributes(el), buildCssSelector(el));
     }
 
     private static boolean isSkippable(Element el) {
@@ -73,41 +139,22 @@ public class DomSelectorHintService {
         return "hidden".equalsIgnoreCase(type) || el.hasAttr("hidden") || el.attr("style").contains("display:none");
     }
 
-    private static SelectorHint buildHint(Element el, List<String> keywords) {
-        Map<String, String> attributes = extractAttributes(el);
-        String haystack = (el.tagName() + " " + String.join(" ", attributes.values()))
-                .toLowerCase(Locale.ROOT);
-        double score = 0.0;
-        for (String keyword : keywords) {
-            if (!StringUtils.hasText(keyword)) {
-                continue;
-            }
-            String kw = keyword.toLowerCase(Locale.ROOT);
-            if (haystack.contains(kw)) {
-                score += 1.0;
-            } else {
-                for (String token : kw.split("\\s+")) {
-                    if (haystack.contains(token)) {
-                        score += 0.3;
-                    }
-                }
-            }
-        }
-        if (!StringUtils.hasText(attributes.get("selector"))) {
-            attributes.put("selector", buildCssSelector(el));
-        }
-        if (!StringUtils.hasText(attributes.get("selector"))) {
+    private static SelectorHint buildHint(Candidate candidate, KeywordMatcher matcher) {
+        if (!StringUtils.hasText(candidate.selector())) {
             return null;
         }
+        double score = matcher.score(candidate.tag(), candidate.attributes().values());
+        Map<String, String> attributes = new LinkedHashMap<>(candidate.attributes());
+        attributes.put("selector", candidate.selector());
         // Bonus for strong selectors
-        if (attributes.get("selector").startsWith("#")) {
+        if (candidate.selector().startsWith("#")) {
             score += 0.4;
-        } else if (attributes.get("selector").contains("[name=")) {
+        } else if (candidate.selector().contains("[name=")) {
             score += 0.2;
         }
         return new SelectorHint(
-                attributes.get("selector"),
-                el.tagName(),
+                candidate.selector(),
+                candidate.tag(),
                 score,
                 attributes
         );
@@ -183,6 +230,10 @@ public class DomSelectorHintService {
         }
     }
 
+    /** Per-element snapshot kept in the fetch cache; keyword scoring happens per request. */
+    record Candidate(String tag, Map<String, String> attributes, String selector) {
+    }
+
     public record SelectorHint(String selector,
                                String tag,
                                double score,
@@ -0,0 +1,414 @@
+package com.example.mcp.client.assist;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Cross-page element catalog. Every element seen by live sensing or static DOM hints is stored per
+ * page (origin + path) and source, and indexed with BM25 over its attribute text, so keyword queries
+ * are answered from memory without a browser.
+ * <p>
+ * Pages carry a structural fingerprint (tag + selector of every element). A complete snapshot with
+ * the same fingerprint only refreshes the timestamp; a changed fingerprint replaces exactly that
+ * page's postings. Partial results (live sensing, which is capped) are merged by selector instead.
+ * The element records are persisted as JSON and the inverted index is rebuilt on load.
+ */
+@Service
+public class ElementCatalog {
+
+    private static final Logger log = LoggerFactory.getLogger(ElementCatalog.class);
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final List<String> INDEXED_ATTRS =
+            List.of("id", "name", "type", "placeholder", "aria-label", "data-testid", "value", "text");
+
+    /** One catalogued element; {@code rect} is null for static (jsoup) entries. */
+    public record Entry(String selector, String tag, Map<String, String> attributes, Map<String, Object> rect) {
+    }
+
+    /** Page snapshot from one source ("runtime" | "static"). */
+    public record PageRecord(String page, String source, String fingerprint, long updatedAt, List<Entry> entries) {
+    }
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path file;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // page|source -> record
+    private final Map<String, PageRecord> pages = new LinkedHashMap<>();
+    // docId -> indexed element
+    private final Map<Integer, Doc> docs = new HashMap<>();
+    // term -> (docId -> tf)
+    private final Map<String, Map<Integer, Integer>> postings = new HashMap<>();
+    private final Map<String, List<Integer>> docsByPage = new HashMap<>();
+    private int nextDocId;
+    private long totalLength;
+
+    private record Doc(String pageKey, String page, String source, Entry entry, Map<String, Integer> terms, int length) {
+    }
+
+    public ElementCatalog(@Value("${mcp.catalog.file:}") String file) {
+        this.file = StringUtils.hasText(file) ? Paths.get(file) : null;
+        load();
+    }
+
+    /**
+     * Records the elements of one page.
+     *
+     * @param complete true when {@code entries} is the whole candidate set of the page (static fetch);
+     *                 false for live sensing, which is capped by its limit, and results are merged
+     * @return true when the index changed
+     */
+    public boolean recordPage(String url, String source, List<Entry> entries, boolean complete) {
+        String page = pageKey(url);
+        if (page == null || entries == null || entries.isEmpty()) {
+            return false;
+        }
+        String key = page + "|" + source;
+        lock.writeLock().lock();
+        try {
+            PageRecord existing = pages.get(key);
+            List<Entry> merged = entries;
+            if (!complete && existing != null) {
+                Map<String, Entry> bySelector = new LinkedHashMap<>();
+                existing.entries().forEach(e -> bySelector.put(e.selector(), e));
+                entries.forEach(e -> bySelector.put(e.selector(), e));
+                merged = new ArrayList<>(bySelector.values());
+            }
+            String fingerprint = fingerprint(merged);
+            long now = System.currentTimeMillis();
+            if (existing != null && existing.fingerprint().equals(fingerprint)) {
+                pages.put(key, new PageRecord(page, source, fingerprint, now, existing.entries()));
+                return false;
+            }
+            removeDocs(key);
+            PageRecord record = new PageRecord(page, source, fingerprint, now, List.copyOf(merged));
+            pages.put(key, record);
+            indexRecord(key, record);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 search. With a URL the search is scoped to that page (all sources), otherwise it spans
+     * the whole catalog. Runtime entries win over static ones with the same selector.
+     */
+    public List<Map<String, Object>> query(String url, List<String> keywords, int limit) {
+        List<String> queryTerms = new ArrayList<>();
+        if (keywords != null) {
+            keywords.forEach(k -> tokenize(k, queryTerms));
+        }
+        if (queryTerms.isEmpty() || limit <= 0) {
+            return List.of();
+        }
+        String scope = StringUtils.hasText(url) ? pageKey(url) : null;
+        lock.readLock().lock();
+        try {
+            if (docs.isEmpty()) {
+                return List.of();
+            }
+            double avgLen = (double) totalLength / docs.size();
+            Map<Integer, Double> scores = new HashMap<>();
+            for (String term : new TreeSet<>(queryTerms)) {
+                Map<Integer, Integer> posting = postings.get(term);
+                if (posting == null) {
+                    continue;
+                }
+                double idf = Math.log(1 + (docs.size() - posting.size() + 0.5) / (posting.size() + 0.5));
+                for (Map.Entry<Integer, Integer> p : posting.entrySet()) {
+                    Doc doc = docs.get(p.getKey());
+                    if (scope != null && !scope.equals(doc.page())) {
+                        continue;
+                    }
+                    int tf = p.getValue();
+                    double norm = tf * (K1 + 1) / (tf + K1 * (1 - B + B * doc.length() / avgLen));
+                    scores.merge(p.getKey(), idf * norm, Double::sum);
+                }
+            }
+            PriorityQueue<Map.Entry<Integer, Double>> top =
+                    new PriorityQueue<>(Map.Entry.comparingByValue());
+            for (Map.Entry<Integer, Double> e : scores.entrySet()) {
+                top.offer(e);
+                if (top.size() > limit * 2) {
+                    top.poll();
+                }
+            }
+            List<Map.Entry<Integer, Double>> ranked = new ArrayList<>(top);
+            ranked.sort(Map.Entry.<Integer, Double>comparingByValue().reversed()
+                    .thenComparing(e -> "runtime".equals(docs.get(e.getKey()).source()) ? 0 : 1));
+            Map<String, Map<String, Object>> out = new LinkedHashMap<>();
+            for (Map.Entry<Integer, Double> e : ranked) {
+                Doc doc = docs.get(e.getKey());
+                String dedupe = doc.page() + "|" + doc.entry().selector();
+                if (out.containsKey(dedupe)) {
+                    continue;
+                }
+                out.put(dedupe, toHint(doc, e.getValue()));
+                if (out.size() >= limit) {
+                    break;
+                }
+            }
+            return new ArrayList<>(out.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public boolean hasPage(String url) {
+        String page = pageKey(url);
+        lock.readLock().lock();
+        try {
+            return page != null && (pages.containsKey(page + "|runtime") || pages.containsKey(page + "|static"));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("pages", pages.size());
+            stats.put("elements", docs.size());
+            stats.put("terms", postings.size());
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Adapts a server {@code sense_elements} hint (selector/tag/attributes/rect map). */
+    @SuppressWarnings("unchecked")
+    public static Entry fromSensedHint(Map<String, Object> hint) {
+        Object selector = hint.get("selector");
+        if (!(selector instanceof String s) || s.isBlank()) {
+            return null;
+        }
+        Map<String, String> attrs = new LinkedHashMap<>();
+        if (hint.get("attributes") instanceof Map<?, ?> raw) {
+            raw.forEach((k, v) -> {
+                if (v != null) {
+                    attrs.put(String.valueOf(k), String.valueOf(v));
+                }
+            });
+        }
+        Map<String, Object> rect = hint.get("rect") instanceof Map<?, ?> r ? (Map<String, Object>) r : null;
+        return new Entry(s, String.valueOf(hint.getOrDefault("tag", "")), attrs, rect);
+    }
+
+    public void persist() {
+        if (file == null) {
+            return;
+        }
+        List<PageRecord> snapshot;
+        lock.readLock().lock();
+        try {
+            snapshot = new ArrayList<>(pages.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+        synchronized (this) {
+            try {
+                Path parent = file.toAbsolutePath().getParent();
+                if (parent != null) {
+                    Files.createDirectories(parent);
+                }
+                Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+                mapper.writeValue(tmp.toFile(), snapshot);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                log.warn("element catalog not persisted: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void load() {
+        if (file == null || !Files.isRegularFile(file)) {
+            return;
+        }
+        try {
+            List<PageRecord> stored = mapper.readValue(file.toFile(), new TypeReference<>() {
+            });
+            lock.writeLock().lock();
+            try {
+                for (PageRecord record : stored) {
+                    if (record == null || record.entries() == null) {
+                        continue;
+                    }
+                    String key = record.page() + "|" + record.source();
+                    pages.put(key, record);
+                    indexRecord(key, record);
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+            log.info("Element catalog loaded: {} pages, {} elements", pages.size(), docs.size());
+        } catch (IOException e) {
+            log.warn("element catalog at {} unreadable, starting empty: {}", file, e.getMessage());
+        }
+    }
+
+    private void indexRecord(String key, PageRecord record) {
+        List<Integer> ids = new ArrayList<>(record.entries().size());
+        for (Entry entry : record.entries()) {
+            List<String> tokens = new ArrayList<>();
+            tokenize(entry.tag(), tokens);
+            for (String attr : INDEXED_ATTRS) {
+                tokenize(entry.attributes().get(attr), tokens);
+            }
+            Map<String, Integer> tf = new HashMap<>();
+            tokens.forEach(t -> tf.merge(t, 1, Integer::sum));
+            int id = nextDocId++;
+            docs.put(id, new Doc(key, record.page(), record.source(), entry, tf, tokens.size()));
+            tf.forEach((term, count) -> postings.computeIfAbsent(term, t -> new HashMap<>()).put(id, count));
+            totalLength += tokens.size();
+            ids.add(id);
+        }
+        docsByPage.put(key, ids);
+    }
+
+    private void removeDocs(String key) {
+        List<Integer> ids = docsByPage.remove(key);
+        if (ids == null) {
+            return;
+        }
+        for (Integer id : ids) {
+            Doc doc = docs.remove(id);
+            if (doc == null) {
+                continue;
+            }
+            totalLength -= doc.length();
+            for (String term : doc.terms().keySet()) {
+                Map<Integer, Integer> posting = postings.get(term);
+                if (posting != null) {
+                    posting.remove(id);
+                    if (posting.isEmpty()) {
+                        postings.remove(term);
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<String, Object> toHint(Doc doc, double score) {
+        Entry entry = doc.entry();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("selector", entry.selector());
+        map.put("tag", entry.tag());
+        map.put("score", Math.round(score * 1000) / 1000.0);
+        map.put("attributes", new LinkedHashMap<>(entry.attributes()));
+        if (entry.rect() != null) {
+            map.put("rect", new LinkedHashMap<>(entry.rect()));
+        }
+        map.put("page", doc.page());
+        map.put("source", "catalog:" + doc.source());
+        return map;
+    }
+
+    /**
+     * Lower-cases and splits on anything that is not a letter or digit ("login-email" → login,
+     * email). Han runs are emitted as bigrams so Chinese labels match without a segmenter.
+     */
+    static void tokenize(String text, List<String> out) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        String lower = text.toLowerCase(Locale.ROOT);
+        StringBuilder word = new StringBuilder();
+        StringBuilder han = new StringBuilder();
+        for (int i = 0; i <= lower.length(); i++) {
+            char c = i < lower.length() ? lower.charAt(i) : ' ';
+            boolean isHan = Character.UnicodeScript.of(c) == Character.UnicodeScript.HAN;
+            if (isHan) {
+                flushWord(word, out);
+                han.append(c);
+            } else if (Character.isLetterOrDigit(c)) {
+                flushHan(han, out);
+                word.append(c);
+            } else {
+                flushWord(word, out);
+                flushHan(han, out);
+            }
+        }
+    }
+
+    private static void flushWord(StringBuilder word, List<String> out) {
+        if (word.length() > 0) {
+            out.add(word.toString());
+            word.setLength(0);
+        }
+    }
+
+    private static void flushHan(StringBuilder han, List<String> out) {
+        if (han.length() == 1) {
+            out.add(han.toString());
+        } else {
+            for (int i = 0; i + 1 < han.length(); i++) {
+                out.add(han.substring(i, i + 2));
+            }
+        }
+        han.setLength(0);
+    }
+
+    private static String fingerprint(List<Entry> entries) {
+        TreeSet<String> structure = new TreeSet<>();
+        for (Entry e : entries) {
+            structure.add(e.tag() + " " + e.selector());
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (String s : structure) {
+                md.update(s.getBytes(StandardCharsets.UTF_8));
+                md.update((byte) '\n');
+            }
+            return HexFormat.of().formatHex(md.digest(), 0, 12);
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(structure.hashCode());
+        }
+    }
+
+    /** origin + path, query and fragment stripped; null when the URL is not absolute. */
+    static String pageKey(String url) {
+        if (!StringUtils.hasText(url)) {
+            return null;
+        }
+        try {
+            URI uri = URI.create(url.trim());
+            if (uri.getScheme() == null || uri.getHost() == null) {
+                return null;
+            }
+            String path = uri.getPath() == null || uri.getPath().isEmpty() ? "/" : uri.getPath();
+            String port = uri.getPort() < 0 ? "" : ":" + uri.getPort();
+            return uri.getScheme().toLowerCase(Locale.ROOT) + "://" + uri.getHost().toLowerCase(Locale.ROOT) + port + path;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
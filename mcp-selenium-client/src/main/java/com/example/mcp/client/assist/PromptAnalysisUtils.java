@@ -33,6 +33,25 @@ public final class PromptAnalysisUtils {
         return null;
     }
 
+    /** All distinct URLs in order of appearance; bare {@code www.} hosts only when no full URL is present. */
+    public static List<String> extractUrls(String text) {
+        if (!StringUtils.hasText(text)) {
+            return List.of();
+        }
+        Set<String> out = new LinkedHashSet<>();
+        Matcher matcher = URL_PATTERN.matcher(text);
+        while (matcher.find()) {
+            out.add(trimTrailingPunctuation(matcher.group(1)));
+        }
+        if (out.isEmpty()) {
+            matcher = WWW_PATTERN.matcher(text);
+            while (matcher.find()) {
+                out.add("https://" + trimTrailingPunctuation(matcher.group()));
+            }
+        }
+        return new ArrayList<>(out);
+    }
+
     public static List<String> extractKeywords(String text) {
         if (!StringUtils.hasText(text)) {
             return List.of();
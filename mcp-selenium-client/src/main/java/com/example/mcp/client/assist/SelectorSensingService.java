@@ -1,14 +1,27 @@
 package com.example.mcp.client.assist;
 
 import com.example.mcp.client.transport.InvokerFactory;
-import com.example.mcp.client.transport.StdioInvoker;
+import com.example.mcp.client.transport.StepResult;
+import com.example.mcp.client.transport.TransportInvoker;
+import com.example.mcp.common.KeywordMatcher;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,35 +31,78 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Uses the running MCP Selenium server to gather live selector hints. Results are cached per URL
- * so repeated prompts for the same page avoid re-opening a sensing browser session.
+ * so repeated prompts for the same page avoid re-opening a sensing browser session. The cache is
+ * persisted to {@code mcp.sensing.cache-file} and warmed in the background by {@link SensingCrawler};
+ * cached hints are re-ranked locally against the prompt keywords. Every sensed element is also
+ * recorded in the {@link ElementCatalog}, which answers pages missing from this cache without a browser.
  */
 @Service
 public class SelectorSensingService {
 
     private static final Logger log = LoggerFactory.getLogger(SelectorSensingService.class);
+    private static final int RECENT_URL_LIMIT = 32;
 
-    private final StdioInvoker stdioInvoker;
-    private final Map<String, List<Map<String, Object>>> cache = new ConcurrentHashMap<>();
+    private final TransportInvoker invoker;
+    private final ElementCatalog catalog;
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final Deque<String> recentUrls = new ArrayDeque<>();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Path cacheFile;
 
-    public SelectorSensingService(InvokerFactory factory) {
-        var invoker = factory.get();
-        this.stdioInvoker = invoker instanceof StdioInvoker si ? si : null;
+    /**
+     * sensedAt is epoch millis; hints keep the server's raw sense_elements shape. keywords are the ones
+     * the page was sensed with (empty for crawler snapshots); sensing is capped by {@code limit}, so the
+     * hints only answer lookups whose keywords they were sensed for.
+     */
+    public record CacheEntry(long sensedAt, List<Map<String, Object>> hints, List<String> keywords) {
+
+        boolean covers(List<String> wanted) {
+            List<String> sensedFor = keywords == null ? List.of() : keywords;
+            return wanted == null || wanted.stream().filter(StringUtils::hasText).map(String::trim)
+                    .allMatch(sensedFor::contains);
+        }
+    }
+
+    public SelectorSensingService(InvokerFactory factory,
+                                  ElementCatalog catalog,
+                                  @Value("${mcp.sensing.cache-file:}") String cacheFile) {
+        this.invoker = factory.get();
+        this.catalog = catalog;
+        this.cacheFile = StringUtils.hasText(cacheFile) ? Paths.get(cacheFile) : null;
+        load();
     }
 
     public List<Map<String, Object>> sense(String url, List<String> keywords, int limit) {
-        if (stdioInvoker == null) {
-            return List.of();
-        }
         if (!StringUtils.hasText(url)) {
             return List.of();
         }
         String cacheKey = normalizeUrl(url);
-        List<Map<String, Object>> cached = cache.get(cacheKey);
-        if (cached != null && !cached.isEmpty()) {
+        CacheEntry cached = cache.get(cacheKey);
+        if (cached != null && !cached.hints().isEmpty() && cached.covers(keywords)) {
             log.debug("selector sensing cache hit for {}", cacheKey);
-            return deepCopy(cached);
+            return rank(cached.hints(), keywords, limit);
         }
+        if (catalog.hasPage(cacheKey)) {
+            List<Map<String, Object>> indexed = catalog.query(cacheKey, keywords, limit);
+            // static (jsoup) hits have no rect: visibility and layout are unknown, so sense live instead
+            if (!indexed.isEmpty() && indexed.stream().allMatch(hit -> hit.get("rect") != null)) {
+                log.debug("selector sensing answered from element catalog for {}", cacheKey);
+                return indexed;
+            }
+        }
+        List<Map<String, Object>> sensed = senseWith(invoker, cacheKey, keywords, limit);
+        if (!sensed.isEmpty()) {
+            persist();
+        }
+        return sensed;
+    }
 
+    /**
+     * Runs one sensing session on the given invoker (the crawler passes its own low-priority
+     * process) and stores the result in the shared cache.
+     */
+    public List<Map<String, Object>> senseWith(TransportInvoker invoker, String url, List<String> keywords, int limit) {
+        String cacheKey = normalizeUrl(url);
         List<String> compactKeywords = Optional.ofNullable(keywords)
                 .orElse(List.of())
                 .stream()
@@ -84,22 +140,18 @@ public class SelectorSensingService {
         actions.add(quit);
 
         try {
-            List<Map<String, Object>> steps = stdioInvoker.executeStepwise(actions, true, UUID.randomUUID().toString());
+            List<Map<String, Object>> steps = invoker.executeStepwise(actions, true, UUID.randomUUID().toString());
             for (Map<String, Object> step : steps) {
-                Object results = step.get("data");
-                if (results instanceof Map<?, ?> map) {
-                    Object inner = map.get("results");
-                    if (inner instanceof Map<?, ?> innerMap) {
-                        Object hints = innerMap.get("sense_elements");
-                        if (hints instanceof List<?> list) {
-                            @SuppressWarnings("unchecked")
-                            List<Map<String, Object>> cast = (List<Map<String, Object>>) (List<?>) list;
-                            List<Map<String, Object>> snapshot = deepCopy(cast);
-                            if (!snapshot.isEmpty()) {
-                                cache.put(cacheKey, snapshot);
-                            }
-                            return deepCopy(snapshot);
+                for (StepResult result : StepResult.listOf(step)) {
+                    if (result.ok() && "sense_elements".equals(result.type()) && result.value() instanceof List<?> list) {
+                        @SuppressWarnings("unchecked")
+                        List<Map<String, Object>> cast = (List<Map<String, Object>>) (List<?>) list;
+                        List<Map<String, Object>> snapshot = deepCopy(cast);
+                        if (!snapshot.isEmpty()) {
+                            cache.put(cacheKey, new CacheEntry(System.currentTimeMillis(), snapshot, compactKeywords));
+                            record(cacheKey, snapshot);
                         }
+                        return deepCopy(snapshot);
                     }
                 }
             }
@@ -113,20 +165,132 @@ public class SelectorSensingService {
         if (!StringUtils.hasText(prompt)) {
             return List.of();
         }
+        rememberPrompt(prompt);
         String url = PromptAnalysisUtils.extractPrimaryUrl(prompt);
         List<String> keywords = PromptAnalysisUtils.extractKeywords(prompt);
         return sense(url, keywords, 8);
     }
 
+    /** Records the URLs of a prompt so the background crawler can pre-sense them. */
+    public void rememberPrompt(String prompt) {
+        List<String> urls = PromptAnalysisUtils.extractUrls(prompt);
+        if (urls.isEmpty()) {
+            return;
+        }
+        synchronized (recentUrls) {
+            for (String url : urls) {
+                String key = normalizeUrl(url);
+                recentUrls.remove(key);
+                recentUrls.addFirst(key);
+            }
+            while (recentUrls.size() > RECENT_URL_LIMIT) {
+                recentUrls.removeLast();
+            }
+        }
+    }
+
+    public List<String> recentUrls() {
+        synchronized (recentUrls) {
+            return new ArrayList<>(recentUrls);
+        }
+    }
+
+    /** True when {@code url} was sensed less than {@code maxAgeMs} ago. */
+    public boolean isFresh(String url, long maxAgeMs) {
+        CacheEntry entry = StringUtils.hasText(url) ? cache.get(normalizeUrl(url)) : null;
+        return entry != null && System.currentTimeMillis() - entry.sensedAt() < maxAgeMs;
+    }
+
     public void invalidate(String url) {
         if (!StringUtils.hasText(url)) {
             return;
         }
         cache.remove(normalizeUrl(url));
+        persist();
     }
 
     public void clearCache() {
         cache.clear();
+        persist();
+    }
+
+    /** Writes the cache atomically (temp file + move); failures only cost the warm start. */
+    public synchronized void persist() {
+        catalog.persist();
+        if (cacheFile == null) {
+            return;
+        }
+        try {
+            Path parent = cacheFile.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            Path tmp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+            mapper.writeValue(tmp.toFile(), new LinkedHashMap<>(cache));
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("selector sensing cache not persisted: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Sensing is capped by {@code limit} even without keywords, so a result is never the page's whole
+     * candidate set: it is merged into the catalog rather than replacing the page.
+     */
+    private void record(String url, List<Map<String, Object>> hints) {
+        List<ElementCatalog.Entry> entries = new ArrayList<>(hints.size());
+        for (Map<String, Object> hint : hints) {
+            ElementCatalog.Entry entry = ElementCatalog.fromSensedHint(hint);
+            if (entry != null) {
+                entries.add(entry);
+            }
+        }
+        catalog.recordPage(url, "runtime", entries, false);
+    }
+
+    private void load() {
+        if (cacheFile == null || !Files.isRegularFile(cacheFile)) {
+            return;
+        }
+        try {
+            Map<String, CacheEntry> stored = mapper.readValue(cacheFile.toFile(), new TypeReference<>() {
+            });
+            stored.forEach((url, entry) -> {
+                if (entry != null && entry.hints() != null && !entry.hints().isEmpty()) {
+                    cache.put(url, entry);
+                }
+            });
+            log.info("Loaded {} sensed pages from {}", cache.size(), cacheFile);
+        } catch (IOException e) {
+            log.warn("selector sensing cache at {} unreadable, starting cold: {}", cacheFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Cached hints were sensed with whatever keywords the first caller (or the crawler) had, so
+     * re-order them for the current keywords before trimming to {@code limit}.
+     */
+    private List<Map<String, Object>> rank(List<Map<String, Object>> hints, List<String> keywords, int limit) {
+        List<Map<String, Object>> copy = deepCopy(hints);
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords, 2);
+        if (!matcher.isEmpty()) {
+            Map<Map<String, Object>, Double> relevance = new IdentityHashMap<>();
+            for (Map<String, Object> hint : copy) {
+                Object attrs = hint.get("attributes");
+                List<String> values = new ArrayList<>();
+                if (attrs instanceof Map<?, ?> attrMap) {
+                    attrMap.values().forEach(v -> values.add(String.valueOf(v)));
+                }
+                relevance.put(hint, matcher.score(String.valueOf(hint.get("tag")), values));
+            }
+            copy.sort(Comparator.<Map<String, Object>>comparingDouble(relevance::get).reversed()
+                    .thenComparing(Comparator.comparingDouble(SelectorSensingService::scoreOf).reversed()));
+        }
+        return copy.size() > limit ? new ArrayList<>(copy.subList(0, limit)) : copy;
+    }
+
+    private static double scoreOf(Map<String, Object> hint) {
+        return hint.get("score") instanceof Number n ? n.doubleValue() : 0.0;
     }
 
     private List<Map<String, Object>> deepCopy(List<Map<String, Object>> original) {
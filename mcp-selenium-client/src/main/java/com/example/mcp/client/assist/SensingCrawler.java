@@ -0,0 +1,198 @@
+package com.example.mcp.client.assist;
+
+import com.example.mcp.client.stdio.StdioServerProcess;
+import com.example.mcp.client.transport.InvokerFactory;
+import com.example.mcp.client.transport.StdioInvoker;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background pre-sensing: periodically senses pages users are likely to prompt about so
+ * {@link SelectorSensingService#sense} answers from a warm (and persisted) cache.
+ * <p>
+ * Sources per round: configured seeds, the built-in demo pages served by {@code WebPage}, and URLs
+ * from recent prompts. Same-origin links are followed breadth-first up to {@code max-depth} and
+ * {@code max-pages}. Sensing runs on a dedicated STDIO server process started with {@code nice},
+ * so the crawler never shares a browser with interactive sessions.
+ * <p>
+ * Off by default: it costs an extra server process and browser. Its keyword-less snapshots are capped at
+ * {@value #SENSE_LIMIT} elements, so they only answer keyword-less lookups; prompts with keywords still
+ * sense live.
+ */
+@Component
+public class SensingCrawler implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SensingCrawler.class);
+    private static final int SENSE_LIMIT = 20;
+
+    private final SelectorSensingService sensingService;
+    private final StdioServerProcess crawlerProcess;
+    private final StdioInvoker crawlerInvoker;
+    private final boolean enabled;
+    private final List<String> seeds;
+    private final boolean includeDemo;
+    private final int serverPort;
+    private final long intervalMs;
+    private final long refreshMs;
+    private final int maxPages;
+    private final int maxDepth;
+    private final ScheduledExecutorService scheduler;
+
+    public SensingCrawler(SelectorSensingService sensingService,
+                          InvokerFactory factory,
+                          StdioServerProcess stdio,
+                          Environment env,
+                          @Value("${mcp.sensing.crawler.enabled:false}") boolean enabled,
+                          @Value("${mcp.sensing.crawler.include-demo:false}") boolean includeDemo,
+                          @Value("${server.port:8080}") int serverPort,
+                          @Value("${mcp.sensing.crawler.interval-ms:600000}") long intervalMs,
+                          @Value("${mcp.sensing.crawler.refresh-ms:3600000}") long refreshMs,
+                          @Value("${mcp.sensing.crawler.max-pages:20}") int maxPages,
+                          @Value("${mcp.sensing.crawler.max-depth:1}") int maxDepth) {
+        this.sensingService = sensingService;
+        // 仅 STDIO 传输下可感知；HTTP 模式下 crawler 不工作
+        this.enabled = enabled && factory.get() instanceof StdioInvoker;
+        this.crawlerProcess = this.enabled ? stdio.derive("crawler", true) : null;
+        this.crawlerInvoker = this.enabled ? new StdioInvoker(crawlerProcess) : null;
+        this.seeds = Binder.get(env)
+                .bind("mcp.sensing.crawler.seeds", Bindable.listOf(String.class))
+                .orElseGet(List::of)
+                .stream()
+                .filter(StringUtils::hasText)
+                .map(String::trim)
+                .toList();
+        this.includeDemo = includeDemo;
+        this.serverPort = serverPort;
+        this.intervalMs = Math.max(10_000L, intervalMs);
+        this.refreshMs = refreshMs;
+        this.maxPages = Math.max(1, maxPages);
+        this.maxDepth = Math.max(0, maxDepth);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mcp-sensing-crawler");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        log.info("Sensing crawler scheduled every {}ms (seeds={}, demo={})", intervalMs, seeds.size(), includeDemo);
+        // 给交互请求留出启动窗口，首轮稍后执行
+        scheduler.scheduleWithFixedDelay(this::crawlSafely, 15_000L, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void crawlSafely() {
+        try {
+            int sensed = crawlOnce();
+            if (sensed > 0) {
+                sensingService.persist();
+            }
+        } catch (Exception e) {
+            log.warn("Sensing crawler round failed: {}", e.getMessage());
+        }
+    }
+
+    /** One breadth-first round; returns the number of pages actually sensed. */
+    int crawlOnce() {
+        Deque<String[]> queue = new ArrayDeque<>();
+        Set<String> visited = new LinkedHashSet<>();
+        for (String url : roots()) {
+            queue.add(new String[]{url, "0"});
+        }
+        int sensed = 0;
+        while (!queue.isEmpty() && visited.size() < maxPages && !Thread.currentThread().isInterrupted()) {
+            String[] next = queue.poll();
+            String url = next[0];
+            int depth = Integer.parseInt(next[1]);
+            if (!visited.add(url)) {
+                continue;
+            }
+            if (!sensingService.isFresh(url, refreshMs)) {
+                List<?> hints = sensingService.senseWith(crawlerInvoker, url, List.of(), SENSE_LIMIT);
+                if (!hints.isEmpty()) {
+                    sensed++;
+                    log.debug("pre-sensed {} ({} hints)", url, hints.size());
+                }
+            }
+            if (depth < maxDepth) {
+                for (String link : sameOriginLinks(url)) {
+                    if (!visited.contains(link)) {
+                        queue.add(new String[]{link, String.valueOf(depth + 1)});
+                    }
+                }
+            }
+        }
+        return sensed;
+    }
+
+    private List<String> roots() {
+        Set<String> roots = new LinkedHashSet<>(seeds);
+        if (includeDemo) {
+            roots.add("http://localhost:" + serverPort + "/demo/login");
+            roots.add("http://localhost:" + serverPort + "/demo/dashboard");
+        }
+        roots.addAll(sensingService.recentUrls());
+        return new ArrayList<>(roots);
+    }
+
+    /** Static link discovery is far cheaper than asking the browser; dynamic links are simply missed. */
+    private List<String> sameOriginLinks(String url) {
+        try {
+            URI base = URI.create(url);
+            Document doc = Jsoup.connect(url).timeout(5_000).get();
+            Set<String> out = new LinkedHashSet<>();
+            for (Element a : doc.select("a[href]")) {
+                String abs = a.absUrl("href");
+                if (!StringUtils.hasText(abs)) {
+                    continue;
+                }
+                URI link = URI.create(abs.split("#", 2)[0]);
+                if (Objects.equals(base.getScheme(), link.getScheme())
+                        && Objects.equals(base.getHost(), link.getHost())
+                        && base.getPort() == link.getPort()) {
+                    out.add(link.toString());
+                }
+            }
+            return new ArrayList<>(out);
+        } catch (Exception e) {
+            log.debug("link discovery failed for {}: {}", url, e.getMessage());
+            return List.of();
+        }
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        scheduler.shutdownNow();
+        if (crawlerProcess != null) {
+            crawlerProcess.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.mcp.client.assist;
+
+import org.jsoup.Connection;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.StreamParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * HTTP fetch layer for static DOM hints.
+ * <ul>
+ *     <li>Pages are parsed with jsoup's {@link StreamParser}: every element matching {@code query}
+ *     is handed to the extractor as soon as it closes and is then detached, so the full document
+ *     tree is never held in memory.</li>
+ *     <li>The extracted items are kept in a bounded LRU keyed by URL together with the
+ *     {@code ETag}/{@code Last-Modified} validators; entries younger than {@code freshMs} are
+ *     served without any request, older ones are revalidated with a conditional GET and reused on
+ *     {@code 304}.</li>
+ *     <li>Concurrent requests for the same URL share a single in-flight fetch.</li>
+ * </ul>
+ */
+final class StaticPageFetcher<T> {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticPageFetcher.class);
+
+    record Page<T>(List<T> items, String etag, String lastModified, long fetchedAt) {
+        Page<T> touch(long now) {
+            return new Page<>(items, etag, lastModified, now);
+        }
+    }
+
+    private final String query;
+    private final Function<Element, T> extractor;
+    private final String userAgent;
+    private final int timeoutMs;
+    private final long freshMs;
+    private final Map<String, Page<T>> cache;
+    private final Map<String, CompletableFuture<List<T>>> inflight = new ConcurrentHashMap<>();
+
+    StaticPageFetcher(String query, Function<Element, T> extractor, String userAgent,
+                      int timeoutMs, long freshMs, int maxEntries) {
+        this.query = query;
+        this.extractor = extractor;
+        this.userAgent = userAgent;
+        this.timeoutMs = timeoutMs;
+        this.freshMs = freshMs;
+        int bound = Math.max(1, maxEntries);
+        this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Page<T>> eldest) {
+                return size() > bound;
+            }
+        };
+    }
+
+    /**
+     * Concurrent callers for the same URL share one fetch. The shared future is published with
+     * {@code putIfAbsent} before the fetch starts, so its cleanup never runs inside a map operation
+     * (a synchronously completed future would otherwise re-enter the map) and only removes itself.
+     */
+    CompletableFuture<List<T>> fetchAsync(String url, Executor executor) {
+        CompletableFuture<List<T>> created = new CompletableFuture<>();
+        CompletableFuture<List<T>> running = inflight.putIfAbsent(url, created);
+        if (running != null) {
+            return running;
+        }
+        created.whenComplete((r, e) -> inflight.remove(url, created));
+        try {
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return fetch(url);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e.getMessage(), e);
+                }
+            }, executor).whenComplete((r, e) -> {
+                if (e != null) {
+                    created.completeExceptionally(e);
+                } else {
+                    created.complete(r);
+                }
+            });
+        } catch (RuntimeException e) {
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    List<T> fetch(String url) throws IOException {
+        long now = System.currentTimeMillis();
+        Page<T> cached = cached(url);
+        if (cached != null && now - cached.fetchedAt() < freshMs) {
+            log.debug("static hint cache hit for {}", url);
+            return cached.items();
+        }
+        Connection conn = Jsoup.connect(url)
+                .userAgent(userAgent)
+                .timeout(timeoutMs)
+                .followRedirects(true)
+                .ignoreHttpErrors(true);
+        if (cached != null) {
+            if (cached.etag() != null) {
+                conn.header("If-None-Match", cached.etag());
+            }
+            if (cached.lastModified() != null) {
+                conn.header("If-Modified-Since", cached.lastModified());
+            }
+        }
+        Connection.Response resp = conn.execute();
+        int status = resp.statusCode();
+        if (status == 304 && cached != null) {
+            log.debug("static hint revalidated (304) for {}", url);
+            store(url, cached.touch(now));
+            return cached.items();
+        }
+        if (status >= 400) {
+            throw new IOException("HTTP " + status + " for " + url);
+        }
+        List<T> items = new ArrayList<>();
+        try (StreamParser parser = resp.streamParser()) {
+            Element el;
+            while ((el = parser.selectNext(query)) != null) {
+                T item = extractor.apply(el);
+                if (item != null) {
+                    items.add(item);
+                }
+                // already extracted; detach so the partial tree stays small
+                el.remove();
+            }
+        }
+        List<T> snapshot = List.copyOf(items);
+        store(url, new Page<>(snapshot, resp.header("ETag"), resp.header("Last-Modified"), now));
+        return snapshot;
+    }
+
+    void invalidate(String url) {
+        synchronized (cache) {
+            cache.remove(url);
+        }
+    }
+
+    private Page<T> cached(String url) {
+        synchronized (cache) {
+            return cache.get(url);
+        }
+    }
+
+    private void store(String url, Page<T> page) {
+        synchronized (cache) {
+            cache.put(url, page);
+        }
+    }
+}
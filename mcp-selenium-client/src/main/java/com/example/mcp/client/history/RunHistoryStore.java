@@ -0,0 +1,445 @@
+package com.example.mcp.client.history;
+
+import com.example.mcp.client.transport.StepResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 执行历史：每次执行（{@code /api/execute}、套件的每一行）追加一条紧凑记录（{@link RunRecord}：各步耗时、状态、
+ * selector、截图路径）到 {@code mcp.history.dir} 下的段文件，只追加不改写。
+ * <ul>
+ *     <li>活动段写满 {@code segment-bytes} 或写入跨天时封存并开新段；每段在内存中保留小索引
+ *     （偏移、开始时间、是否失败、最慢步骤，按开始时间排序的位置表，最早/最晚开始时间）与用例哈希 → 位置表，
+ *     读记录走只读内存映射。记录在执行结束时追加，开始时间不保证单调，段之间的时间范围也可能重叠</li>
+ *     <li>查询：某用例最近 N 次运行（从最新段倒序走用例表）、时间范围内最慢的步骤（按段时间范围筛段、
+ *     排序位置表二分定位，用每条记录的最慢步骤剪枝）、时间范围内的失败运行</li>
+ *     <li>后台压缩：删除整段超过 {@code retention-days} 的段；相邻的小段（及含过期记录的段）合并为一个
+ *     {@code seg-<first>-<last>.log}，先写临时文件再原子改名，启动时清理被合并段覆盖的残留</li>
+ * </ul>
+ * 写入失败只记日志，不影响执行结果。
+ */
+@Component
+public final class RunHistoryStore implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(RunHistoryStore.class);
+    private static final Pattern SEGMENT = Pattern.compile("seg-(\\d+)-(\\d+)\\.log");
+
+    private final boolean enabled;
+    private final Path dir;
+    private final long segmentBytes;
+    private final long retentionMs;
+    private final Object writeLock = new Object();
+    private final Object compactLock = new Object();
+    private final AtomicLong appended = new AtomicLong();
+    private final AtomicLong compactions = new AtomicLong();
+    private final ScheduledExecutorService compactor;
+    // 按段序号排列（旧 → 新），最后一个为活动段；整体替换，查询取快照
+    private volatile List<Segment> segments = List.of();
+    private long nextId;
+
+    public RunHistoryStore(@Value("${mcp.history.enabled:true}") boolean enabled,
+                           @Value("${mcp.history.dir:history}") String dir,
+                           @Value("${mcp.history.segment-bytes:67108864}") long segmentBytes,
+                           @Value("${mcp.history.retention-days:30}") int retentionDays,
+                           @Value("${mcp.history.compact-interval-ms:600000}") long compactIntervalMs) {
+        this.enabled = enabled;
+        this.dir = Path.of(dir);
+        this.segmentBytes = Math.max(64 * 1024, Math.min(segmentBytes, Integer.MAX_VALUE));
+        this.retentionMs = Duration.ofDays(Math.max(1, retentionDays)).toMillis();
+        if (!enabled) {
+            this.compactor = null;
+            return;
+        }
+        try {
+            load();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot open run history in " + this.dir.toAbsolutePath(), e);
+        }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mcp-history-compact");
+            t.setDaemon(true);
+            return t;
+        });
+        long interval = Math.max(10_000, compactIntervalMs);
+        compactor.scheduleWithFixedDelay(this::compactQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** 打开已有段；被合并段覆盖的残留（压缩中途退出）与临时文件删除 */
+    private void load() throws IOException {
+        Files.createDirectories(dir);
+        List<long[]> ranges = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path f : files) {
+                String name = f.getFileName().toString();
+                Matcher m = SEGMENT.matcher(name);
+                if (m.matches()) {
+                    ranges.add(new long[]{Long.parseLong(m.group(1)), Long.parseLong(m.group(2))});
+                } else if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(f);
+                }
+            }
+        }
+        // 起点升序、区间长的优先：被前一个区间覆盖的即为残留
+        ranges.sort(Comparator.<long[]>comparingLong(r -> r[0]).thenComparing(r -> -r[1]));
+        List<Segment> opened = new ArrayList<>();
+        long coveredTo = -1;
+        for (int i = 0; i < ranges.size(); i++) {
+            long[] r = ranges.get(i);
+            Path file = dir.resolve(Segment.name(r[0], r[1]));
+            if (r[1] <= coveredTo) {
+                log.info("Removing run history segment {} superseded by compaction", file.getFileName());
+                Files.deleteIfExists(file);
+                continue;
+            }
+            coveredTo = r[1];
+            opened.add(Segment.open(r[0], r[1], file, false));
+        }
+        nextId = opened.isEmpty() ? 1 : opened.get(opened.size() - 1).last + 1;
+        opened.add(newSegment());
+        segments = List.copyOf(opened);
+        long runs = opened.stream().mapToLong(Segment::size).sum();
+        log.info("Run history opened: {} segment(s), {} run(s) in {}", opened.size(), runs, dir.toAbsolutePath());
+    }
+
+    private Segment newSegment() throws IOException {
+        long id = nextId++;
+        return Segment.open(id, id, dir.resolve(Segment.name(id, id)), true);
+    }
+
+    /**
+     * 由一次分步执行的结果生成记录并追加。steps 与 actions 一一对应（每个请求一个动作，宏展开为多条结果）。
+     * @return 追加的记录；未启用或写入失败时 null
+     */
+    public RunRecord record(String caseName, String sessionId, List<Map<String, Object>> actions,
+                            List<Map<String, Object>> steps, long startedAt, long durationMs) {
+        if (!enabled) {
+            return null;
+        }
+        List<RunRecord.Step> out = new ArrayList<>();
+        for (int i = 0; i < steps.size(); i++) {
+            Map<String, Object> resp = steps.get(i);
+            Map<String, Object> action = actions != null && i < actions.size() ? actions.get(i) : Map.of();
+            String selector = action.get("selector") == null ? null : String.valueOf(action.get("selector"));
+            List<StepResult> results = StepResult.listOf(resp);
+            if (results.isEmpty()) {
+                boolean ok = StepResult.isOk(resp);
+                out.add(new RunRecord.Step(String.valueOf(action.getOrDefault("type", "unknown")), ok ? "ok" : "error",
+                        0, selector, null, ok ? null : String.valueOf(resp.get("message"))));
+                continue;
+            }
+            for (StepResult r : results) {
+                String screenshot = "screenshot".equals(r.type()) && r.value() instanceof String path ? path : null;
+                out.add(new RunRecord.Step(r.type(), r.status(), r.durationMs() == null ? 0 : r.durationMs().intValue(),
+                        selector, screenshot, r.error()));
+            }
+        }
+        boolean ok = !steps.isEmpty() && steps.stream().allMatch(StepResult::isOk);
+        return save(caseName, sessionId, startedAt, durationMs, ok, out);
+    }
+
+    /**
+     * 没有逐步结果就失败的运行（步骤超时、会话被杀、服务端退出等传输层失败）：记一条 transport 错误步骤，
+     * 失败查询同样能看到。
+     * @return 追加的记录；未启用或写入失败时 null
+     */
+    public RunRecord recordFailure(String caseName, String sessionId, long startedAt, long durationMs, String error) {
+        if (!enabled) {
+            return null;
+        }
+        RunRecord.Step step = new RunRecord.Step("transport", "error", (int) Math.min(Integer.MAX_VALUE, durationMs),
+                null, null, error);
+        return save(caseName, sessionId, startedAt, durationMs, false, List.of(step));
+    }
+
+    private RunRecord save(String caseName, String sessionId, long startedAt, long durationMs, boolean ok,
+                           List<RunRecord.Step> steps) {
+        String name = caseName == null ? "" : caseName;
+        RunRecord run = new RunRecord(UUID.randomUUID().toString(), RunRecord.hash(name), name, sessionId,
+                startedAt, (int) Math.min(Integer.MAX_VALUE, durationMs), ok, steps);
+        try {
+            append(run);
+            return run;
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to append run history: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    void append(RunRecord run) throws IOException {
+        byte[] bytes = run.encode();
+        RunRecord.Header header = RunRecord.readHeader(ByteBuffer.wrap(bytes));
+        synchronized (writeLock) {
+            List<Segment> current = segments;
+            Segment active = current.get(current.size() - 1);
+            // 按写入日期滚动：迟到的运行（开始于前一天）不会每条都开一个新段
+            if (active.size() > 0 && (active.bytes() + bytes.length > segmentBytes
+                    || !day(active.openedAt()).equals(day(System.currentTimeMillis())))) {
+                active.seal();
+                List<Segment> next = new ArrayList<>(current);
+                active = newSegment();
+                next.add(active);
+                segments = List.copyOf(next);
+            }
+            active.append(bytes, header);
+        }
+        appended.incrementAndGet();
+    }
+
+    private static LocalDate day(long epochMs) {
+        return Instant.ofEpochMilli(epochMs).atZone(ZoneId.systemDefault()).toLocalDate();
+    }
+
+    /** 用例最近 limit 次运行，新 → 旧 */
+    public List<Map<String, Object>> caseRuns(long caseHash, int limit, boolean withSteps) throws IOException {
+        List<Map<String, Object>> out = new ArrayList<>();
+        List<Segment> snapshot = segments;
+        for (int i = snapshot.size() - 1; i >= 0 && out.size() < limit; i--) {
+            Segment seg = snapshot.get(i);
+            IOException[] failure = new IOException[1];
+            seg.forCaseDescending(caseHash, pos -> {
+                try {
+                    out.add(seg.read(pos).toMap(withSteps));
+                } catch (IOException e) {
+                    failure[0] = e;
+                    return false;
+                }
+                return out.size() < limit;
+            });
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+        }
+        return out;
+    }
+
+    /** 开始时间在 [from, to) 内的运行中最慢的 limit 个步骤，慢 → 快 */
+    public List<Map<String, Object>> slowestSteps(long from, long to, int limit) throws IOException {
+        record Slow(int durationMs, RunRecord run, RunRecord.Step step) {
+        }
+        PriorityQueue<Slow> top = new PriorityQueue<>(Comparator.comparingInt(Slow::durationMs));
+        for (Segment seg : segments) {
+            if (seg.maxTime() < from || seg.minTime() >= to) {
+                continue;
+            }
+            for (int pos : seg.range(from, to)) {
+                // 整条记录的最慢步骤都进不了前 limit：不解码
+                if (top.size() >= limit && seg.maxStep(pos) <= top.peek().durationMs()) {
+                    continue;
+                }
+                RunRecord run = seg.read(pos);
+                for (RunRecord.Step step : run.steps()) {
+                    if (top.size() < limit) {
+                        top.add(new Slow(step.durationMs(), run, step));
+                    } else if (step.durationMs() > top.peek().durationMs()) {
+                        top.poll();
+                        top.add(new Slow(step.durationMs(), run, step));
+                    }
+                }
+            }
+        }
+        List<Slow> sorted = new ArrayList<>(top);
+        sorted.sort(Comparator.comparingInt(Slow::durationMs).reversed());
+        List<Map<String, Object>> out = new ArrayList<>(sorted.size());
+        for (Slow s : sorted) {
+            Map<String, Object> m = s.step().toMap();
+            m.put("runId", s.run().runId());
+            m.put("caseHash", Long.toHexString(s.run().caseHash()));
+            m.put("case", s.run().caseName());
+            m.put("startedAt", Instant.ofEpochMilli(s.run().startedAt()).toString());
+            out.add(m);
+        }
+        return out;
+    }
+
+    /** 开始时间在 [from, to) 内失败的运行，新 → 旧，最多 limit 条 */
+    public List<Map<String, Object>> failures(long from, long to, int limit) throws IOException {
+        record Hit(Segment seg, int pos, long time) {
+        }
+        // 段的时间范围可能重叠：先只用索引收集，按开始时间排序后再解码前 limit 条
+        List<Hit> hits = new ArrayList<>();
+        for (Segment seg : segments) {
+            if (seg.maxTime() < from || seg.minTime() >= to) {
+                continue;
+            }
+            for (int pos : seg.range(from, to)) {
+                if (seg.failed(pos)) {
+                    hits.add(new Hit(seg, pos, seg.time(pos)));
+                }
+            }
+        }
+        hits.sort(Comparator.comparingLong(Hit::time).reversed());
+        List<Map<String, Object>> out = new ArrayList<>(Math.min(limit, hits.size()));
+        for (Hit hit : hits.subList(0, Math.min(limit, hits.size()))) {
+            out.add(hit.seg().read(hit.pos()).toMap(true));
+        }
+        return out;
+    }
+
+    public Map<String, Object> stats() {
+        List<Segment> snapshot = segments;
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("dir", dir.toAbsolutePath().toString());
+        m.put("segments", snapshot.size());
+        m.put("runs", snapshot.stream().mapToLong(Segment::size).sum());
+        m.put("bytes", snapshot.stream().mapToLong(Segment::bytes).sum());
+        m.put("appended", appended.get());
+        m.put("compactions", compactions.get());
+        m.put("retentionDays", Duration.ofMillis(retentionMs).toDays());
+        return m;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (Exception e) {
+            log.warn("Run history compaction failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 压缩已封存的段：整段过期的删除；相邻的小段（不足 segment-bytes 的 1/4）或含过期记录的段合并重写，
+     * 合并后不超过 segment-bytes。活动段不参与，追加不受影响。
+     */
+    void compact() throws IOException {
+        synchronized (compactLock) {
+            long cutoff = System.currentTimeMillis() - retentionMs;
+            List<Segment> snapshot = segments;
+            List<Segment> sealed = snapshot.subList(0, snapshot.size() - 1);
+            List<Segment> group = new ArrayList<>();
+            long groupBytes = 0;
+            for (Segment seg : sealed) {
+                if (seg.maxTime() < cutoff) {
+                    replace(List.of(seg), null);
+                    continue;
+                }
+                boolean candidate = seg.bytes() < segmentBytes / 4 || seg.minTime() < cutoff;
+                if (!candidate || groupBytes + seg.bytes() > segmentBytes) {
+                    merge(group, cutoff);
+                    group.clear();
+                    groupBytes = 0;
+                }
+                if (candidate) {
+                    group.add(seg);
+                    groupBytes += seg.bytes();
+                }
+            }
+            merge(group, cutoff);
+        }
+    }
+
+    private void merge(List<Segment> group, long cutoff) throws IOException {
+        if (group.isEmpty() || (group.size() == 1 && group.get(0).minTime() >= cutoff)) {
+            return;
+        }
+        long first = group.get(0).first;
+        long last = group.get(group.size() - 1).last;
+        Path target = dir.resolve(Segment.name(first, last));
+        Path tmp = Files.createTempFile(dir, "compact-", ".tmp");
+        long kept = 0;
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                for (Segment seg : group) {
+                    for (int pos = 0; pos < seg.size(); pos++) {
+                        if (seg.time(pos) < cutoff) {
+                            continue;
+                        }
+                        ByteBuffer buf = ByteBuffer.wrap(seg.read(pos).encode());
+                        while (buf.hasRemaining()) {
+                            out.write(buf);
+                        }
+                        kept++;
+                    }
+                }
+                out.force(true);
+            }
+            Segment merged = null;
+            if (kept > 0) {
+                try {
+                    Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+                }
+                merged = Segment.open(first, last, target, false);
+            }
+            replace(group, merged);
+            compactions.incrementAndGet();
+            log.info("Run history compacted segments {}..{} ({} file(s)) into {} run(s)", first, last, group.size(), kept);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /** 用 merged（null = 删除）替换 old 中的段，并删除不再引用的文件 */
+    private void replace(List<Segment> old, Segment merged) throws IOException {
+        synchronized (writeLock) {
+            List<Segment> next = new ArrayList<>(segments.size());
+            boolean inserted = false;
+            for (Segment seg : segments) {
+                if (old.contains(seg)) {
+                    if (merged != null && !inserted) {
+                        next.add(merged);
+                        inserted = true;
+                    }
+                } else {
+                    next.add(seg);
+                }
+            }
+            segments = List.copyOf(next);
+        }
+        for (Segment seg : old) {
+            if (merged == null || !seg.file.equals(merged.file)) {
+                Files.deleteIfExists(seg.file); // 已映射的读取在 Linux 上不受影响
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        List<Segment> snapshot = segments;
+        if (!snapshot.isEmpty()) {
+            try {
+                snapshot.get(snapshot.size() - 1).seal();
+            } catch (IOException e) {
+                log.warn("Failed to flush run history: {}", e.getMessage());
+            }
+        }
+    }
+}
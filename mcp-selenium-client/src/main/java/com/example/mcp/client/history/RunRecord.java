@@ -0,0 +1,224 @@
+package com.example.mcp.client.history;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次执行（一个用例的一次运行）的紧凑记录及其二进制编码。段文件中每条记录为：
+ * <pre>
+ * int  长度（不含自身）
+ * byte 版本
+ * long startedAt   long caseHash   int durationMs   byte ok
+ * str  runId   str caseName   str sessionId
+ * short 步骤数，每步：str type  byte status  int durationMs  str selector  str screenshot  str error
+ * </pre>
+ * str 为 short 长度 + UTF-8 字节，超长截断。索引只需读到头部（{@link #readHeader}），步骤按需解码。
+ */
+public record RunRecord(String runId, long caseHash, String caseName, String sessionId,
+                        long startedAt, int durationMs, boolean ok, List<Step> steps) {
+
+    static final byte VERSION = 1;
+    private static final int MAX_STRING_BYTES = 2048;
+    private static final String[] STATUS = {"ok", "error", "skipped", "other"};
+
+    /** 一步：selector 为动作的定位器，screenshot 为截图文件路径（仅截图步骤） */
+    public record Step(String type, String status, int durationMs, String selector, String screenshot, String error) {
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("type", type);
+            m.put("status", status);
+            m.put("durationMs", durationMs);
+            if (selector != null) {
+                m.put("selector", selector);
+            }
+            if (screenshot != null) {
+                m.put("screenshot", screenshot);
+            }
+            if (error != null) {
+                m.put("error", error);
+            }
+            return m;
+        }
+    }
+
+    /** 索引用的头部字段；maxStepMs 供“最慢步骤”查询剪枝 */
+    record Header(long startedAt, long caseHash, int durationMs, boolean ok, int maxStepMs, int length) {
+    }
+
+    /** 用例名（提示词、计划或显式 case）的 64 位 FNV-1a 哈希 */
+    public static long hash(String caseName) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : caseName.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+
+    byte[] encode() {
+        List<byte[]> strings = new ArrayList<>();
+        int size = 4 + 1 + 8 + 8 + 4 + 1 + 2;
+        for (String s : new String[]{runId, caseName, sessionId}) {
+            size += add(strings, s);
+        }
+        for (Step step : steps) {
+            size += 1 + 4;
+            size += add(strings, step.type());
+            size += add(strings, step.selector());
+            size += add(strings, step.screenshot());
+            size += add(strings, step.error());
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.putInt(size - 4).put(VERSION).putLong(startedAt).putLong(caseHash).putInt(durationMs).put((byte) (ok ? 1 : 0));
+        int next = 0;
+        for (int i = 0; i < 3; i++) {
+            putString(buf, strings.get(next++));
+        }
+        buf.putShort((short) steps.size());
+        for (Step step : steps) {
+            putString(buf, strings.get(next++));
+            buf.put(statusCode(step.status())).putInt(step.durationMs());
+            putString(buf, strings.get(next++));
+            putString(buf, strings.get(next++));
+            putString(buf, strings.get(next++));
+        }
+        return buf.array();
+    }
+
+    /**
+     * 读 position 处记录的头部并跳过步骤（buf 位置移到下一条记录）。
+     * @return null 当剩余字节不足一条完整记录（写入中断的尾部）
+     */
+    static Header readHeader(ByteBuffer buf) {
+        int start = buf.position();
+        if (buf.remaining() < 4) {
+            return null;
+        }
+        int length = buf.getInt();
+        if (length <= 0 || length > buf.remaining() || buf.get() != VERSION) {
+            buf.position(start);
+            return null;
+        }
+        try {
+            long startedAt = buf.getLong();
+            long caseHash = buf.getLong();
+            int durationMs = buf.getInt();
+            boolean ok = buf.get() == 1;
+            for (int i = 0; i < 3; i++) {
+                skipString(buf);
+            }
+            int steps = buf.getShort() & 0xffff;
+            int maxStep = 0;
+            for (int i = 0; i < steps; i++) {
+                skipString(buf);
+                buf.get();
+                maxStep = Math.max(maxStep, buf.getInt());
+                skipString(buf);
+                skipString(buf);
+                skipString(buf);
+            }
+            buf.position(start + 4 + length);
+            return new Header(startedAt, caseHash, durationMs, ok, maxStep, length + 4);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            buf.position(start);
+            return null;
+        }
+    }
+
+    /** 解码 buf 当前位置的完整记录 */
+    static RunRecord decode(ByteBuffer buf) {
+        buf.getInt();
+        buf.get();
+        long startedAt = buf.getLong();
+        long caseHash = buf.getLong();
+        int durationMs = buf.getInt();
+        boolean ok = buf.get() == 1;
+        String runId = getString(buf);
+        String caseName = getString(buf);
+        String sessionId = getString(buf);
+        int count = buf.getShort() & 0xffff;
+        List<Step> steps = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String type = getString(buf);
+            String status = STATUS[Math.min(buf.get(), STATUS.length - 1)];
+            int ms = buf.getInt();
+            steps.add(new Step(type, status, ms, getString(buf), getString(buf), getString(buf)));
+        }
+        return new RunRecord(runId, caseHash, caseName, sessionId, startedAt, durationMs, ok, steps);
+    }
+
+    Map<String, Object> toMap(boolean withSteps) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("runId", runId);
+        m.put("caseHash", Long.toHexString(caseHash));
+        m.put("case", caseName);
+        m.put("sessionId", sessionId);
+        m.put("startedAt", Instant.ofEpochMilli(startedAt).toString());
+        m.put("durationMs", durationMs);
+        m.put("ok", ok);
+        m.put("steps", withSteps ? steps.stream().map(Step::toMap).toList() : steps.size());
+        return m;
+    }
+
+    private static int add(List<byte[]> strings, String s) {
+        byte[] bytes = s == null ? null : truncate(s.getBytes(StandardCharsets.UTF_8));
+        strings.add(bytes);
+        return 2 + (bytes == null ? 0 : bytes.length);
+    }
+
+    /** 按字节截断，不切开多字节字符 */
+    private static byte[] truncate(byte[] bytes) {
+        if (bytes.length <= MAX_STRING_BYTES) {
+            return bytes;
+        }
+        int end = MAX_STRING_BYTES;
+        while (end > 0 && (bytes[end] & 0xc0) == 0x80) {
+            end--;
+        }
+        byte[] out = new byte[end];
+        System.arraycopy(bytes, 0, out, 0, end);
+        return out;
+    }
+
+    /** 长度 -1 表示 null */
+    private static void putString(ByteBuffer buf, byte[] bytes) {
+        if (bytes == null) {
+            buf.putShort((short) -1);
+        } else {
+            buf.putShort((short) bytes.length).put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buf) {
+        short len = buf.getShort();
+        if (len < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[len];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buf) {
+        short len = buf.getShort();
+        if (len > 0) {
+            buf.position(buf.position() + len);
+        }
+    }
+
+    private static byte statusCode(String status) {
+        for (byte i = 0; i < STATUS.length - 1; i++) {
+            if (STATUS[i].equals(status)) {
+                return i;
+            }
+        }
+        return (byte) (STATUS.length - 1);
+    }
+}
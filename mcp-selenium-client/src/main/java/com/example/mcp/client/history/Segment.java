@@ -0,0 +1,236 @@
+package com.example.mcp.client.history;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * 一个段文件 {@code seg-<first>-<last>.log}（first/last 为覆盖的段序号，合并后的段覆盖一个区间）及其内存索引。
+ * <p>
+ * 索引是按追加顺序排列的原始类型数组：偏移、开始时间、最慢步骤耗时、是否失败，外加按开始时间排序的位置表
+ * 与用例哈希 → 位置列表。记录在执行结束时追加而以开始时间为键，并发与并行的运行结束先后不定，
+ * 追加顺序不等于时间顺序，所以时间范围查询走排序位置表，段的时间范围单独记录。
+ * 每条记录约 29 字节，启动时顺序扫描段文件重建（只读头部）。
+ * 读取走只读内存映射；活动段追加后按需重新映射。
+ */
+final class Segment {
+
+    final long first;
+    final long last;
+    final Path file;
+
+    private int size;
+    private int[] offsets = new int[256];
+    private long[] times = new long[256];
+    private int[] maxSteps = new int[256];
+    private boolean[] failed = new boolean[256];
+    private int[] byTime = new int[256];  // 位置，按开始时间升序（同时间按追加顺序）
+    private long minTime = Long.MAX_VALUE;
+    private long maxTime = Long.MIN_VALUE;
+    private final Map<Long, int[]> byCase = new HashMap<>(); // [count, pos...]
+    private long bytes;
+
+    private FileChannel appender;        // 仅活动段
+    private long openedAt;               // 活动段开始写入的时间，按写入日期滚动
+    private volatile Mapping mapping;
+
+    private record Mapping(MappedByteBuffer buf, long bytes) {
+    }
+
+    Segment(long first, long last, Path file) {
+        this.first = first;
+        this.last = last;
+        this.file = file;
+    }
+
+    static String name(long first, long last) {
+        return String.format(Locale.ROOT, "seg-%012d-%012d.log", first, last);
+    }
+
+    /** 打开已有段：扫描建立索引，丢弃写入中断的尾部。writable 时作为活动段继续追加 */
+    static Segment open(long first, long last, Path file, boolean writable) throws IOException {
+        Segment s = new Segment(first, last, file);
+        long valid = 0;
+        if (Files.exists(file) && Files.size(file) > 0) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+                RunRecord.Header h;
+                while ((h = RunRecord.readHeader(buf)) != null) {
+                    s.index((int) valid, h);
+                    valid += h.length();
+                }
+            }
+        }
+        if (writable) {
+            s.appender = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            s.appender.truncate(valid);
+            s.appender.position(valid);
+            s.openedAt = System.currentTimeMillis();
+        }
+        s.bytes = valid;
+        return s;
+    }
+
+    synchronized void append(byte[] record, RunRecord.Header h) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(record);
+        while (buf.hasRemaining()) {
+            appender.write(buf);
+        }
+        index((int) bytes, h);
+        bytes += record.length;
+    }
+
+    private void index(int offset, RunRecord.Header h) {
+        if (size == offsets.length) {
+            int n = size * 2;
+            offsets = Arrays.copyOf(offsets, n);
+            times = Arrays.copyOf(times, n);
+            maxSteps = Arrays.copyOf(maxSteps, n);
+            failed = Arrays.copyOf(failed, n);
+            byTime = Arrays.copyOf(byTime, n);
+        }
+        long t = h.startedAt();
+        offsets[size] = offset;
+        times[size] = t;
+        maxSteps[size] = h.maxStepMs();
+        failed[size] = !h.ok();
+        // 从尾部插入：大多数记录只比前一条稍晚或稍早，移动很少
+        int i = size;
+        while (i > 0 && times[byTime[i - 1]] > t) {
+            byTime[i] = byTime[i - 1];
+            i--;
+        }
+        byTime[i] = size;
+        minTime = Math.min(minTime, t);
+        maxTime = Math.max(maxTime, t);
+        byCase.merge(h.caseHash(), new int[]{1, size}, (list, one) -> {
+            if (list[0] + 1 == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+            }
+            list[++list[0]] = one[1];
+            return list;
+        });
+        size++;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    synchronized long bytes() {
+        return bytes;
+    }
+
+    /** 最早的开始时间；空段为 Long.MAX_VALUE */
+    synchronized long minTime() {
+        return minTime;
+    }
+
+    /** 最晚的开始时间；空段为 Long.MIN_VALUE */
+    synchronized long maxTime() {
+        return maxTime;
+    }
+
+    synchronized long openedAt() {
+        return openedAt;
+    }
+
+    synchronized long time(int pos) {
+        return times[pos];
+    }
+
+    synchronized int maxStep(int pos) {
+        return maxSteps[pos];
+    }
+
+    synchronized boolean failed(int pos) {
+        return failed[pos];
+    }
+
+    /**
+     * 从新到旧遍历某用例的记录位置，visitor 返回 false 时停止。
+     * @return 是否遍历完（未被 visitor 截断）
+     */
+    boolean forCaseDescending(long caseHash, IntPredicate visitor) {
+        int[] list;
+        int count;
+        synchronized (this) {
+            list = byCase.get(caseHash);
+            count = list == null ? 0 : list[0];
+        }
+        for (int i = count; i >= 1; i--) {
+            if (!visitor.test(list[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** 开始时间落在 [from, to) 的记录位置，按开始时间升序（在排序位置表上二分查找） */
+    synchronized int[] range(long from, long to) {
+        int lo = lowerBound(from);
+        return Arrays.copyOfRange(byTime, lo, Math.max(lo, lowerBound(to)));
+    }
+
+    private int lowerBound(long t) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[byTime[mid]] < t) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** 解码 pos 处的完整记录 */
+    RunRecord read(int pos) throws IOException {
+        int offset;
+        long end;
+        synchronized (this) {
+            offset = offsets[pos];
+            end = bytes;
+        }
+        Mapping m = mapping;
+        if (m == null || m.bytes() < end) {
+            m = remap(end);
+        }
+        ByteBuffer view = m.buf().duplicate();
+        view.position(offset);
+        return RunRecord.decode(view);
+    }
+
+    private synchronized Mapping remap(long end) throws IOException {
+        if (mapping == null || mapping.bytes() < end) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+                mapping = new Mapping(ch.map(FileChannel.MapMode.READ_ONLY, 0, end), end);
+            }
+        }
+        return mapping;
+    }
+
+    /** 封存（停止追加）：刷盘并关闭写通道 */
+    synchronized void seal() throws IOException {
+        if (appender != null) {
+            appender.force(false);
+            appender.close();
+            appender = null;
+        }
+    }
+
+    synchronized boolean writable() {
+        return appender != null;
+    }
+}
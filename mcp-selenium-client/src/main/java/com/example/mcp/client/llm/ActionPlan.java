@@ -17,11 +17,32 @@ public class ActionPlan {
         public String browser; // "chrome" | "edge" | "firefox"
         public Boolean headless; // true | false
         public String filename; // for screenshot
+        public Integer timeoutMs; // wait / wait_for_selector
+        public Integer x; // scroll_by
+        public Integer y; // scroll_by
+        public Integer frameIndex; // switch_to_frame
+        public String note;
     }
 
     private final List<Action> actions = new ArrayList<>();
+    // 规则解析覆盖的步骤比例 × 最弱步骤的可信度，0~1
+    private double confidence;
+    private final List<String> unparsed = new ArrayList<>();
 
     public List<Action> getActions() {
         return actions;
     }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    public void setConfidence(double confidence) {
+        this.confidence = confidence;
+    }
+
+    /** 规则解析未能识别的原始步骤片段 */
+    public List<String> getUnparsed() {
+        return unparsed;
+    }
 }
@@ -20,10 +20,12 @@ public class LlmActionPlanner {
             Rules you MUST follow:
             1. Preserve the original step order; emit actions exactly in the sequence required to satisfy each step. Treat a single user-provided test case as one browser session.
             2. Start the session with a single `open_browser` action (honour hints like "headless equals false" by setting the `headless` field). Only include download directory when explicitly requested.
-            3. Supported action types: open_browser, goto, wait, wait_for_selector, type, key_press, click, screenshot, find_text, scroll_by, scroll_to, set_download_dir, get_title, get_current_url.
+            3. Supported action types: open_browser, goto, wait, wait_for_selector, type, key_press, click, screenshot, find_text, scroll_by, scroll_to, set_download_dir, get_title, get_current_url, save_state, restore_state, screenshot_assert.
                - Use `wait_for_selector` with a realistic CSS selector whenever the user says things like "after the page loads" or "wait for results".
                - Use `type` together with a `key_press` (for ENTER) when asked to perform a search.
                - Use `screenshot` for capture instructions and include a descriptive `note`.
+               - Use `screenshot_assert` with a short baseline `name` (e.g. "checkout-page") when the user asks to verify the page looks unchanged/matches the baseline; add `selector` to compare only one element.
+               - When the user refers to a saved login/state by name, use `restore_state` with that `name` (and the target `url`) right after `open_browser` instead of repeating the login steps; use `save_state` with a `name` when asked to remember the logged-in state.
             4. Provide useful `selector` values (CSS preferred, XPath only if necessary). Include the `by` field when you use XPath.
             5. Add optional `note` strings to clarify intent or mapping from the natural language instruction.
             6. Response MUST be valid JSON only, no prose, no code fences. Schema:
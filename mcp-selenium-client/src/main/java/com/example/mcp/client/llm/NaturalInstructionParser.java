@@ -1,35 +1,554 @@
-
 package com.example.mcp.client.llm;
 
 import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+/**
+ * Rule-based planner for routine step phrasing (English and Chinese). Every pattern is compiled once;
+ * parsing a prompt is a handful of regex matches per clause, so confident plans can skip the LLM
+ * round trip entirely. Element references are resolved against selector hints when available and
+ * fall back to label-based CSS/XPath heuristics with a lower confidence.
+ */
 @Component
 public class NaturalInstructionParser {
-    private static final Pattern URL = Pattern.compile("(https?://\\S+)");
+    private static final int FLAGS = Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+
+    private static final Pattern URL = Pattern.compile("(https?://[^\\s,;)\"“”'，。；]+)");
+    private static final String Q = "[\"“”'「『`]([^\"“”'「」『』`]{1,200})[\"“”'」』`]";
+    private static final String VERBS = "(?:open|launch|start|go|navigate|visit|type|enter|input|fill|click|tap|press|hit"
+            + "|wait|scroll|switch|download|verify|assert|check|ensure|confirm|expect|make\\s+sure|take|capture"
+            + "|get|read|close|quit|submit|toggle|enable|select|choose)\\b";
+    private static final Pattern SEPARATOR = Pattern.compile(
+            "(?:\\r?\\n)+"
+                    + "|(?<=[.!?;])\\s+"
+                    + "|[。；！？;]"
+                    + "|\\s*[，]?\\s*(?:然后|接着|随后|之后)\\s*"
+                    + "|\\s*[,，]\\s*(?:并且|并)\\s*"
+                    + "|，"
+                    + "|\\s*,?\\s+(?:and\\s+then|then|and)\\s+(?=" + VERBS + ")"
+                    + "|\\s*,\\s*(?=" + VERBS + ")", FLAGS);
+    private static final Pattern STEP_PREFIX = Pattern.compile(
+            "^(?:step\\s*\\d+\\s*[:.)：]?|\\d+\\s*[.)、：:]|第\\s*\\d+\\s*步\\s*[:：]?|[-*•]|(?:then|and|please)\\b|请)\\s*", FLAGS);
+    private static final Pattern TRAILING = Pattern.compile("[\\s.。,，!！:：]+$");
+
+    private static final Pattern OPEN = Pattern.compile(
+            "^(?:open|launch|start)\\s+(?:up\\s+)?(?:a\\s+|the\\s+)?(?:new\\s+)?(?:headless\\s+)?(?:chrome|browser|edge|firefox)\\b.*$"
+                    + "|^(?:打开|启动|开启)\\s*(?:一个)?(?:新的)?(?:无头)?\\s*(?:浏览器|chrome|谷歌浏览器).*$", FLAGS);
+    private static final Pattern HEADLESS_FALSE = Pattern.compile(
+            "headless\\s*(?:=|:|equals|is|to)?\\s*false|non-headless|headed|有头|非无头", FLAGS);
+    private static final Pattern HEADLESS_TRUE = Pattern.compile("headless|无头", FLAGS);
+    private static final Pattern GOTO = Pattern.compile(
+            "^(?:go\\s+to|navigate\\s+to|navigate|open|visit|browse\\s+to|load|goto|打开|访问|进入|跳转到|前往|导航到).*$", FLAGS);
+    private static final Pattern TYPE_EN = Pattern.compile(
+            "^(?:type|enter|input|fill\\s+in|write)\\s+" + Q + "\\s+(?:into|in|on|to)\\s+(?:the\\s+)?(.+)$", FLAGS);
+    private static final Pattern FILL_EN = Pattern.compile(
+            "^(?:fill(?:\\s+in)?|populate|set)\\s+(?:the\\s+)?(.+?)\\s+(?:with|to|as)\\s+" + Q + ".*$", FLAGS);
+    private static final Pattern TYPE_ZH_TARGET_LAST = Pattern.compile(
+            "^(?:输入|填写|填入|键入)\\s*" + Q + "\\s*(?:到|至|进|在)\\s*(.+?)(?:中|里|内)?$", FLAGS);
+    private static final Pattern TYPE_ZH_TARGET_FIRST = Pattern.compile(
+            "^(?:在|于|向)?\\s*(.+?)(?:中|里|内)?\\s*(?:输入|填写|填入|键入)\\s*" + Q + ".*$", FLAGS);
+    private static final Pattern KEY = Pattern.compile(
+            "^(?:press|hit|tap)\\s+(?:the\\s+)?(enter|return|tab|escape|esc|space|backspace|arrow\\s*down|arrow\\s*up)"
+                    + "(?:\\s+key)?(?:\\s+(?:in|on)\\s+(?:the\\s+)?(.+))?$"
+                    + "|^按(?:下)?\\s*(回车|enter|tab|esc|空格)(?:键)?$", FLAGS);
+    private static final Pattern WAIT_MS = Pattern.compile(
+            "^wait\\s+(?:for\\s+)?(\\d+(?:\\.\\d+)?)\\s*(ms|milliseconds?|s|secs?|seconds?)\\b.*$"
+                    + "|^等(?:待)?\\s*(\\d+(?:\\.\\d+)?)\\s*(毫秒|秒).*$", FLAGS);
+    private static final Pattern WAIT_FOR = Pattern.compile(
+            "^wait\\s+(?:for|until)\\s+(?:the\\s+)?(.+?)"
+                    + "(?:\\s+(?:to\\s+)?(?:appears?|be\\s+visible|is\\s+visible|becomes?\\s+visible|loads?|be\\s+loaded|shows?(?:\\s+up)?|renders?))?$"
+                    + "|^等待\\s*(.+?)(?:出现|加载完成|加载|显示|可见)?$", FLAGS);
+    private static final Pattern PAGE_ONLY = Pattern.compile("^(?:the\\s+)?(?:page|document|页面|网页)$", FLAGS);
+    private static final Pattern SCROLL_EDGE = Pattern.compile(
+            "^scroll\\s+(?:down\\s+|up\\s+)?to\\s+(?:the\\s+)?(bottom|top|end)(?:\\s+of\\s+the\\s+page)?$"
+                    + "|^(?:滚动|滑动)(?:到|至)(?:页面)?(底部|顶部|最下方|最上方)$", FLAGS);
+    private static final Pattern SCROLL_TO = Pattern.compile(
+            "^scroll\\s+(?:down\\s+|up\\s+)?(?:to|into)\\s+(?:the\\s+)?(.+)$|^(?:滚动|滑动)(?:到|至)\\s*(.+)$", FLAGS);
+    private static final Pattern SCROLL_BY = Pattern.compile(
+            "^scroll\\s+(down|up)(?:\\s+by)?(?:\\s+(\\d+))?(?:\\s*(?:px|pixels))?$"
+                    + "|^(?:向)?(下|上)(?:滚动|滑动)\\s*(\\d+)?.*$", FLAGS);
+    private static final Pattern FRAME_DEFAULT = Pattern.compile(
+            "^switch\\s+(?:back\\s+)?to\\s+(?:the\\s+)?(?:default\\s+content|main\\s+(?:page|document|content|frame)|parent\\s+page|top\\s+(?:frame|window))$"
+                    + "|^(?:切回|返回|切换回|切换到)\\s*(?:主页面|主文档|默认内容|顶层)$", FLAGS);
+    private static final Pattern FRAME = Pattern.compile(
+            "^switch\\s+(?:in)?to\\s+(?:the\\s+)?(.*?)\\s*\\bi?frame\\b\\s*(.*)$"
+                    + "|^切换(?:到|至|进)\\s*(.*?)\\s*(?:iframe|frame|框架)\\s*(.*)$", FLAGS);
+    private static final Pattern DOWNLOAD = Pattern.compile("^download\\s+(?:the\\s+)?(.+)$|^下载\\s*(.+)$", FLAGS);
+    private static final Pattern VERIFY = Pattern.compile(
+            "^(?:verify|assert|check|ensure|confirm|expect|make\\s+sure)\\s+(?:that\\s+)?(?:the\\s+)?(?:page\\s+)?"
+                    + "(?:contains?|shows?|displays?|has|includes?)?\\s*(?:the\\s+)?(?:text\\s+)?(?:message\\s+)?" + Q + ".*$"
+                    + "|^(?:验证|检查|确认|断言|校验)\\s*(?:页面)?(?:上)?(?:包含|显示|出现|有)?\\s*(?:文本|文字)?\\s*" + Q + ".*$", FLAGS);
+    private static final Pattern TITLE = Pattern.compile(
+            "^(?:get|read|fetch|print|capture|record)\\s+(?:the\\s+)?(?:page\\s+)?title$|^(?:获取|读取|获得|记录)(?:页面|网页)?标题$", FLAGS);
+    private static final Pattern CURRENT_URL = Pattern.compile(
+            "^(?:get|read|fetch|print|record)\\s+(?:the\\s+)?current\\s+url$|^(?:获取|读取|获得|记录)当前(?:url|网址|链接|地址)$", FLAGS);
+    private static final Pattern SCREENSHOT = Pattern.compile(
+            "^(?:take|capture|grab|make)\\s+(?:a\\s+)?(?:full\\s+)?(?:page\\s+)?(?:screenshot|screen\\s*shot|snapshot)(?:\\s+(?:named|called|as)\\s+(\\S+))?.*$"
+                    + "|^screenshot\\b.*$|^(?:进行)?(?:截图|截屏|截个图|屏幕截图).*$", FLAGS);
+    private static final Pattern CLOSE = Pattern.compile(
+            "^(?:close|quit|exit)\\s+(?:the\\s+)?(?:browser|chrome|session)$|^(?:关闭|退出)(?:浏览器)$", FLAGS);
+    private static final Pattern SUBMIT = Pattern.compile("^submit(?:\\s+the\\s+form)?$|^提交(?:表单)?$", FLAGS);
+    private static final Pattern CLICK = Pattern.compile(
+            "^(?:click|tap|press|hit|toggle|check|enable|select|choose)\\s+(?:on\\s+)?(?:the\\s+)?(.+)$"
+                    + "|^(?:点击|单击|点按|勾选|选择|选中)\\s*(.+)$", FLAGS);
+
+    private static final Pattern QUOTED = Pattern.compile(Q);
+    // 子句切分时不可拆开的引号片段；ASCII 字母数字后的 ' 是撇号（user's），不算开引号
+    private static final Pattern QUOTED_SPAN = Pattern.compile("(?<![A-Za-z0-9])" + Q);
+    // 只在能标识元素的属性上匹配提示；tag/type/class 之类的值与标签文字撞上纯属巧合
+    private static final List<String> HINT_ATTRS = List.of("text", "label", "aria-label", "placeholder", "name", "id");
+    private static final Pattern EXPLICIT_ATTR = Pattern.compile(
+            "\\b(data-testid|data-test|id|name|aria-label|placeholder)\\s*=\\s*[\"“'`]?([^\"”'`\\s)\\]]+)", FLAGS);
+    private static final Pattern EXPLICIT_SELECTOR = Pattern.compile(
+            "^(?:#[\\w-]+|\\.[\\w-]+(?:\\.[\\w-]+)*|\\[[^\\]]+\\]|//.+|[a-z]+(?:[#.][\\w-]+|\\[[^\\]]+\\])+)$", FLAGS);
+    private static final Pattern ROLE_SUFFIX = Pattern.compile(
+            "\\s*\\b(?:text\\s*box|textbox|field|input|box|area|button|btn|link|tab|checkbox|icon|menu|option)$"
+                    + "|(?:输入框|文本框|按钮|链接|复选框|选项|框)$", FLAGS);
+    private static final Pattern INPUT_ROLE = Pattern.compile("\\b(?:text\\s*box|textbox|field|input|box|area)$|框$", FLAGS);
+    private static final Pattern CLICK_ROLE = Pattern.compile("\\b(?:button|btn|link|tab|checkbox|icon|menu|option)$|(?:按钮|链接|复选框|选项)$", FLAGS);
+    private static final Pattern ARTICLE = Pattern.compile("^(?:the|a|an)\\s+", FLAGS);
+
+    static final double EXPLICIT = 1.0;
+    static final double HINTED = 0.9;
+    /** 未经页面验证的猜测（含引号标签）都低于默认 fast-path 阈值 0.75，交给 LLM */
+    static final double QUOTED_LABEL = 0.72;
+    static final double SHORT_LABEL = 0.7;
+    static final double GUESSED = 0.55;
+
+    private enum Kind { INPUT, CLICKABLE, ANY }
+
+    private record Target(String selector, String by, double confidence) {
+    }
 
     public ActionPlan parse(String input) {
-        String s = input == null ? "" : input.toLowerCase();
+        return parse(input, null);
+    }
+
+    /**
+     * Parses every recognised clause into actions. The plan confidence is the share of clauses
+     * recognised multiplied by the weakest element resolution, so a single guessed selector keeps
+     * the whole plan below a strict fast-path threshold.
+     */
+    public ActionPlan parse(String input, List<Map<String, Object>> selectorHints) {
         ActionPlan plan = new ActionPlan();
+        if (!StringUtils.hasText(input)) {
+            return plan;
+        }
+        List<Map<String, Object>> hints = selectorHints == null ? List.of() : selectorHints;
+        int clauses = 0;
+        int recognised = 0;
+        double weakest = 1.0;
+        for (String raw : clauses(input)) {
+            String clause = clean(raw);
+            if (clause.isEmpty()) {
+                continue;
+            }
+            clauses++;
+            double conf = parseClause(clause, hints, plan);
+            if (conf > 0) {
+                recognised++;
+                weakest = Math.min(weakest, conf);
+            } else {
+                plan.getUnparsed().add(clause);
+            }
+        }
+        ensureBrowserOpened(plan);
+        double coverage = clauses == 0 ? 0.0 : (double) recognised / clauses;
+        plan.setConfidence(recognised == 0 ? 0.0 : coverage * weakest);
+        return plan;
+    }
+
+    /** 按 SEPARATOR 切分子句，落在引号片段内的分隔符（如 'Save, then exit'）不切 */
+    static List<String> clauses(String input) {
+        List<int[]> quoted = new ArrayList<>();
+        Matcher q = QUOTED_SPAN.matcher(input);
+        while (q.find()) {
+            quoted.add(new int[]{q.start(), q.end()});
+        }
+        List<String> out = new ArrayList<>();
+        Matcher sep = SEPARATOR.matcher(input);
+        int from = 0;
+        int at = 0;
+        while (at < input.length() && sep.find(at)) {
+            int start = sep.start();
+            if (sep.end() == start || quoted.stream().anyMatch(r -> start > r[0] && start < r[1])) {
+                at = start + 1;
+                continue;
+            }
+            out.add(input.substring(from, start));
+            from = at = sep.end();
+        }
+        out.add(input.substring(from));
+        return out;
+    }
 
-        if (s.contains("open") || s.contains("launch")) {
-            ActionPlan.Action a = new ActionPlan.Action();
-            a.type = "open_browser";
+    private double parseClause(String clause, List<Map<String, Object>> hints, ActionPlan plan) {
+        Matcher m;
+        if ((m = OPEN.matcher(clause)).matches()) {
+            ActionPlan.Action a = action("open_browser");
+            if (HEADLESS_FALSE.matcher(clause).find()) {
+                a.headless = false;
+            } else if (HEADLESS_TRUE.matcher(clause).find()) {
+                a.headless = true;
+            }
             plan.getActions().add(a);
+            Matcher url = URL.matcher(clause);
+            if (url.find()) {
+                plan.getActions().add(gotoAction(url.group(1)));
+            }
+            return EXPLICIT;
+        }
+        if ((m = TYPE_EN.matcher(clause)).matches()) {
+            return addTyped(plan, m.group(1), m.group(2), hints);
+        }
+        if ((m = FILL_EN.matcher(clause)).matches()) {
+            return addTyped(plan, m.group(2), m.group(1), hints);
         }
-        Matcher m = URL.matcher(input == null ? "" : input);
-        if (m.find()) {
-            ActionPlan.Action a = new ActionPlan.Action();
-            a.type = "goto";
-            a.url = m.group(1);
+        if ((m = TYPE_ZH_TARGET_LAST.matcher(clause)).matches()) {
+            return addTyped(plan, m.group(1), m.group(2), hints);
+        }
+        if ((m = TYPE_ZH_TARGET_FIRST.matcher(clause)).matches()) {
+            return addTyped(plan, m.group(2), m.group(1), hints);
+        }
+        if ((m = KEY.matcher(clause)).matches()) {
+            ActionPlan.Action a = action("key_press");
+            a.text = keyName(m.group(1) != null ? m.group(1) : m.group(3));
+            double conf = EXPLICIT;
+            if (m.group(2) != null) {
+                Target t = resolveTarget(m.group(2), Kind.INPUT, hints);
+                applyTarget(a, t);
+                conf = t.confidence();
+            }
             plan.getActions().add(a);
+            return conf;
         }
-        if (s.contains("screenshot") || s.contains("capture")) {
-            ActionPlan.Action a = new ActionPlan.Action();
-            a.type = "screenshot";
+        if ((m = WAIT_MS.matcher(clause)).matches()) {
+            String amount = m.group(1) != null ? m.group(1) : m.group(3);
+            String unit = (m.group(2) != null ? m.group(2) : m.group(4)).toLowerCase(Locale.ROOT);
+            double value = Double.parseDouble(amount);
+            boolean millis = unit.startsWith("m") || "毫秒".equals(unit);
+            ActionPlan.Action a = action("wait");
+            a.timeoutMs = (int) Math.round(millis ? value : value * 1000);
             plan.getActions().add(a);
+            return EXPLICIT;
         }
-        return plan;
+        if ((m = WAIT_FOR.matcher(clause)).matches()) {
+            String phrase = m.group(1) != null ? m.group(1) : m.group(2);
+            ActionPlan.Action a = action("wait_for_selector");
+            if (PAGE_ONLY.matcher(phrase.trim()).matches()) {
+                a.selector = "body";
+                plan.getActions().add(a);
+                return EXPLICIT;
+            }
+            Target t = resolveTarget(phrase, Kind.ANY, hints);
+            applyTarget(a, t);
+            plan.getActions().add(a);
+            return t.confidence();
+        }
+        if ((m = SCROLL_EDGE.matcher(clause)).matches()) {
+            String edge = m.group(1) != null ? m.group(1) : m.group(2);
+            boolean top = "top".equalsIgnoreCase(edge) || edge.contains("顶") || edge.contains("上");
+            ActionPlan.Action a = action("scroll_by");
+            a.x = 0;
+            a.y = top ? -100_000 : 100_000;
+            plan.getActions().add(a);
+            return EXPLICIT;
+        }
+        if ((m = SCROLL_TO.matcher(clause)).matches()) {
+            ActionPlan.Action a = action("scroll_to");
+            Target t = resolveTarget(m.group(1) != null ? m.group(1) : m.group(2), Kind.ANY, hints);
+            applyTarget(a, t);
+            plan.getActions().add(a);
+            return t.confidence();
+        }
+        if ((m = SCROLL_BY.matcher(clause)).matches()) {
+            String dir = m.group(1) != null ? m.group(1) : m.group(3);
+            String amount = m.group(1) != null ? m.group(2) : m.group(4);
+            int dy = amount == null ? 300 : Integer.parseInt(amount);
+            boolean up = "up".equalsIgnoreCase(dir) || "上".equals(dir);
+            ActionPlan.Action a = action("scroll_by");
+            a.x = 0;
+            a.y = up ? -dy : dy;
+            plan.getActions().add(a);
+            return EXPLICIT;
+        }
+        if (FRAME_DEFAULT.matcher(clause).matches()) {
+            plan.getActions().add(action("switch_to_default"));
+            return EXPLICIT;
+        }
+        if ((m = FRAME.matcher(clause)).matches()) {
+            String before = m.group(1) != null ? m.group(1) : m.group(3);
+            String after = m.group(1) != null ? m.group(2) : m.group(4);
+            String phrase = StringUtils.hasText(after) ? after.trim() : (before == null ? "" : before.trim());
+            ActionPlan.Action a = action("switch_to_frame");
+            if (phrase.isEmpty() || "first".equalsIgnoreCase(phrase)) {
+                a.frameIndex = 0;
+                plan.getActions().add(a);
+                return EXPLICIT;
+            }
+            String digits = phrase.replaceFirst("^#", "");
+            if (digits.matches("\\d+")) {
+                a.frameIndex = Integer.parseInt(digits);
+                plan.getActions().add(a);
+                return EXPLICIT;
+            }
+            Target t = resolveTarget(phrase, Kind.ANY, hints);
+            applyTarget(a, t);
+            plan.getActions().add(a);
+            return t.confidence();
+        }
+        if ((m = DOWNLOAD.matcher(clause)).matches()) {
+            ActionPlan.Action a = action("download_link");
+            Target t = resolveTarget(m.group(1) != null ? m.group(1) : m.group(2), Kind.CLICKABLE, hints);
+            applyTarget(a, t);
+            plan.getActions().add(a);
+            return t.confidence();
+        }
+        if ((m = VERIFY.matcher(clause)).matches()) {
+            ActionPlan.Action a = action("find_text");
+            a.text = m.group(1) != null ? m.group(1) : m.group(2);
+            plan.getActions().add(a);
+            return EXPLICIT;
+        }
+        if (TITLE.matcher(clause).matches()) {
+            plan.getActions().add(action("get_title"));
+            return EXPLICIT;
+        }
+        if (CURRENT_URL.matcher(clause).matches()) {
+            plan.getActions().add(action("get_current_url"));
+            return EXPLICIT;
+        }
+        if ((m = SCREENSHOT.matcher(clause)).matches()) {
+            ActionPlan.Action a = action("screenshot");
+            a.filename = m.group(1);
+            a.note = clause;
+            plan.getActions().add(a);
+            return EXPLICIT;
+        }
+        if (CLOSE.matcher(clause).matches()) {
+            plan.getActions().add(action("quit"));
+            return EXPLICIT;
+        }
+        if (SUBMIT.matcher(clause).matches()) {
+            ActionPlan.Action a = action("click");
+            a.selector = "button[type='submit'], input[type='submit']";
+            plan.getActions().add(a);
+            return QUOTED_LABEL;
+        }
+        // URL 优先于 click：「open http://...」不应被当成点击
+        Matcher url = URL.matcher(clause);
+        if (url.find() && GOTO.matcher(clause).matches()) {
+            plan.getActions().add(gotoAction(url.group(1)));
+            return EXPLICIT;
+        }
+        if ((m = CLICK.matcher(clause)).matches()) {
+            ActionPlan.Action a = action("click");
+            Target t = resolveTarget(m.group(1) != null ? m.group(1) : m.group(2), Kind.CLICKABLE, hints);
+            applyTarget(a, t);
+            plan.getActions().add(a);
+            return t.confidence();
+        }
+        url.reset();
+        if (url.find()) {
+            plan.getActions().add(gotoAction(url.group(1)));
+            return HINTED;
+        }
+        return 0.0;
+    }
+
+    private double addTyped(ActionPlan plan, String text, String targetPhrase, List<Map<String, Object>> hints) {
+        ActionPlan.Action a = action("type");
+        a.text = text;
+        Target t = resolveTarget(targetPhrase, Kind.INPUT, hints);
+        applyTarget(a, t);
+        plan.getActions().add(a);
+        return t.confidence();
+    }
+
+    private Target resolveTarget(String phrase, Kind kind, List<Map<String, Object>> hints) {
+        String p = phrase == null ? "" : phrase.trim();
+        Matcher attr = EXPLICIT_ATTR.matcher(p);
+        if (attr.find()) {
+            String name = attr.group(1).toLowerCase(Locale.ROOT);
+            String value = attr.group(2);
+            String selector = "id".equals(name) ? "#" + value : "[" + name + "='" + cssEscape(value) + "']";
+            return new Target(selector, null, EXPLICIT);
+        }
+        String bare = stripWrapping(p);
+        if (EXPLICIT_SELECTOR.matcher(bare).matches()) {
+            return new Target(bare, bare.startsWith("//") ? "xpath" : null, EXPLICIT);
+        }
+
+        Matcher quoted = QUOTED.matcher(p);
+        boolean isQuoted = quoted.find();
+        String label = isQuoted ? quoted.group(1).trim() : ARTICLE.matcher(p).replaceFirst("");
+        Kind effective = kind;
+        if (!isQuoted) {
+            if (INPUT_ROLE.matcher(label).find()) {
+                effective = Kind.INPUT;
+            } else if (CLICK_ROLE.matcher(label).find()) {
+                effective = Kind.CLICKABLE;
+            }
+            String stripped = ROLE_SUFFIX.matcher(label).replaceFirst("").trim();
+            if (!stripped.isEmpty()) {
+                label = stripped;
+            }
+        }
+
+        Target hinted = matchHint(label, hints);
+        if (hinted != null) {
+            return hinted;
+        }
+        double conf = isQuoted ? QUOTED_LABEL : label.split("\\s+").length <= 2 ? SHORT_LABEL : GUESSED;
+        return switch (effective) {
+            case INPUT -> new Target(inputSelector(label), null, conf);
+            case CLICKABLE -> new Target(clickableXpath(label), "xpath", conf);
+            case ANY -> new Target(anyXpath(label), "xpath", Math.min(conf, GUESSED + 0.1));
+        };
     }
+
+    private Target matchHint(String label, List<Map<String, Object>> hints) {
+        if (hints.isEmpty() || label.length() < 2) {
+            return null;
+        }
+        String needle = label.toLowerCase(Locale.ROOT);
+        Map<String, Object> best = null;
+        double bestScore = 0.0;
+        for (Map<String, Object> hint : hints) {
+            Object selector = hint.get("selector");
+            if (!(selector instanceof String s) || s.isBlank()) {
+                continue;
+            }
+            double score = 0.0;
+            if (hint.get("attributes") instanceof Map<?, ?> attrs) {
+                for (String attr : HINT_ATTRS) {
+                    Object v = attrs.get(attr);
+                    if (v == null) {
+                        continue;
+                    }
+                    String value = String.valueOf(v).toLowerCase(Locale.ROOT);
+                    if (value.equals(needle)) {
+                        score = Math.max(score, 2.0);
+                    } else if (value.contains(needle) || (value.length() >= 3 && needle.contains(value))) {
+                        score = Math.max(score, 1.0);
+                    }
+                }
+            }
+            if (score > 0 && hint.get("score") instanceof Number n) {
+                score += Math.min(n.doubleValue(), 5.0) / 10.0;
+            }
+            if (score > bestScore) {
+                bestScore = score;
+                best = hint;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        String selector = String.valueOf(best.get("selector"));
+        return new Target(selector, selector.startsWith("//") ? "xpath" : null, HINTED);
+    }
+
+    private static String inputSelector(String label) {
+        String v = cssEscape(label);
+        String lower = cssEscape(label.toLowerCase(Locale.ROOT).replaceAll("\\s+", "-"));
+        return "input[placeholder*='" + v + "' i], textarea[placeholder*='" + v + "' i], [aria-label*='" + v + "' i], "
+                + "input[name*='" + lower + "' i], textarea[name*='" + lower + "' i], input[id*='" + lower + "' i]";
+    }
+
+    private static String clickableXpath(String label) {
+        String lit = xpathLiteral(label);
+        return "//*[self::button or self::a or @role='button' or @role='link' or @role='tab' or @type='submit' "
+                + "or @type='button' or @type='checkbox' or self::label]"
+                + "[contains(normalize-space(.), " + lit + ") or @value=" + lit + " or @aria-label=" + lit + "]";
+    }
+
+    private static String anyXpath(String label) {
+        String lit = xpathLiteral(label);
+        return "//*[contains(normalize-space(text()), " + lit + ") or @aria-label=" + lit
+                + " or @placeholder=" + lit + " or @data-testid=" + lit + " or @id=" + lit + "]";
+    }
+
+    private static String xpathLiteral(String s) {
+        if (!s.contains("'")) {
+            return "'" + s + "'";
+        }
+        if (!s.contains("\"")) {
+            return "\"" + s + "\"";
+        }
+        return "concat('" + s.replace("'", "', \"'\", '") + "')";
+    }
+
+    private static String cssEscape(String raw) {
+        return raw.replace("\\", "\\\\").replace("'", "\\'");
+    }
+
+    private static String stripWrapping(String p) {
+        String s = p.trim();
+        if (s.length() >= 2 && (s.startsWith("`") && s.endsWith("`") || s.startsWith("(") && s.endsWith(")"))) {
+            s = s.substring(1, s.length() - 1).trim();
+        }
+        return s;
+    }
+
+    private static void applyTarget(ActionPlan.Action a, Target t) {
+        a.selector = t.selector();
+        a.by = t.by();
+    }
+
+    private static String keyName(String raw) {
+        String k = raw.toLowerCase(Locale.ROOT).replaceAll("\\s+", "");
+        return switch (k) {
+            case "tab" -> "TAB";
+            case "escape", "esc" -> "ESCAPE";
+            case "space", "空格" -> "SPACE";
+            case "backspace" -> "BACK_SPACE";
+            case "arrowdown" -> "ARROW_DOWN";
+            case "arrowup" -> "ARROW_UP";
+            default -> "ENTER";
+        };
+    }
+
+    private static void ensureBrowserOpened(ActionPlan plan) {
+        List<ActionPlan.Action> actions = plan.getActions();
+        if (actions.isEmpty() || "open_browser".equals(actions.get(0).type)) {
+            return;
+        }
+        for (ActionPlan.Action a : actions) {
+            if ("open_browser".equals(a.type)) {
+                return;
+            }
+        }
+        actions.add(0, action("open_browser"));
+    }
+
+    private static ActionPlan.Action gotoAction(String url) {
+        ActionPlan.Action a = action("goto");
+        a.url = url.replaceAll("[)\\].,;]+$", "");
+        return a;
+    }
+
+    private static ActionPlan.Action action(String type) {
+        ActionPlan.Action a = new ActionPlan.Action();
+        a.type = type;
+        return a;
+    }
+
+    private static String clean(String raw) {
+        String s = raw == null ? "" : raw.trim();
+        String prev;
+        do {
+            prev = s;
+            s = STEP_PREFIX.matcher(s).replaceFirst("").trim();
+        } while (!s.equals(prev) && !s.isEmpty());
+        return TRAILING.matcher(s).replaceFirst("");
+    }
+
 }
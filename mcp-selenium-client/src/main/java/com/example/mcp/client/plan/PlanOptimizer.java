@@ -0,0 +1,211 @@
+package com.example.mcp.client.plan;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 下发前的计划改写（规则解析 / LLM / 前端传入的计划都会走这一步）：
+ * <ul>
+ *     <li>相邻 wait 合并为一个（总时长不变，省往返）；0ms 的 wait 删除</li>
+ *     <li>浏览器已由本计划打开时，重复的 open_browser 删除</li>
+ *     <li>页面状态未变（中间只有只读步骤）时再次 goto 同一 URL 删除</li>
+ *     <li>wait_for_selector 紧跟同一 selector 的 click/type/scroll_to：并入后者（服务端先等可见再操作）；
+ *     等待带 timeoutMs 时沿用，否则标记 waitVisible，由服务端按学到的耗时决定等待上限</li>
+ *     <li>type 后紧跟作用于同一元素的 key_press：按键并入 type 文本（W3C 按键码，与 Selenium Keys 等价）</li>
+ * </ul>
+ * 只改写能识别的动作；被删除/合并的步骤连同原因记入结果，附估算节省时间。
+ */
+@Component
+public class PlanOptimizer {
+
+    /** 只读步骤：不改变页面状态，不影响“重复 goto”判断 */
+    private static final Set<String> READ_ONLY = Set.of(
+            "wait", "wait_for_selector", "get_title", "get_current_url", "find_text", "screenshot", "screenshot_assert",
+            "sense_elements");
+    private static final Set<String> WAIT_ABSORBERS = Set.of("click", "type", "scroll_to");
+    /** W3C WebDriver 按键码（即 org.openqa.selenium.Keys 的字符值） */
+    private static final Map<String, String> KEY_CODES = Map.of(
+            "ENTER", "\uE007",
+            "RETURN", "\uE006",
+            "TAB", "\uE004",
+            "ESCAPE", "\uE00C",
+            "BACK_SPACE", "\uE003",
+            "SPACE", "\uE00D",
+            "ARROW_UP", "\uE013",
+            "ARROW_DOWN", "\uE015");
+
+    public record Result(List<Map<String, Object>> actions,
+                         List<Map<String, Object>> removed,
+                         long estimatedSavedMs) {
+
+        public Map<String, Object> report(int originalSteps) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("originalSteps", originalSteps);
+            map.put("steps", actions.size());
+            map.put("removed", removed);
+            map.put("estimatedSavedMs", estimatedSavedMs);
+            return map;
+        }
+    }
+
+    private final boolean enabled;
+    private final long stepOverheadMs;
+    private final long navigationMs;
+
+    public PlanOptimizer(@Value("${mcp.optimizer.enabled:true}") boolean enabled,
+                         @Value("${mcp.optimizer.step-overhead-ms:50}") long stepOverheadMs,
+                         @Value("${mcp.optimizer.navigation-ms:1500}") long navigationMs) {
+        this.enabled = enabled;
+        this.stepOverheadMs = stepOverheadMs;
+        this.navigationMs = navigationMs;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Result optimize(List<Map<String, Object>> actions) {
+        List<Map<String, Object>> out = new ArrayList<>(actions.size());
+        List<Integer> origin = new ArrayList<>(actions.size()); // out 中每步对应的原始序号
+        List<Map<String, Object>> removed = new ArrayList<>();
+        long saved = 0;
+        boolean browserOpen = false;
+        String currentUrl = null; // 最近一次 goto 且之后没有改变页面的步骤
+
+        for (int i = 0; i < actions.size(); i++) {
+            Map<String, Object> action = actions.get(i);
+            String type = typeOf(action);
+            Map<String, Object> prev = out.isEmpty() ? null : out.get(out.size() - 1);
+            String prevType = typeOf(prev);
+
+            switch (type) {
+                case "wait" -> {
+                    long ms = longValue(action.get("timeoutMs"), 1000);
+                    if (ms <= 0) {
+                        removed.add(removal(i, action, "zero-length wait"));
+                        saved += stepOverheadMs;
+                        continue;
+                    }
+                    if ("wait".equals(prevType)) {
+                        Map<String, Object> merged = new LinkedHashMap<>(prev);
+                        merged.put("timeoutMs", longValue(prev.get("timeoutMs"), 1000) + ms);
+                        out.set(out.size() - 1, merged);
+                        removed.add(removal(i, action, "merged into previous wait"));
+                        saved += stepOverheadMs;
+                        continue;
+                    }
+                }
+                case "open_browser" -> {
+                    if (browserOpen) {
+                        removed.add(removal(i, action, "browser already opened by this plan"));
+                        saved += stepOverheadMs;
+                        continue;
+                    }
+                    browserOpen = true;
+                }
+                case "close", "quit" -> {
+                    browserOpen = false;
+                    currentUrl = null;
+                }
+                case "goto" -> {
+                    Object url = action.get("url");
+                    if (url != null && url.equals(currentUrl)) {
+                        removed.add(removal(i, action, "page already at " + url));
+                        saved += stepOverheadMs + navigationMs;
+                        continue;
+                    }
+                    currentUrl = url == null ? null : String.valueOf(url);
+                    out.add(action);
+                    origin.add(i);
+                    continue;
+                }
+                case "key_press" -> {
+                    String code = keyCode(action.get("text"));
+                    if ("type".equals(prevType) && code != null && sameTarget(prev, action)) {
+                        Map<String, Object> fused = new LinkedHashMap<>(prev);
+                        Object text = prev.get("text");
+                        fused.put("text", (text == null ? "" : String.valueOf(text)) + code);
+                        out.set(out.size() - 1, fused);
+                        removed.add(removal(i, action, "fused into previous type"));
+                        saved += stepOverheadMs;
+                        currentUrl = null; // 按键可能提交表单
+                        continue;
+                    }
+                }
+                default -> {
+                }
+            }
+            if (WAIT_ABSORBERS.contains(type) && "wait_for_selector".equals(prevType)
+                    && action.get("timeoutMs") == null && sameLocator(prev, action)) {
+                Map<String, Object> fused = new LinkedHashMap<>(action);
+                if (prev.get("timeoutMs") != null) {
+                    fused.put("timeoutMs", longValue(prev.get("timeoutMs"), 10_000));
+                } else {
+                    fused.put("waitVisible", true);
+                }
+                out.set(out.size() - 1, fused);
+                removed.add(removal(origin.get(origin.size() - 1), prev, "folded into " + type + " wait"));
+                origin.set(origin.size() - 1, i);
+                saved += stepOverheadMs;
+                currentUrl = null;
+                continue;
+            }
+            if (!READ_ONLY.contains(type)) {
+                currentUrl = null;
+            }
+            out.add(action);
+            origin.add(i);
+        }
+        return new Result(out, removed, saved);
+    }
+
+    private static Map<String, Object> removal(int index, Map<String, Object> action, String reason) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("index", index);
+        map.put("type", typeOf(action));
+        map.put("reason", reason);
+        return map;
+    }
+
+    private static String typeOf(Map<String, Object> action) {
+        Object type = action == null ? null : action.get("type");
+        return type == null ? "" : String.valueOf(type);
+    }
+
+    private static boolean sameLocator(Map<String, Object> a, Map<String, Object> b) {
+        return a.get("selector") != null
+                && Objects.equals(a.get("selector"), b.get("selector"))
+                && Objects.equals(a.get("by"), b.get("by"));
+    }
+
+    /** key_press 无 selector 时发往焦点元素，即刚输入的元素 */
+    private static boolean sameTarget(Map<String, Object> type, Map<String, Object> keyPress) {
+        return keyPress.get("selector") == null || sameLocator(type, keyPress);
+    }
+
+    private static String keyCode(Object key) {
+        String name = key == null || String.valueOf(key).isBlank() ? "ENTER" : String.valueOf(key).trim();
+        return KEY_CODES.get(name.toUpperCase(Locale.ROOT));
+    }
+
+    private static long longValue(Object raw, long fallback) {
+        if (raw instanceof Number n) {
+            return n.longValue();
+        }
+        if (raw instanceof String s) {
+            try {
+                return Long.parseLong(s.trim());
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return fallback;
+    }
+}
@@ -1,8 +1,15 @@
 package com.example.mcp.client.stdio;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.mcp.client.transport.StepResult;
+import com.example.mcp.client.transport.StepTimeoutException;
+import com.example.mcp.common.codec.FrameReader;
+import com.example.mcp.common.codec.FrameWriter;
+import com.example.mcp.common.codec.McpCodec;
+import com.example.mcp.common.latency.LatencyModel;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.properties.bind.Bindable;
 import org.springframework.boot.context.properties.bind.Binder;
@@ -12,30 +19,80 @@ import org.springframework.stereotype.Component;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-/** 管理底层 stdio 进程；支持惰性启动/重启/单步执行 */
+/**
+ * 管理底层 stdio 进程；支持惰性启动/重启/单步执行/窗口化流水线执行。
+ * 读线程直接从进程输出流按帧解码（{@link McpCodec}），调用方带超时从队列取响应；
+ * {@code mcp.stdio.framing=smile} 时启动后协商切换为长度前缀的 Smile 二进制分帧。
+ */
 @Component
 public class StdioServerProcess implements Closeable {
 
     private static final Logger log = LoggerFactory.getLogger(StdioServerProcess.class);
+    // 自适应预算的下限，也是显式 timeoutMs 之外留给动作本身的余量
+    private static final long MIN_STEP_TIMEOUT_MS = 5_000;
+    // 服务端等待的上限（PlanCompiler.MAX_TIMEOUT_MS）：它按自己学到的预算等待时，客户端不知道具体值
+    private static final long SERVER_MAX_WAIT_MS = 600_000;
+    // 服务端会按 timeoutMs 等待的动作（定位元素的动作都会等元素出现/可见）
+    private static final Set<String> SERVER_WAITS = Set.of("goto", "wait_for_selector", "download_link",
+            "click", "type", "scroll_to", "screenshot_assert");
+    // 服务端可能合法地阻塞到其最大等待的动作：open_browser 排队准入后再启动 Chrome，save/restore_state 多次导航，
+    // call_macro 展开后含等待，定位类动作在原选择器超时后还会自愈重试。客户端按服务端上限等，不按学到的预算 kill_session
+    private static final Set<String> LONG_RUNNING = Set.of("open_browser", "save_state", "restore_state", "call_macro",
+            "click", "type", "scroll_to", "screenshot_assert");
 
     private final List<String> command;
     private final String clientId;
-    private final ObjectMapper mapper = new ObjectMapper();
+    private final int pipelineWindow;
+    private final McpCodec.Framing framing;
+    private final McpCodec codec = McpCodec.shared();
+    private final AtomicLong seq = new AtomicLong();
+    // 一条管道同一时刻只能有一个请求/流水线在读写。锁顺序：先 io 后 this（启动/重启握手要走管道）
+    private final Object io = new Object();
+    // 单帧写入互斥：cancel 不持有 io，可在步骤执行中插入管道
+    private final Object writeLock = new Object();
+    // 不等应答的请求（cancel）的 seq；应答到达时由读取方丢弃
+    private final Set<Long> detached = ConcurrentHashMap.newKeySet();
+    // 本进程上正在分步执行的 sessionId -> 是否已请求取消
+    private final Map<String, Boolean> runs = new ConcurrentHashMap<>();
+    // 已登记的宏（define_macro 请求，按宏名）：服务端进程重启后重放；派生进程共用
+    private final Map<String, Map<String, Object>> macros;
+    // 按动作类型（goto 另按 URL 模式）学到的步骤耗时，决定等待响应的上限；null = 关闭（固定超时）。派生进程共用
+    private final LatencyModel latency;
+    private final AtomicLong learnedSteps = new AtomicLong();
 
     private volatile Process proc;
-    private volatile BufferedWriter toServer;
-    private volatile BufferedReader fromServer;
+    // 每启动一次进程加一：流水线出错时只关闭自己用过的那一代，不误杀期间重启的新进程
+    private volatile long generation;
+    private volatile FrameWriter toServer;
+    private volatile BlockingQueue<Object> fromServer;
+    private volatile Thread stdoutReader;
     private volatile Thread stderrDrainer;
+    // 已发出 negotiate、尚未收到应答：读线程据应答切换输入分帧
+    private volatile boolean negotiating;
 
     // ✅ 用最简单、安全的方式注入；其它组合逻辑放到构造方法里处理
+    @Autowired
     public StdioServerProcess(
             Environment env,
             // 兼容：你现在用的逗号分隔写法
             @Value("${mcp.server.command:}") String cmdCsv,
             // 兼容旧字段（如果有人还用 mcp.stdio.command）
             @Value("${mcp.stdio.command:}") String legacyCmdLine,
-            @Value("${mcp.clientId:}") String clientIdFromCfg
+            @Value("${mcp.clientId:}") String clientIdFromCfg,
+            // 流水线窗口：分步执行时最多提前写入的步骤数；1 = 逐步往返
+            @Value("${mcp.stdio.pipeline-window:4}") int pipelineWindow,
+            // STDIO 分帧：json（每行一个 JSON）| smile（长度前缀二进制，启动后协商）
+            @Value("${mcp.stdio.framing:json}") String framing,
+            // 自适应步骤超时：按动作类型学到的 p99 × 4（下限 5s），样本不足时用调用方的固定超时；
+            // 只用于服务端不会长时间等待的步骤，带 timeoutMs 或会在服务端等待的步骤见 stepTimeout
+            @Value("${mcp.stdio.adaptive-timeouts:true}") boolean adaptiveTimeouts,
+            @Value("${mcp.stdio.latency-file:state/stdio-latency.json}") String latencyFile
     ) {
         // 优先：数组方式 mcp.server.command.list: [ "java", "-jar", "...", "--opt=..." ]
         List<String> list = Binder.get(env)
@@ -69,31 +126,350 @@ public class StdioServerProcess implements Closeable {
         this.clientId = (cid == null || cid.isBlank())
                 ? "client-" + java.time.Instant.now().toEpochMilli()
                 : cid;
+        this.pipelineWindow = Math.max(1, pipelineWindow);
+        this.framing = McpCodec.Framing.parse(framing);
+        this.macros = Collections.synchronizedMap(new LinkedHashMap<>());
+        this.latency = adaptiveTimeouts
+                ? new LatencyModel(latencyFile == null || latencyFile.isBlank() ? null : java.nio.file.Path.of(latencyFile),
+                        4.0, MIN_STEP_TIMEOUT_MS, 600_000, 20, 500)
+                : null;
     }
 
-    private synchronized void ensureStarted() throws IOException {
-        if (proc != null && proc.isAlive()) return;
+    private StdioServerProcess(List<String> command, String clientId, int pipelineWindow, McpCodec.Framing framing,
+                               Map<String, Map<String, Object>> macros, LatencyModel latency) {
+        this.command = List.copyOf(command);
+        this.clientId = clientId;
+        this.pipelineWindow = pipelineWindow;
+        this.framing = framing;
+        this.macros = macros;
+        this.latency = latency;
+    }
+
+    /**
+     * 基于同一服务端命令派生一个独立进程（独立浏览器），用于后台任务；
+     * lowPriority=true 时在类 Unix 系统上以 nice 启动，避免抢占交互请求的 CPU。
+     */
+    public StdioServerProcess derive(String clientIdSuffix, boolean lowPriority) {
+        List<String> cmd = new ArrayList<>();
+        if (lowPriority && !System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("win")
+                && new File("/usr/bin/nice").canExecute()) {
+            cmd.addAll(List.of("/usr/bin/nice", "-n", "10"));
+        }
+        cmd.addAll(command);
+        return new StdioServerProcess(cmd, clientId + "-" + clientIdSuffix, pipelineWindow, framing, macros, latency);
+    }
+
+    public int pipelineWindow() {
+        return pipelineWindow;
+    }
+
+    /** 进程不在时拉起并完成握手（分帧协商、宏重放）。握手走管道，持有 io 期间其它请求不会插到握手前面 */
+    private void ensureStarted() throws IOException {
+        if (isRunning()) return;
+        synchronized (io) {
+            if (isRunning()) return;
+            launch();
+            if (framing != McpCodec.Framing.JSON) {
+                negotiateFraming();
+            }
+            replayMacros();
+        }
+    }
+
+    private synchronized void launch() throws IOException {
         log.info("Starting MCP STDIO server: {}", String.join(" ", this.command));
         ProcessBuilder pb = new ProcessBuilder(this.command);
         pb.redirectErrorStream(false);
         proc = pb.start();
         Process current = proc;
-        toServer   = new BufferedWriter(new OutputStreamWriter(proc.getOutputStream(), StandardCharsets.UTF_8));
-        fromServer = new BufferedReader(new InputStreamReader(proc.getInputStream(),  StandardCharsets.UTF_8));
+        toServer = codec.writer(proc.getOutputStream());
+        BlockingQueue<Object> inbox = new LinkedBlockingQueue<>();
+        fromServer = inbox;
+        FrameReader frames = codec.reader(proc.getInputStream());
+        stdoutReader = new Thread(() -> readResponses(frames, inbox), "mcp-stdio-client-reader");
+        stdoutReader.setDaemon(true);
+        stdoutReader.start();
         drainStderr(proc.getErrorStream());
         current.onExit().thenRun(() -> {
             int exit = current.exitValue();
             log.warn("MCP STDIO server exited with code {}", exit);
         });
+        generation++;
     }
 
-    public synchronized void restart() throws IOException {
-        close();
+    /** 新进程没有宏：重新登记之前定义过的 */
+    private void replayMacros() throws IOException {
+        List<Map<String, Object>> defs;
+        synchronized (macros) {
+            defs = new ArrayList<>(macros.values());
+        }
+        for (Map<String, Object> def : defs) {
+            Map<String, Object> resp = sendAndRead(def, 10_000);
+            if (!StepResult.isOk(resp)) {
+                log.warn("Failed to re-register macro {}: {}", def.get("macro"), resp.get("message"));
+            }
+        }
+    }
+
+    /**
+     * 在服务端登记宏（define_macro），之后计划里可用 {@code call_macro}（name + args）代替整段动作。
+     * 成功的定义会被记住，服务端进程重启（包括派生进程）后自动重新登记。
+     */
+    public Map<String, Object> rpcDefineMacro(String name, List<String> params, List<Map<String, Object>> actions) throws IOException {
         ensureStarted();
+        Map<String, Object> req = new HashMap<>();
+        req.put("method", "define_macro");
+        req.put("clientId", clientId);
+        req.put("macro", name);
+        req.put("params", params == null ? List.of() : params);
+        req.put("actions", actions);
+        Map<String, Object> resp = sendAndRead(req, 10_000);
+        if (StepResult.isOk(resp)) {
+            macros.put(name, req);
+        }
+        return resp;
+    }
+
+    /** 应答仍是 JSON；服务端同意后双方切换（读线程在解码到应答时切换输入）。不支持的旧服务端保持 JSON。 */
+    private void negotiateFraming() throws IOException {
+        Map<String, Object> req = new HashMap<>();
+        req.put("method", "negotiate");
+        req.put("clientId", clientId);
+        req.put("framing", framing.wireName());
+        Map<String, Object> resp;
+        try {
+            negotiating = true;
+            resp = sendAndRead(req, 60_000);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        Object agreed = resp.get("data") instanceof Map<?, ?> data ? data.get("framing") : null;
+        if (StepResult.isOk(resp) && framing.wireName().equals(agreed)) {
+            toServer.switchTo(framing);
+            log.info("STDIO framing negotiated: {}", framing.wireName());
+        } else {
+            log.warn("STDIO server did not accept {} framing ({}); staying on JSON lines", framing.wireName(), resp.get("message"));
+        }
+    }
+
+    private static final Object EOF = new Object();
+
+    private void readResponses(FrameReader frames, BlockingQueue<Object> inbox) {
+        try {
+            while (true) {
+                Map<String, Object> resp;
+                try {
+                    resp = frames.readMap();
+                } catch (JsonProcessingException e) {
+                    // 服务端启动日志等非协议输出
+                    log.debug("Skipping non-protocol STDIO output: {}", e.getOriginalMessage());
+                    continue;
+                }
+                if (resp == null) {
+                    break;
+                }
+                if (negotiating) {
+                    negotiating = false;
+                    Object agreed = resp.get("data") instanceof Map<?, ?> data ? data.get("framing") : null;
+                    if (StepResult.isOk(resp) && agreed != null) {
+                        frames.switchTo(McpCodec.Framing.parse(String.valueOf(agreed)));
+                    }
+                }
+                inbox.put(resp);
+            }
+        } catch (IOException e) {
+            log.debug("STDIO server output reader stopped: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inbox.offer(EOF);
+        }
+    }
+
+    public boolean isRunning() {
+        Process p = proc;
+        return p != null && p.isAlive();
+    }
+
+    /** 等在途的请求/流水线结束后再重启，不会与其交错 */
+    public void restart() throws IOException {
+        synchronized (io) {
+            close();
+            ensureStarted();
+        }
+    }
+
+    /**
+     * 单步往返。等待上限取自适应超时；超时后向服务端发 kill_session 结束卡住的浏览器（快速失败，
+     * 不让一个挂起的步骤占住进程几分钟），迟到的响应按 seq 丢弃。
+     */
+    public Map<String, Object> rpcExecuteOne(Map<String, Object> step, String sessionId, int stepIndex, boolean sessionDone, long timeoutMs) throws IOException {
+        ensureStarted();
+        Map<String, Object> action = budgeted(step);
+        Map<String, Object> req = stepRequest(action, sessionId, stepIndex, sessionDone);
+        long s = seq.incrementAndGet();
+        req.put("seq", s);
+        long budget = stepTimeout(action, timeoutMs);
+        Map<String, Object> resp;
+        synchronized (io) {
+            writeFrame(req);
+            flush();
+            try {
+                resp = readReply(s, budget);
+            } catch (ReplyTimeout e) {
+                killSession(sessionId);
+                throw new StepTimeoutException("Step " + stepIndex + " (" + action.get("type") + ") timed out after " + budget
+                        + "ms; session " + sessionId + " killed", e);
+            }
+        }
+        learn(action, resp);
+        return resp;
+    }
+
+    /** 调用方已持有 io：结束超时步骤所在会话，尽力而为 */
+    private void killSession(String sessionId) {
+        Map<String, Object> req = new HashMap<>();
+        req.put("method", "kill_session");
+        req.put("clientId", clientId);
+        req.put("sessionId", sessionId);
+        long s = seq.incrementAndGet();
+        req.put("seq", s);
+        try {
+            writeFrame(req);
+            flush();
+            Map<String, Object> resp = readReply(s, 10_000);
+            log.warn("Killed session {} after step timeout: {}", sessionId, resp.get("message"));
+        } catch (IOException e) {
+            log.warn("Could not kill session {} after step timeout: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /**
+     * 流水线执行：最多提前写入 window 个步骤（带 seq），服务端按序执行，响应按序流回。
+     * stopOnError 时服务端在首个失败后把已排队的后续步骤直接 cancelled，这里只收集到失败那一步为止，
+     * 与逐步往返的结果一致。
+     */
+    public List<Map<String, Object>> rpcExecutePipelined(List<Map<String, Object>> actions, String sessionId,
+                                                         boolean stopOnError, int window, long timeoutMs) throws IOException {
+        List<Map<String, Object>> results = new ArrayList<>(actions.size());
+        List<Map<String, Object>> sent = actions.stream().map(this::budgeted).toList();
+        Deque<long[]> inflight = new ArrayDeque<>(); // {seq, stepIndex}
+        synchronized (io) {
+            ensureStarted();
+            long gen = generation;
+            int next = 0;
+            boolean failed = false;
+            try {
+                while (true) {
+                    boolean wrote = false;
+                    if (cancelRequested(sessionId)) {
+                        failed = true; // 已取消：不再写入，只读掉在途步骤的应答
+                    }
+                    while (!failed && next < actions.size() && inflight.size() < window) {
+                        Map<String, Object> req = stepRequest(sent.get(next), sessionId, next, next == actions.size() - 1);
+                        long s = seq.incrementAndGet();
+                        req.put("seq", s);
+                        req.put("stopOnError", stopOnError);
+                        writeFrame(req);
+                        inflight.add(new long[]{s, next});
+                        next++;
+                        wrote = true;
+                    }
+                    if (wrote) {
+                        flush();
+                    }
+                    long[] head = inflight.poll();
+                    if (head == null) {
+                        break;
+                    }
+                    Map<String, Object> resp = readReply(head[0], stepTimeout(sent.get((int) head[1]), timeoutMs));
+                    if (resp.get("seq") instanceof Number echoed && echoed.longValue() != head[0]) {
+                        throw new IOException("Out-of-order STDIO response: expected seq " + head[0] + " but got " + echoed);
+                    }
+                    if (failed) {
+                        continue; // 失败后排队步骤的 cancelled 响应，只需读掉
+                    }
+                    learn(sent.get((int) head[1]), resp);
+                    results.add(resp);
+                    if ((stopOnError && !StepResult.isOk(resp)) || cancelRequested(sessionId)) {
+                        failed = true;
+                    }
+                }
+            } catch (IOException e) {
+                if (!inflight.isEmpty()) {
+                    // 管道里还有未读的响应，后续请求会错位；直接重启进程（下次调用惰性拉起）
+                    log.warn("STDIO pipeline aborted with {} step(s) in flight; restarting server", inflight.size());
+                    close(gen);
+                }
+                if (e instanceof ReplyTimeout) {
+                    throw new StepTimeoutException("Pipelined step of session " + sessionId + " timed out: " + e.getMessage(), e);
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    /** 分步执行开始/结束时由调用方登记，{@link #rpcCancel} 据此让执行中的循环停止发送后续步骤 */
+    public void beginRun(String sessionId) {
+        runs.put(sessionId, false);
+    }
+
+    public void endRun(String sessionId) {
+        runs.remove(sessionId);
+    }
+
+    public boolean cancelRequested(String sessionId) {
+        return Boolean.TRUE.equals(runs.get(sessionId));
+    }
+
+    /**
+     * 取消会话（cancel 方法）：不等管道空闲，直接插入一帧；服务端读线程立即中断执行中的步骤、取消已排队的步骤并回收浏览器。
+     * 应答由正在读管道的一方丢弃，这里只返回已发送。
+     */
+    public Map<String, Object> rpcCancel(String sessionId) throws IOException {
+        if (!isRunning()) {
+            throw new IOException("Server process is not running");
+        }
+        boolean running = runs.computeIfPresent(sessionId, (k, v) -> true) != null;
+        Map<String, Object> req = new HashMap<>();
+        req.put("method", "cancel");
+        req.put("clientId", clientId);
+        req.put("sessionId", sessionId);
+        synchronized (writeLock) {
+            long s = seq.incrementAndGet();
+            req.put("seq", s);
+            detached.add(s);
+            writeFrame(req);
+            toServer.flush();
+        }
+        log.info("Cancel sent for session {} (run active={})", sessionId, running);
+        Map<String, Object> data = new LinkedHashMap<>();
+        data.put("sessionId", sessionId);
+        data.put("running", running);
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("status", "ok");
+        resp.put("message", "Cancel sent: " + sessionId);
+        resp.put("data", data);
+        return resp;
     }
 
-    public Map<String, Object> rpcExecuteOne(Map<String, Object> action, String sessionId, int stepIndex, boolean sessionDone, long timeoutMs) throws IOException {
+    /** 服务端 health 方法；进程未启动时会先拉起。返回 data（status/capacity/activeSessions …）。 */
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> rpcHealth(long timeoutMs) throws IOException {
         ensureStarted();
+        Map<String, Object> req = new HashMap<>();
+        req.put("method", "health");
+        req.put("clientId", clientId);
+        Map<String, Object> resp = sendAndRead(req, timeoutMs);
+        if (!StepResult.isOk(resp)) {
+            throw new IOException("Health probe failed: " + resp.get("message"));
+        }
+        return resp.get("data") instanceof Map<?, ?> data ? (Map<String, Object>) data : Map.of("status", "ok");
+    }
+
+    private Map<String, Object> stepRequest(Map<String, Object> action, String sessionId, int stepIndex, boolean sessionDone) {
         Map<String, Object> req = new HashMap<>();
         req.put("method", "execute");
         req.put("clientId", clientId);
@@ -101,25 +477,101 @@ public class StdioServerProcess implements Closeable {
         req.put("stepIndex", stepIndex);
         req.put("sessionDone", sessionDone);
         req.put("actions", List.of(action));
+        return req;
+    }
+
+    /**
+     * 客户端与服务端对同一步的超时要一致，否则客户端可能在服务端合法的等待期内 kill_session。
+     * 服务端会等待的动作没有显式 timeoutMs 且客户端已学到预算时，把预算作为该步的 timeoutMs 发给服务端，
+     * 两边按同一个数等待；样本不足时不改动作，由服务端按自己的预算等待。
+     */
+    private Map<String, Object> budgeted(Map<String, Object> action) {
+        if (latency == null || action == null || explicitTimeout(action) != null || !serverWaits(action)) {
+            return action;
+        }
+        LatencyModel.Budget b = latency.budget(String.valueOf(action.get("type")), urlPattern(action), 0);
+        if ("default".equals(b.basis())) {
+            return action;
+        }
+        Map<String, Object> copy = new LinkedHashMap<>(action);
+        copy.put("timeoutMs", b.timeoutMs());
+        return copy;
+    }
+
+    private static boolean serverWaits(Map<String, Object> action) {
+        return SERVER_WAITS.contains(action.get("type"));
+    }
 
-        long effectiveTimeout = timeoutMs;
-        Object timeoutHint = action == null ? null : action.get("timeoutMs");
-        if (timeoutHint instanceof Number n) {
-            effectiveTimeout = Math.max(timeoutMs, n.longValue());
-        } else if (timeoutHint instanceof String s) {
+    private static Long explicitTimeout(Map<String, Object> action) {
+        Object hint = action.get("timeoutMs");
+        if (hint instanceof Number n) {
+            return n.longValue();
+        }
+        if (hint instanceof String s) {
             try {
-                effectiveTimeout = Math.max(timeoutMs, Long.parseLong(s));
+                return Long.parseLong(s.trim());
             } catch (NumberFormatException ignored) {
             }
         }
+        return null;
+    }
+
+    /**
+     * 等待某一步响应的上限。可能在服务端长时间阻塞的动作（{@code LONG_RUNNING}）不低于服务端最大等待；
+     * 动作带 timeoutMs（显式或 {@link #budgeted} 填入）时是服务端的等待时长，再留 {@value #MIN_STEP_TIMEOUT_MS}ms
+     * 给动作本身；服务端按自己的预算等待的步骤同样不低于其最大等待；其余步骤取学到的预算（样本不足时 timeoutMs）。
+     */
+    private long stepTimeout(Map<String, Object> action, long timeoutMs) {
+        long budget = timeoutMs;
+        if (latency != null && action != null) {
+            budget = latency.budget(String.valueOf(action.get("type")), urlPattern(action), timeoutMs).timeoutMs();
+        }
+        if (action == null) {
+            return budget;
+        }
+        if (LONG_RUNNING.contains(action.get("type"))) {
+            return Math.max(timeoutMs, SERVER_MAX_WAIT_MS + MIN_STEP_TIMEOUT_MS);
+        }
+        Long explicit = explicitTimeout(action);
+        if (explicit != null) {
+            return Math.max(budget, explicit + MIN_STEP_TIMEOUT_MS);
+        }
+        if (serverWaits(action)) {
+            return Math.max(timeoutMs, SERVER_MAX_WAIT_MS + MIN_STEP_TIMEOUT_MS);
+        }
+        return budget;
+    }
+
+    /** 成功的步骤按服务端报告的各动作耗时之和计入模型（call_macro 展开为多条结果） */
+    private void learn(Map<String, Object> action, Map<String, Object> resp) {
+        if (latency == null || action == null || !StepResult.isOk(resp)) {
+            return;
+        }
+        long total = 0;
+        for (StepResult r : StepResult.listOf(resp)) {
+            if (!r.ok() || r.durationMs() == null) {
+                return;
+            }
+            total += r.durationMs();
+        }
+        latency.record(String.valueOf(action.get("type")), urlPattern(action), total);
+        if (learnedSteps.incrementAndGet() % 100 == 0) {
+            saveLatency();
+        }
+    }
 
-        String line = sendAndReadLine(req, effectiveTimeout);
+    private static String urlPattern(Map<String, Object> action) {
+        return "goto".equals(action.get("type")) && action.get("url") instanceof String url ? LatencyModel.pattern(url) : null;
+    }
+
+    private void saveLatency() {
+        if (latency == null) {
+            return;
+        }
         try {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> resp = mapper.readValue(line, Map.class);
-            return resp;
-        } catch (Exception e) {
-            throw new IOException("Invalid server response: " + line, e);
+            latency.save();
+        } catch (IOException e) {
+            log.warn("Failed to persist STDIO step latencies: {}", e.getMessage());
         }
     }
 
@@ -130,67 +582,124 @@ public class StdioServerProcess implements Closeable {
         req.put("clientId", clientId);
         req.put("actions", actions);
         req.put("sessionDone", true);
-        String line = sendAndReadLine(req, 60_000);
-        try {
-            @SuppressWarnings("unchecked")
-            Map<String, Object> resp = mapper.readValue(line, Map.class);
-            return resp;
-        } catch (Exception e) {
-            throw new IOException("Invalid server response: " + line, e);
+        return sendAndRead(req, 60_000);
+    }
+
+    private Map<String, Object> sendAndRead(Map<String, Object> req, long timeoutMs) throws IOException {
+        synchronized (io) {
+            long s = seq.incrementAndGet();
+            req.put("seq", s);
+            writeFrame(req);
+            flush();
+            return readReply(s, timeoutMs);
         }
     }
 
-    private String sendAndReadLine(Map<String, Object> req, long timeoutMs) throws IOException {
-        String json = mapper.writeValueAsString(req);
+    private void writeFrame(Map<String, Object> req) throws IOException {
         if (log.isDebugEnabled()) {
-            log.debug("→ STDIO {}", json);
+            log.debug("→ STDIO {}", req);
+        }
+        synchronized (writeLock) {
+            toServer.write(req);
         }
-        toServer.write(json);
-        toServer.newLine();
-        toServer.flush();
+    }
+
+    private void flush() throws IOException {
+        synchronized (writeLock) {
+            toServer.flush();
+        }
+    }
+
+    /** 服务端没在时限内回应 */
+    private static final class ReplyTimeout extends IOException {
+        private static final long serialVersionUID = 1L;
 
+        ReplyTimeout(long timeoutMs) {
+            super("Server timed out while waiting response (" + timeoutMs + "ms)");
+        }
+    }
+
+    /** 读取 seq 对应的响应；更早的 seq 是之前超时步骤迟到的响应，cancel 的应答无人等待，均丢弃 */
+    private Map<String, Object> readReply(long expectedSeq, long timeoutMs) throws IOException {
         long deadline = System.currentTimeMillis() + timeoutMs;
         while (true) {
-            if (System.currentTimeMillis() > deadline) {
-                log.error("STDIO server timed out ({}ms) waiting for response", timeoutMs);
-                throw new IOException("Server timed out while waiting response");
-            }
-            if (!fromServer.ready()) {
-                if (proc != null && !proc.isAlive()) {
-                    int exitValue = proc.exitValue();
-                    throw new IOException("Server process exited unexpectedly (exitCode=" + exitValue + "). Check server logs.");
-                }
-                try { Thread.sleep(10); } catch (InterruptedException ignored) {}
+            Map<String, Object> resp = readFrame(Math.max(1, deadline - System.currentTimeMillis()));
+            if (resp.get("seq") instanceof Number echoed
+                    && (detached.remove(echoed.longValue()) || echoed.longValue() < expectedSeq)) {
+                log.debug("Discarding STDIO response seq={} (waiting for {}): {}", echoed, expectedSeq, resp.get("message"));
                 continue;
             }
-            String line = fromServer.readLine();
-            if (line == null) {
-                throw new IOException("Server closed output (EOF). Check server logs.");
-            }
-            line = line.trim();
-            if (line.isEmpty()) continue;
-            if (log.isDebugEnabled()) {
-                log.debug("← STDIO {}", line);
+            return resp;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readFrame(long timeoutMs) throws IOException {
+        BlockingQueue<Object> inbox = fromServer;
+        if (inbox == null) {
+            throw new IOException("Server process is not running");
+        }
+        Object item;
+        try {
+            item = inbox.poll(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for STDIO server", e);
+        }
+        if (item == null) {
+            log.error("STDIO server timed out ({}ms) waiting for response", timeoutMs);
+            throw new ReplyTimeout(timeoutMs);
+        }
+        if (item == EOF) {
+            inbox.offer(EOF); // 后续调用同样立即失败
+            Process p = proc;
+            if (p != null) {
+                try {
+                    if (p.waitFor(200, TimeUnit.MILLISECONDS)) {
+                        throw new IOException("Server process exited unexpectedly (exitCode=" + p.exitValue() + "). Check server logs.");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
             }
-            return line;
+            throw new IOException("Server closed output (EOF). Check server logs.");
+        }
+        Map<String, Object> resp = (Map<String, Object>) item;
+        if (log.isDebugEnabled()) {
+            log.debug("← STDIO {}", resp);
         }
+        return resp;
     }
 
     @Override
     public synchronized void close() throws IOException {
+        saveLatency();
         if (toServer != null)   try { toServer.close(); }   catch (Exception ignored) {}
-        if (fromServer != null) try { fromServer.close(); } catch (Exception ignored) {}
         if (proc != null) {
+            try { proc.getInputStream().close(); } catch (Exception ignored) {}
             try { proc.getErrorStream().close(); } catch (Exception ignored) {}
             proc.destroy();
         }
+        if (stdoutReader != null) {
+            stdoutReader.interrupt();
+        }
         if (stderrDrainer != null) {
             stderrDrainer.interrupt();
         }
         proc = null;
         toServer = null;
         fromServer = null;
+        stdoutReader = null;
         stderrDrainer = null;
+        negotiating = false;
+        detached.clear();
+    }
+
+    /** 只在当前进程仍是 gen 那一代时关闭 */
+    private synchronized void close(long gen) throws IOException {
+        if (generation == gen) {
+            close();
+        }
     }
 
     private synchronized void drainStderr(InputStream errStream) {
@@ -0,0 +1,171 @@
+package com.example.mcp.client.suite;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 流式读取数据集，一次一行，不缓存已读的行：
+ * <ul>
+ *     <li>{@code csv}：首行为表头；RFC 4180 引号规则（字段内逗号、换行，{@code ""} 转义）</li>
+ *     <li>{@code jsonl}：每行一个 JSON 对象，值按字符串代入（嵌套值取其 JSON 文本）</li>
+ * </ul>
+ * 空行跳过。单行格式错误只让该行失败（{@link Row#error()}），不中断整个数据集。
+ */
+abstract class DatasetReader {
+
+    /** @param index 从 1 开始的数据行序号 */
+    record Row(long index, Map<String, String> values, String error) {
+    }
+
+    protected final BufferedReader in;
+    private long index;
+
+    private DatasetReader(BufferedReader in) {
+        this.in = in;
+    }
+
+    static DatasetReader of(String format, BufferedReader in, ObjectMapper mapper) {
+        return switch (format) {
+            case "csv" -> new Csv(in);
+            case "jsonl" -> new JsonLines(in, mapper);
+            default -> throw new IllegalArgumentException("unsupported dataset format '" + format + "' (csv | jsonl)");
+        };
+    }
+
+    /** @return 下一行；数据结束时 null */
+    final Row next() throws IOException {
+        Row row = read(index + 1);
+        if (row != null) {
+            index = row.index();
+        }
+        return row;
+    }
+
+    protected abstract Row read(long index) throws IOException;
+
+    private static final class JsonLines extends DatasetReader {
+        private final ObjectMapper mapper;
+
+        JsonLines(BufferedReader in, ObjectMapper mapper) {
+            super(in);
+            this.mapper = mapper;
+        }
+
+        @Override
+        protected Row read(long index) throws IOException {
+            String line;
+            do {
+                line = in.readLine();
+                if (line == null) {
+                    return null;
+                }
+            } while (line.isBlank());
+            try {
+                JsonNode node = mapper.readTree(line);
+                // null / 数字 / 数组等非对象行记为该行的错误，不让整个套件失败
+                if (node == null || !node.isObject()) {
+                    return new Row(index, Map.of(), "JSON line is not an object");
+                }
+                Map<?, ?> obj = mapper.convertValue(node, Map.class);
+                Map<String, String> values = new LinkedHashMap<>();
+                for (Map.Entry<?, ?> e : obj.entrySet()) {
+                    Object v = e.getValue();
+                    values.put(String.valueOf(e.getKey()), v == null ? "" : v instanceof Map || v instanceof List
+                            ? mapper.writeValueAsString(v) : String.valueOf(v));
+                }
+                return new Row(index, values, null);
+            } catch (JsonProcessingException e) {
+                return new Row(index, Map.of(), "invalid JSON line: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    private static final class Csv extends DatasetReader {
+        private List<String> header;
+
+        Csv(BufferedReader in) {
+            super(in);
+        }
+
+        @Override
+        protected Row read(long index) throws IOException {
+            if (header == null) {
+                header = record();
+                if (header == null) {
+                    return null;
+                }
+                header.replaceAll(String::trim);
+            }
+            List<String> fields = record();
+            if (fields == null) {
+                return null;
+            }
+            if (fields.size() != header.size()) {
+                return new Row(index, Map.of(), "row has " + fields.size() + " fields, header has " + header.size());
+            }
+            Map<String, String> values = new LinkedHashMap<>();
+            for (int i = 0; i < header.size(); i++) {
+                values.put(header.get(i), fields.get(i));
+            }
+            return new Row(index, values, null);
+        }
+
+        /** 一条记录（可能跨多个物理行）；空行跳过，输入结束返回 null */
+        private List<String> record() throws IOException {
+            List<String> fields = new ArrayList<>();
+            StringBuilder field = new StringBuilder();
+            boolean quoted = false;
+            boolean any = false;
+            int c;
+            while ((c = in.read()) != -1) {
+                if (quoted) {
+                    if (c == '"') {
+                        in.mark(1);
+                        if (in.read() == '"') {
+                            field.append('"');
+                        } else {
+                            in.reset();
+                            quoted = false;
+                        }
+                    } else {
+                        field.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                    any = true;
+                } else if (c == ',') {
+                    fields.add(field.toString());
+                    field.setLength(0);
+                    any = true;
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r') {
+                        in.mark(1);
+                        if (in.read() != '\n') {
+                            in.reset();
+                        }
+                    }
+                    if (any || field.length() > 0) {
+                        fields.add(field.toString());
+                        return fields;
+                    }
+                } else {
+                    field.append((char) c);
+                    any = true;
+                }
+            }
+            if (any || field.length() > 0) {
+                fields.add(field.toString());
+                return fields;
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.example.mcp.client.suite;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 数据驱动的计划模板：动作（含嵌套 map/list）中字符串值里的 {@code ${列名}} 按数据行代入。
+ * 不含占位符的值原样共享，每行只复制含占位符的部分。
+ */
+final class PlanTemplate {
+
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]*)}");
+
+    private final List<Map<String, Object>> actions;
+    private final Set<String> columns = new LinkedHashSet<>();
+
+    PlanTemplate(List<Map<String, Object>> actions) {
+        if (actions == null || actions.isEmpty()) {
+            throw new IllegalArgumentException("suite plan template has no actions");
+        }
+        this.actions = actions;
+        collect(actions);
+    }
+
+    /** 模板引用的列名 */
+    Set<String> columns() {
+        return columns;
+    }
+
+    /** 代入一行；缺少引用的列时抛 IllegalArgumentException（该行记为失败） */
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> render(Map<String, String> row) {
+        List<Map<String, Object>> out = new ArrayList<>(actions.size());
+        for (Map<String, Object> action : actions) {
+            out.add((Map<String, Object>) substitute(action, row));
+        }
+        return out;
+    }
+
+    private void collect(Object value) {
+        if (value instanceof String s) {
+            Matcher m = PLACEHOLDER.matcher(s);
+            while (m.find()) {
+                columns.add(m.group(1).trim());
+            }
+        } else if (value instanceof Map<?, ?> map) {
+            map.values().forEach(this::collect);
+        } else if (value instanceof List<?> list) {
+            list.forEach(this::collect);
+        }
+    }
+
+    private static Object substitute(Object value, Map<String, String> row) {
+        if (value instanceof String s) {
+            if (!s.contains("${")) {
+                return s;
+            }
+            Matcher m = PLACEHOLDER.matcher(s);
+            StringBuilder sb = new StringBuilder();
+            while (m.find()) {
+                String column = m.group(1).trim();
+                String v = row.get(column);
+                if (v == null) {
+                    throw new IllegalArgumentException("row has no column '" + column + "'");
+                }
+                m.appendReplacement(sb, Matcher.quoteReplacement(v));
+            }
+            m.appendTail(sb);
+            return sb.toString();
+        }
+        if (value instanceof Map<?, ?> map) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            map.forEach((k, v) -> copy.put(String.valueOf(k), substitute(v, row)));
+            return copy;
+        }
+        if (value instanceof List<?> list) {
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) {
+                copy.add(substitute(item, row));
+            }
+            return copy;
+        }
+        return value;
+    }
+}
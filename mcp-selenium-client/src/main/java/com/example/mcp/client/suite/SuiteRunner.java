@@ -0,0 +1,361 @@
+package com.example.mcp.client.suite;
+
+import com.example.mcp.client.history.RunHistoryStore;
+import com.example.mcp.client.history.RunRecord;
+import com.example.mcp.client.plan.PlanOptimizer;
+import com.example.mcp.client.transport.InvokerFactory;
+import com.example.mcp.client.transport.NodeFleet;
+import com.example.mcp.client.transport.StdioInvoker;
+import com.example.mcp.client.transport.StepResult;
+import com.example.mcp.client.transport.TransportInvoker;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据驱动的套件执行：一个带 {@code ${列名}} 占位符的计划模板 × 流式数据集（CSV / JSON lines），
+ * 每行代入后作为独立会话分步执行，按行流式返回结果（NDJSON），最后一行为汇总。
+ * <ul>
+ *     <li>并行度默认取客户端可用的浏览器容量（节点池各节点容量之和，或 HTTP 节点 health 上报的 capacity），
+ *     上限 {@code mcp.suite.max-parallelism}；单个 STDIO 进程的管道一次只跑一个请求，按 1 处理</li>
+ *     <li>背压：读取线程把行放入容量为并行度的有界队列，队列满时不再读取请求体，内存不随数据集增长</li>
+ *     <li>工作线程取自共享的有界线程池（{@code mcp.suite.max-parallelism} 个）；同时运行的套件超出时，
+ *     后到套件的工作线程排队等候空闲线程</li>
+ *     <li>任一步准入被拒（服务端饱和）的行：取消该会话后按 retryAfterMs 退避，整行重跑，不计为失败</li>
+ *     <li>客户端断开（写结果失败）后停止读取新行，已在执行的行跑完即结束</li>
+ * </ul>
+ */
+@Component
+public class SuiteRunner implements DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(SuiteRunner.class);
+    private static final TypeReference<List<Map<String, Object>>> ACTIONS = new TypeReference<>() {
+    };
+    private static final DatasetReader.Row END = new DatasetReader.Row(-1, Map.of(), null);
+    private static final int MAX_REJECTED_RETRIES = 5;
+
+    /** 单次套件的选项；parallelism &lt;= 0 表示按容量自动 */
+    public record Options(int parallelism, boolean stopOnError, boolean optimize) {
+    }
+
+    private final InvokerFactory invokerFactory;
+    private final PlanOptimizer optimizer;
+    private final RunHistoryStore history;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final int defaultParallelism;
+    private final int maxParallelism;
+    private final ExecutorService workerPool;
+
+    public SuiteRunner(InvokerFactory invokerFactory,
+                       PlanOptimizer optimizer,
+                       RunHistoryStore history,
+                       @Value("${mcp.suite.default-parallelism:0}") int defaultParallelism,
+                       @Value("${mcp.suite.max-parallelism:32}") int maxParallelism) {
+        this.invokerFactory = invokerFactory;
+        this.optimizer = optimizer;
+        this.history = history;
+        this.defaultParallelism = defaultParallelism;
+        this.maxParallelism = Math.max(1, maxParallelism);
+        AtomicInteger seq = new AtomicInteger();
+        this.workerPool = Executors.newFixedThreadPool(this.maxParallelism, r -> {
+            Thread t = new Thread(r, "mcp-suite-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 读取首个非空行作为计划模板（单行 JSON：动作数组或 {@code {"actions":[...]}}），其余为数据集。
+     * 模板或格式无效时在写出任何结果之前抛 IllegalArgumentException。
+     */
+    public Suite open(InputStream body, String format) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String first;
+        do {
+            first = in.readLine();
+            if (first == null) {
+                throw new IllegalArgumentException("empty suite body: first line must be the plan template");
+            }
+        } while (first.isBlank());
+        List<Map<String, Object>> actions;
+        try {
+            String json = first.trim();
+            actions = json.startsWith("[")
+                    ? mapper.readValue(json, ACTIONS)
+                    : mapper.convertValue(mapper.readTree(json).path("actions"), ACTIONS);
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("first line must be the plan template as one line of JSON: " + e.getMessage());
+        }
+        return new Suite(first.trim(), new PlanTemplate(actions), DatasetReader.of(format, in, mapper));
+    }
+
+    /** 已解析模板、尚未读取数据的套件 */
+    public final class Suite {
+        private final String caseName; // 模板原文：同一模板的各行在执行历史中归为同一用例
+        private final PlanTemplate template;
+        private final DatasetReader dataset;
+        private final String id = "suite-" + UUID.randomUUID().toString().substring(0, 8);
+
+        private Suite(String caseName, PlanTemplate template, DatasetReader dataset) {
+            this.caseName = caseName;
+            this.template = template;
+            this.dataset = dataset;
+        }
+
+        /** 执行到数据集结束，把每行结果与汇总逐行写到 out；返回汇总 */
+        public Map<String, Object> run(Options options, OutputStream out) throws IOException {
+            TransportInvoker invoker = invokerFactory.get();
+            int parallelism = parallelism(invoker, options.parallelism());
+            ResultStream results = new ResultStream(out);
+            BlockingQueue<DatasetReader.Row> queue = new ArrayBlockingQueue<>(parallelism);
+            AtomicLong passed = new AtomicLong();
+            AtomicLong failed = new AtomicLong();
+            long started = System.currentTimeMillis();
+            log.info("[Suite] {} started: parallelism={} columns={}", id, parallelism, template.columns());
+
+            List<Future<?>> workers = new ArrayList<>(parallelism);
+            for (int i = 0; i < parallelism; i++) {
+                workers.add(workerPool.submit(() -> work(invoker, options, queue, results, passed, failed)));
+            }
+            long rows = 0;
+            try {
+                DatasetReader.Row row;
+                while (!results.broken() && (row = dataset.next()) != null) {
+                    queue.put(row); // 队列满时阻塞：不再读取请求体
+                    rows++;
+                }
+            } catch (IOException e) {
+                results.fail("dataset read failed: " + e.getMessage());
+                log.warn("[Suite] {} dataset read failed after {} rows: {}", id, rows, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                // 每个工作线程一个结束标记；工作线程持续取队列（排队的工作迟早拿到线程），put 不会永久阻塞
+                try {
+                    for (int i = 0; i < workers.size(); i++) {
+                        queue.put(END);
+                    }
+                    for (Future<?> w : workers) {
+                        w.get();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    workers.forEach(w -> w.cancel(true));
+                } catch (ExecutionException e) {
+                    log.error("[Suite] {} worker failed", id, e.getCause());
+                    workers.forEach(w -> w.cancel(true));
+                }
+            }
+            long elapsed = System.currentTimeMillis() - started;
+            Map<String, Object> summary = new LinkedHashMap<>();
+            summary.put("suiteId", id);
+            summary.put("rows", passed.get() + failed.get());
+            summary.put("passed", passed.get());
+            summary.put("failed", failed.get());
+            summary.put("parallelism", parallelism);
+            summary.put("elapsedMs", elapsed);
+            summary.put("rowsPerMinute", elapsed == 0 ? 0 : Math.round((passed.get() + failed.get()) * 60_000.0 / elapsed));
+            summary.put("aborted", results.broken());
+            results.write(Map.of("summary", summary));
+            log.info("[Suite] {} finished: {}", id, summary);
+            return summary;
+        }
+
+        private void work(TransportInvoker invoker, Options options, BlockingQueue<DatasetReader.Row> queue,
+                          ResultStream results, AtomicLong passed, AtomicLong failed) {
+            while (true) {
+                DatasetReader.Row row;
+                try {
+                    row = queue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (row == END) {
+                    return;
+                }
+                if (results.broken()) {
+                    continue; // 客户端已断开：丢弃排队的行
+                }
+                Map<String, Object> line = runRow(invoker, options, row);
+                (Boolean.TRUE.equals(line.get("ok")) ? passed : failed).incrementAndGet();
+                results.write(line);
+            }
+        }
+
+        private Map<String, Object> runRow(TransportInvoker invoker, Options options, DatasetReader.Row row) {
+            String sid = id + "-" + row.index();
+            Map<String, Object> line = new LinkedHashMap<>();
+            line.put("row", row.index());
+            line.put("sessionId", sid);
+            long started = System.currentTimeMillis();
+            try {
+                if (row.error() != null) {
+                    throw new IllegalArgumentException(row.error());
+                }
+                List<Map<String, Object>> actions = template.render(row.values());
+                if (options.optimize() && optimizer.isEnabled()) {
+                    actions = optimizer.optimize(actions).actions();
+                }
+                List<Map<String, Object>> steps = null;
+                for (int attempt = 0; attempt <= MAX_REJECTED_RETRIES; attempt++) {
+                    steps = invoker.executeStepwise(actions, options.stopOnError(), sid);
+                    long retryAfter = rejectedRetryAfter(steps);
+                    if (retryAfter < 0 || attempt == MAX_REJECTED_RETRIES) {
+                        break;
+                    }
+                    abandon(invoker, sid); // 未被拒的步骤可能已登记会话、打开浏览器
+                    Thread.sleep(retryAfter);
+                }
+                describe(line, steps);
+                RunRecord run = history.record(caseName, sid, actions, steps, started, System.currentTimeMillis() - started);
+                if (run != null) {
+                    line.put("runId", run.runId());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                line.put("ok", false);
+                line.put("error", "interrupted");
+            } catch (IllegalArgumentException e) {
+                line.put("ok", false);
+                line.put("error", e.getMessage());
+            } catch (IOException e) {
+                line.put("ok", false);
+                line.put("error", "transport failed: " + e.getMessage());
+                RunRecord run = history.recordFailure(caseName, sid, started, System.currentTimeMillis() - started,
+                        String.valueOf(line.get("error")));
+                if (run != null) {
+                    line.put("runId", run.runId());
+                }
+            }
+            line.put("durationMs", System.currentTimeMillis() - started);
+            if (!Boolean.TRUE.equals(line.get("ok"))) {
+                line.put("values", row.values()); // 只有失败行回显数据，便于定位
+            }
+            return line;
+        }
+    }
+
+    /** 任一步因准入被拒时的建议等待（ms）；没有被拒的步骤返回 -1 */
+    private static long rejectedRetryAfter(List<Map<String, Object>> steps) {
+        if (steps == null) {
+            return -1;
+        }
+        for (Map<String, Object> step : steps) {
+            if (step.get("data") instanceof Map<?, ?> data && Boolean.TRUE.equals(data.get("rejected"))) {
+                return data.get("retryAfterMs") instanceof Number n ? Math.max(100, n.longValue()) : 1000;
+            }
+        }
+        return -1;
+    }
+
+    /** 整行重跑前回收上一次尝试留下的会话；传输不支持取消时只记日志，由服务端空闲回收兜底 */
+    private static void abandon(TransportInvoker invoker, String sid) {
+        try {
+            invoker.cancel(sid);
+        } catch (IOException e) {
+            log.debug("[Suite] cancel {} before retry failed: {}", sid, e.getMessage());
+        }
+    }
+
+    /** 行结果只保留通过与否、步数与首个失败步骤，不回传各步的值（截图、感知结果等可能很大） */
+    private static void describe(Map<String, Object> line, List<Map<String, Object>> steps) {
+        boolean ok = !steps.isEmpty() && steps.stream().allMatch(StepResult::isOk);
+        line.put("ok", ok);
+        line.put("steps", steps.size());
+        if (ok) {
+            return;
+        }
+        for (int i = 0; i < steps.size(); i++) {
+            Map<String, Object> step = steps.get(i);
+            if (!StepResult.isOk(step)) {
+                line.put("failedStep", i);
+                StepResult failure = StepResult.listOf(step).stream().filter(r -> !r.ok()).findFirst().orElse(null);
+                if (failure != null) {
+                    line.put("failedType", failure.type());
+                }
+                line.put("error", failure != null && failure.error() != null ? failure.error() : step.get("message"));
+                return;
+            }
+        }
+    }
+
+    private int parallelism(TransportInvoker invoker, int requested) {
+        int capacity;
+        if (invoker instanceof NodeFleet fleet) {
+            capacity = fleet.capacity();
+        } else if (invoker instanceof StdioInvoker) {
+            capacity = 1;
+        } else {
+            try {
+                capacity = invoker.health().get("capacity") instanceof Number n ? n.intValue() : 1;
+            } catch (IOException e) {
+                log.warn("[Suite] capacity probe failed ({}); running with parallelism 1", e.getMessage());
+                capacity = 1;
+            }
+        }
+        int p = requested > 0 ? requested : defaultParallelism > 0 ? defaultParallelism : capacity;
+        return Math.max(1, Math.min(p, maxParallelism));
+    }
+
+    @Override
+    public void destroy() {
+        workerPool.shutdownNow();
+    }
+
+    /** 逐行写出 NDJSON 并立即 flush；写失败（客户端断开）后标记 broken，其余写入忽略 */
+    private final class ResultStream {
+        private final OutputStream out;
+        private final AtomicBoolean broken = new AtomicBoolean();
+
+        ResultStream(OutputStream out) {
+            this.out = out;
+        }
+
+        boolean broken() {
+            return broken.get();
+        }
+
+        void fail(String error) {
+            write(Map.of("error", error));
+        }
+
+        synchronized void write(Map<String, Object> line) {
+            if (broken.get()) {
+                return;
+            }
+            try {
+                out.write(mapper.writeValueAsBytes(line));
+                out.write('\n');
+                out.flush();
+            } catch (IOException e) {
+                broken.set(true);
+                log.warn("[Suite] result stream closed by client: {}", e.getMessage());
+            }
+        }
+    }
+}
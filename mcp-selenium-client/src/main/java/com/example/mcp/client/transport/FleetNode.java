@@ -0,0 +1,176 @@
+package com.example.mcp.client.transport;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 节点池中的一个 Selenium 服务端节点：本地 STDIO 进程或远端 HTTP 端点。
+ * 记录粘在本节点的会话数、在途调用数、最近一次探测结果与连续失败次数；状态变更由 {@link NodeFleet} 驱动。
+ */
+public final class FleetNode {
+
+    public enum State { UP, DRAINING, EJECTED }
+
+    private final String id;
+    private final String kind; // stdio | http
+    private final String target;
+    private final TransportInvoker invoker;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger pinned = new AtomicInteger();      // 粘在本节点的会话（空闲的也占着浏览器）
+    private final AtomicInteger unpinnedCalls = new AtomicInteger(); // 不属于任何会话的在途调用
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong served = new AtomicLong();
+    final AtomicBoolean probing = new AtomicBoolean();
+
+    private final int configuredCapacity;
+    private volatile int capacity;
+    private volatile boolean draining;
+    private volatile long ejectedAt; // 0 = 未摘除
+    private volatile long lastProbeAt;
+    private volatile String lastError;
+    private volatile Map<String, Object> lastHealth = Map.of();
+
+    FleetNode(String id, String kind, String target, TransportInvoker invoker, int capacity) {
+        this.id = id;
+        this.kind = kind;
+        this.target = target;
+        this.invoker = invoker;
+        this.configuredCapacity = Math.max(1, capacity);
+        this.capacity = configuredCapacity;
+    }
+
+    public String id() {
+        return id;
+    }
+
+    public String kind() {
+        return kind;
+    }
+
+    TransportInvoker invoker() {
+        return invoker;
+    }
+
+    public State state() {
+        if (ejectedAt > 0) {
+            return State.EJECTED;
+        }
+        return draining ? State.DRAINING : State.UP;
+    }
+
+    /** 可接新会话：未摘除、未排空 */
+    boolean routable() {
+        return state() == State.UP;
+    }
+
+    int outstanding() {
+        return outstanding.get();
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    int pinned() {
+        return pinned.get();
+    }
+
+    /** 负载 = (粘滞会话 + 无会话的在途调用) / 容量，越小越优先 */
+    double load() {
+        return (double) (pinned.get() + unpinnedCalls.get()) / capacity;
+    }
+
+    /** @param session 调用属于某个粘滞会话（已计入 pinned） */
+    void acquire(boolean session) {
+        outstanding.incrementAndGet();
+        if (!session) {
+            unpinnedCalls.incrementAndGet();
+        }
+    }
+
+    void release(boolean session) {
+        outstanding.decrementAndGet();
+        if (!session) {
+            unpinnedCalls.decrementAndGet();
+        }
+        served.incrementAndGet();
+    }
+
+    void pin() {
+        pinned.incrementAndGet();
+    }
+
+    void unpin() {
+        pinned.decrementAndGet();
+    }
+
+    void setDraining(boolean draining) {
+        this.draining = draining;
+    }
+
+    long ejectedAt() {
+        return ejectedAt;
+    }
+
+    /** @return 连续失败次数 */
+    int recordFailure(String error) {
+        lastError = error;
+        return consecutiveFailures.incrementAndGet();
+    }
+
+    void recordSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    void eject(long now) {
+        ejectedAt = now;
+    }
+
+    /** STDIO 节点进程未运行时不探测（探测会拉起进程）：冷却结束即接回，下次使用时再启动 */
+    boolean readmitIdle(long now) {
+        lastProbeAt = now;
+        consecutiveFailures.set(0);
+        boolean readmitted = ejectedAt > 0;
+        ejectedAt = 0;
+        return readmitted;
+    }
+
+    /** 探测成功：以节点上报的 capacity 为准（未上报用配置值），并（若被摘除）重新接入 */
+    boolean onProbe(Map<String, Object> health, long now) {
+        lastProbeAt = now;
+        lastHealth = health;
+        capacity = health.get("capacity") instanceof Number n && n.intValue() > 0 ? n.intValue() : configuredCapacity;
+        consecutiveFailures.set(0);
+        boolean readmitted = ejectedAt > 0;
+        ejectedAt = 0;
+        return readmitted;
+    }
+
+    /** @return 连续失败次数 */
+    int onProbeFailure(String error, long now) {
+        lastProbeAt = now;
+        return recordFailure(error);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("id", id);
+        map.put("kind", kind);
+        map.put("target", target);
+        map.put("state", state().name());
+        map.put("outstanding", outstanding.get());
+        map.put("pinnedSessions", pinned.get());
+        map.put("capacity", capacity);
+        map.put("served", served.get());
+        map.put("consecutiveFailures", consecutiveFailures.get());
+        map.put("lastProbeAt", lastProbeAt);
+        if (lastError != null) {
+            map.put("lastError", lastError);
+        }
+        map.put("health", lastHealth);
+        return map;
+    }
+}
@@ -1,46 +1,328 @@
-
 package com.example.mcp.client.transport;
 
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * HTTP 传输：基于 JDK {@link HttpClient}（连接池 + keep-alive，优先 HTTP/2，明文时 h2c 协商失败自动回落 1.1）。
+ * 与 STDIO 一样支持 sessionId / stepIndex / sessionDone / stopOnError 的分步执行，并提供 CompletableFuture 异步版本。
+ * {@code mcp.server.httpBaseUrl} 可写多个逗号分隔的节点：一次性请求轮询分发、连接失败换下一个节点；
+ * 分步执行的整个 session 固定在同一节点（浏览器状态在节点上）。
+ */
 @Component
-public class HttpInvoker implements TransportInvoker {
-    private final String baseUrl;
+public class HttpInvoker implements TransportInvoker, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(HttpInvoker.class);
+    // 服务端最多等执行线程 2s 再强制回收
+    private static final long CANCEL_TIMEOUT_MS = 15_000;
+    private static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private final List<URI> nodes;
     private final String clientId;
-    private final RestTemplate rest = new RestTemplate();
+    private final long requestTimeoutMs;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final ExecutorService pool;
+    private final HttpClient http;
+    private final AtomicInteger cursor = new AtomicInteger();
+    // 分步执行中的 sessionId -> 所在节点；cancel 据此只发给该节点，并让执行中的链停止发送后续步骤
+    private final Map<String, URI> running = new ConcurrentHashMap<>();
+    private final Set<String> cancelled = ConcurrentHashMap.newKeySet();
 
-    public HttpInvoker(@Value("${mcp.server.httpBaseUrl:http://localhost:18081}") String baseUrl,
-                       @Value("${mcp.clientId:demo-client}") String clientId) {
-        this.baseUrl = baseUrl;
+    public HttpInvoker(@Value("${mcp.server.httpBaseUrl:http://localhost:18081}") String baseUrls,
+                       @Value("${mcp.clientId:demo-client}") String clientId,
+                       @Value("${mcp.http.connect-timeout-ms:5000}") long connectTimeoutMs,
+                       @Value("${mcp.http.request-timeout-ms:180000}") long requestTimeoutMs,
+                       @Value("${mcp.http.threads:4}") int threads) {
+        this.nodes = Arrays.stream(baseUrls.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(s -> URI.create(s.endsWith("/") ? s.substring(0, s.length() - 1) : s))
+                .toList();
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("mcp.server.httpBaseUrl must name at least one node");
+        }
         this.clientId = clientId;
+        this.requestTimeoutMs = requestTimeoutMs;
+        AtomicInteger seq = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "mcp-http-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .executor(pool)
+                .build();
     }
 
     @Override
     public Map<String, Object> execute(List<Map<String, Object>> actions) throws IOException {
+        return await(executeAsync(actions));
+    }
+
+    @Override
+    public List<Map<String, Object>> executeStepwise(List<Map<String, Object>> actions,
+                                                     boolean stopOnError,
+                                                     String sessionId) throws IOException {
+        return await(executeStepwiseAsync(actions, stopOnError, sessionId));
+    }
+
+    /** 一次性提交整组动作；节点连接失败时依次尝试其余节点。 */
+    public CompletableFuture<Map<String, Object>> executeAsync(List<Map<String, Object>> actions) {
         Map<String, Object> req = new HashMap<>();
         req.put("clientId", clientId);
         req.put("method", "execute");
         req.put("actions", actions);
+        req.put("sessionDone", true);
+        return postWithFailover(req, nextNode(), 0, requestTimeoutMs, null).thenApply(Routed::response);
+    }
+
+    /**
+     * 分步执行：每步一个请求，按序串接（不占用调用线程）；stopOnError 时首个失败后不再发送。
+     * 首步可在连接失败时换节点，之后固定在该节点。
+     */
+    public CompletableFuture<List<Map<String, Object>>> executeStepwiseAsync(List<Map<String, Object>> actions,
+                                                                            boolean stopOnError,
+                                                                            String sessionId) {
+        String sid = (sessionId != null && !sessionId.isBlank()) ? sessionId : UUID.randomUUID().toString();
+        List<Map<String, Object>> results = new ArrayList<>(actions.size());
+        if (actions.isEmpty()) {
+            return CompletableFuture.completedFuture(results);
+        }
+        // 上一次运行结束与 cancel 竞争时可能留下标记，不能让它截断这次运行
+        cancelled.remove(sid);
+        Map<String, Object> first = stepRequest(actions.get(0), sid, 0, actions.size() == 1, stopOnError);
+        return postWithFailover(first, nextNode(), 0, effectiveTimeout(actions.get(0)), sid)
+                .thenCompose(routed -> {
+                    results.add(routed.response());
+                    return nextStep(routed.node(), actions, 1, sid, stopOnError, results, routed.response());
+                })
+                .whenComplete((r, e) -> {
+                    running.remove(sid);
+                    cancelled.remove(sid);
+                });
+    }
+
+    private CompletableFuture<List<Map<String, Object>>> nextStep(URI node, List<Map<String, Object>> actions, int i,
+                                                                 String sid, boolean stopOnError,
+                                                                 List<Map<String, Object>> results,
+                                                                 Map<String, Object> previous) {
+        if (i >= actions.size() || (stopOnError && !StepResult.isOk(previous)) || cancelled.contains(sid)) {
+            return CompletableFuture.completedFuture(results);
+        }
+        Map<String, Object> req = stepRequest(actions.get(i), sid, i, i == actions.size() - 1, stopOnError);
+        return post(node, req, effectiveTimeout(actions.get(i)))
+                .thenCompose(resp -> {
+                    results.add(resp);
+                    return nextStep(node, actions, i + 1, sid, stopOnError, results, resp);
+                });
+    }
+
+    /** 响应及实际处理它的节点 */
+    private record Routed(URI node, Map<String, Object> response) {
+    }
+
+    /** @param sid 非空时把会话登记到当前尝试的节点，cancel 发往实际处理请求的节点 */
+    private CompletableFuture<Routed> postWithFailover(Map<String, Object> req, int start, int attempt, long timeoutMs,
+                                                      String sid) {
+        URI node = nodes.get((start + attempt) % nodes.size());
+        if (sid != null) {
+            running.put(sid, node);
+        }
+        return post(node, req, timeoutMs)
+                .thenApply(resp -> new Routed(node, resp))
+                .exceptionallyCompose(e -> {
+                    Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                    boolean unreachable = cause instanceof ConnectException || cause instanceof HttpConnectTimeoutException;
+                    if (unreachable && attempt + 1 < nodes.size()) {
+                        log.warn("MCP node {} unreachable, trying next node", node);
+                        return postWithFailover(req, start, attempt + 1, timeoutMs, sid);
+                    }
+                    return CompletableFuture.failedFuture(cause);
+                });
+    }
+
+    /**
+     * 取消：执行中的会话发给其所在节点，并停止发送后续步骤；否则（会话在步骤之间空闲）发给每个节点，
+     * 返回回收了浏览器的那个节点的应答。
+     */
+    @Override
+    public Map<String, Object> cancel(String sessionId) throws IOException {
+        Map<String, Object> req = new HashMap<>();
+        req.put("clientId", clientId);
+        req.put("method", "cancel");
+        req.put("sessionId", sessionId);
+        // 只在运行仍登记时打标记：运行恰好结束时不会留下截断下一次运行的标记
+        URI node = running.computeIfPresent(sessionId, (sid, n) -> {
+            cancelled.add(sid);
+            return n;
+        });
+        if (node != null) {
+            return await(post(node, req, CANCEL_TIMEOUT_MS));
+        }
+        Map<String, Object> last = null;
+        for (URI candidate : nodes) {
+            last = await(post(candidate, req, CANCEL_TIMEOUT_MS));
+            if (last.get("data") instanceof Map<?, ?> data && Boolean.TRUE.equals(data.get("browserClosed"))) {
+                return last;
+            }
+        }
+        return last;
+    }
+
+    /** 宏登记在每个节点上（会话可能被分配到任意节点）；任一节点失败即返回该节点的响应 */
+    @Override
+    public Map<String, Object> defineMacro(String name, List<String> params,
+                                           List<Map<String, Object>> actions) throws IOException {
+        Map<String, Object> req = new HashMap<>();
+        req.put("clientId", clientId);
+        req.put("method", "define_macro");
+        req.put("macro", name);
+        req.put("params", params == null ? List.of() : params);
+        req.put("actions", actions);
+        Map<String, Object> last = null;
+        for (URI node : nodes) {
+            last = await(post(node, req, requestTimeoutMs));
+            if (!StepResult.isOk(last)) {
+                return last;
+            }
+        }
+        return last;
+    }
+
+    /** 探测第一个节点的 GET /api/health（节点池中每个 HttpInvoker 只配一个节点）。 */
+    @Override
+    public Map<String, Object> health() throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(nodes.get(0) + "/api/health"))
+                .timeout(Duration.ofSeconds(10))
+                .header("Accept", "application/json")
+                .GET()
+                .build();
+        return await(http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(resp -> {
+                    if (resp.statusCode() / 100 != 2) {
+                        throw new CompletionException(new IOException("Health probe failed: HTTP " + resp.statusCode()));
+                    }
+                    try {
+                        return mapper.readValue(resp.body(), MAP_TYPE);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+    }
+
+    private CompletableFuture<Map<String, Object>> post(URI node, Map<String, Object> req, long timeoutMs) {
+        byte[] body;
+        try {
+            body = mapper.writeValueAsBytes(req);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpRequest request = HttpRequest.newBuilder(URI.create(node + "/api/execute"))
+                .timeout(Duration.ofMillis(timeoutMs))
+                .header("Content-Type", "application/json")
+                .header("Accept", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                .build();
+        return http.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+                .thenApply(resp -> {
+                    // 429：服务端准入拒绝，响应体仍是 envelope（rejected / queuePosition），按普通失败步骤返回
+                    boolean rejected = resp.statusCode() == 429;
+                    if ((resp.statusCode() / 100 != 2 && !rejected) || resp.body() == null || resp.body().length == 0) {
+                        throw new CompletionException(new IOException("HTTP server error: " + resp.statusCode() + " from " + node));
+                    }
+                    try {
+                        return mapper.readValue(resp.body(), MAP_TYPE);
+                    } catch (IOException e) {
+                        throw new CompletionException(new IOException("Invalid server response from " + node, e));
+                    }
+                });
+    }
+
+    private Map<String, Object> stepRequest(Map<String, Object> action, String sessionId, int stepIndex,
+                                            boolean sessionDone, boolean stopOnError) {
+        Map<String, Object> req = new HashMap<>();
+        req.put("method", "execute");
+        req.put("clientId", clientId);
+        req.put("sessionId", sessionId);
+        req.put("stepIndex", stepIndex);
+        req.put("sessionDone", sessionDone);
+        req.put("stopOnError", stopOnError);
+        req.put("actions", List.of(action));
+        return req;
+    }
+
+    private long effectiveTimeout(Map<String, Object> action) {
+        Object hint = action == null ? null : action.get("timeoutMs");
+        if (hint instanceof Number n) {
+            return Math.max(requestTimeoutMs, n.longValue());
+        }
+        if (hint instanceof String s) {
+            try {
+                return Math.max(requestTimeoutMs, Long.parseLong(s));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return requestTimeoutMs;
+    }
+
+    private int nextNode() {
+        return Math.floorMod(cursor.getAndIncrement(), nodes.size());
+    }
 
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        ResponseEntity<Map> resp = rest.exchange(
-                baseUrl + "/api/execute",
-                HttpMethod.POST,
-                new HttpEntity<>(req, headers),
-                Map.class
-        );
-        if (resp.getStatusCode().is2xxSuccessful() && resp.getBody() != null) {
-            return resp.getBody();
-        }
-        throw new IOException("HTTP server error: " + resp.getStatusCode());
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for MCP server", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            // 连接超时是节点不可达；请求超时是步骤太慢，节点仍在响应
+            if (cause instanceof HttpTimeoutException && !(cause instanceof HttpConnectTimeoutException)) {
+                throw new StepTimeoutException("Server timed out while waiting response", cause);
+            }
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause == null ? e.getMessage() : cause.getMessage(), cause);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        pool.shutdownNow();
     }
 }
@@ -1,4 +1,3 @@
-
 package com.example.mcp.client.transport;
 
 import org.springframework.beans.factory.annotation.Value;
@@ -9,17 +8,26 @@ public class InvokerFactory {
     private final String transport; // stdio | http
     private final StdioInvoker stdio;
     private final HttpInvoker http;
+    private final NodeFleet fleet;
 
     public InvokerFactory(@Value("${mcp.transport:stdio}") String transport,
                           StdioInvoker stdio,
-                          HttpInvoker http) {
+                          HttpInvoker http,
+                          NodeFleet fleet) {
         this.transport = transport;
         this.stdio = stdio;
         this.http = http;
+        this.fleet = fleet;
     }
 
     public TransportInvoker get() {
+        // mcp.fleet.enabled 且配置了节点时优先走节点池
+        if (fleet.isActive()) return fleet;
         if ("http".equalsIgnoreCase(transport)) return http;
         return stdio;
     }
+
+    public NodeFleet fleet() {
+        return fleet;
+    }
 }
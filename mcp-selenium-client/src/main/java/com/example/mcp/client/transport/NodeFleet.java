@@ -0,0 +1,371 @@
+package com.example.mcp.client.transport;
+
+import com.example.mcp.client.stdio.StdioServerProcess;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 客户端侧的服务端节点池（{@code mcp.fleet.enabled=true} 时由 {@link InvokerFactory} 返回）。
+ * <ul>
+ *     <li>节点来自 {@code mcp.fleet.nodes}：{@code transport: stdio}（按 {@code count} 派生本地进程，
+ *     沿用 {@code mcp.server.command}）或 {@code url: http://host:port}。</li>
+ *     <li>路由：同一 sessionId 粘在同一节点；新会话选负载（粘滞会话 + 无会话的在途调用，除以容量）最小的 UP 节点，
+ *     平手轮询。空闲的粘滞会话仍占着浏览器，所以按会话而不是按在途请求计负载；以 quit 结束的计划与
+ *     {@code sticky-ttl-ms} 内未再使用的会话解除粘滞。</li>
+ *     <li>周期探测 health：更新容量；连续 {@code eject-after-failures} 次传输/探测失败即摘除，
+ *     冷却后探测成功再接回。步骤超时（{@link StepTimeoutException}，慢页面）与调用方中断不算节点失败。未运行的 STDIO 进程不探测（不为探测拉起进程）。{@code drain} 后不接新会话，
+ *     在途会话照常跑完。</li>
+ * </ul>
+ */
+@Component
+public final class NodeFleet implements TransportInvoker, DisposableBean {
+
+    private static final Logger log = LoggerFactory.getLogger(NodeFleet.class);
+
+    /** mcp.fleet.nodes 的一项 */
+    public record NodeSpec(String id, String transport, String url, Integer count, Integer maxSessions) {
+    }
+
+    private record Sticky(FleetNode node, long lastUsed) {
+    }
+
+    private final boolean enabled;
+    private final List<FleetNode> nodes;
+    private final Map<String, Sticky> sticky = new ConcurrentHashMap<>();
+    private final AtomicInteger cursor = new AtomicInteger();
+    private final int ejectAfterFailures;
+    private final long ejectCooldownMs;
+    private final long stickyTtlMs;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService probePool;
+
+    public NodeFleet(Environment env,
+                     StdioServerProcess stdio,
+                     @Value("${mcp.clientId:demo-client}") String clientId,
+                     @Value("${mcp.fleet.enabled:false}") boolean enabled,
+                     @Value("${mcp.fleet.max-sessions-per-node:1}") int defaultCapacity,
+                     @Value("${mcp.fleet.probe-interval-ms:10000}") long probeIntervalMs,
+                     @Value("${mcp.fleet.eject-after-failures:3}") int ejectAfterFailures,
+                     @Value("${mcp.fleet.eject-cooldown-ms:30000}") long ejectCooldownMs,
+                     @Value("${mcp.fleet.sticky-ttl-ms:600000}") long stickyTtlMs,
+                     @Value("${mcp.http.connect-timeout-ms:5000}") long connectTimeoutMs,
+                     @Value("${mcp.http.request-timeout-ms:180000}") long requestTimeoutMs) {
+        this(enabled, enabled ? build(env, stdio, clientId, defaultCapacity, connectTimeoutMs, requestTimeoutMs) : List.of(),
+                probeIntervalMs, ejectAfterFailures, ejectCooldownMs, stickyTtlMs);
+    }
+
+    /** @param probeIntervalMs &lt;= 0 时不起探测线程，由调用方直接 {@link #probeAll()}（同步探测） */
+    NodeFleet(boolean enabled, List<FleetNode> nodes, long probeIntervalMs, int ejectAfterFailures,
+              long ejectCooldownMs, long stickyTtlMs) {
+        this.enabled = enabled;
+        this.nodes = List.copyOf(nodes);
+        this.ejectAfterFailures = Math.max(1, ejectAfterFailures);
+        this.ejectCooldownMs = ejectCooldownMs;
+        this.stickyTtlMs = stickyTtlMs;
+        if (enabled && !this.nodes.isEmpty() && probeIntervalMs > 0) {
+            this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "mcp-fleet-probe");
+                t.setDaemon(true);
+                return t;
+            });
+            AtomicInteger seq = new AtomicInteger();
+            this.probePool = Executors.newFixedThreadPool(Math.min(this.nodes.size(), 8), r -> {
+                Thread t = new Thread(r, "mcp-fleet-probe-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            scheduler.scheduleWithFixedDelay(this::probeAll, 0, Math.max(1000, probeIntervalMs), TimeUnit.MILLISECONDS);
+            log.info("MCP node fleet enabled with {} node(s)", this.nodes.size());
+        } else {
+            this.scheduler = null;
+            this.probePool = null;
+            if (enabled && this.nodes.isEmpty()) {
+                log.warn("mcp.fleet.enabled=true but mcp.fleet.nodes is empty; fleet stays inactive");
+            }
+        }
+    }
+
+    private static List<FleetNode> build(Environment env, StdioServerProcess stdio, String clientId, int defaultCapacity,
+                                         long connectTimeoutMs, long requestTimeoutMs) {
+        List<NodeSpec> specs = Binder.get(env).bind("mcp.fleet.nodes", Bindable.listOf(NodeSpec.class))
+                .orElseGet(Collections::emptyList);
+        List<FleetNode> built = new ArrayList<>();
+        for (NodeSpec spec : specs) {
+            int capacity = Optional.ofNullable(spec.maxSessions()).orElse(Math.max(1, defaultCapacity));
+            if (spec.url() != null && !spec.url().isBlank()) {
+                String id = spec.id() != null ? spec.id() : "http-" + (built.size() + 1);
+                HttpInvoker invoker = new HttpInvoker(spec.url(), clientId, connectTimeoutMs, requestTimeoutMs, 2);
+                built.add(new FleetNode(id, "http", spec.url(), invoker, capacity));
+            } else {
+                int count = Math.max(1, Optional.ofNullable(spec.count()).orElse(1));
+                String prefix = spec.id() != null ? spec.id() : "stdio";
+                for (int i = 1; i <= count; i++) {
+                    String id = count == 1 ? prefix : prefix + "-" + i;
+                    StdioInvoker invoker = new StdioInvoker(stdio.derive(id, false));
+                    built.add(new FleetNode(id, "stdio", "local process", invoker, capacity));
+                }
+            }
+        }
+        return built;
+    }
+
+    public boolean isActive() {
+        return enabled && !nodes.isEmpty();
+    }
+
+    @Override
+    public Map<String, Object> execute(List<Map<String, Object>> actions) throws IOException {
+        FleetNode node = acquire(null);
+        try {
+            Map<String, Object> result = node.invoker().execute(actions);
+            node.recordSuccess();
+            return result;
+        } catch (IOException e) {
+            throw onTransportFailure(node, e);
+        } finally {
+            node.release(false);
+        }
+    }
+
+    /** 宏登记到所有节点（含已摘除的，便于恢复后直接可用）；任一节点失败即返回该节点的响应 */
+    @Override
+    public Map<String, Object> defineMacro(String name, List<String> params,
+                                           List<Map<String, Object>> actions) throws IOException {
+        Map<String, Object> last = null;
+        for (FleetNode node : nodes) {
+            last = node.invoker().defineMacro(name, params, actions);
+            if (!StepResult.isOk(last)) {
+                return last;
+            }
+        }
+        if (last == null) {
+            throw new IOException("No MCP nodes configured");
+        }
+        return last;
+    }
+
+    @Override
+    public List<Map<String, Object>> executeStepwise(List<Map<String, Object>> actions,
+                                                     boolean stopOnError,
+                                                     String sessionId) throws IOException {
+        String sid = (sessionId != null && !sessionId.isBlank()) ? sessionId : UUID.randomUUID().toString();
+        FleetNode node = acquire(sid);
+        try {
+            List<Map<String, Object>> steps = node.invoker().executeStepwise(actions, stopOnError, sid);
+            node.recordSuccess();
+            if (!actions.isEmpty() && "quit".equals(actions.get(actions.size() - 1).get("type"))) {
+                unstick(sid); // 浏览器已关闭，会话不再占用节点
+            }
+            return steps;
+        } catch (IOException e) {
+            throw onTransportFailure(node, e);
+        } finally {
+            node.release(true);
+        }
+    }
+
+    /** 取消发往会话所在节点；不知道节点（从未执行、已 quit 或粘滞已过期）时没有可取消的，直接返回 running=false */
+    @Override
+    public Map<String, Object> cancel(String sessionId) throws IOException {
+        Sticky pinned = sessionId == null ? null : sticky.get(sessionId);
+        if (pinned == null) {
+            Map<String, Object> data = new LinkedHashMap<>();
+            data.put("sessionId", sessionId);
+            data.put("running", false);
+            Map<String, Object> resp = new LinkedHashMap<>();
+            resp.put("status", "ok");
+            resp.put("message", "Session " + sessionId + " is not routed to any node; nothing to cancel");
+            resp.put("data", data);
+            return resp;
+        }
+        return pinned.node().invoker().cancel(sessionId);
+    }
+
+    /** 可接新会话的节点（UP）容量之和：客户端当前可同时驱动的浏览器数 */
+    public int capacity() {
+        return nodes.stream().filter(FleetNode::routable).mapToInt(FleetNode::capacity).sum();
+    }
+
+    public List<Map<String, Object>> snapshot() {
+        return nodes.stream().map(FleetNode::snapshot).toList();
+    }
+
+    /** @return false 当节点不存在 */
+    public boolean setDraining(String nodeId, boolean draining) {
+        for (FleetNode node : nodes) {
+            if (node.id().equals(nodeId)) {
+                node.setDraining(draining);
+                log.info("MCP node {} {}", nodeId, draining ? "draining" : "back in rotation");
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 与摘除（{@link #maybeEject}）互斥：不会把会话交给刚被摘除的节点 */
+    private FleetNode acquire(String sessionId) throws IOException {
+        long now = System.currentTimeMillis();
+        FleetNode best;
+        synchronized (this) {
+            if (sessionId != null) {
+                Sticky pinned = sticky.get(sessionId);
+                // 排空中的节点仍接收已有会话，只拒绝新会话
+                if (pinned != null && pinned.node().state() != FleetNode.State.EJECTED) {
+                    pinned.node().acquire(true);
+                    stick(sessionId, pinned.node(), now); // 期间可能刚被 TTL 清掉：按需重新计入
+                    return pinned.node();
+                }
+            }
+            best = null;
+            int start = Math.floorMod(cursor.getAndIncrement(), nodes.size());
+            for (int i = 0; i < nodes.size(); i++) {
+                FleetNode candidate = nodes.get((start + i) % nodes.size());
+                if (!candidate.routable()) {
+                    continue;
+                }
+                if (best == null || candidate.load() < best.load()
+                        || (candidate.load() == best.load() && candidate.outstanding() < best.outstanding())) {
+                    best = candidate;
+                }
+            }
+            if (best == null) {
+                throw new IOException("No healthy MCP server node available");
+            }
+            best.acquire(sessionId != null);
+            if (sessionId != null) {
+                stick(sessionId, best, now);
+            }
+        }
+        if (best.load() > 1.0) {
+            log.debug("MCP node {} over capacity ({} sessions/{}); all nodes saturated",
+                    best.id(), best.pinned(), best.capacity());
+        }
+        return best;
+    }
+
+    /** 粘滞会话计入节点负载；换节点（原节点被摘除）时从原节点移出 */
+    private void stick(String sessionId, FleetNode node, long now) {
+        Sticky previous = sticky.put(sessionId, new Sticky(node, now));
+        if (previous == null || previous.node() != node) {
+            node.pin();
+            if (previous != null) {
+                previous.node().unpin();
+            }
+        }
+    }
+
+    private void unstick(String sessionId) {
+        Sticky removed = sticky.remove(sessionId);
+        if (removed != null) {
+            removed.node().unpin();
+        }
+    }
+
+    /** 只有连不上、连接中断、进程退出等传输失败计入摘除；步骤超时说明节点仍在响应，中断是调用方放弃 */
+    private IOException onTransportFailure(FleetNode node, IOException e) {
+        if (!(e instanceof StepTimeoutException) && !(e.getCause() instanceof InterruptedException)) {
+            maybeEject(node, node.recordFailure(e.getMessage()), e.getMessage());
+        }
+        String message = "node " + node.id() + ": " + e.getMessage();
+        return e instanceof StepTimeoutException ? new StepTimeoutException(message, e) : new IOException(message, e);
+    }
+
+    private synchronized void maybeEject(FleetNode node, int failures, String reason) {
+        if (failures >= ejectAfterFailures && node.ejectedAt() == 0) {
+            node.eject(System.currentTimeMillis());
+            log.warn("MCP node {} ejected after {} consecutive failures: {}", node.id(), failures, reason);
+        }
+    }
+
+    void probeAll() {
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, Sticky> e : sticky.entrySet()) {
+            Sticky s = e.getValue();
+            if (now - s.lastUsed() > stickyTtlMs && s.node().outstanding() == 0 && sticky.remove(e.getKey(), s)) {
+                s.node().unpin();
+            }
+        }
+        for (FleetNode node : nodes) {
+            if (node.ejectedAt() > 0 && now - node.ejectedAt() < ejectCooldownMs) {
+                continue;
+            }
+            if (node.invoker() instanceof StdioInvoker si) {
+                if (!si.isRunning()) {
+                    // health 会拉起进程：未运行的节点不探测，下次路由到它时再启动
+                    if (node.readmitIdle(now)) {
+                        log.info("MCP node {} readmitted; its process starts on next use", node.id());
+                    }
+                    continue;
+                }
+                if (node.outstanding() > 0) {
+                    continue; // 管道正被会话占用；进程存活即视为健康
+                }
+            }
+            if (!node.probing.compareAndSet(false, true)) {
+                continue;
+            }
+            Runnable probe = () -> {
+                try {
+                    Map<String, Object> health = node.invoker().health();
+                    if (node.onProbe(health, System.currentTimeMillis())) {
+                        log.info("MCP node {} readmitted after successful probe", node.id());
+                    }
+                } catch (Exception e) {
+                    int failures = node.onProbeFailure(e.getMessage(), System.currentTimeMillis());
+                    if (node.ejectedAt() > 0) {
+                        node.eject(System.currentTimeMillis()); // 仍不可用，重新计冷却
+                    } else {
+                        maybeEject(node, failures, e.getMessage());
+                    }
+                } finally {
+                    node.probing.set(false);
+                }
+            };
+            if (probePool == null) {
+                probe.run();
+            } else {
+                probePool.execute(probe);
+            }
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            probePool.shutdownNow();
+        }
+        for (FleetNode node : nodes) {
+            try {
+                if (node.invoker() instanceof StdioInvoker si) {
+                    si.close();
+                } else if (node.invoker() instanceof HttpInvoker hi) {
+                    hi.destroy();
+                }
+            } catch (Exception e) {
+                log.debug("Error while closing MCP node {}: {}", node.id(), e.getMessage());
+            }
+        }
+    }
+}
@@ -14,6 +14,7 @@ public class StdioInvoker implements TransportInvoker {
     public StdioInvoker(StdioServerProcess stdio) { this.stdio = stdio; }
 
     // 新增：分步执行，带 stopOnError / sessionId
+    @Override
     public List<Map<String, Object>> executeStepwise(
             List<Map<String, Object>> actions,
             boolean stopOnError,
@@ -23,17 +24,28 @@ public class StdioInvoker implements TransportInvoker {
         List<Map<String, Object>> results = new ArrayList<>();
         String sid = (sessionId != null && !sessionId.isBlank()) ? sessionId : UUID.randomUUID().toString();
 
-        for (int i = 0; i < actions.size(); i++) {
-            Map<String, Object> action = actions.get(i);
-            boolean sessionDone = (i == actions.size() - 1);
-            Map<String, Object> resp = stdio.rpcExecuteOne(action, sid, i, sessionDone, defaultTimeoutMs);
-            results.add(resp);
+        stdio.beginRun(sid);
+        try {
+            // 流水线：提前写入后续步骤，往返与 JSON 编解码和服务端执行重叠；stopOnError 由服务端取消排队步骤
+            int window = stdio.pipelineWindow();
+            if (window > 1 && actions.size() > 1) {
+                return stdio.rpcExecutePipelined(actions, sid, stopOnError, window, defaultTimeoutMs);
+            }
+
+            for (int i = 0; i < actions.size(); i++) {
+                Map<String, Object> action = actions.get(i);
+                boolean sessionDone = (i == actions.size() - 1);
+                Map<String, Object> resp = stdio.rpcExecuteOne(action, sid, i, sessionDone, defaultTimeoutMs);
+                results.add(resp);
 
-            boolean ok = Boolean.TRUE.equals(resp.get("ok")) // 建议服务端严格返回 ok=true/false
-                    || "ok".equalsIgnoreCase(String.valueOf(resp.get("status")));
-            if (!ok && stopOnError) break;
+                boolean ok = StepResult.isOk(resp);
+                if (!ok && stopOnError) break;
+                if (stdio.cancelRequested(sid)) break;
+            }
+            return results;
+        } finally {
+            stdio.endRun(sid);
         }
-        return results;
     }
 
     @Override
@@ -42,7 +54,31 @@ public class StdioInvoker implements TransportInvoker {
         return stdio.rpcExecute(actions);
     }
 
+    @Override
+    public Map<String, Object> defineMacro(String name, List<String> params,
+                                           List<Map<String, Object>> actions) throws IOException {
+        return stdio.rpcDefineMacro(name, params, actions);
+    }
+
+    @Override
+    public Map<String, Object> cancel(String sessionId) throws IOException {
+        return stdio.rpcCancel(sessionId);
+    }
+
+    @Override
+    public Map<String, Object> health() throws IOException {
+        return stdio.rpcHealth(10_000);
+    }
+
+    public boolean isRunning() {
+        return stdio.isRunning();
+    }
+
     public void restart() throws IOException {
         stdio.restart();
     }
+
+    public void close() throws IOException {
+        stdio.close();
+    }
 }
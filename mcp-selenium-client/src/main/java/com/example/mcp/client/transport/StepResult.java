@@ -0,0 +1,41 @@
+package com.example.mcp.client.transport;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 服务端响应 {@code results} 中的一条：每个动作一条，按 index 对应请求内的动作序号。
+ * status: ok | error | skipped。
+ */
+public record StepResult(int index, String type, String status, Object value, Long durationMs, String error) {
+
+    public boolean ok() {
+        return "ok".equals(status);
+    }
+
+    /** 响应（envelope）整体是否成功 */
+    public static boolean isOk(Map<String, Object> response) {
+        return response != null && (Boolean.TRUE.equals(response.get("ok"))
+                || "ok".equalsIgnoreCase(String.valueOf(response.get("status"))));
+    }
+
+    public static List<StepResult> listOf(Map<String, Object> response) {
+        if (response == null || !(response.get("results") instanceof List<?> raw)) {
+            return List.of();
+        }
+        List<StepResult> out = new ArrayList<>(raw.size());
+        for (Object item : raw) {
+            if (item instanceof Map<?, ?> m) {
+                out.add(new StepResult(
+                        m.get("index") instanceof Number n ? n.intValue() : out.size(),
+                        m.get("type") == null ? null : String.valueOf(m.get("type")),
+                        m.get("status") == null ? null : String.valueOf(m.get("status")),
+                        m.get("value"),
+                        m.get("durationMs") instanceof Number d ? d.longValue() : null,
+                        m.get("error") == null ? null : String.valueOf(m.get("error"))));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.mcp.client.transport;
+
+import java.io.IOException;
+
+/**
+ * 步骤在服务端的时限内没有应答（慢页面、长等待）。节点本身仍在响应，{@link NodeFleet} 不把它计入摘除；
+ * 连不上、连接中断、进程退出等传输失败仍是普通 {@link IOException}。
+ */
+public class StepTimeoutException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public StepTimeoutException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
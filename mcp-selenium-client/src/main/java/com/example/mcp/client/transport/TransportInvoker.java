@@ -1,4 +1,3 @@
-
 package com.example.mcp.client.transport;
 
 import java.io.IOException;
@@ -7,4 +6,36 @@ import java.util.Map;
 
 public interface TransportInvoker {
     Map<String, Object> execute(List<Map<String, Object>> actions) throws IOException;
+
+    /**
+     * 分步执行（sessionId / stepIndex / sessionDone / stopOnError）。默认退化为一次性提交，
+     * 整体结果作为唯一一步返回。
+     */
+    default List<Map<String, Object>> executeStepwise(List<Map<String, Object>> actions,
+                                                      boolean stopOnError,
+                                                      String sessionId) throws IOException {
+        return List.of(execute(actions));
+    }
+
+    /**
+     * 在服务端登记宏（define_macro）：params 为参数声明（name 或 name=默认值），actions 中可用 ${name} 占位；
+     * 之后计划用 {@code {"type":"call_macro","name":…,"args":{…}}} 调用。返回服务端响应。
+     */
+    default Map<String, Object> defineMacro(String name, List<String> params,
+                                            List<Map<String, Object>> actions) throws IOException {
+        throw new IOException("macros not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * 放弃 sessionId 上正在进行的计划：服务端中断当前步骤、取消已排队的步骤并回收浏览器，
+     * 执行中的 {@link #executeStepwise} 不再发送后续步骤，返回已得到的结果。返回服务端（或传输层）的应答。
+     */
+    default Map<String, Object> cancel(String sessionId) throws IOException {
+        throw new IOException("cancel not supported by " + getClass().getSimpleName());
+    }
+
+    /** 健康/容量探测（status、capacity、activeSessions …）；不支持的传输抛 IOException。 */
+    default Map<String, Object> health() throws IOException {
+        throw new IOException("health probe not supported by " + getClass().getSimpleName());
+    }
 }
@@ -2,6 +2,7 @@ package com.example.mcp.client.web;
 
 import com.example.mcp.client.assist.DomSelectorHintService;
 import com.example.mcp.client.assist.DomSelectorHintService.SelectorHint;
+import com.example.mcp.client.assist.ElementCatalog;
 import com.example.mcp.client.assist.PromptAnalysisUtils;
 import com.example.mcp.client.assist.SelectorSensingService;
 import org.springframework.util.StringUtils;
@@ -21,25 +22,32 @@ public class AssistController {
 
     private final DomSelectorHintService hintService;
     private final SelectorSensingService sensingService;
+    private final ElementCatalog catalog;
 
     public AssistController(DomSelectorHintService hintService,
-                            SelectorSensingService sensingService) {
+                            SelectorSensingService sensingService,
+                            ElementCatalog catalog) {
         this.hintService = hintService;
         this.sensingService = sensingService;
+        this.catalog = catalog;
     }
 
     @PostMapping("/selector-hints")
     public Map<String, Object> selectorHints(@RequestBody Map<String, Object> body) {
         String prompt = stringValue(body.get("prompt"));
         String url = stringValue(body.get("url"));
-        if (!StringUtils.hasText(url)) {
+        boolean explicitUrl = StringUtils.hasText(url);
+        if (!explicitUrl) {
             url = PromptAnalysisUtils.extractPrimaryUrl(prompt);
         }
         List<String> keywords = extractKeywords(body, prompt);
         List<Map<String, Object>> hints = sensingService.sense(url, keywords, 8);
         String source = "runtime";
         if (hints.isEmpty()) {
-            hints = hintService.suggest(url, keywords, 8).stream()
+            List<SelectorHint> staticHints = explicitUrl
+                    ? hintService.suggest(url, keywords, 8)
+                    : hintService.suggestFromPrompt(prompt, keywords, 8);
+            hints = staticHints.stream()
                     .map(SelectorHint::toMap)
                     .collect(Collectors.toList());
             source = "static";
@@ -53,6 +61,22 @@ public class AssistController {
         return result;
     }
 
+    /** Browser-free lookup across every catalogued page; {@code url} narrows it to one page. */
+    @PostMapping("/catalog/search")
+    public Map<String, Object> catalogSearch(@RequestBody Map<String, Object> body) {
+        String prompt = stringValue(body.get("prompt"));
+        String url = stringValue(body.get("url"));
+        List<String> keywords = extractKeywords(body, prompt);
+        int limit = body.get("limit") instanceof Number n ? n.intValue() : 10;
+        List<Map<String, Object>> hits = catalog.query(url, keywords, limit);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("url", url);
+        result.put("keywords", keywords);
+        result.put("hits", hits);
+        result.put("catalog", catalog.stats());
+        return result;
+    }
+
     @SuppressWarnings("unchecked")
     private List<String> extractKeywords(Map<String, Object> body, String prompt) {
         Object raw = body.get("keywords");
@@ -1,12 +1,17 @@
 package com.example.mcp.client.web;
 
 import com.example.mcp.client.assist.SelectorSensingService;
+import com.example.mcp.client.history.RunHistoryStore;
+import com.example.mcp.client.history.RunRecord;
 import com.example.mcp.client.llm.ActionPlan;
 import com.example.mcp.client.llm.LlmActionPlanner;
 import com.example.mcp.client.llm.NaturalInstructionParser;
+import com.example.mcp.client.plan.PlanOptimizer;
 import com.example.mcp.client.transport.InvokerFactory;
 import com.example.mcp.client.transport.StdioInvoker;
+import com.example.mcp.client.transport.StepResult;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.ArrayList;
@@ -24,16 +29,26 @@ public class CommandController {
     private final NaturalInstructionParser instructionParser;
     private final LlmActionPlanner llmPlanner;
     private final SelectorSensingService sensingService;
+    private final PlanOptimizer optimizer;
+    private final RunHistoryStore history;
+    // 规则解析可信度达到该阈值时直接执行，不再调用 LLM
+    private final double fastPathThreshold;
 
     public CommandController(
             InvokerFactory invokerFactory,
             Optional<NaturalInstructionParser> instructionParser,
             Optional<LlmActionPlanner> llmPlanner,
-            Optional<SelectorSensingService> sensingService) {
+            Optional<SelectorSensingService> sensingService,
+            PlanOptimizer optimizer,
+            RunHistoryStore history,
+            @Value("${mcp.planner.fast-path-threshold:0.75}") double fastPathThreshold) {
         this.invokerFactory = invokerFactory;
         this.instructionParser = instructionParser.orElse(null);
         this.llmPlanner = llmPlanner.orElse(null);
         this.sensingService = sensingService.orElse(null);
+        this.optimizer = optimizer;
+        this.history = history;
+        this.fastPathThreshold = fastPathThreshold;
     }
 
     @PostMapping("/execute")
@@ -41,7 +56,8 @@ public class CommandController {
             @RequestBody Map<String, Object> body,
             @RequestParam(name = "fresh", defaultValue = "false") boolean fresh,
             @RequestParam(name = "stopOnError", defaultValue = "true") boolean stopOnError,
-            @RequestParam(name = "sessionId", required = false) String sessionId) throws Exception {
+            @RequestParam(name = "sessionId", required = false) String sessionId,
+            @RequestParam(name = "optimize", defaultValue = "true") boolean optimize) throws Exception {
 
         // 1) fresh 会话：显式重启（仅 stdio 有意义）
         var invoker = invokerFactory.get();
@@ -53,67 +69,138 @@ public class CommandController {
         // 这里假设 body 里已是 actions（前端也可直接传）
         List<Map<String, Object>> selectorHints = extractSelectorHints(body.get("selectorHints"));
         Object raw = body.getOrDefault("actions", body.get("plan"));
+        String planner = raw == null ? null : "client";
+        Double planConfidence = null;
         if (raw == null && body.get("prompt") instanceof String prompt && !prompt.isBlank()) {
-            if ((selectorHints == null || selectorHints.isEmpty()) && sensingService != null) {
-                List<Map<String, Object>> autoHints = sensingService.senseFromPrompt(prompt);
-                if (!autoHints.isEmpty()) {
-                    selectorHints = autoHints;
-                }
+            if (sensingService != null) {
+                sensingService.rememberPrompt(prompt);
             }
-            List<Map<String, Object>> llmActions = llmPlanner == null
-                    ? null
-                    : llmPlanner.plan(prompt, selectorHints).orElse(null);
-            if (llmActions != null && !llmActions.isEmpty()) {
-                raw = llmActions;
+            // 2.1) 规则快速通道：高可信度时不感知、不调 LLM
+            ActionPlan fast = instructionParser == null ? null : instructionParser.parse(prompt, selectorHints);
+            if (isConfident(fast)) {
+                raw = fast;
+                planner = "rules";
+                planConfidence = fast.getConfidence();
             } else {
-                if (instructionParser == null) {
-                    throw new IllegalArgumentException("Missing 'actions' and no parser available");
+                if ((selectorHints == null || selectorHints.isEmpty()) && sensingService != null) {
+                    List<Map<String, Object>> autoHints = sensingService.senseFromPrompt(prompt);
+                    if (!autoHints.isEmpty()) {
+                        selectorHints = autoHints;
+                        // 2.2) 拿到页面 hints 后再试一次规则解析
+                        fast = instructionParser == null ? null : instructionParser.parse(prompt, selectorHints);
+                    }
+                }
+                if (isConfident(fast)) {
+                    raw = fast;
+                    planner = "rules";
+                    planConfidence = fast.getConfidence();
+                } else {
+                    List<Map<String, Object>> llmActions = llmPlanner == null
+                            ? null
+                            : llmPlanner.plan(prompt, selectorHints).orElse(null);
+                    if (llmActions != null && !llmActions.isEmpty()) {
+                        raw = llmActions;
+                        planner = "llm";
+                    } else {
+                        if (fast == null) {
+                            throw new IllegalArgumentException("Missing 'actions' and no parser available");
+                        }
+                        raw = fast;
+                        planner = "rules";
+                        planConfidence = fast.getConfidence();
+                    }
                 }
-                ActionPlan plan = instructionParser.parse(prompt);
-                raw = plan;
             }
         }
         List<Map<String, Object>> actions = coerceToActions(raw);
         if (actions.isEmpty()) {
             throw new IllegalArgumentException("No actions available to execute");
         }
+        // 执行历史的用例键：显式 case，其次提示词，否则为（改写前的）计划本身
+        String caseName = body.get("case") instanceof String c && !c.isBlank() ? c
+                : body.get("prompt") instanceof String p && !p.isBlank() ? p
+                : mapper.writeValueAsString(actions);
 
-        // 3) 分步执行（推荐）
-        if (invoker instanceof StdioInvoker si) {
-            try {
-                List<Map<String, Object>> steps = si.executeStepwise(actions, stopOnError, sessionId);
-                boolean allOk = steps.stream().allMatch(this::isOk);
-                Map<String, Object> resp = new LinkedHashMap<>();
-                resp.put("ok", allOk);
-                if (sessionId != null && !sessionId.isBlank()) {
-                    resp.put("sessionId", sessionId);
-                }
-                resp.put("steps", steps);
-                resp.put("actions", actions);
-                return resp;
-            } catch (Exception e) {
-                Map<String, Object> resp = new LinkedHashMap<>();
-                resp.put("ok", false);
-                if (sessionId != null && !sessionId.isBlank()) {
-                    resp.put("sessionId", sessionId);
-                }
-                resp.put("error", "STDIO transport failed: " + e.getMessage());
-                return resp;
+        // 2.3) 下发前改写：合并等待、删除重复导航/打开、融合 type+key_press（?optimize=false 或 body.optimize=false 关闭）
+        Map<String, Object> optimizerReport = null;
+        if (optimize && optimizer.isEnabled() && !Boolean.FALSE.equals(body.get("optimize"))) {
+            PlanOptimizer.Result optimized = optimizer.optimize(actions);
+            optimizerReport = optimized.report(actions.size());
+            actions = optimized.actions();
+        }
+
+        // 3) 分步执行：STDIO 与 HTTP 均支持 sessionId / stopOnError
+        long started = System.currentTimeMillis();
+        try {
+            List<Map<String, Object>> steps = invoker.executeStepwise(actions, stopOnError, sessionId);
+            boolean allOk = steps.stream().allMatch(StepResult::isOk);
+            RunRecord run = history.record(caseName, sessionId, actions, steps, started, System.currentTimeMillis() - started);
+            Map<String, Object> resp = new LinkedHashMap<>();
+            resp.put("ok", allOk);
+            if (sessionId != null && !sessionId.isBlank()) {
+                resp.put("sessionId", sessionId);
+            }
+            if (run != null) {
+                resp.put("runId", run.runId());
+                resp.put("caseHash", Long.toHexString(run.caseHash()));
+            }
+            resp.put("steps", steps);
+            resp.put("actions", actions);
+            if (optimizerReport != null) {
+                resp.put("optimizer", optimizerReport);
             }
+            putPlanner(resp, planner, planConfidence);
+            return resp;
+        } catch (Exception e) {
+            Map<String, Object> resp = new LinkedHashMap<>();
+            resp.put("ok", false);
+            if (sessionId != null && !sessionId.isBlank()) {
+                resp.put("sessionId", sessionId);
+            }
+            String transport = invoker instanceof StdioInvoker ? "STDIO" : "HTTP";
+            String error = transport + " transport failed: " + e.getMessage();
+            resp.put("error", error);
+            // 最严重的失败（步骤超时、会话被杀、服务端退出）也进执行历史
+            RunRecord run = history.recordFailure(caseName, sessionId, started, System.currentTimeMillis() - started, error);
+            if (run != null) {
+                resp.put("runId", run.runId());
+                resp.put("caseHash", Long.toHexString(run.caseHash()));
+            }
+            return resp;
         }
+    }
 
-        // 4) HTTP 场景：仍可一次性提交（或你也能实现 HttpInvoker.executeOne + 步进）
-        Map<String, Object> oneShot = invoker.execute(actions);
-        return Map.of("ok", isOk(oneShot), "result", oneShot, "actions", actions);
+    /**
+     * 放弃 sessionId 上正在执行的计划（UI 放弃、CI 超时）：中断当前步骤、跳过排队步骤并回收浏览器。
+     * 进行中的 POST /api/execute 随后返回已执行部分的结果。
+     */
+    @DeleteMapping("/sessions/{sessionId}")
+    public Map<String, Object> cancel(@PathVariable String sessionId) {
+        var invoker = invokerFactory.get();
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("sessionId", sessionId);
+        try {
+            Map<String, Object> server = invoker.cancel(sessionId);
+            resp.put("ok", StepResult.isOk(server));
+            resp.put("server", server);
+        } catch (Exception e) {
+            resp.put("ok", false);
+            resp.put("error", "Cancel failed: " + e.getMessage());
+        }
+        return resp;
     }
 
-    private boolean isOk(Map<String, Object> resp) {
-        if (resp == null)
-            return false;
-        if (Boolean.TRUE.equals(resp.get("ok")))
-            return true;
-        Object st = resp.get("status");
-        return st != null && "ok".equalsIgnoreCase(String.valueOf(st));
+    private boolean isConfident(ActionPlan plan) {
+        return plan != null && !plan.getActions().isEmpty() && plan.getConfidence() >= fastPathThreshold;
+    }
+
+    private void putPlanner(Map<String, Object> resp, String planner, Double confidence) {
+        if (planner != null) {
+            resp.put("planner", planner);
+        }
+        if (confidence != null) {
+            resp.put("planConfidence", confidence);
+        }
     }
 
     @SuppressWarnings("unchecked")
@@ -191,6 +278,16 @@ public class CommandController {
             map.put("headless", action.headless);
         if (action.filename != null)
             map.put("filename", action.filename);
+        if (action.timeoutMs != null)
+            map.put("timeoutMs", action.timeoutMs);
+        if (action.x != null)
+            map.put("x", action.x);
+        if (action.y != null)
+            map.put("y", action.y);
+        if (action.frameIndex != null)
+            map.put("frameIndex", action.frameIndex);
+        if (action.note != null)
+            map.put("note", action.note);
         map.put("_source", "natural-parser");
         map.put("_idx", idx);
         return map;
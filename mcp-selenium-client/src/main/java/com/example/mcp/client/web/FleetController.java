@@ -0,0 +1,49 @@
+package com.example.mcp.client.web;
+
+import com.example.mcp.client.transport.NodeFleet;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** 节点池状态与运维操作（排空 / 恢复） */
+@RestController
+@RequestMapping("/api/fleet")
+public class FleetController {
+
+    private final NodeFleet fleet;
+
+    public FleetController(NodeFleet fleet) {
+        this.fleet = fleet;
+    }
+
+    @GetMapping
+    public Map<String, Object> status() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("active", fleet.isActive());
+        result.put("nodes", fleet.snapshot());
+        return result;
+    }
+
+    @PostMapping("/nodes/{id}/drain")
+    public ResponseEntity<Map<String, Object>> drain(@PathVariable("id") String id) {
+        return toggle(id, true);
+    }
+
+    @PostMapping("/nodes/{id}/undrain")
+    public ResponseEntity<Map<String, Object>> undrain(@PathVariable("id") String id) {
+        return toggle(id, false);
+    }
+
+    private ResponseEntity<Map<String, Object>> toggle(String id, boolean draining) {
+        if (!fleet.setDraining(id, draining)) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(status());
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.mcp.client.web;
+
+import com.example.mcp.client.history.RunHistoryStore;
+import com.example.mcp.client.history.RunRecord;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 执行历史查询。用例以 {@code /api/execute} 响应中的 {@code caseHash}（十六进制）标识，
+ * 或用 {@code ?case=} 传用例原文（显式 case / 提示词 / 计划 JSON）。例：
+ * <pre>
+ * curl 'http://localhost:19101/api/history/cases/9f1c2e0d4b7a6c31/runs?limit=100'
+ * curl 'http://localhost:19101/api/history/slow-steps?days=7&amp;limit=20'
+ * curl 'http://localhost:19101/api/history/failures?days=1'
+ * </pre>
+ */
+@RestController
+@RequestMapping("/api/history")
+public class HistoryController {
+
+    private static final Pattern CASE_HASH = Pattern.compile("[0-9a-fA-F]{1,16}");
+
+    private final RunHistoryStore history;
+
+    public HistoryController(RunHistoryStore history) {
+        this.history = history;
+    }
+
+    @GetMapping
+    public Map<String, Object> stats() {
+        return history.stats();
+    }
+
+    /** 某用例最近的运行（新 → 旧）；steps=true 时附各步详情。caseHash 不是 1~16 位十六进制时 400 */
+    @GetMapping("/cases/{caseHash}/runs")
+    public ResponseEntity<Map<String, Object>> caseRuns(@PathVariable String caseHash,
+                                                        @RequestParam(name = "limit", defaultValue = "1000") int limit,
+                                                        @RequestParam(name = "steps", defaultValue = "false") boolean steps) throws IOException {
+        if (!CASE_HASH.matcher(caseHash).matches()) {
+            return ResponseEntity.badRequest().body(Map.of("error", "caseHash must be 1-16 hex digits: " + caseHash));
+        }
+        return ResponseEntity.ok(runs(Long.parseUnsignedLong(caseHash, 16), limit, steps));
+    }
+
+    @GetMapping("/runs")
+    public Map<String, Object> caseRunsByName(@RequestParam(name = "case") String caseName,
+                                              @RequestParam(name = "limit", defaultValue = "1000") int limit,
+                                              @RequestParam(name = "steps", defaultValue = "false") boolean steps) throws IOException {
+        return runs(RunRecord.hash(caseName), limit, steps);
+    }
+
+    private Map<String, Object> runs(long caseHash, int limit, boolean steps) throws IOException {
+        List<Map<String, Object>> runs = history.caseRuns(caseHash, clamp(limit, 10_000), steps);
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("caseHash", Long.toHexString(caseHash));
+        resp.put("count", runs.size());
+        resp.put("passed", runs.stream().filter(r -> Boolean.TRUE.equals(r.get("ok"))).count());
+        resp.put("runs", runs);
+        return resp;
+    }
+
+    /** 最近 days 天内最慢的步骤（慢 → 快） */
+    @GetMapping("/slow-steps")
+    public Map<String, Object> slowSteps(@RequestParam(name = "days", defaultValue = "7") int days,
+                                         @RequestParam(name = "limit", defaultValue = "20") int limit) throws IOException {
+        long to = System.currentTimeMillis();
+        long from = to - Duration.ofDays(Math.max(1, days)).toMillis();
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("days", Math.max(1, days));
+        resp.put("steps", history.slowestSteps(from, to + 1, clamp(limit, 1000)));
+        return resp;
+    }
+
+    /** 最近 days 天内失败的运行（新 → 旧），附各步详情 */
+    @GetMapping("/failures")
+    public Map<String, Object> failures(@RequestParam(name = "days", defaultValue = "7") int days,
+                                        @RequestParam(name = "limit", defaultValue = "100") int limit) throws IOException {
+        long to = System.currentTimeMillis();
+        long from = to - Duration.ofDays(Math.max(1, days)).toMillis();
+        List<Map<String, Object>> runs = history.failures(from, to + 1, clamp(limit, 10_000));
+        Map<String, Object> resp = new LinkedHashMap<>();
+        resp.put("days", Math.max(1, days));
+        resp.put("count", runs.size());
+        resp.put("runs", runs);
+        return resp;
+    }
+
+    private static int clamp(int limit, int max) {
+        return Math.max(1, Math.min(limit, max));
+    }
+}
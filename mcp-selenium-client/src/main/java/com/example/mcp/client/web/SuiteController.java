@@ -0,0 +1,61 @@
+package com.example.mcp.client.web;
+
+import com.example.mcp.client.suite.SuiteRunner;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 数据驱动套件：请求体首行是计划模板（单行 JSON），其后是数据集（{@code format=csv} 带表头，或 {@code jsonl}）。
+ * 响应为 NDJSON，每行一个数据行的结果，最后一行 {@code {"summary":{…}}}。例：
+ * <pre>
+ * (echo '[{"type":"open_browser"},{"type":"goto","url":"${url}"},{"type":"find_text","text":"${expect}"}]'; cat rows.csv) |
+ *   curl -N -H 'Content-Type: text/csv' --data-binary @- 'http://localhost:19101/api/suite?parallelism=8'
+ * </pre>
+ */
+@RestController
+@RequestMapping("/api/suite")
+public class SuiteController {
+
+    private final SuiteRunner runner;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public SuiteController(SuiteRunner runner) {
+        this.runner = runner;
+    }
+
+    @PostMapping
+    public void run(InputStream body,
+                    @RequestHeader(name = "Content-Type", required = false) String contentType,
+                    @RequestParam(name = "format", required = false) String format,
+                    @RequestParam(name = "parallelism", defaultValue = "0") int parallelism,
+                    @RequestParam(name = "stopOnError", defaultValue = "true") boolean stopOnError,
+                    @RequestParam(name = "optimize", defaultValue = "true") boolean optimize,
+                    HttpServletResponse response) throws IOException {
+        String dataset = format != null && !format.isBlank() ? format.trim().toLowerCase(Locale.ROOT)
+                : contentType != null && contentType.contains("csv") ? "csv" : "jsonl";
+        SuiteRunner.Suite suite;
+        try {
+            suite = runner.open(body, dataset);
+        } catch (IllegalArgumentException e) {
+            response.setStatus(400);
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            mapper.writeValue(response.getOutputStream(), Map.of("ok", false, "error", e.getMessage()));
+            return;
+        }
+        response.setContentType("application/x-ndjson");
+        response.setCharacterEncoding("UTF-8");
+        response.setHeader("X-Accel-Buffering", "no"); // 反向代理不缓冲，逐行到达
+        suite.run(new SuiteRunner.Options(parallelism, stopOnError, optimize), response.getOutputStream());
+    }
+}
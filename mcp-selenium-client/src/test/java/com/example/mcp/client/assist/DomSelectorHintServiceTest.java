@@ -0,0 +1,130 @@
+package com.example.mcp.client.assist;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/** End-to-end hint ranking over a local stub HTTP server: dedupe across callers and 304 reuse. */
+class DomSelectorHintServiceTest {
+
+    private static final String PAGE = "<html><body><form>"
+            + "<input type=\"email\" name=\"email\" placeholder=\"Email address\">"
+            + "<input type=\"hidden\" name=\"csrf\" value=\"x\">"
+            + "<button id=\"login\">Sign in</button>"
+            + "</form></body></html>";
+
+    private HttpServer server;
+    private String url;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/login", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/login";
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if ("\"p1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = PAGE.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        exchange.getResponseHeaders().set("ETag", "\"p1\"");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static DomSelectorHintService service(long freshMs) {
+        return new DomSelectorHintService(new ElementCatalog(""), 5_000, freshMs, 16, 4);
+    }
+
+    @Test
+    void ranksCandidatesAndReusesThePageOn304() {
+        DomSelectorHintService service = service(0);
+        List<DomSelectorHintService.SelectorHint> hints = service.suggest(url, List.of("sign in"), 5);
+        assertFalse(hints.isEmpty());
+        assertEquals("#login", hints.get(0).selector());
+        assertEquals("button", hints.get(0).tag());
+        for (DomSelectorHintService.SelectorHint hint : hints) {
+            assertFalse("csrf".equals(hint.attributes().get("name")), "hidden inputs are skipped");
+        }
+
+        assertEquals(hints, service.suggest(url, List.of("sign in"), 5));
+        assertEquals(2, requests.get());
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    void concurrentSuggestionsForOnePageFetchItOnce() throws Exception {
+        gate = new CountDownLatch(1);
+        DomSelectorHintService service = service(0);
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            CountDownLatch ready = new CountDownLatch(4);
+            List<Future<List<DomSelectorHintService.SelectorHint>>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                List<String> keywords = i % 2 == 0 ? List.of("email address") : List.of("sign in");
+                results.add(callers.submit(() -> {
+                    ready.countDown();
+                    // the same URL twice in one call is also fetched once
+                    return service.suggestAll(List.of(url, url), keywords, 5);
+                }));
+            }
+            assertEquals(true, ready.await(5, TimeUnit.SECONDS));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (requests.get() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200); // let the other callers join the in-flight fetch
+            gate.countDown();
+            for (int i = 0; i < results.size(); i++) {
+                List<DomSelectorHintService.SelectorHint> hints = results.get(i).get(10, TimeUnit.SECONDS);
+                assertFalse(hints.isEmpty());
+                assertEquals(i % 2 == 0 ? "input" : "button", hints.get(0).tag());
+            }
+        } finally {
+            callers.shutdownNow();
+        }
+        assertEquals(1, requests.get());
+    }
+}
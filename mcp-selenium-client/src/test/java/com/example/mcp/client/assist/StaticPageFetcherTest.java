@@ -0,0 +1,204 @@
+package com.example.mcp.client.assist;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Conditional revalidation and in-flight dedupe against a local stub HTTP server. */
+class StaticPageFetcherTest {
+
+    private static final String LAST_MODIFIED = "Mon, 19 Oct 2026 08:00:00 GMT";
+
+    private HttpServer server;
+    private ExecutorService pool;
+    private String base;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private final List<String> ifNoneMatch = new CopyOnWriteArrayList<>();
+    private final List<String> ifModifiedSince = new CopyOnWriteArrayList<>();
+    private volatile String body = page("login");
+    private volatile String etag = "\"v1\"";
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    @BeforeEach
+    void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/page", this::serve);
+        server.createContext("/missing", exchange -> {
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop(0);
+        pool.shutdownNow();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            gate.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String inm = exchange.getRequestHeaders().getFirst("If-None-Match");
+        String ims = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        ifNoneMatch.add(inm);
+        ifModifiedSince.add(ims);
+        String currentEtag = etag;
+        if ((inm != null && inm.equals(currentEtag)) || (currentEtag == null && LAST_MODIFIED.equals(ims))) {
+            notModified.incrementAndGet();
+            exchange.sendResponseHeaders(304, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+        if (currentEtag != null) {
+            exchange.getResponseHeaders().set("ETag", currentEtag);
+        }
+        exchange.getResponseHeaders().set("Last-Modified", LAST_MODIFIED);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String page(String id) {
+        return "<html><body><form><button id=\"" + id + "\">Go</button>"
+                + "<input id=\"" + id + "-email\"></form></body></html>";
+    }
+
+    private static StaticPageFetcher<String> fetcher(long freshMs) {
+        return new StaticPageFetcher<>("button, input", el -> el.id(), "test-agent", 5_000, freshMs, 8);
+    }
+
+    @Test
+    void etagMatchIsRevalidatedWithoutReparsing() throws IOException {
+        StaticPageFetcher<String> fetcher = fetcher(0);
+        List<String> first = fetcher.fetch(base + "/page");
+        assertEquals(List.of("login", "login-email"), first);
+
+        List<String> second = fetcher.fetch(base + "/page");
+        assertSame(first, second, "304 reuses the cached items");
+        assertEquals(2, requests.get());
+        assertEquals(1, notModified.get());
+        assertNull(ifNoneMatch.get(0));
+        assertEquals("\"v1\"", ifNoneMatch.get(1));
+        assertEquals(LAST_MODIFIED, ifModifiedSince.get(1));
+    }
+
+    @Test
+    void lastModifiedAloneIsRevalidated() throws IOException {
+        etag = null;
+        StaticPageFetcher<String> fetcher = fetcher(0);
+        List<String> first = fetcher.fetch(base + "/page");
+        List<String> second = fetcher.fetch(base + "/page");
+        assertSame(first, second);
+        assertNull(ifNoneMatch.get(1));
+        assertEquals(LAST_MODIFIED, ifModifiedSince.get(1));
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    void changedPageReplacesTheCachedItems() throws IOException {
+        StaticPageFetcher<String> fetcher = fetcher(0);
+        fetcher.fetch(base + "/page");
+        body = page("signup");
+        etag = "\"v2\"";
+        assertEquals(List.of("signup", "signup-email"), fetcher.fetch(base + "/page"));
+        assertEquals(0, notModified.get());
+        fetcher.fetch(base + "/page");
+        assertEquals("\"v2\"", ifNoneMatch.get(2));
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    void freshEntriesAreServedWithoutARequest() throws IOException {
+        StaticPageFetcher<String> fetcher = fetcher(60_000);
+        List<String> first = fetcher.fetch(base + "/page");
+        assertSame(first, fetcher.fetch(base + "/page"));
+        assertEquals(1, requests.get());
+
+        fetcher.invalidate(base + "/page");
+        fetcher.fetch(base + "/page");
+        assertEquals(2, requests.get());
+        assertNull(ifNoneMatch.get(1), "invalidated entries are fetched unconditionally");
+    }
+
+    @Test
+    void httpErrorsAreNotCached() {
+        StaticPageFetcher<String> fetcher = fetcher(60_000);
+        assertThrows(IOException.class, () -> fetcher.fetch(base + "/missing"));
+        assertThrows(IOException.class, () -> fetcher.fetch(base + "/missing"));
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    void concurrentCallersShareOneInFlightFetch() throws Exception {
+        gate = new CountDownLatch(1);
+        StaticPageFetcher<String> fetcher = fetcher(0);
+        List<CompletableFuture<List<String>>> futures = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            futures.add(fetcher.fetchAsync(base + "/page", pool));
+        }
+        for (CompletableFuture<List<String>> f : futures) {
+            assertSame(futures.get(0), f);
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (requests.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        gate.countDown();
+        assertEquals(List.of("login", "login-email"), futures.get(0).get(10, TimeUnit.SECONDS));
+        assertEquals(1, requests.get());
+
+        // once settled the slot is released: the next call revalidates with a new request
+        CompletableFuture<List<String>> next = fetcher.fetchAsync(base + "/page", pool);
+        assertTrue(next != futures.get(0));
+        assertSame(futures.get(0).get(), next.get(10, TimeUnit.SECONDS));
+        assertEquals(2, requests.get());
+        assertEquals(1, notModified.get());
+    }
+
+    @Test
+    void failedFetchDoesNotStayInFlight() throws Exception {
+        StaticPageFetcher<String> fetcher = fetcher(0);
+        CompletableFuture<List<String>> failed = fetcher.fetchAsync(base + "/missing", pool);
+        assertThrows(Exception.class, () -> failed.get(10, TimeUnit.SECONDS));
+        CompletableFuture<List<String>> retry = fetcher.fetchAsync(base + "/missing", pool);
+        assertTrue(retry != failed);
+        assertThrows(Exception.class, () -> retry.get(10, TimeUnit.SECONDS));
+        assertEquals(2, requests.get());
+    }
+}
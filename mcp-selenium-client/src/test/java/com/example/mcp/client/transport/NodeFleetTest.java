@@ -0,0 +1,202 @@
+package com.example.mcp.client.transport;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** 多节点路由、粘滞、摘除与接回；节点用内存中的假 invoker，探测同步执行 */
+class NodeFleetTest {
+
+    private static final List<Map<String, Object>> GOTO = List.of(Map.of("type", "goto", "url", "https://example.com"));
+    private static final List<Map<String, Object>> QUIT = List.of(Map.of("type", "quit"));
+
+    /** 按脚本应答的节点：failure 非 null 时每次调用都抛出它 */
+    static final class FakeInvoker implements TransportInvoker {
+        final List<String> sessions = new ArrayList<>();
+        volatile IOException failure;
+
+        @Override
+        public Map<String, Object> execute(List<Map<String, Object>> actions) throws IOException {
+            return executeStepwise(actions, true, null).get(0);
+        }
+
+        @Override
+        public synchronized List<Map<String, Object>> executeStepwise(List<Map<String, Object>> actions, boolean stopOnError,
+                                                                      String sessionId) throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            sessions.add(sessionId);
+            return List.of(Map.of("status", "ok"));
+        }
+
+        @Override
+        public Map<String, Object> cancel(String sessionId) {
+            return Map.of("status", "ok", "data", Map.of("sessionId", sessionId, "running", true));
+        }
+
+        @Override
+        public Map<String, Object> health() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+            return Map.of("status", "ok", "capacity", 1);
+        }
+    }
+
+    private final FakeInvoker a = new FakeInvoker();
+    private final FakeInvoker b = new FakeInvoker();
+    private final FleetNode nodeA = new FleetNode("a", "http", "fake-a", a, 1);
+    private final FleetNode nodeB = new FleetNode("b", "http", "fake-b", b, 1);
+
+    private NodeFleet fleet(long ejectCooldownMs) {
+        return new NodeFleet(true, List.of(nodeA, nodeB), 0, 2, ejectCooldownMs, 600_000);
+    }
+
+    @Test
+    void newSessionsSpreadAndStickToTheirNode() throws IOException {
+        NodeFleet fleet = fleet(30_000);
+        fleet.executeStepwise(GOTO, true, "s1");
+        fleet.executeStepwise(GOTO, true, "s2");
+        fleet.executeStepwise(GOTO, true, "s1");
+        fleet.executeStepwise(GOTO, true, "s2");
+
+        FakeInvoker first = a.sessions.get(0).equals("s1") ? a : b;
+        FakeInvoker second = first == a ? b : a;
+        assertEquals(List.of("s1", "s1"), first.sessions);
+        assertEquals(List.of("s2", "s2"), second.sessions);
+        assertEquals(1, nodeA.pinned());
+        assertEquals(1, nodeB.pinned());
+    }
+
+    @Test
+    void planEndingInQuitReleasesTheSession() throws IOException {
+        NodeFleet fleet = fleet(30_000);
+        fleet.executeStepwise(GOTO, true, "s1");
+        fleet.executeStepwise(QUIT, true, "s1");
+        assertEquals(0, nodeA.pinned() + nodeB.pinned());
+        assertEquals(0, nodeA.outstanding() + nodeB.outstanding());
+    }
+
+    @Test
+    void stepTimeoutsDoNotEjectAHealthyNode() {
+        NodeFleet fleet = fleet(30_000);
+        a.failure = new StepTimeoutException("Step 0 (goto) timed out", null);
+        b.failure = a.failure;
+        for (int i = 0; i < 10; i++) {
+            String sid = "slow-" + i;
+            assertThrows(StepTimeoutException.class, () -> fleet.executeStepwise(GOTO, true, sid));
+        }
+        assertEquals(FleetNode.State.UP, nodeA.state());
+        assertEquals(FleetNode.State.UP, nodeB.state());
+        assertEquals(2, fleet.capacity());
+    }
+
+    @Test
+    void connectFailuresEjectTheNodeAndMoveItsSessions() throws IOException {
+        NodeFleet fleet = fleet(30_000);
+        fleet.executeStepwise(GOTO, true, "s1");
+        FleetNode home = a.sessions.contains("s1") ? nodeA : nodeB;
+        FakeInvoker homeInvoker = home == nodeA ? a : b;
+        FakeInvoker other = home == nodeA ? b : a;
+
+        homeInvoker.failure = new ConnectException("Connection refused");
+        assertThrows(IOException.class, () -> fleet.executeStepwise(GOTO, true, "s1"));
+        assertEquals(FleetNode.State.UP, home.state());
+        assertThrows(IOException.class, () -> fleet.executeStepwise(GOTO, true, "s1"));
+        assertEquals(FleetNode.State.EJECTED, home.state());
+        assertEquals(1, fleet.capacity());
+
+        fleet.executeStepwise(GOTO, true, "s1");
+        assertEquals(List.of("s1"), other.sessions);
+        assertEquals(0, home.pinned());
+        assertEquals(1, (home == nodeA ? nodeB : nodeA).pinned());
+    }
+
+    @Test
+    void probeReadmitsAnEjectedNodeAfterCooldown() {
+        NodeFleet fleet = fleet(0);
+        a.failure = new ConnectException("Connection refused");
+        fleet.probeAll();
+        fleet.probeAll();
+        assertEquals(FleetNode.State.EJECTED, nodeA.state());
+        fleet.probeAll();
+        assertEquals(FleetNode.State.EJECTED, nodeA.state(), "still failing: stays out");
+
+        a.failure = null;
+        fleet.probeAll();
+        assertEquals(FleetNode.State.UP, nodeA.state());
+        assertEquals(2, fleet.capacity());
+    }
+
+    @Test
+    void drainingNodeKeepsItsSessionsButTakesNoNewOnes() throws IOException {
+        NodeFleet fleet = fleet(30_000);
+        fleet.executeStepwise(GOTO, true, "s1");
+        FleetNode home = a.sessions.contains("s1") ? nodeA : nodeB;
+        assertTrue(fleet.setDraining(home.id(), true));
+
+        fleet.executeStepwise(GOTO, true, "s1");
+        fleet.executeStepwise(GOTO, true, "s2");
+        fleet.executeStepwise(GOTO, true, "s3");
+        FakeInvoker homeInvoker = home == nodeA ? a : b;
+        assertEquals(List.of("s1", "s1"), homeInvoker.sessions);
+        assertFalse(fleet.setDraining("missing", true));
+    }
+
+    @Test
+    void cancelOfAnUnknownSessionIsANoOp() throws IOException {
+        NodeFleet fleet = fleet(30_000);
+        Map<String, Object> resp = fleet.cancel("never-ran");
+        assertTrue(StepResult.isOk(resp));
+        assertEquals(false, ((Map<?, ?>) resp.get("data")).get("running"));
+
+        fleet.executeStepwise(GOTO, true, "s1");
+        assertEquals(true, ((Map<?, ?>) fleet.cancel("s1").get("data")).get("running"));
+    }
+
+    @Test
+    void concurrentSessionsKeepPinnedCountsConsistent() throws Exception {
+        NodeFleet fleet = fleet(0);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        CountDownLatch done = new CountDownLatch(400);
+        try {
+            for (int i = 0; i < 400; i++) {
+                String sid = "c-" + (i % 40);
+                boolean quit = i >= 360;
+                pool.execute(() -> {
+                    try {
+                        fleet.executeStepwise(quit ? QUIT : GOTO, true, sid);
+                    } catch (IOException ignored) {
+                    } finally {
+                        done.countDown();
+                    }
+                });
+                if (i % 50 == 0) {
+                    a.failure = a.failure == null ? new ConnectException("flap") : null;
+                    fleet.probeAll();
+                }
+            }
+            assertTrue(done.await(30, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(0, nodeA.outstanding() + nodeB.outstanding());
+        assertTrue(nodeA.pinned() >= 0 && nodeB.pinned() >= 0);
+        assertSame(FleetNode.State.UP, nodeB.state());
+    }
+}
@@ -0,0 +1,275 @@
+package com.example.mcp.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Multi-keyword scorer shared by live sensing (server) and static DOM hints (client).
+ * <p>
+ * Keywords are compiled once into an Aho-Corasick automaton over the full phrase and its
+ * whitespace tokens. {@link #score} then walks every attribute of an element in a single pass
+ * without building a haystack string; ASCII input runs through a dense transition table and is
+ * lower-cased char by char, a field with other chars goes through {@code toLowerCase(Locale.ROOT)}
+ * like the old haystack. Score semantics match the
+ * original {@code contains}/{@code split("\\s+")} loops: a keyword whose full phrase occurs adds
+ * {@link #PHRASE_WEIGHT}; otherwise every occurring token adds {@link #TOKEN_WEIGHT}, duplicate
+ * tokens included. Fields are joined with a single space, exactly like the old haystack, so
+ * phrases may span attributes.
+ * <p>
+ * Instances are immutable and thread-safe.
+ */
+public final class KeywordMatcher {
+
+    public static final double PHRASE_WEIGHT = 1.0;
+    public static final double TOKEN_WEIGHT = 0.3;
+
+    private static final int ASCII = 128;
+    private static final KeywordMatcher EMPTY = new KeywordMatcher(new int[0], new int[0][], new int[0],
+            new char[1][0], new int[1][0], new int[1], new int[ASCII], new int[1][0], 0);
+
+    /** phrase pattern id per keyword */
+    private final int[] phraseIds;
+    /** token pattern ids per keyword (duplicates kept: each occurrence scores) */
+    private final int[][] tokenIds;
+    /** empty tokens per keyword (leading whitespace); they occur in every haystack */
+    private final int[] emptyTokens;
+    // automaton: per node sorted child chars and targets, failure link, merged outputs
+    private final char[][] childChars;
+    private final int[][] childNodes;
+    private final int[] fail;
+    /** full DFA transitions for ASCII input, {@code node * 128 + c}; other chars walk the failure links */
+    private final int[] asciiNext;
+    private final int[][] outputs;
+    private final int patternCount;
+
+    private KeywordMatcher(int[] phraseIds, int[][] tokenIds, int[] emptyTokens, char[][] childChars,
+                           int[][] childNodes, int[] fail, int[] asciiNext, int[][] outputs, int patternCount) {
+        this.phraseIds = phraseIds;
+        this.tokenIds = tokenIds;
+        this.emptyTokens = emptyTokens;
+        this.childChars = childChars;
+        this.childNodes = childNodes;
+        this.fail = fail;
+        this.asciiNext = asciiNext;
+        this.outputs = outputs;
+        this.patternCount = patternCount;
+    }
+
+    /**
+     * @param keywords       raw keywords; blank entries are ignored
+     * @param minTokenLength tokens shorter than this never score (the server historically used 2);
+     *                       0 keeps the unbounded client loop, where the empty token that
+     *                       {@code split} yields for leading whitespace always scored
+     */
+    public static KeywordMatcher compile(Collection<String> keywords, int minTokenLength) {
+        if (keywords == null || keywords.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, Integer> patterns = new LinkedHashMap<>();
+        List<Integer> phrases = new ArrayList<>();
+        List<int[]> tokens = new ArrayList<>();
+        List<Integer> empties = new ArrayList<>();
+        for (String keyword : keywords) {
+            if (keyword == null || keyword.isBlank()) {
+                continue;
+            }
+            String kw = keyword.toLowerCase(Locale.ROOT);
+            phrases.add(patterns.computeIfAbsent(kw, k -> patterns.size()));
+            List<Integer> ids = new ArrayList<>();
+            int empty = 0;
+            for (String token : kw.split("\\s+")) {
+                if (token.length() < minTokenLength) {
+                    continue;
+                }
+                if (token.isEmpty()) {
+                    empty++;
+                } else {
+                    ids.add(patterns.computeIfAbsent(token, k -> patterns.size()));
+                }
+            }
+            tokens.add(ids.stream().mapToInt(Integer::intValue).toArray());
+            empties.add(empty);
+        }
+        if (patterns.isEmpty()) {
+            return EMPTY;
+        }
+        return build(patterns, phrases.stream().mapToInt(Integer::intValue).toArray(), tokens.toArray(new int[0][]),
+                empties.stream().mapToInt(Integer::intValue).toArray());
+    }
+
+    private static KeywordMatcher build(Map<String, Integer> patterns, int[] phraseIds, int[][] tokenIds,
+                                        int[] emptyTokens) {
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> out = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        out.add(new ArrayList<>());
+        for (Map.Entry<String, Integer> e : patterns.entrySet()) {
+            int node = 0;
+            String p = e.getKey();
+            for (int i = 0; i < p.length(); i++) {
+                Integer next = trie.get(node).get(p.charAt(i));
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    out.add(new ArrayList<>());
+                    trie.get(node).put(p.charAt(i), next);
+                }
+                node = next;
+            }
+            out.get(node).add(e.getValue());
+        }
+
+        int n = trie.size();
+        char[][] chars = new char[n][];
+        int[][] nodes = new int[n][];
+        for (int i = 0; i < n; i++) {
+            TreeMap<Character, Integer> children = trie.get(i);
+            chars[i] = new char[children.size()];
+            nodes[i] = new int[children.size()];
+            int j = 0;
+            for (Map.Entry<Character, Integer> c : children.entrySet()) {
+                chars[i][j] = c.getKey();
+                nodes[i][j++] = c.getValue();
+            }
+        }
+
+        // BFS failure links; outputs are merged along the failure chain so scanning never walks it
+        int[] fail = new int[n];
+        int[] order = new int[n];
+        int visited = 1;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : nodes[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            order[visited++] = node;
+            for (int j = 0; j < chars[node].length; j++) {
+                char c = chars[node][j];
+                int child = nodes[node][j];
+                int f = fail[node];
+                int target;
+                while ((target = step(chars, nodes, f, c)) < 0 && f != 0) {
+                    f = fail[f];
+                }
+                fail[child] = target < 0 || target == child ? 0 : target;
+                out.get(child).addAll(out.get(fail[child]));
+                queue.add(child);
+            }
+        }
+        int[][] outputs = new int[n][];
+        for (int i = 0; i < n; i++) {
+            outputs[i] = out.get(i).stream().distinct().mapToInt(Integer::intValue).toArray();
+        }
+        // BFS order: a node's failure target is shallower, so its row is already filled
+        int[] asciiNext = new int[n * ASCII];
+        for (int k = 0; k < n; k++) {
+            int node = order[k];
+            for (char c = 0; c < ASCII; c++) {
+                int next = step(chars, nodes, node, c);
+                asciiNext[node * ASCII + c] = next >= 0 ? next : node == 0 ? 0 : asciiNext[fail[node] * ASCII + c];
+            }
+        }
+        return new KeywordMatcher(phraseIds, tokenIds, emptyTokens, chars, nodes, fail, asciiNext, outputs,
+                patterns.size());
+    }
+
+    private static int step(char[][] chars, int[][] nodes, int node, char c) {
+        int idx = Arrays.binarySearch(chars[node], c);
+        return idx < 0 ? -1 : nodes[node][idx];
+    }
+
+    public boolean isEmpty() {
+        return patternCount == 0;
+    }
+
+    /** Scores {@code head} followed by each of {@code fields}, joined by single spaces. */
+    public double score(CharSequence head, Iterable<? extends CharSequence> fields) {
+        if (patternCount == 0) {
+            return 0.0;
+        }
+        boolean[] hit = new boolean[patternCount];
+        int state = feed(head, 0, hit);
+        if (fields != null) {
+            for (CharSequence field : fields) {
+                state = feed(" ", state, hit);
+                state = feed(field, state, hit);
+            }
+        }
+        return tally(hit);
+    }
+
+    public double score(CharSequence... fields) {
+        return score(fields.length == 0 ? "" : fields[0],
+                fields.length <= 1 ? List.of() : Arrays.asList(fields).subList(1, fields.length));
+    }
+
+    private int feed(CharSequence text, int state, boolean[] hit) {
+        if (text == null) {
+            return state;
+        }
+        int start = state;
+        for (int i = 0, len = text.length(); i < len; i++) {
+            char c = text.charAt(i);
+            if (c >= ASCII) {
+                // String lower-casing is context-sensitive outside ASCII (final sigma, dotted I, surrogate
+                // pairs): redo the field from its start state; hits from the ASCII prefix stay valid
+                return feedLowered(text.toString().toLowerCase(Locale.ROOT), start, hit);
+            }
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            state = asciiNext[state * ASCII + c];
+            for (int id : outputs[state]) {
+                hit[id] = true;
+            }
+        }
+        return state;
+    }
+
+    private int feedLowered(String lower, int state, boolean[] hit) {
+        for (int i = 0, len = lower.length(); i < len; i++) {
+            char c = lower.charAt(i);
+            if (c < ASCII) {
+                state = asciiNext[state * ASCII + c];
+            } else {
+                int next;
+                while ((next = step(childChars, childNodes, state, c)) < 0 && state != 0) {
+                    state = fail[state];
+                }
+                state = next < 0 ? 0 : next;
+            }
+            for (int id : outputs[state]) {
+                hit[id] = true;
+            }
+        }
+        return state;
+    }
+
+    private double tally(boolean[] hit) {
+        double score = 0.0;
+        for (int k = 0; k < phraseIds.length; k++) {
+            if (hit[phraseIds[k]]) {
+                score += PHRASE_WEIGHT;
+                continue;
+            }
+            // empty tokens come first in split order; keep the old summation order
+            for (int e = 0; e < emptyTokens[k]; e++) {
+                score += TOKEN_WEIGHT;
+            }
+            for (int t : tokenIds[k]) {
+                if (hit[t]) {
+                    score += TOKEN_WEIGHT;
+                }
+            }
+        }
+        return score;
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.mcp.common.codec;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * 从进程流按帧解码。按块读入、在字节层面切帧，帧内容放入复用的缓冲后直接交给 ObjectReader（UTF-8 字节解析，不构造行字符串）。
+ * 单帧解码失败抛 {@link JsonProcessingException}，流位置仍停在下一帧开头，调用方可继续读取；
+ * 其它 IOException 表示流本身不可用。仅供单个读线程使用。
+ */
+public final class FrameReader {
+
+    private static final int INITIAL_BUFFER = 8 * 1024;
+    private static final int RETAINED_BUFFER = 1024 * 1024;
+
+    private final McpCodec codec;
+    private final InputStream in;
+    private volatile McpCodec.Framing framing = McpCodec.Framing.JSON;
+    // 输入块缓冲：[pos, limit) 为已读入未消费的字节
+    private final byte[] chunk = new byte[64 * 1024];
+    private int pos;
+    private int limit;
+    // 当前帧
+    private byte[] buf = new byte[INITIAL_BUFFER];
+    private int len;
+
+    FrameReader(McpCodec codec, InputStream in) {
+        this.codec = codec;
+        this.in = in;
+    }
+
+    /** 切换后续帧的格式（协商成功后由读线程调用） */
+    public void switchTo(McpCodec.Framing framing) {
+        this.framing = framing;
+    }
+
+    public McpCodec.Framing framing() {
+        return framing;
+    }
+
+    /** @return 下一帧解码结果；流结束返回 null */
+    public <T> T read(Class<T> type) throws IOException {
+        McpCodec.Framing current = framing;
+        if (!nextFrame(current)) {
+            return null;
+        }
+        try {
+            return codec.reader(current, type).readValue(buf, 0, len);
+        } finally {
+            release();
+        }
+    }
+
+    /** @return 下一帧解码为 Map；流结束返回 null */
+    public Map<String, Object> readMap() throws IOException {
+        McpCodec.Framing current = framing;
+        if (!nextFrame(current)) {
+            return null;
+        }
+        try {
+            return codec.mapReader(current).readValue(buf, 0, len);
+        } finally {
+            release();
+        }
+    }
+
+    private boolean nextFrame(McpCodec.Framing current) throws IOException {
+        return current == McpCodec.Framing.SMILE ? nextBinaryFrame() : nextLine();
+    }
+
+    /** 一行 JSON；跳过空行 */
+    private boolean nextLine() throws IOException {
+        while (true) {
+            len = 0;
+            boolean eof = false;
+            while (true) {
+                if (pos == limit && !fill()) {
+                    eof = true;
+                    break;
+                }
+                int nl = -1;
+                for (int i = pos; i < limit; i++) {
+                    if (chunk[i] == '\n') {
+                        nl = i;
+                        break;
+                    }
+                }
+                int end = nl < 0 ? limit : nl;
+                append(pos, end - pos);
+                pos = nl < 0 ? limit : nl + 1;
+                if (nl >= 0) {
+                    break;
+                }
+            }
+            while (len > 0 && (buf[len - 1] == '\r' || buf[len - 1] == ' ' || buf[len - 1] == '\t')) {
+                len--;
+            }
+            if (len > 0) {
+                return true;
+            }
+            if (eof) {
+                return false;
+            }
+        }
+    }
+
+    private boolean nextBinaryFrame() throws IOException {
+        if (pos == limit && !fill()) {
+            return false;
+        }
+        int size = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+        if (size < 0) {
+            throw new IOException("Invalid frame length " + size);
+        }
+        len = 0;
+        while (len < size) {
+            if (pos == limit && !fill()) {
+                throw new EOFException("Truncated frame: " + len + "/" + size + " bytes");
+            }
+            int n = Math.min(size - len, limit - pos);
+            append(pos, n);
+            pos += n;
+        }
+        return true;
+    }
+
+    private int readByte() throws IOException {
+        if (pos == limit && !fill()) {
+            throw new EOFException("Truncated frame header");
+        }
+        return chunk[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(chunk, 0, chunk.length);
+        if (n <= 0) {
+            return false;
+        }
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private void append(int from, int count) {
+        if (len + count > buf.length) {
+            grow(len + count);
+        }
+        System.arraycopy(chunk, from, buf, len, count);
+        len += count;
+    }
+
+    private void grow(int min) {
+        byte[] next = new byte[Math.max(min, buf.length * 2)];
+        System.arraycopy(buf, 0, next, 0, len);
+        buf = next;
+    }
+
+    /** 偶发的大帧（截图、感知结果）读完后不长期占用内存 */
+    private void release() {
+        if (buf.length > RETAINED_BUFFER) {
+            buf = new byte[INITIAL_BUFFER];
+        }
+        len = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.mcp.common.codec;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 按帧编码写入进程流。JSON 模式直接写出到流（大结果边生成边输出）；
+ * SMILE 模式需要长度前缀，先写入复用的帧缓冲再整体写出。非线程安全，由调用方串行使用。
+ */
+public final class FrameWriter {
+
+    private static final int RETAINED_BUFFER = 1024 * 1024;
+
+    private final McpCodec codec;
+    private final OutputStream out;
+    private McpCodec.Framing framing = McpCodec.Framing.JSON;
+    private ByteArrayOutputStream frame = new ByteArrayOutputStream(8 * 1024);
+
+    FrameWriter(McpCodec codec, OutputStream out) {
+        this.codec = codec;
+        this.out = out instanceof BufferedOutputStream ? out : new BufferedOutputStream(out, 64 * 1024);
+    }
+
+    public void switchTo(McpCodec.Framing framing) {
+        this.framing = framing;
+    }
+
+    public McpCodec.Framing framing() {
+        return framing;
+    }
+
+    /** 写入一帧（不 flush；流水线可连续写多帧后一次 {@link #flush()}） */
+    public void write(Object value) throws IOException {
+        JsonGenerator gen = beginFrame();
+        codec.writer(framing).writeValue(gen, value);
+        endFrame(gen);
+    }
+
+    /** 开始一帧的增量写出；必须以 {@link #endFrame} 结束 */
+    public JsonGenerator beginFrame() throws IOException {
+        OutputStream target = framing == McpCodec.Framing.SMILE ? frame : out;
+        JsonGenerator gen = codec.mapper(framing).getFactory().createGenerator(target);
+        gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return gen;
+    }
+
+    public void endFrame(JsonGenerator gen) throws IOException {
+        gen.close();
+        if (framing == McpCodec.Framing.SMILE) {
+            int size = frame.size();
+            out.write(size >>> 24);
+            out.write(size >>> 16);
+            out.write(size >>> 8);
+            out.write(size);
+            frame.writeTo(out);
+            if (size > RETAINED_BUFFER) {
+                frame = new ByteArrayOutputStream(8 * 1024);
+            } else {
+                frame.reset();
+            }
+        } else {
+            out.write('\n');
+        }
+    }
+
+    /** 增量写出过程中把已生成的内容推到对端（仅 JSON 模式有效，SMILE 帧需整体写出） */
+    public void flushPartial(JsonGenerator gen) throws IOException {
+        if (framing == McpCodec.Framing.JSON) {
+            gen.flush();
+            out.flush();
+        }
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    public void close() throws IOException {
+        out.close();
+    }
+}
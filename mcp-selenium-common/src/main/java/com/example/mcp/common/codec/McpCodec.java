@@ -0,0 +1,98 @@
+package com.example.mcp.common.codec;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.module.blackbird.BlackbirdModule;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * STDIO 通道的编解码：预配置的 ObjectReader/ObjectWriter（Blackbird 加速 bean 访问），
+ * 直接在进程流上按帧读写，不经过中间 String。
+ * <ul>
+ *     <li>{@link Framing#JSON}：每帧一行 UTF-8 JSON（默认，便于调试，兼容旧进程）</li>
+ *     <li>{@link Framing#SMILE}：4 字节大端长度前缀 + Smile 二进制负载；进程启动后经 {@code negotiate} 切换</li>
+ * </ul>
+ * 线程安全；ObjectReader/Writer 按类型缓存复用。
+ */
+public final class McpCodec {
+
+    public enum Framing {
+        JSON, SMILE;
+
+        public static Framing parse(String raw) {
+            if (raw == null || raw.isBlank()) {
+                return JSON;
+            }
+            try {
+                return valueOf(raw.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return JSON;
+            }
+        }
+
+        public String wireName() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    public static final TypeReference<Map<String, Object>> MAP_TYPE = new TypeReference<>() {
+    };
+
+    private static final McpCodec SHARED = new McpCodec();
+
+    private final ObjectMapper json;
+    private final ObjectMapper smile;
+    private final Map<Object, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    private McpCodec() {
+        this.json = configure(new ObjectMapper());
+        this.smile = configure(new ObjectMapper(new SmileFactory()));
+    }
+
+    public static McpCodec shared() {
+        return SHARED;
+    }
+
+    private static ObjectMapper configure(ObjectMapper mapper) {
+        mapper.registerModule(new BlackbirdModule());
+        mapper.disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+        return mapper;
+    }
+
+    ObjectMapper mapper(Framing framing) {
+        return framing == Framing.SMILE ? smile : json;
+    }
+
+    ObjectReader reader(Framing framing, Class<?> type) {
+        return readers.computeIfAbsent(key(framing, type), k -> mapper(framing).readerFor(type));
+    }
+
+    ObjectReader mapReader(Framing framing) {
+        return readers.computeIfAbsent(key(framing, Map.class), k -> mapper(framing).readerFor(MAP_TYPE));
+    }
+
+    ObjectWriter writer(Framing framing) {
+        return mapper(framing).writer();
+    }
+
+    private static Object key(Framing framing, Class<?> type) {
+        return framing.name() + ':' + type.getName();
+    }
+
+    public FrameReader reader(InputStream in) {
+        return new FrameReader(this, in);
+    }
+
+    public FrameWriter writer(OutputStream out) {
+        return new FrameWriter(this, out);
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.mcp.common.latency;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * 按动作类型与 URL 模式统计的步骤耗时模型，用于替代固定超时：预算 = p99 × 安全系数，夹在 [min, max] 之间。
+ * <ul>
+ *     <li>每个键（{@code type} 与 {@code type|pattern}）一条对数分桶直方图（相邻桶宽 ×1.2，1ms–30min），
+ *     样本数超过窗口后整体减半，旧样本逐步淡出，页面变慢/变快后预算随之调整</li>
+ *     <li>模式键样本不足时退回类型键，类型键也不足时用调用方给的默认值（与原固定超时一致）</li>
+ *     <li>{@link #save()} 把直方图写入 JSON 文件（临时文件 + 原子替换），构造时读回，重启后预算不用重新学习</li>
+ * </ul>
+ * URL 模式：scheme://host/path，数字、UUID、长十六进制路径段替换为 {@code *}，去掉查询串与片段。
+ * 线程安全。
+ */
+public final class LatencyModel {
+
+    private static final double RATIO = 1.2;
+    private static final int BUCKETS = 80;
+    private static final double LOG_RATIO = Math.log(RATIO);
+    private static final int MAX_SERIES = 2000;
+    private static final Pattern VARIABLE_SEGMENT = Pattern.compile(
+            "\\d+|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|[0-9a-fA-F]{16,}");
+    private static final TypeReference<Map<String, Map<Integer, Double>>> FILE_TYPE = new TypeReference<>() {
+    };
+
+    /** 一次预算：超时与依据（pattern / type / default） */
+    public record Budget(long timeoutMs, String basis, long samples) {
+    }
+
+    private static final class Series {
+        private final double[] counts = new double[BUCKETS];
+        private double total;
+
+        synchronized void add(long ms, int window) {
+            counts[bucket(ms)]++;
+            if (++total > 2.0 * window) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts[i] /= 2;
+                }
+                total /= 2;
+            }
+        }
+
+        synchronized long samples() {
+            return (long) total;
+        }
+
+        /** q 分位所在桶的上界（ms） */
+        synchronized long quantile(double q) {
+            double target = q * total;
+            double seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target && counts[i] > 0) {
+                    return upper(i);
+                }
+            }
+            return upper(BUCKETS - 1);
+        }
+
+        synchronized Map<Integer, Double> sparse() {
+            Map<Integer, Double> m = new LinkedHashMap<>();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (counts[i] > 0) {
+                    m.put(i, counts[i]);
+                }
+            }
+            return m;
+        }
+
+        synchronized void restore(Map<Integer, Double> sparse) {
+            sparse.forEach((i, c) -> {
+                if (i != null && i >= 0 && i < BUCKETS && c != null && c > 0) {
+                    counts[i] += c;
+                    total += c;
+                }
+            });
+        }
+    }
+
+    private final Path file;
+    private final double safetyFactor;
+    private final long minTimeoutMs;
+    private final long maxTimeoutMs;
+    private final int minSamples;
+    private final int window;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Series> series = new ConcurrentHashMap<>();
+    private volatile boolean dirty;
+
+    /**
+     * @param file         持久化文件；null 只在内存中统计
+     * @param safetyFactor 预算 = p99 × safetyFactor
+     * @param minSamples   某个键至少有这么多样本才用于定预算
+     * @param window       每个键保留的有效样本量级（超过 2×window 时减半）
+     */
+    public LatencyModel(Path file, double safetyFactor, long minTimeoutMs, long maxTimeoutMs, int minSamples, int window) {
+        this.file = file;
+        this.safetyFactor = Math.max(1.0, safetyFactor);
+        this.minTimeoutMs = Math.max(1, minTimeoutMs);
+        this.maxTimeoutMs = Math.max(this.minTimeoutMs, maxTimeoutMs);
+        this.minSamples = Math.max(1, minSamples);
+        this.window = Math.max(this.minSamples, window);
+        load();
+    }
+
+    /** 记录一次成功步骤（或超时步骤的已用时长，作为下限样本）的耗时 */
+    public void record(String type, String pattern, long elapsedMs) {
+        if (type == null || elapsedMs < 0) {
+            return;
+        }
+        seriesFor(type).add(elapsedMs, window);
+        if (pattern != null) {
+            Series p = series.size() < MAX_SERIES ? seriesFor(type + "|" + pattern) : series.get(type + "|" + pattern);
+            if (p != null) {
+                p.add(elapsedMs, window);
+            }
+        }
+        dirty = true;
+    }
+
+    /** 学到的预算；样本不足时返回 fallbackMs（依据为 default） */
+    public Budget budget(String type, String pattern, long fallbackMs) {
+        Series s = pattern == null ? null : series.get(type + "|" + pattern);
+        String basis = "pattern";
+        if (s == null || s.samples() < minSamples) {
+            s = series.get(type);
+            basis = "type";
+        }
+        if (s == null || s.samples() < minSamples) {
+            return new Budget(fallbackMs, "default", s == null ? 0 : s.samples());
+        }
+        long learned = (long) Math.ceil(s.quantile(0.99) * safetyFactor);
+        return new Budget(Math.min(maxTimeoutMs, Math.max(minTimeoutMs, learned)), basis, s.samples());
+    }
+
+    public static String pattern(String url) {
+        if (url == null || url.isBlank()) {
+            return null;
+        }
+        try {
+            URI u = URI.create(url.trim());
+            if (u.getScheme() == null || u.getHost() == null) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(u.getScheme().toLowerCase(Locale.ROOT)).append("://")
+                    .append(u.getHost().toLowerCase(Locale.ROOT));
+            if (u.getPort() > 0) {
+                sb.append(':').append(u.getPort());
+            }
+            String path = u.getRawPath() == null ? "" : u.getRawPath();
+            for (String seg : path.split("/")) {
+                if (!seg.isEmpty()) {
+                    sb.append('/').append(VARIABLE_SEGMENT.matcher(seg).matches() ? "*" : seg);
+                }
+            }
+            return sb.toString();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /** 有新样本时写盘；失败只抛给调用方记录日志，不影响内存中的模型 */
+    public void save() throws IOException {
+        if (file == null || !dirty) {
+            return;
+        }
+        dirty = false;
+        Map<String, Map<Integer, Double>> out = new LinkedHashMap<>();
+        series.forEach((k, s) -> out.put(k, s.sparse()));
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+        try {
+            mapper.writeValue(tmp.toFile(), out);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            dirty = true;
+            throw e;
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private void load() {
+        if (file == null || !Files.isRegularFile(file)) {
+            return;
+        }
+        try {
+            mapper.readValue(file.toFile(), FILE_TYPE).forEach((k, sparse) -> {
+                if (k != null && sparse != null && series.size() < MAX_SERIES) {
+                    seriesFor(k).restore(sparse);
+                }
+            });
+        } catch (IOException e) {
+            // 文件损坏时从零学习，下次 save 覆盖
+            series.clear();
+        }
+    }
+
+    /** 样本最多的若干键：n / p50 / p99 / 当前预算 */
+    public Map<String, Object> snapshot(int limit) {
+        List<Map.Entry<String, Series>> top = new ArrayList<>(series.entrySet());
+        top.sort(Comparator.comparingLong((Map.Entry<String, Series> e) -> e.getValue().samples()).reversed());
+        List<Map<String, Object>> keys = new ArrayList<>();
+        for (Map.Entry<String, Series> e : top.subList(0, Math.min(limit, top.size()))) {
+            Series s = e.getValue();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("key", e.getKey());
+            m.put("samples", s.samples());
+            m.put("p50Ms", s.quantile(0.5));
+            m.put("p99Ms", s.quantile(0.99));
+            keys.add(m);
+        }
+        Map<String, Object> out = new LinkedHashMap<>();
+        out.put("safetyFactor", safetyFactor);
+        out.put("minSamples", minSamples);
+        out.put("minTimeoutMs", minTimeoutMs);
+        out.put("maxTimeoutMs", maxTimeoutMs);
+        out.put("series", series.size());
+        out.put("top", keys);
+        return out;
+    }
+
+    private Series seriesFor(String key) {
+        return series.computeIfAbsent(key, k -> new Series());
+    }
+
+    private static int bucket(long ms) {
+        if (ms <= 1) {
+            return 0;
+        }
+        return (int) Math.min(BUCKETS - 1, Math.ceil(Math.log(ms) / LOG_RATIO));
+    }
+
+    private static long upper(int bucket) {
+        return (long) Math.ceil(Math.pow(RATIO, bucket));
+    }
+}
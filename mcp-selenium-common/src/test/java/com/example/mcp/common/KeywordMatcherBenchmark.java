@@ -0,0 +1,58 @@
+package com.example.mcp.common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Rough throughput comparison against the old contains/split loop: one sensing pass over
+ * 5,000 candidates with 6 keywords, best of 20 after warm-up. Not part of the test run:
+ * {@code java -cp <test-classes>:<classes> com.example.mcp.common.KeywordMatcherBenchmark}.
+ */
+public final class KeywordMatcherBenchmark {
+
+    private KeywordMatcherBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+        String alphabet = "abcdefghijklmnopqrstuvwxyz-_ ";
+        List<String> keywords = List.of("sign in", "email address", "password", "submit order", "search", "remember me");
+        List<String> heads = new ArrayList<>();
+        List<List<String>> attributes = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            heads.add(random.nextBoolean() ? "button" : "input");
+            List<String> attrs = new ArrayList<>();
+            for (int a = 0; a < 6; a++) {
+                attrs.add(KeywordMatcherTest.randomText(random, alphabet, 4 + random.nextInt(24)));
+            }
+            if (random.nextInt(10) == 0) {
+                attrs.add(keywords.get(random.nextInt(keywords.size())));
+            }
+            attributes.add(attrs);
+        }
+
+        double sink = 0;
+        long bestLoop = Long.MAX_VALUE;
+        long bestMatcher = Long.MAX_VALUE;
+        for (int run = 0; run < 30; run++) {
+            long t0 = System.nanoTime();
+            for (int i = 0; i < heads.size(); i++) {
+                sink += KeywordMatcherTest.reference(heads.get(i), attributes.get(i), keywords, 2);
+            }
+            long t1 = System.nanoTime();
+            KeywordMatcher matcher = KeywordMatcher.compile(keywords, 2);
+            for (int i = 0; i < heads.size(); i++) {
+                sink += matcher.score(heads.get(i), attributes.get(i));
+            }
+            long t2 = System.nanoTime();
+            if (run >= 10) {
+                bestLoop = Math.min(bestLoop, t1 - t0);
+                bestMatcher = Math.min(bestMatcher, t2 - t1);
+            }
+        }
+        System.out.printf(Locale.ROOT, "contains/split loop: %.2f ms, KeywordMatcher (incl. compile): %.2f ms (checksum %.1f)%n",
+                bestLoop / 1e6, bestMatcher / 1e6, sink);
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.mcp.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * KeywordMatcher must score exactly like the contains/split loops it replaced
+ * (DomSelectorHintService with no token limit, the server's sensing with tokens of 2+).
+ */
+class KeywordMatcherTest {
+
+    /** The pre-automaton loop, verbatim apart from the token-length parameter. */
+    static double reference(String head, List<String> fields, List<String> keywords, int minTokenLength) {
+        StringBuilder sb = new StringBuilder(head);
+        for (String field : fields) {
+            sb.append(' ').append(field);
+        }
+        String haystack = sb.toString().toLowerCase(Locale.ROOT);
+        double score = 0.0;
+        for (String keyword : keywords) {
+            if (keyword == null || keyword.isBlank()) {
+                continue;
+            }
+            String kw = keyword.toLowerCase(Locale.ROOT);
+            if (haystack.contains(kw)) {
+                score += 1.0;
+            } else {
+                for (String token : kw.split("\\s+")) {
+                    if (token.length() >= minTokenLength && haystack.contains(token)) {
+                        score += 0.3;
+                    }
+                }
+            }
+        }
+        return score;
+    }
+
+    private static void assertSameScore(String head, List<String> fields, List<String> keywords, int minTokenLength) {
+        double expected = reference(head, fields, keywords, minTokenLength);
+        double actual = KeywordMatcher.compile(keywords, minTokenLength).score(head, fields);
+        assertEquals(expected, actual, 0.0, () -> "keywords=" + keywords + " head=" + head + " fields=" + fields
+                + " minTokenLength=" + minTokenLength);
+    }
+
+    @Test
+    void phraseBeatsTokens() {
+        assertSameScore("button", List.of("Sign in", "btn-primary"), List.of("sign in"), 2);
+        assertSameScore("button", List.of("Sign up", "btn-primary"), List.of("sign in"), 2);
+        assertEquals(1.0, KeywordMatcher.compile(List.of("Sign In"), 2).score("a", List.of("sign in")), 0.0);
+    }
+
+    @Test
+    void duplicateTokensScoreEachTime() {
+        assertSameScore("input", List.of("search"), List.of("search search box"), 0);
+        assertSameScore("input", List.of("search"), List.of("search search box"), 2);
+        assertSameScore("input", List.of("query"), List.of("query", "query"), 2);
+        assertEquals(0.6, KeywordMatcher.compile(List.of("go go now"), 0).score("a", List.of("go")), 1e-12);
+    }
+
+    @Test
+    void leadingWhitespaceYieldsAnEmptyTokenThatAlwaysScores() {
+        assertSameScore("div", List.of("nothing here"), List.of(" login form"), 0);
+        assertSameScore("div", List.of("login"), List.of("\tlogin form"), 0);
+        assertSameScore("div", List.of("login"), List.of("  login form"), 1);
+        assertSameScore("div", List.of("login"), List.of(" login form"), 2);
+        assertSameScore("div", List.of(), List.of("   "), 0);
+        assertEquals(0.3, KeywordMatcher.compile(List.of(" zzz"), 0).score("div", List.of("abc")), 1e-12);
+    }
+
+    @Test
+    void phrasesMaySpanFields() {
+        assertSameScore("a", List.of("Sign", "in"), List.of("sign in"), 2);
+        assertSameScore("a", List.of("x", "sign"), List.of("a x"), 2);
+        assertSameScore("a", List.of(), List.of("a"), 2);
+    }
+
+    @Test
+    void lowerCasingMatchesLocaleRoot() {
+        assertSameScore("label", List.of("İSTANBUL"), List.of("istanbul", "i̇stanbul"), 2);
+        assertSameScore("span", List.of("ΟΔΟΣ"), List.of("οδος", "οδοσ"), 2);
+        assertSameScore("span", List.of("ΟΔΟΣ x"), List.of("οδος x", "οδοσ"), 2);
+        assertSameScore("span", List.of("𐐀𐐁"), List.of("𐐨𐐩"), 1);
+        assertSameScore("span", List.of("STRASSE", "Straße"), List.of("straße", "strasse"), 2);
+    }
+
+    @Test
+    void randomSetsMatchTheReferenceLoop() {
+        Random random = new Random(20261019L);
+        String alphabet = "abcAB İıΣσς-_ ";
+        for (int round = 0; round < 20_000; round++) {
+            List<String> keywords = new ArrayList<>();
+            for (int k = random.nextInt(5); k >= 0; k--) {
+                keywords.add(randomText(random, alphabet, 1 + random.nextInt(8)));
+            }
+            List<String> fields = new ArrayList<>();
+            for (int f = random.nextInt(4); f > 0; f--) {
+                fields.add(randomText(random, alphabet, random.nextInt(12)));
+            }
+            String head = randomText(random, alphabet, random.nextInt(5));
+            assertSameScore(head, fields, keywords, random.nextInt(3));
+        }
+    }
+
+    static String randomText(Random random, String alphabet, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return sb.toString();
+    }
+}
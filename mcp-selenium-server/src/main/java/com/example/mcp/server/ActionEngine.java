@@ -0,0 +1,1228 @@
+package com.example.mcp.server;
+
+import com.example.mcp.common.KeywordMatcher;
+import com.example.mcp.server.proto.RequestEnvelope;
+import com.example.mcp.server.proto.ResponseEnvelope;
+import com.example.mcp.server.proto.StepResult;
+import org.openqa.selenium.*;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.interactions.Actions;
+import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.WebDriverWait;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * 动作执行引擎：会话表、准入、计划编译与逐步执行。不依赖 Spring 上下文，
+ * Spring 入口（{@link SeleniumServerApplication}）与轻量 STDIO 入口（{@link StdioMain}）共用。
+ */
+@Component
+public final class ActionEngine implements DisposableBean {
+    private static final Logger log = LoggerFactory.getLogger(ActionEngine.class);
+    /** WebDriver 默认的页面加载超时，goto 没有足够样本时沿用 */
+    private static final long DEFAULT_PAGE_LOAD_MS = 300_000;
+    private static final long CANCEL_GRACE_MS = 2_000;
+    private final long startedAt = System.currentTimeMillis();
+    private final AdmissionScheduler scheduler;
+    private final PlanCompiler compiler;
+    private final SessionReaper reaper;
+    private final BrowserWatchdog watchdog;
+    private final BrowserContextPool contexts;
+    private final StateSnapshotStore states;
+    private final MacroRegistry macros;
+    private final AdaptiveTimeouts timeouts;
+    private final SelectorHealer healer;
+    private final VisualComparator visual;
+    // sessionId -> 浏览器会话；无 sessionId 的请求使用不登记的临时会话
+    private final Map<String, BrowserSession> sessions = new ConcurrentHashMap<>();
+    // 所有占用许可的会话（含临时会话），用于识别无主驱动进程
+    private final Set<BrowserSession> live = ConcurrentHashMap.newKeySet();
+    // sessionId -> 失败的 stepIndex；按插入顺序淘汰
+    private final Map<String, Integer> failedSessions = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > 256;
+        }
+    });
+    // sessionId -> 被回收的原因；后续步骤据此报告会话已过期而不是“未打开浏览器”
+    private final Map<String, String> reapedSessions = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > 256;
+        }
+    });
+
+    // sessionId -> cancel 到达的时刻（nanoTime）；早于它收到的同会话请求直接返回 cancelled
+    private final Map<String, Long> cancelledSessions = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+            return size() > 256;
+        }
+    });
+
+    // 入口记录的启动分阶段耗时（health 的 startup 字段）
+    private volatile Map<String, Object> startup = Map.of();
+
+    public ActionEngine(AdmissionScheduler scheduler, PlanCompiler compiler, SessionReaper reaper,
+                        BrowserWatchdog watchdog, BrowserContextPool contexts, StateSnapshotStore states,
+                        MacroRegistry macros, AdaptiveTimeouts timeouts, SelectorHealer healer,
+                        VisualComparator visual) {
+        this.scheduler = scheduler;
+        this.compiler = compiler;
+        this.reaper = reaper;
+        this.watchdog = watchdog;
+        this.contexts = contexts;
+        this.states = states;
+        this.macros = macros;
+        this.timeouts = timeouts;
+        this.healer = healer;
+        this.visual = visual;
+        timeouts.start();
+        reaper.start(this::reap);
+        watchdog.start(this::sampleResources);
+    }
+
+    void recordStartup(Map<String, Object> phases) {
+        this.startup = Collections.unmodifiableMap(new LinkedHashMap<>(phases));
+    }
+
+    /**
+     * 执行一个（可能已流水线排队的）请求并回传 seq/stepIndex。stopOnError 的 session 一旦某步失败，
+     * 之后排队的更大 stepIndex 直接返回 cancelled，不再触碰浏览器；新一轮（stepIndex 回到更小值）清除标记。
+     */
+    ResponseEnvelope handleSequenced(RequestEnvelope req, StepSink sink) {
+        if (req.getReceivedAtNanos() == 0) {
+            req.setReceivedAtNanos(System.nanoTime());
+        }
+        ResponseEnvelope resp = dispatch(req, sink);
+        resp.setSeq(req.getSeq());
+        resp.setStepIndex(req.getStepIndex());
+        return resp;
+    }
+
+    // STDIO 与 HTTP 线程共用同一套会话与准入
+    public ResponseEnvelope handlePublic(RequestEnvelope req) {
+        List<StepResult> collected = new ArrayList<>();
+        ResponseEnvelope resp = handleSequenced(req, collected::add);
+        if (!collected.isEmpty()) {
+            resp.setResults(collected);
+        }
+        return resp;
+    }
+
+    private ResponseEnvelope dispatch(RequestEnvelope req, StepSink sink) {
+        if ("health".equalsIgnoreCase(req.getMethod())) {
+            ResponseEnvelope ok = ResponseEnvelope.ok("healthy");
+            ok.getData().putAll(health());
+            return ok;
+        }
+        if ("list_sessions".equalsIgnoreCase(req.getMethod())) {
+            return listSessions();
+        }
+        if ("kill_session".equalsIgnoreCase(req.getMethod())) {
+            return killSession(req.getSessionId());
+        }
+        if ("cancel".equalsIgnoreCase(req.getMethod())) {
+            return cancel(req.getSessionId(), req.getClientId());
+        }
+        if ("define_macro".equalsIgnoreCase(req.getMethod())) {
+            return defineMacro(req);
+        }
+        if ("delete_macro".equalsIgnoreCase(req.getMethod())) {
+            return macros.remove(req.getMacro())
+                    ? ResponseEnvelope.ok("Macro deleted: " + req.getMacro())
+                    : ResponseEnvelope.error("Unknown macro: " + req.getMacro());
+        }
+        if ("list_macros".equalsIgnoreCase(req.getMethod())) {
+            ResponseEnvelope ok = ResponseEnvelope.ok("macros");
+            ok.getData().put("macros", macros.list());
+            return ok;
+        }
+        if (!"execute".equalsIgnoreCase(req.getMethod())) {
+            return ResponseEnvelope.error("Unsupported method: " + req.getMethod());
+        }
+        if (req.getActions() == null || req.getActions().isEmpty()) {
+            return ResponseEnvelope.error("No actions specified");
+        }
+        String sid = StringUtils.hasText(req.getSessionId()) ? req.getSessionId() : null;
+        int step = req.getStepIndex() == null ? -1 : req.getStepIndex();
+        boolean stopOnError = Boolean.TRUE.equals(req.getStopOnError());
+        boolean sessionDone = Boolean.TRUE.equals(req.getSessionDone());
+        if (cancelledBefore(sid, req)) {
+            return cancelled(sid, step);
+        }
+        Integer failedAt = sid == null ? null : failedSessions.get(sid);
+        if (failedAt != null && stopOnError && step > failedAt) {
+            log.info("[Server] cancel session={} step={} (step {} failed)", sid, step, failedAt);
+            ResponseEnvelope cancelled = ResponseEnvelope.error("Cancelled: step " + failedAt + " failed earlier in this session");
+            cancelled.getData().put("cancelled", true);
+            cancelled.getData().put("browserClosed", false);
+            if (sessionDone) {
+                failedSessions.remove(sid);
+            }
+            return cancelled;
+        }
+        if (failedAt != null) {
+            failedSessions.remove(sid);
+        }
+
+        // 先编译校验，结构错误不申请许可、不启动浏览器
+        PlanCompiler.CompiledPlan plan;
+        try {
+            plan = compiler.compile(req.getActions());
+            if (plan.needsBrowserBeforeOpen()) {
+                BrowserSession existing = sid == null ? null : sessions.get(sid);
+                if (existing == null || existing.driver == null) {
+                    throw new PlanCompiler.InvalidPlan(List.of(browserMissing(sid)));
+                }
+            }
+        } catch (PlanCompiler.InvalidPlan e) {
+            return rejectPlan(req, sid, step, stopOnError, sessionDone, e);
+        }
+
+        BrowserSession s;
+        try {
+            while (true) {
+                s = openSession(sid, req);
+                s.lock.lock();
+                if (cancelledBefore(sid, req)) {
+                    // 在会话锁上排队期间被取消（HTTP 并发请求）；会话已由 cancel 回收
+                    s.lock.unlock();
+                    return cancelled(sid, step);
+                }
+                if (!s.ended.get()) {
+                    break; // 持锁进入执行
+                }
+                // 取到会话后、加锁前被回收：需要原浏览器的计划按过期拒绝，否则重新登记会话
+                s.lock.unlock();
+                if (plan.needsBrowserBeforeOpen()) {
+                    return rejectPlan(req, sid, step, stopOnError, sessionDone,
+                            new PlanCompiler.InvalidPlan(List.of(browserMissing(sid))));
+                }
+            }
+        } catch (AdmissionScheduler.Rejected r) {
+            scheduler.logSaturation(req.getClientId(), r);
+            ResponseEnvelope rejected = ResponseEnvelope.error(r.getMessage());
+            rejected.getData().put("rejected", true);
+            rejected.getData().put("queueDepth", r.getQueueDepth());
+            rejected.getData().put("queuePosition", r.getQueuePosition());
+            rejected.getData().put("retryAfterMs", r.getRetryAfterMs());
+            return rejected;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ResponseEnvelope.error("Interrupted while waiting for a browser slot");
+        }
+
+        ResponseEnvelope resp;
+        try {
+            s.lastUsedAt = System.currentTimeMillis();
+            s.enter();
+            resp = handle(req, plan, s, sink);
+        } finally {
+            s.exit();
+            s.lastUsedAt = System.currentTimeMillis(); // 空闲从最后一步结束算起
+            s.lock.unlock();
+        }
+        boolean failed = "error".equals(resp.getStatus());
+        if (sid != null && stopOnError && failed) {
+            failedSessions.put(sid, step);
+        }
+        if (sid != null && sessionDone) {
+            failedSessions.remove(sid);
+        }
+        if (s.ephemeral || sessionDone || failed) {
+            endSession(s, failed ? "error encountered" : "case completed");
+        }
+        return resp;
+    }
+
+    /** 请求在该会话的 cancel 之前到达（已排队的后续步骤） */
+    private boolean cancelledBefore(String sid, RequestEnvelope req) {
+        Long cancelledAt = sid == null ? null : cancelledSessions.get(sid);
+        return cancelledAt != null && req.getReceivedAtNanos() - cancelledAt <= 0;
+    }
+
+    private static ResponseEnvelope cancelled(String sid, int step) {
+        log.info("[Server] cancel session={} step={} (cancelled by client)", sid, step);
+        ResponseEnvelope cancelled = ResponseEnvelope.error("Cancelled: session cancelled by client");
+        cancelled.getData().put("cancelled", true);
+        cancelled.getData().put("browserClosed", false);
+        return cancelled;
+    }
+
+    private String browserMissing(String sid) {
+        String reaped = sid == null ? null : reapedSessions.get(sid);
+        return reaped != null
+                ? "session expired and was reclaimed (" + reaped + "); start again with open_browser"
+                : "browser not opened; plan must start with open_browser";
+    }
+
+    /** 已有会话直接复用；新会话先向调度器申请浏览器许可（可能排队或被拒绝）。 */
+    private BrowserSession openSession(String sid, RequestEnvelope req) throws AdmissionScheduler.Rejected, InterruptedException {
+        if (sid != null) {
+            BrowserSession existing = sessions.get(sid);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        scheduler.acquire(req.getClientId(), req.getPriority());
+        if (sid == null) {
+            BrowserSession ephemeral = new BrowserSession(UUID.randomUUID().toString(), req.getClientId(), true);
+            live.add(ephemeral);
+            return ephemeral;
+        }
+        BrowserSession created = new BrowserSession(sid, req.getClientId(), false);
+        BrowserSession raced = sessions.putIfAbsent(sid, created);
+        if (raced != null) {
+            scheduler.release();
+            return raced;
+        }
+        live.add(created);
+        reapedSessions.remove(sid);
+        return created;
+    }
+
+    /**
+     * 计划未通过校验：不执行任何动作。已存在的会话按普通失败处理（关闭浏览器并结束会话），
+     * 与执行期出错时客户端看到的语义一致。
+     */
+    private ResponseEnvelope rejectPlan(RequestEnvelope req, String sid, int step, boolean stopOnError,
+                                        boolean sessionDone, PlanCompiler.InvalidPlan e) {
+        log.warn("[Server] reject plan from client={}: {}", req.getClientId(), e.getMessage());
+        boolean closed = false;
+        BrowserSession existing = sid == null ? null : sessions.get(sid);
+        if (existing != null) {
+            existing.lock.lock();
+            try {
+                closed = endSession(existing, "invalid plan");
+            } finally {
+                existing.lock.unlock();
+            }
+        }
+        if (sid != null && stopOnError && !sessionDone) {
+            failedSessions.put(sid, step);
+        }
+        ResponseEnvelope invalid = ResponseEnvelope.error("Invalid plan: " + e.getMessage());
+        invalid.getData().put("invalidPlan", true);
+        invalid.getData().put("errors", e.getErrors());
+        invalid.getData().put("browserClosed", closed);
+        return invalid;
+    }
+
+    /** 关闭浏览器、注销会话并归还许可；重复调用无副作用。@return 是否关闭了浏览器 */
+    private boolean endSession(BrowserSession s, String reason) {
+        if (!s.ended.compareAndSet(false, true)) {
+            return false;
+        }
+        boolean closed = cleanupDriver(s, reason);
+        if (!s.ephemeral) {
+            sessions.remove(s.id, s);
+        }
+        live.remove(s);
+        scheduler.release();
+        return closed;
+    }
+
+    /** 回收空闲超时/超龄的会话与无主驱动进程（reaper 线程周期调用） */
+    void reap() {
+        long now = System.currentTimeMillis();
+        for (BrowserSession s : sessions.values()) {
+            String reason = reaper.expiry(s, now);
+            // 拿不到锁说明正在执行步骤，不算空闲
+            if (reason == null || !s.lock.tryLock()) {
+                continue;
+            }
+            try {
+                reclaim(s, reason);
+            } finally {
+                s.lock.unlock();
+            }
+        }
+        if (reaper.killOrphans()) {
+            Set<Long> driverPids = live.stream()
+                    .map(bs -> bs.driverProcess)
+                    .filter(Objects::nonNull)
+                    .map(ProcessHandle::pid)
+                    .collect(Collectors.toCollection(HashSet::new));
+            driverPids.addAll(contexts.driverPids());
+            reaper.recordOrphans(BrowserProcesses.killOrphanDrivers(driverPids, reaper.orphanGrace()));
+        }
+    }
+
+    private void reclaim(BrowserSession s, String reason) {
+        int processes = BrowserProcesses.tree(s.driverProcess).size();
+        boolean closed = endSession(s, reason);
+        reapedSessions.put(s.id, reason);
+        reaper.record(s, reason, closed, processes);
+    }
+
+    /** watchdog 线程：采样各会话的浏览器进程树，越限只做标记，重启由执行线程在下一步之前完成 */
+    void sampleResources() {
+        for (BrowserSession s : live) {
+            ProcessHandle driverProcess = s.driverProcess;
+            if (driverProcess != null && s.driver != null) {
+                watchdog.sample(s, driverProcess);
+            }
+        }
+    }
+
+    /**
+     * 会话被 watchdog 标记时重启浏览器（执行线程持会话锁调用）：沿用原启动参数，回到原 URL 并恢复该域的 cookie。
+     * 表单输入、sessionStorage 等页面内状态不保留。
+     */
+    private void recycleIfFlagged(BrowserSession s) throws IOException {
+        String reason = s.usage.recycleReason;
+        if (reason == null) {
+            return;
+        }
+        s.usage.recycleReason = null;
+        if (s.driver == null || s.options == null) {
+            return;
+        }
+        String url = null;
+        Set<Cookie> cookies = Set.of();
+        try {
+            url = s.driver.getCurrentUrl();
+            cookies = s.driver.manage().getCookies();
+        } catch (WebDriverException e) {
+            log.warn("[Watchdog] could not capture state of session {}: {}", s.id, e.getMessage());
+        }
+        cleanupDriver(s, "watchdog: " + reason);
+        startDriver(s, s.options);
+        int restored = 0;
+        if (url != null && (url.startsWith("http://") || url.startsWith("https://"))) {
+            s.driver.get(url);
+            for (Cookie c : cookies) {
+                try {
+                    s.driver.manage().addCookie(c);
+                    restored++;
+                } catch (WebDriverException ignored) {
+                    // 其他域的 cookie 无法在当前页写入
+                }
+            }
+            if (restored > 0) {
+                s.driver.navigate().refresh();
+            }
+        }
+        watchdog.recordRecycle(s);
+        log.warn("[Watchdog] restarted browser of session {} ({}); url={} cookies {}/{}",
+                s.id, reason, url, restored, cookies.size());
+    }
+
+    private void startDriver(BrowserSession s, ChromeOptions options) throws IOException {
+        Files.createDirectories(s.downloadDir);
+        ChromeDriverService service = ChromeDriverService.createDefaultService();
+        s.driver = new ChromeDriver(service, options);
+        s.pageLoadTimeoutMs = -1;
+        s.options = options;
+        s.driverProcess = BrowserProcesses.driverProcess(service.getUrl().getPort());
+    }
+
+    /** 管理方法 list_sessions：存活会话快照 + 回收策略与最近的回收记录 */
+    private ResponseEnvelope listSessions() {
+        long now = System.currentTimeMillis();
+        List<Map<String, Object>> list = new ArrayList<>();
+        for (BrowserSession s : live) {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("sessionId", s.id);
+            m.put("clientId", s.clientId);
+            m.put("ephemeral", s.ephemeral);
+            m.put("ageMs", now - s.createdAt);
+            m.put("idleMs", now - s.lastUsedAt);
+            m.put("busy", s.lock.isLocked());
+            m.put("browserOpen", s.driver != null);
+            m.put("mode", s.context != null ? "context" : "browser");
+            ProcessHandle p = s.driverProcess;
+            m.put("driverPid", p == null ? null : p.pid());
+            m.put("resources", s.usage.toMap());
+            list.add(m);
+        }
+        ResponseEnvelope ok = ResponseEnvelope.ok(list.size() + " live sessions");
+        ok.getData().put("sessions", list);
+        ok.getData().put("maxBrowsers", scheduler.capacity());
+        ok.getData().put("reaper", reaper.metrics());
+        ok.getData().put("watchdog", watchdog.metrics());
+        ok.getData().put("density", contexts.metrics());
+        return ok;
+    }
+
+    /**
+     * define_macro：登记宏（宏名 macro、参数 params、宏体 actions）。此时只检查动作类型与占位符是否已声明，
+     * 代入实参后的完整校验（selector、url、按键等）在 call_macro 展开编译时进行，错误指向调用处。
+     */
+    private ResponseEnvelope defineMacro(RequestEnvelope req) {
+        MacroRegistry.Macro macro;
+        try {
+            macro = macros.define(req.getMacro(), req.getParams(), req.getActions());
+        } catch (MacroRegistry.MacroException e) {
+            ResponseEnvelope err = ResponseEnvelope.error("Invalid macro: " + e.getMessage());
+            err.getData().put("invalidPlan", true);
+            return err;
+        }
+        log.info("[Server] macro {} defined by client={} params={} actions={}",
+                macro.name(), req.getClientId(), macro.params(), macro.steps().size());
+        ResponseEnvelope ok = ResponseEnvelope.ok("Macro defined: " + macro.name());
+        ok.getData().putAll(MacroRegistry.describe(macro));
+        return ok;
+    }
+
+    /** 管理方法 kill_session：等当前步骤结束（最多 2s），超时则强制结束浏览器，执行中的步骤随之失败 */
+    private ResponseEnvelope killSession(String sid) {
+        BrowserSession s = StringUtils.hasText(sid) ? sessions.get(sid) : null;
+        if (s == null) {
+            return ResponseEnvelope.error("Unknown session: " + sid);
+        }
+        boolean locked = false;
+        try {
+            locked = s.lock.tryLock(2, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            reclaim(s, "killed by admin");
+        } finally {
+            if (locked) {
+                s.lock.unlock();
+            }
+        }
+        ResponseEnvelope ok = ResponseEnvelope.ok("Session killed: " + sid);
+        ok.getData().put("forced", !locked);
+        return ok;
+    }
+
+    /**
+     * cancel：放弃会话上正在进行的计划。中断执行中的步骤（等待、轮询下载、排队等共享 Chrome 均可被打断），
+     * 此前到达的同会话请求不再执行；等执行线程退出（最多 {@value #CANCEL_GRACE_MS}ms，卡在驱动调用里则强制）后
+     * 回收浏览器并归还许可。之后的新请求按新会话处理（需重新 open_browser）。
+     */
+    private ResponseEnvelope cancel(String sid, String clientId) {
+        if (!StringUtils.hasText(sid)) {
+            return ResponseEnvelope.error("cancel requires sessionId");
+        }
+        cancelledSessions.put(sid, System.nanoTime());
+        failedSessions.remove(sid);
+        BrowserSession s = sessions.get(sid);
+        if (s == null) {
+            ResponseEnvelope ok = ResponseEnvelope.ok("No running session: " + sid);
+            ok.getData().put("running", false);
+            ok.getData().put("browserClosed", false);
+            return ok;
+        }
+        boolean running = s.cancel();
+        log.info("[Server] cancel session={} requested by client={} (step running={})", sid, clientId, running);
+        boolean locked = false;
+        try {
+            locked = s.lock.tryLock(CANCEL_GRACE_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int processes = BrowserProcesses.tree(s.driverProcess).size();
+        boolean closed;
+        try {
+            closed = endSession(s, "cancelled");
+        } finally {
+            if (locked) {
+                s.lock.unlock();
+            }
+        }
+        reapedSessions.put(sid, "cancelled");
+        reaper.record(s, "cancelled", closed, processes);
+        ResponseEnvelope ok = ResponseEnvelope.ok("Session cancelled: " + sid);
+        ok.getData().put("running", running);
+        ok.getData().put("browserClosed", closed);
+        ok.getData().put("forced", !locked);
+        return ok;
+    }
+
+    /** 入口退出时（STDIO 输入结束、Spring 关闭）关闭全部浏览器 */
+    @Override
+    public void destroy() {
+        reaper.close();
+        watchdog.close();
+        for (BrowserSession s : new ArrayList<>(live)) {
+            endSession(s, "server shutdown");
+        }
+        contexts.close();
+        timeouts.close();
+        visual.close();
+    }
+
+    public Map<String, Object> schedulerMetrics() {
+        return scheduler.metrics();
+    }
+
+    /**
+     * 健康/容量探测（客户端节点池使用）。不加会话锁：只读快照，执行中的会话不会阻塞探测。
+     */
+    public Map<String, Object> health() {
+        Runtime rt = Runtime.getRuntime();
+        Map<String, Object> metrics = scheduler.metrics();
+        Map<String, Object> h = new LinkedHashMap<>();
+        h.put("status", "ok");
+        h.put("capacity", scheduler.capacity());
+        h.put("activeSessions", metrics.get("inUse"));
+        h.put("queueDepth", metrics.get("queueDepth"));
+        h.put("browserOpen", sessions.values().stream().anyMatch(bs -> bs.driver != null));
+        h.put("processors", rt.availableProcessors());
+        h.put("freeMemoryMb", (rt.maxMemory() - rt.totalMemory() + rt.freeMemory()) / (1024 * 1024));
+        h.put("uptimeMs", System.currentTimeMillis() - startedAt);
+        h.put("planCache", compiler.metrics());
+        h.put("watchdog", watchdog.metrics());
+        h.put("density", contexts.metrics());
+        h.put("state", states.metrics());
+        h.put("macros", macros.metrics());
+        h.put("latency", timeouts.metrics());
+        h.put("healing", healer.metrics());
+        h.put("visual", visual.metrics());
+        h.put("startup", startup);
+        return h;
+    }
+
+    private ResponseEnvelope handle(RequestEnvelope req, PlanCompiler.CompiledPlan plan, BrowserSession s, StepSink sink) {
+        String clientId = req.getClientId() == null ? "unknown-client" : req.getClientId();
+        CompiledStep current = null;
+        StepBudget budget = null;
+        long startedNanos = 0;
+        ReentrantLock shared = null; // 高密度模式下本请求持有的共享 Chrome 锁
+        try {
+            boolean sessionMode = req.getSessionId() != null && !req.getSessionId().isBlank();
+            boolean sessionDone = Boolean.TRUE.equals(req.getSessionDone());
+            for (CompiledStep step : plan.steps()) {
+                current = step;
+                if (s.cancelled) {
+                    throw new CancellationException("Cancelled by client");
+                }
+                startedNanos = System.nanoTime();
+                s.healing = null;
+                Object value = "ok";
+                String type = step.kind().type();
+                if (step.macro() == null) {
+                    log.info("[Server] ← client={} action#{} {}", clientId, step.actionIndex() + 1, type);
+                } else {
+                    log.info("[Server] ← client={} action#{} {} ({})", clientId, step.actionIndex() + 1, type, step.macro());
+                }
+                if (step.note() != null) {
+                    log.info("          note: {}", step.note());
+                }
+                if (step.kind().needsBrowser()) {
+                    recycleIfFlagged(s);
+                    ensureDriver(s);
+                    shared = contexts.bind(s.context, shared);
+                }
+                budget = budget(s, step);
+
+                switch (step.kind()) {
+                    case OPEN_BROWSER -> {
+                        if (s.driver == null && contexts.enabled()) {
+                            if (step.downloadDir() != null) {
+                                s.downloadDir = step.downloadDir();
+                            }
+                            Files.createDirectories(s.downloadDir);
+                            if (shared != null) {
+                                shared.unlock(); // 同一请求里关闭后重开：不同时持有两个共享 Chrome 的锁
+                                shared = null;
+                            }
+                            s.context = contexts.open(step.headless(), s.downloadDir);
+                            s.driver = s.context.browser().driver;
+                        } else if (s.driver == null) {
+                            ChromeOptions options = new ChromeOptions();
+                            if (step.headless()) {
+                                options.addArguments("--headless=new");
+                            }
+                            options.addArguments("--remote-allow-origins=*");
+                            if (step.downloadDir() != null) {
+                                s.downloadDir = step.downloadDir();
+                            }
+                            Map<String, Object> prefs = new HashMap<>();
+                            prefs.put("download.default_directory", s.downloadDir.toAbsolutePath().toString());
+                            prefs.put("download.prompt_for_download", false);
+                            options.setExperimentalOption("prefs", prefs);
+                            startDriver(s, options);
+                        }
+                    }
+                    case SET_DOWNLOAD_DIR -> {
+                        if (step.downloadDir() != null) {
+                            s.downloadDir = step.downloadDir();
+                            Files.createDirectories(s.downloadDir);
+                            if (s.context != null) {
+                                contexts.setDownloadDir(s.context, s.downloadDir);
+                            }
+                            value = s.downloadDir.toAbsolutePath().toString();
+                        } else {
+                            value = "ignored (null)";
+                        }
+                    }
+                    case GOTO -> {
+                        if (s.context != null || s.pageLoadTimeoutMs != budget.timeoutMs()) {
+                            // 共享驱动的超时是整个 WebDriver 会话的设置，上下文会话每次重设
+                            s.driver.manage().timeouts().pageLoadTimeout(Duration.ofMillis(budget.timeoutMs()));
+                            s.pageLoadTimeoutMs = budget.timeoutMs();
+                        }
+                        s.driver.get(step.url());
+                        value = s.lastUrl = s.driver.getCurrentUrl();
+                    }
+                    case CLICK -> locate(s, step, budget.timeoutMs(), false).click();
+                    case TYPE -> {
+                        WebElement el = locate(s, step, budget.timeoutMs(), false);
+                        try {
+                            String tag = el.getTagName();
+                            if (tag == null || (!"select".equalsIgnoreCase(tag) && !"option".equalsIgnoreCase(tag))) {
+                                el.clear();
+                            }
+                        } catch (InvalidElementStateException ignored) {
+                            // some widgets (e.g., date picker/select) do not support clear; skip
+                        }
+                        el.sendKeys(step.text() == null ? "" : step.text());
+                    }
+                    case KEY_PRESS -> {
+                        if (step.locator() != null) {
+                            locate(s, step, 0, false).sendKeys(step.key());
+                        } else {
+                            new Actions(s.driver).sendKeys(step.key()).perform();
+                        }
+                        value = step.text();
+                    }
+                    case FIND_TEXT -> {
+                        String page = s.driver.getPageSource();
+                        value = page.contains(step.text());
+                    }
+                    case WAIT -> {
+                        Thread.sleep(step.timeoutMs());
+                        value = step.timeoutMs();
+                    }
+                    case WAIT_FOR_SELECTOR -> {
+                        locate(s, step, budget.timeoutMs(), true);
+                    }
+                    case SCROLL_BY -> {
+                        ((JavascriptExecutor)s.driver).executeScript("window.scrollBy(arguments[0], arguments[1]);", step.x(), step.y());
+                        value = List.of(step.x(), step.y());
+                    }
+                    case SCROLL_TO -> {
+                        WebElement el = locate(s, step, budget.timeoutMs(), false);
+                        ((JavascriptExecutor)s.driver).executeScript("arguments[0].scrollIntoView({behavior:'smooth',block:'center'});", el);
+                    }
+                    case SWITCH_TO_FRAME -> {
+                        if (step.frameIndex() != null) {
+                            s.driver.switchTo().frame(step.frameIndex());
+                        } else {
+                            s.driver.switchTo().frame(s.driver.findElement(step.locator()));
+                        }
+                    }
+                    case SWITCH_TO_DEFAULT -> s.driver.switchTo().defaultContent();
+                    case SENSE_ELEMENTS -> value = senseElements(s.driver, step);
+                    case DOWNLOAD_LINK -> {
+                        long beforeCount = filesCount(s.downloadDir);
+                        locate(s, step, 0, false).click();
+                        Path newFile = waitForNewFile(s.downloadDir, beforeCount, budget.timeoutMs());
+                        value = newFile == null ? "unknown" : newFile.toAbsolutePath().toString();
+                    }
+                    case GET_TITLE -> value = s.driver.getTitle();
+                    case GET_CURRENT_URL -> value = s.lastUrl = s.driver.getCurrentUrl();
+                    case SAVE_STATE -> value = states.save(step.text(), s.driver, step.ttlMs());
+                    case RESTORE_STATE -> {
+                        Map<String, Object> restored = states.restore(step.text(), s.driver, step.url());
+                        s.lastUrl = String.valueOf(restored.get("url"));
+                        value = restored;
+                    }
+                    case SCREENSHOT -> {
+                        Path dir = Path.of("screens");
+                        Files.createDirectories(dir);
+                        String ts = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS"));
+                        Path file = dir.resolve("shot_" + ts + ".png");
+                        TakesScreenshot tsd = (TakesScreenshot) s.driver;
+                        byte[] bytes = tsd.getScreenshotAs(OutputType.BYTES);
+                        Files.write(file, bytes);
+                        value = file.toAbsolutePath().toString();
+                    }
+                    case SCREENSHOT_ASSERT -> {
+                        byte[] png = step.locator() != null
+                                ? locate(s, step, budget.timeoutMs(), false).getScreenshotAs(OutputType.BYTES)
+                                : ((TakesScreenshot) s.driver).getScreenshotAs(OutputType.BYTES);
+                        value = visual.assertMatches(step.text(), png, step.ignoreRegions(), step.tolerance());
+                    }
+                    case CLOSE -> {
+                        if (s.driver != null) {
+                            if (s.context == null) {
+                                s.driver.close(); // 上下文会话不能关共享驱动的当前窗口，关闭上下文即关闭其窗口
+                            }
+                            // 会话随后视为无浏览器：同时结束驱动服务，避免 chromedriver 残留
+                            cleanupDriver(s, "close action");
+                        }
+                    }
+                    case QUIT -> cleanupDriver(s, "quit action");
+                }
+                long elapsed = elapsedMs(startedNanos);
+                // 固定等待不是延迟；本次感知自愈的耗时含原选择器的整段等待，也不计入
+                if (step.kind() != CompiledStep.Kind.WAIT && (s.healing == null || s.healing.cached())) {
+                    timeouts.recordSuccess(type, budget.pattern(), elapsed);
+                    if (!budget.type().equals(type)) {
+                        timeouts.recordSuccess(budget.type(), budget.pattern(), elapsed);
+                    }
+                }
+                StepResult result = tagged(StepResult.ok(step.actionIndex(), type, value, elapsed), step);
+                if (s.healing != null) {
+                    result.setHealed(s.healing.toMap());
+                }
+                sink.accept(result);
+            }
+            boolean closed = false;
+            if (!sessionMode || sessionDone) {
+                closed = cleanupDriver(s, "case completed");
+            }
+            ResponseEnvelope ok = ResponseEnvelope.ok("All actions executed");
+            ok.getData().put("browserClosed", closed);
+            return ok;
+        } catch (Exception e) {
+            if (s.cancelled) {
+                // 中断后的异常类型不定（InterruptedException、WebDriverException …），统一报告为取消
+                e = new CancellationException("Cancelled by client");
+            } else if (e instanceof TimeoutException && budget != null) {
+                timeouts.recordTimeout(budget.type(), budget.pattern(), elapsedMs(startedNanos),
+                        budget.timeoutMs(), budget.fallbackMs());
+            }
+            boolean closed = cleanupDriver(s, "error encountered");
+            reportFailure(plan, current, e, elapsedMs(startedNanos), sink);
+            ResponseEnvelope err = ResponseEnvelope.error("Execution failed: " + e.getMessage());
+            err.getData().put("browserClosed", closed);
+            if (e instanceof VisualComparator.Mismatch mismatch) {
+                err.getData().put("visual", mismatch.details());
+            }
+            if (s.cancelled) {
+                err.getData().put("cancelled", true);
+            }
+            return err;
+        } finally {
+            if (shared != null && shared.isHeldByCurrentThread()) {
+                shared.unlock();
+            }
+        }
+    }
+
+    /** 失败动作记 error，其后未执行的动作记 skipped，保证每个动作序号都有一条结果 */
+    private void reportFailure(PlanCompiler.CompiledPlan plan, CompiledStep failed, Exception e, long durationMs, StepSink sink) {
+        if (failed == null) {
+            return;
+        }
+        try {
+            StepResult error = StepResult.error(failed.actionIndex(), failed.kind().type(), e.getMessage(), durationMs);
+            if (e instanceof VisualComparator.Mismatch mismatch) {
+                // 视觉断言失败时附 score / phashDistance / diffImage，调用方不必解析消息
+                error.setValue(mismatch.details());
+            }
+            sink.accept(tagged(error, failed));
+            for (CompiledStep rest : plan.steps().subList(failed.index() + 1, plan.steps().size())) {
+                sink.accept(tagged(StepResult.skipped(rest.actionIndex(), rest.kind().type()), rest));
+            }
+        } catch (IOException io) {
+            log.warn("Failed to report step results: {}", io.getMessage());
+        }
+    }
+
+    private static StepResult tagged(StepResult r, CompiledStep step) {
+        r.setMacro(step.macro());
+        return r;
+    }
+
+    private static long elapsedMs(long startedNanos) {
+        return (System.nanoTime() - startedNanos) / 1_000_000;
+    }
+
+    private void ensureDriver(BrowserSession s) {
+        if (s.driver == null) throw new IllegalStateException("Browser not opened. Call open_browser first.");
+    }
+
+    /**
+     * 一个步骤的超时预算：type 是学习/取值所用的类型（click 等的等待可见按 wait_for_selector），
+     * pattern 为目标或当前页面的 URL 模式，fallbackMs 是没有足够样本时的默认值。
+     */
+    private record StepBudget(String type, String pattern, long timeoutMs, long fallbackMs) {
+    }
+
+    private StepBudget budget(BrowserSession s, CompiledStep step) {
+        String type = step.kind().type();
+        String pattern = AdaptiveTimeouts.pattern(step.kind() == CompiledStep.Kind.GOTO ? step.url() : s.lastUrl);
+        long fallback = step.timeoutMs();
+        switch (step.kind()) {
+            case GOTO -> fallback = step.timeoutExplicit() ? step.timeoutMs() : DEFAULT_PAGE_LOAD_MS;
+            case CLICK, TYPE, SCROLL_TO -> {
+                if (step.timeoutMs() <= 0) {
+                    return new StepBudget(type, pattern, 0, 0); // 不等待
+                }
+                type = CompiledStep.Kind.WAIT_FOR_SELECTOR.type();
+            }
+            case WAIT_FOR_SELECTOR, DOWNLOAD_LINK -> {
+            }
+            default -> {
+                return new StepBudget(type, pattern, step.timeoutMs(), step.timeoutMs());
+            }
+        }
+        return new StepBudget(type, pattern, timeouts.timeoutMs(step, type, pattern, fallback), fallback);
+    }
+
+    /**
+     * 定位步骤的元素。带超时的 click/type/scroll_to 先等元素可见（客户端把前置 wait_for_selector 并入此处），
+     * waitVisible 时（wait_for_selector）超时为 0 也检查可见。
+     * 该页面上已有自愈记录时先用替代选择器；原选择器找不到元素时尝试自愈（{@link SelectorHealer}）。
+     */
+    private WebElement locate(BrowserSession s, CompiledStep step, long timeoutMs, boolean waitVisible) {
+        // wait_for_selector 是断言：元素不在就该失败，不拿别的元素顶替
+        boolean healable = healer.enabled() && step.kind() != CompiledStep.Kind.WAIT_FOR_SELECTOR;
+        String url = null;
+        SelectorHealer.Entry known = null;
+        if (healable && healer.hasEntries()) {
+            url = currentUrl(s);
+            known = healer.lookup(url, step.selector());
+            if (known != null) {
+                // 先不等待地探一下替代选择器：在就用它（等可见用整个预算）；不在时预算留给原选择器，
+                // 过期的缓存项不必白等一个完整超时
+                if (!s.driver.findElements(By.cssSelector(known.selector())).isEmpty()) {
+                    WebElement el = find(s.driver, By.cssSelector(known.selector()), timeoutMs, waitVisible);
+                    s.healing = new SelectorHealer.Healing(step.selector(), known.selector(), known.score(), true);
+                    return el;
+                }
+            }
+        }
+        try {
+            WebElement el = find(s.driver, step.locator(), timeoutMs, waitVisible);
+            if (known != null) {
+                log.info("Original selector '{}' matches again; dropping healed '{}'", step.selector(), known.selector());
+                healer.forget(url, step.selector());
+            }
+            return el;
+        } catch (NoSuchElementException | TimeoutException e) {
+            if (!healable || s.cancelled) {
+                throw e;
+            }
+            if (known != null) {
+                // 等原选择器期间页面可能已渲染出替代元素
+                List<WebElement> late = s.driver.findElements(By.cssSelector(known.selector()));
+                if (!late.isEmpty()) {
+                    s.healing = new SelectorHealer.Healing(step.selector(), known.selector(), known.score(), true);
+                    return late.get(0);
+                }
+                log.info("Healed selector '{}' for '{}' no longer matches; re-healing", known.selector(), step.selector());
+                healer.forget(url, step.selector());
+            }
+            WebElement healed = heal(s, step, url != null ? url : currentUrl(s));
+            if (healed == null) {
+                healer.recordUnhealed();
+                throw e;
+            }
+            return healed;
+        }
+    }
+
+    private static WebElement find(WebDriver driver, By by, long timeoutMs, boolean waitVisible) {
+        if (timeoutMs > 0 || waitVisible) {
+            return new WebDriverWait(driver, Duration.ofMillis(timeoutMs))
+                    .until(ExpectedConditions.visibilityOfElementLocated(by));
+        }
+        return driver.findElement(by);
+    }
+
+    /** 以 selector/note/text 为关键词在限定范围内感知，唯一可信的候选作为替代选择器并记入缓存 */
+    private WebElement heal(BrowserSession s, CompiledStep step, String url) {
+        List<String> keywords = SelectorHealer.keywords(step);
+        if (keywords.isEmpty()) {
+            return null;
+        }
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords, SelectorHealer.MIN_KEYWORD_LENGTH);
+        List<Map<String, Object>> sensed = sense(s.driver, SelectorHealer.scope(step), keywords, matcher, 20);
+        List<String> required = SelectorHealer.selectorKeywords(step);
+        SelectorHealer.Candidate candidate = healer.pick(step.selector(), sensed, matcher,
+                required.isEmpty() ? keywords : required);
+        if (candidate == null) {
+            return null;
+        }
+        WebElement el;
+        try {
+            el = s.driver.findElement(By.cssSelector(candidate.selector()));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        healer.remember(url, step.selector(), candidate.selector(), candidate.score());
+        s.healing = new SelectorHealer.Healing(step.selector(), candidate.selector(), candidate.score(), false);
+        log.warn("Healed selector '{}' -> '{}' (score {}) on {}", step.selector(), candidate.selector(),
+                candidate.score(), url);
+        return el;
+    }
+
+    private String currentUrl(BrowserSession s) {
+        try {
+            return s.driver.getCurrentUrl();
+        } catch (WebDriverException e) {
+            return s.lastUrl;
+        }
+    }
+
+    private List<Map<String, Object>> senseElements(WebDriver driver, CompiledStep step) {
+        List<String> keywords = step.keywords();
+        // compile once per sensing pass; each candidate is then scored in a single scan
+        KeywordMatcher matcher = KeywordMatcher.compile(keywords, 2);
+        return sense(driver, step.scopeSelector(), keywords, matcher, step.limit());
+    }
+
+    private List<Map<String, Object>> sense(WebDriver driver, String scopeSelector, List<String> keywords,
+                                            KeywordMatcher matcher, int limit) {
+        List<WebElement> candidates = driver.findElements(By.cssSelector(scopeSelector));
+        List<Map<String, Object>> sensed = new ArrayList<>();
+        for (WebElement candidate : candidates) {
+            try {
+                Map<String, Object> info = buildSenseEntry(driver, candidate, keywords, matcher);
+                if (info != null) {
+                    sensed.add(info);
+                }
+            } catch (StaleElementReferenceException ignored) {
+                // element disappeared between listing and inspection; skip
+            } catch (JavascriptException e) {
+                log.debug("senseElements JS error: {}", e.getMessage());
+            }
+        }
+        sensed.sort((a, b) -> Double.compare(asDouble(b.get("score")), asDouble(a.get("score"))));
+        if (sensed.size() > limit) {
+            return new ArrayList<>(sensed.subList(0, limit));
+        }
+        return sensed;
+    }
+
+    private Map<String, Object> buildSenseEntry(WebDriver driver, WebElement element, List<String> keywords, KeywordMatcher matcher) {
+        if (element == null) {
+            return null;
+        }
+        try {
+            if (!element.isDisplayed()) {
+                return null;
+            }
+        } catch (StaleElementReferenceException ignored) {
+            return null;
+        }
+        Map<String, String> attrs = new LinkedHashMap<>();
+        String tag = safeLower(element.getTagName());
+        attrs.put("tag", tag);
+        copyAttr(element, attrs, "id");
+        copyAttr(element, attrs, "name");
+        copyAttr(element, attrs, "type");
+        copyAttr(element, attrs, "placeholder");
+        copyAttr(element, attrs, "aria-label");
+        copyAttr(element, attrs, "data-testid");
+        copyAttr(element, attrs, "value");
+        String text = "";
+        try {
+            text = element.getText();
+        } catch (Exception ignored) {
+        }
+        if (!StringUtils.hasText(text)) {
+            text = element.getDomProperty("value");
+        }
+        if (StringUtils.hasText(text)) {
+            attrs.put("text", text.trim());
+        }
+        String selector = buildCssSelector(driver, element, attrs);
+        if (!StringUtils.hasText(selector)) {
+            return null;
+        }
+        double score = computeScore(tag, attrs, keywords, matcher);
+        if (!keywords.isEmpty() && score <= 0.0) {
+            return null;
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("selector", selector);
+        map.put("tag", tag);
+        map.put("score", score);
+        map.put("attributes", attrs);
+        Rectangle rect = element.getRect();
+        Map<String, Object> rectMap = new LinkedHashMap<>();
+        rectMap.put("x", rect.getX());
+        rectMap.put("y", rect.getY());
+        rectMap.put("width", rect.getWidth());
+        rectMap.put("height", rect.getHeight());
+        map.put("rect", rectMap);
+        return map;
+    }
+
+    private void copyAttr(WebElement element, Map<String, String> dest, String name) {
+        try {
+            // 与旧 getAttribute 一致：有反射属性的取 DOM property（value 为实时值），data-*/aria-* 取 attribute
+            String value = name.indexOf('-') >= 0 ? element.getDomAttribute(name) : element.getDomProperty(name);
+            if (StringUtils.hasText(value)) {
+                dest.put(name, value.trim());
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    private double computeScore(String tag, Map<String, String> attrs, List<String> keywords, KeywordMatcher matcher) {
+        double score = keywords.isEmpty() ? 0.2 : 0.0;
+        score += matcher.score(tag, attrs.values());
+        if (attrs.containsKey("id")) {
+            score += 0.5;
+        }
+        if (attrs.containsKey("name")) {
+            score += 0.2;
+        }
+        if (attrs.containsKey("placeholder")) {
+            score += 0.2;
+        }
+        if (attrs.containsKey("aria-label")) {
+            score += 0.25;
+        }
+        if ("input".equals(tag) || "textarea".equals(tag)) {
+            score += 0.1;
+        }
+        return score;
+    }
+
+    private String buildCssSelector(WebDriver driver, WebElement element, Map<String, String> attrs) {
+        String id = attrs.get("id");
+        if (StringUtils.hasText(id)) {
+            return "#" + cssEscape(id);
+        }
+        String dataTestId = attrs.get("data-testid");
+        if (StringUtils.hasText(dataTestId)) {
+            return "[data-testid='" + cssEscape(dataTestId) + "']";
+        }
+        String name = attrs.get("name");
+        if (StringUtils.hasText(name)) {
+            return element.getTagName().toLowerCase(Locale.ROOT) + "[name='" + cssEscape(name) + "']";
+        }
+        String ariaLabel = attrs.get("aria-label");
+        if (StringUtils.hasText(ariaLabel)) {
+            return element.getTagName().toLowerCase(Locale.ROOT) + "[aria-label='" + cssEscape(ariaLabel) + "']";
+        }
+        String placeholder = attrs.get("placeholder");
+        if (StringUtils.hasText(placeholder)) {
+            return element.getTagName().toLowerCase(Locale.ROOT) + "[placeholder='" + cssEscape(placeholder) + "']";
+        }
+        String value = attrs.get("value");
+        if (StringUtils.hasText(value) && value.length() <= 40) {
+            return element.getTagName().toLowerCase(Locale.ROOT) + "[value='" + cssEscape(value) + "']";
+        }
+        String script = """
+                function cssPath(el) {
+                  if (!(el instanceof Element)) return null;
+                  const path = [];
+                  while (el && el.nodeType === Node.ELEMENT_NODE && path.length < 6) {
+                    let selector = el.nodeName.toLowerCase();
+                    if (el.id) {
+                      selector += "#" + CSS.escape(el.id);
+                      path.unshift(selector);
+                      break;
+                    }
+                    let sib = el;
+                    let nth = 1;
+                    while ((sib = sib.previousElementSibling) != null) {
+                      if (sib.nodeName === el.nodeName) {
+                        nth++;
+                      }
+                    }
+                    selector += ":nth-of-type(" + nth + ")";
+                    path.unshift(selector);
+                    el = el.parentNode;
+                  }
+                  return path.join(" > ");
+                }
+                return cssPath(arguments[0]);
+                """;
+        Object evaluated = ((JavascriptExecutor) driver).executeScript(script, element);
+        if (evaluated instanceof String s && !s.isBlank()) {
+            return s;
+        }
+        return null;
+    }
+
+    private double asDouble(Object value) {
+        if (value instanceof Number n) {
+            return n.doubleValue();
+        }
+        if (value instanceof String s) {
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return 0.0;
+    }
+
+    private String safeLower(String in) {
+        return in == null ? "" : in.toLowerCase(Locale.ROOT);
+    }
+
+    private String cssEscape(String raw) {
+        return raw.replace("\\", "\\\\")
+                .replace("'", "\\'")
+                .replace("\"", "\\\"");
+    }
+
+    private long filesCount(Path dir) throws IOException {
+        if (!Files.exists(dir)) return 0;
+        try (var s = Files.list(dir)) {
+            return s.count();
+        }
+    }
+
+    private Path waitForNewFile(Path dir, long before, long timeoutMs) throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < timeoutMs) {
+            long now = filesCount(dir);
+            if (now > before) {
+                // return the newest file
+                try (var s = Files.list(dir)) {
+                    return s.max(Comparator.comparingLong(p -> p.toFile().lastModified())).orElse(null);
+                }
+            }
+            Thread.sleep(300);
+        }
+        return null;
+    }
+
+    private boolean cleanupDriver(BrowserSession s, String reason) {
+        BrowserContextPool.Lease lease = s.context;
+        if (lease != null) {
+            // 共享 Chrome 由上下文池管理，这里只关闭会话自己的上下文
+            log.info("Closing browser context of session {} ({})", s.id, reason);
+            s.context = null;
+            s.driver = null;
+            contexts.dispose(lease);
+            return true;
+        }
+        WebDriver driver = s.driver;
+        if (driver != null) {
+            List<ProcessHandle> tree = BrowserProcesses.tree(s.driverProcess);
+            try {
+                log.info("Closing browser session {} ({})", s.id, reason);
+                driver.quit();
+            } catch (Exception ex) {
+                log.warn("Error while closing browser: {}", ex.getMessage());
+            } finally {
+                s.driver = null;
+                s.driverProcess = null;
+            }
+            // quit 失败或渲染进程未随驱动退出时的残留
+            int leftovers = BrowserProcesses.killAll(tree);
+            if (leftovers > 0) {
+                log.warn("Killed {} leftover browser processes of session {}", leftovers, s.id);
+            }
+            return true;
+        }
+        return false;
+    }
+}
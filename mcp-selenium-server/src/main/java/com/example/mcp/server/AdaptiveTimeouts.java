@@ -0,0 +1,116 @@
+package com.example.mcp.server;
+
+import com.example.mcp.common.latency.LatencyModel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 自适应步骤超时：按动作类型与 URL 模式记录成功步骤的耗时（{@link LatencyModel}），
+ * wait_for_selector、download_link、click/type/scroll_to 的等待可见、goto 的页面加载超时取 p99 × {@code safety-factor}，
+ * 样本不足时用原来的固定默认值。动作显式给出的 timeoutMs 始终优先。
+ * <p>
+ * 超时失败不计入样本，避免持续失败的步骤把预算一路抬高；但学到的预算比默认值更紧时，超时的已用时长记作一次样本，
+ * 页面确实变慢后预算会回升到默认值附近。统计按 {@code save-interval-ms} 写盘，重启后沿用。
+ */
+@Component
+public class AdaptiveTimeouts implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AdaptiveTimeouts.class);
+
+    private final boolean enabled;
+    private final long saveIntervalMs;
+    private final LatencyModel model;
+    private final AtomicLong learned = new AtomicLong();
+    private final AtomicLong defaulted = new AtomicLong();
+    private volatile ScheduledExecutorService timer;
+
+    public AdaptiveTimeouts(@Value("${mcp.latency.enabled:true}") boolean enabled,
+                            @Value("${mcp.latency.file:state/latency.json}") String file,
+                            @Value("${mcp.latency.safety-factor:3}") double safetyFactor,
+                            @Value("${mcp.latency.min-timeout-ms:2000}") long minTimeoutMs,
+                            @Value("${mcp.latency.min-samples:20}") int minSamples,
+                            @Value("${mcp.latency.save-interval-ms:60000}") long saveIntervalMs) {
+        this.enabled = enabled;
+        this.saveIntervalMs = Math.max(1000, saveIntervalMs);
+        this.model = new LatencyModel(file == null || file.isBlank() ? null : Path.of(file),
+                safetyFactor, minTimeoutMs, PlanCompiler.MAX_TIMEOUT_MS, minSamples, 500);
+    }
+
+    synchronized void start() {
+        if (!enabled || timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mcp-latency-save");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(this::save, saveIntervalMs, saveIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 步骤的超时预算。
+     * @param budgetType 预算按哪类步骤学习（click 的等待可见按 wait_for_selector 学）
+     * @param fallbackMs 没有足够样本时的默认值
+     */
+    long timeoutMs(CompiledStep step, String budgetType, String urlPattern, long fallbackMs) {
+        if (step.timeoutExplicit() || !enabled) {
+            return step.timeoutExplicit() ? step.timeoutMs() : fallbackMs;
+        }
+        LatencyModel.Budget b = model.budget(budgetType, urlPattern, fallbackMs);
+        ("default".equals(b.basis()) ? defaulted : learned).incrementAndGet();
+        return b.timeoutMs();
+    }
+
+    void recordSuccess(String type, String urlPattern, long elapsedMs) {
+        if (enabled) {
+            model.record(type, urlPattern, elapsedMs);
+        }
+    }
+
+    /** 在学到的（比默认更紧的）预算内超时：记为样本，让预算回升 */
+    void recordTimeout(String type, String urlPattern, long elapsedMs, long budgetMs, long fallbackMs) {
+        if (enabled && budgetMs < fallbackMs) {
+            model.record(type, urlPattern, elapsedMs);
+        }
+    }
+
+    static String pattern(String url) {
+        return LatencyModel.pattern(url);
+    }
+
+    private void save() {
+        try {
+            model.save();
+        } catch (IOException e) {
+            log.warn("Failed to persist latency statistics: {}", e.getMessage());
+        }
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> m = model.snapshot(10);
+        m.put("enabled", enabled);
+        m.put("learnedBudgets", learned.get());
+        m.put("defaultBudgets", defaulted.get());
+        return m;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+        save();
+    }
+}
@@ -0,0 +1,338 @@
+package com.example.mcp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 浏览器准入与公平调度。
+ * <ul>
+ *     <li>全局浏览器预算 {@code mcp.scheduler.max-browsers}：每个新会话占一个许可，会话结束时归还。</li>
+ *     <li>无许可时进入等待队列：优先级类之间严格优先（interactive &gt; normal &gt; batch），
+ *     同一类内按 clientId 加权轮询（{@code mcp.scheduler.weights.<clientId>}，默认 1），同一客户端内 FIFO。</li>
+ *     <li>队列已满或等待超过 {@code max-wait-ms} 时抛 {@link Rejected}，HTTP 返回 429 并附队列位置。</li>
+ * </ul>
+ */
+@Component
+public class AdmissionScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(AdmissionScheduler.class);
+
+    public enum Priority {
+        INTERACTIVE, NORMAL, BATCH;
+
+        static Priority parse(String raw) {
+            if (raw == null || raw.isBlank()) {
+                return NORMAL;
+            }
+            try {
+                return valueOf(raw.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                return NORMAL;
+            }
+        }
+    }
+
+    /** 被拒绝的准入：queuePosition 为 -1 表示未入队（队列已满） */
+    public static final class Rejected extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final int queueDepth;
+        private final int queuePosition;
+        private final long retryAfterMs;
+
+        Rejected(String message, int queueDepth, int queuePosition, long retryAfterMs) {
+            super(message);
+            this.queueDepth = queueDepth;
+            this.queuePosition = queuePosition;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        public int getQueueDepth() { return queueDepth; }
+        public int getQueuePosition() { return queuePosition; }
+        public long getRetryAfterMs() { return retryAfterMs; }
+    }
+
+    private static final class Ticket {
+        final String clientId;
+        final Priority priority;
+        final long enqueuedAt = System.nanoTime();
+        boolean granted;
+
+        Ticket(String clientId, Priority priority) {
+            this.clientId = clientId;
+            this.priority = priority;
+        }
+    }
+
+    /** 一个优先级类：clientId -> FIFO，rotation 为轮询顺序，credit 为当前客户端剩余的连续配额 */
+    private static final class PriorityClass {
+        final Map<String, ArrayDeque<Ticket>> queues = new HashMap<>();
+        final ArrayDeque<String> rotation = new ArrayDeque<>();
+        int credit;
+    }
+
+    private final int maxBrowsers;
+    private final int maxQueue;
+    private final int maxQueuePerClient;
+    private final long maxWaitMs;
+    private final Map<String, Integer> weights;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition changed = lock.newCondition();
+    private final PriorityClass[] classes = new PriorityClass[Priority.values().length];
+    private int available;
+    private int queued;
+
+    // metrics
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong queuedTotal = new AtomicLong();
+    private final AtomicLong waitNanosTotal = new AtomicLong();
+    private final AtomicLong waitNanosMax = new AtomicLong();
+    private final AtomicLong doubleReleases = new AtomicLong();
+    private int maxDepthSeen;
+
+    @Autowired
+    public AdmissionScheduler(Environment env,
+                              @Value("${mcp.scheduler.max-browsers:4}") int maxBrowsers,
+                              @Value("${mcp.scheduler.max-queue:64}") int maxQueue,
+                              @Value("${mcp.scheduler.max-queue-per-client:16}") int maxQueuePerClient,
+                              @Value("${mcp.scheduler.max-wait-ms:30000}") long maxWaitMs) {
+        this(maxBrowsers, maxQueue, maxQueuePerClient, maxWaitMs,
+                Binder.get(env)
+                        .bind("mcp.scheduler.weights", Bindable.mapOf(String.class, Integer.class))
+                        .orElseGet(Map::of));
+    }
+
+    /** 不依赖 Spring 环境的装配（{@link StdioMain}） */
+    AdmissionScheduler(int maxBrowsers, int maxQueue, int maxQueuePerClient, long maxWaitMs, Map<String, Integer> weights) {
+        this.maxBrowsers = Math.max(1, maxBrowsers);
+        this.maxQueue = Math.max(0, maxQueue);
+        this.maxQueuePerClient = Math.max(0, maxQueuePerClient);
+        this.maxWaitMs = Math.max(0, maxWaitMs);
+        this.weights = Map.copyOf(weights);
+        this.available = this.maxBrowsers;
+        Arrays.setAll(classes, i -> new PriorityClass());
+    }
+
+    /** 申请一个浏览器许可；成功返回后调用方须在会话结束时 {@link #release()}。 */
+    public void acquire(String clientId, String priorityName) throws Rejected, InterruptedException {
+        String client = clientId == null ? "unknown-client" : clientId;
+        Priority priority = Priority.parse(priorityName);
+        lock.lock();
+        try {
+            if (available > 0 && queued == 0) {
+                available--;
+                admitted.incrementAndGet();
+                return;
+            }
+            PriorityClass pc = classes[priority.ordinal()];
+            ArrayDeque<Ticket> own = pc.queues.get(client);
+            if (queued >= maxQueue || (own != null && own.size() >= maxQueuePerClient)) {
+                rejected.incrementAndGet();
+                throw new Rejected("Server saturated: browser budget " + maxBrowsers + " in use, " + queued + " queued",
+                        queued, -1, estimateRetryAfter());
+            }
+            Ticket ticket = new Ticket(client, priority);
+            enqueue(pc, ticket);
+            queuedTotal.incrementAndGet();
+            dispatch();
+            long remaining = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+            try {
+                while (!ticket.granted) {
+                    if (remaining <= 0) {
+                        int position = positionOf(ticket);
+                        remove(pc, ticket);
+                        rejected.incrementAndGet();
+                        throw new Rejected("Timed out after " + maxWaitMs + "ms waiting for a browser slot",
+                                queued, position, estimateRetryAfter());
+                    }
+                    remaining = changed.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                if (ticket.granted) {
+                    available++;
+                    dispatch();
+                } else {
+                    remove(pc, ticket);
+                }
+                throw e;
+            }
+            long waited = System.nanoTime() - ticket.enqueuedAt;
+            waitNanosTotal.addAndGet(waited);
+            waitNanosMax.accumulateAndGet(waited, Math::max);
+            admitted.incrementAndGet();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** 每次 acquire 成功后恰好调用一次；多余的 release 记错误日志并计数，不增加名额 */
+    public void release() {
+        lock.lock();
+        try {
+            if (available >= maxBrowsers) {
+                long n = doubleReleases.incrementAndGet();
+                log.error("Admission release without a matching acquire (available={}, max={}, total={})",
+                        available, maxBrowsers, n, new IllegalStateException("double release"));
+                return;
+            }
+            available++;
+            dispatch();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int capacity() {
+        return maxBrowsers;
+    }
+
+    public Map<String, Object> metrics() {
+        lock.lock();
+        try {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("maxBrowsers", maxBrowsers);
+            m.put("inUse", maxBrowsers - available);
+            m.put("queueDepth", queued);
+            m.put("maxQueueDepthSeen", maxDepthSeen);
+            Map<String, Object> perClass = new LinkedHashMap<>();
+            for (Priority p : Priority.values()) {
+                Map<String, Integer> perClient = new LinkedHashMap<>();
+                classes[p.ordinal()].queues.forEach((client, q) -> perClient.put(client, q.size()));
+                perClass.put(p.name().toLowerCase(Locale.ROOT), perClient);
+            }
+            m.put("queuedByClass", perClass);
+            m.put("admitted", admitted.get());
+            m.put("rejected", rejected.get());
+            m.put("doubleReleases", doubleReleases.get());
+            long waitedCount = queuedTotal.get();
+            m.put("queuedTotal", waitedCount);
+            m.put("avgQueueWaitMs", waitedCount == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(waitNanosTotal.get()) / waitedCount);
+            m.put("maxQueueWaitMs", TimeUnit.NANOSECONDS.toMillis(waitNanosMax.get()));
+            return m;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ---- 以下均在 lock 内调用 ----
+
+    private void enqueue(PriorityClass pc, Ticket ticket) {
+        ArrayDeque<Ticket> q = pc.queues.computeIfAbsent(ticket.clientId, k -> {
+            pc.rotation.addLast(k);
+            return new ArrayDeque<>();
+        });
+        q.addLast(ticket);
+        queued++;
+        maxDepthSeen = Math.max(maxDepthSeen, queued);
+    }
+
+    private void remove(PriorityClass pc, Ticket ticket) {
+        ArrayDeque<Ticket> q = pc.queues.get(ticket.clientId);
+        if (q != null && q.remove(ticket)) {
+            queued--;
+            if (q.isEmpty()) {
+                dropClient(pc, ticket.clientId);
+            }
+        }
+    }
+
+    private void dropClient(PriorityClass pc, String clientId) {
+        pc.queues.remove(clientId);
+        if (clientId.equals(pc.rotation.peekFirst())) {
+            pc.credit = 0;
+        }
+        pc.rotation.remove(clientId);
+    }
+
+    private void dispatch() {
+        boolean grantedAny = false;
+        while (available > 0 && queued > 0) {
+            Ticket next = null;
+            for (PriorityClass pc : classes) {
+                next = pollWeighted(pc);
+                if (next != null) {
+                    break;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            next.granted = true;
+            available--;
+            queued--;
+            grantedAny = true;
+        }
+        if (grantedAny) {
+            changed.signalAll();
+        }
+    }
+
+    /** 加权轮询：队首客户端连续最多发 weight 张票，然后轮到下一个 */
+    private Ticket pollWeighted(PriorityClass pc) {
+        if (pc.rotation.isEmpty()) {
+            return null;
+        }
+        if (pc.credit <= 0) {
+            pc.credit = Math.max(1, weights.getOrDefault(pc.rotation.peekFirst(), 1));
+        }
+        String client = pc.rotation.peekFirst();
+        ArrayDeque<Ticket> q = pc.queues.get(client);
+        Ticket ticket = q.pollFirst();
+        pc.credit--;
+        if (q.isEmpty()) {
+            pc.queues.remove(client);
+            pc.rotation.pollFirst();
+            pc.credit = 0;
+        } else if (pc.credit <= 0) {
+            pc.rotation.addLast(pc.rotation.pollFirst());
+        }
+        return ticket;
+    }
+
+    /** 近似排队位置：更高优先级类的全部票 + 本客户端队列中排在前面的票 */
+    private int positionOf(Ticket ticket) {
+        int position = 0;
+        for (int i = 0; i < ticket.priority.ordinal(); i++) {
+            for (ArrayDeque<Ticket> q : classes[i].queues.values()) {
+                position += q.size();
+            }
+        }
+        ArrayDeque<Ticket> own = classes[ticket.priority.ordinal()].queues.get(ticket.clientId);
+        if (own != null) {
+            for (Ticket t : own) {
+                position++;
+                if (t == ticket) {
+                    break;
+                }
+            }
+        }
+        return position;
+    }
+
+    private long estimateRetryAfter() {
+        long avgMs = queuedTotal.get() == 0 ? 1000 : TimeUnit.NANOSECONDS.toMillis(waitNanosTotal.get()) / queuedTotal.get();
+        return Math.max(1000, avgMs);
+    }
+
+    void logSaturation(String clientId, Rejected r) {
+        log.warn("Admission rejected for client={} (queueDepth={}, position={})", clientId, r.getQueueDepth(), r.getQueuePosition());
+    }
+}
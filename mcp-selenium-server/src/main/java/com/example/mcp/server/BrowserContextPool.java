@@ -0,0 +1,306 @@
+package com.example.mcp.server;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.openqa.selenium.chrome.ChromeDriverService;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * 高密度模式（{@code mcp.density.enabled}）：会话的 open_browser 不再启动独立的 chromedriver + Chrome，
+ * 而是在共享 Chrome 中用 CDP {@code Target.createBrowserContext} 创建隔离的浏览器上下文（类似无痕窗口，
+ * cookie/storage/缓存互不可见），会话的步骤路由到该上下文的窗口。
+ * <p>
+ * 每个共享 Chrome 最多承载 {@code contexts-per-browser} 个上下文，满了再启动下一个；最后一个上下文释放后退出。
+ * 同一 WebDriver 同一时刻只能操作一个窗口，因此同一共享 Chrome 上的请求串行执行（请求期间持有 {@link SharedBrowser#lock}）；
+ * frame 焦点不跨请求保留。
+ * <p>
+ * 启动共享 Chrome（数秒）不持有池的监视器，metrics/driverPids/回收线程不被阻塞；同时到达的会话
+ * 在启动中的 Chrome 上预留名额并等它就绪，不会各自再启动一个。
+ */
+@Component
+public class BrowserContextPool implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BrowserContextPool.class);
+    /** dispose 等步骤锁的上限；超时后不带锁关闭上下文（chromedriver 自身串行处理命令） */
+    private static final long DISPOSE_LOCK_MS = 2_000;
+
+    static final class SharedBrowser {
+        final ChromeDriver driver;
+        final ProcessHandle driverProcess;
+        final boolean headless;
+        final ReentrantLock lock = new ReentrantLock(true);
+        int contexts; // 受 pool 监视器保护
+
+        SharedBrowser(ChromeDriver driver, ProcessHandle driverProcess, boolean headless) {
+            this.driver = driver;
+            this.driverProcess = driverProcess;
+            this.headless = headless;
+        }
+    }
+
+    /** 启动中的共享 Chrome：reserved 为已预留的上下文名额，受 pool 监视器保护 */
+    private static final class Launch {
+        final boolean headless;
+        final CompletableFuture<SharedBrowser> ready = new CompletableFuture<>();
+        int reserved = 1;
+
+        Launch(boolean headless) {
+            this.headless = headless;
+        }
+    }
+
+    /** 会话持有的上下文：所在共享 Chrome、CDP 上下文 id 与窗口句柄 */
+    record Lease(SharedBrowser browser, String contextId, String windowHandle) {
+    }
+
+    private final boolean enabled;
+    private final int contextsPerBrowser;
+    private final List<SharedBrowser> browsers = new ArrayList<>();
+    private final List<Launch> launching = new ArrayList<>();
+    private boolean closed;
+
+    public BrowserContextPool(@Value("${mcp.density.enabled:false}") boolean enabled,
+                              @Value("${mcp.density.contexts-per-browser:8}") int contextsPerBrowser) {
+        this.enabled = enabled;
+        this.contextsPerBrowser = Math.max(1, contextsPerBrowser);
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    /** 为会话创建隔离上下文并切到它的窗口；必要时启动新的共享 Chrome */
+    Lease open(boolean headless, Path downloadDir) {
+        SharedBrowser browser = allocate(headless);
+        String contextId = null;
+        browser.lock.lock();
+        try {
+            ChromeDriver driver = browser.driver;
+            Map<String, Object> created = driver.executeCdpCommand("Target.createBrowserContext",
+                    Map.of("disposeOnDetach", false));
+            contextId = String.valueOf(created.get("browserContextId"));
+            Map<String, Object> target = driver.executeCdpCommand("Target.createTarget",
+                    Map.of("url", "about:blank", "browserContextId", contextId, "newWindow", true));
+            String targetId = String.valueOf(target.get("targetId"));
+            setDownloadBehavior(driver, contextId, downloadDir);
+            String handle = driver.getWindowHandles().stream()
+                    .filter(h -> h.equals(targetId) || h.endsWith(targetId))
+                    .findFirst()
+                    .orElseThrow(() -> new WebDriverException("No window handle for target " + targetId));
+            driver.switchTo().window(handle);
+            return new Lease(browser, contextId, handle);
+        } catch (RuntimeException e) {
+            if (contextId != null) {
+                disposeContext(browser, contextId);
+            }
+            release(browser);
+            throw e;
+        } finally {
+            browser.lock.unlock();
+        }
+    }
+
+    /** 上下文内的下载目录（上下文不继承共享 Chrome 的下载偏好） */
+    void setDownloadDir(Lease lease, Path downloadDir) {
+        lease.browser().lock.lock();
+        try {
+            setDownloadBehavior(lease.browser().driver, lease.contextId(), downloadDir);
+        } finally {
+            lease.browser().lock.unlock();
+        }
+    }
+
+    private static void setDownloadBehavior(ChromeDriver driver, String contextId, Path downloadDir) {
+        driver.executeCdpCommand("Browser.setDownloadBehavior", Map.of(
+                "behavior", "allow",
+                "browserContextId", contextId,
+                "downloadPath", downloadDir.toAbsolutePath().toString()));
+    }
+
+    /**
+     * 执行线程在每个浏览器步骤前调用：持有上下文所在共享 Chrome 的锁并切到上下文窗口。
+     * @param held 本次请求已持有的锁（可能属于另一共享 Chrome，会先释放）
+     * @return 现在持有的锁，请求结束时由调用方释放；会话没有上下文时原样返回 held
+     */
+    ReentrantLock bind(Lease lease, ReentrantLock held) throws InterruptedException {
+        if (lease == null) {
+            return held;
+        }
+        ReentrantLock lock = lease.browser().lock;
+        if (held != lock) {
+            if (held != null) {
+                held.unlock();
+            }
+            lock.lockInterruptibly(); // 排队等共享 Chrome 时也能被 cancel 打断
+        }
+        lease.browser().driver.switchTo().window(lease.windowHandle());
+        return lock;
+    }
+
+    /**
+     * 关闭上下文（其窗口随之关闭）；共享 Chrome 上已无上下文时退出。
+     * cancel/kill 时在 STDIO 读线程上调用：等步骤锁最多 {@value #DISPOSE_LOCK_MS}ms，
+     * 其他会话的步骤卡住时不带锁直接经 CDP 关闭，读线程不被拖住。
+     */
+    void dispose(Lease lease) {
+        SharedBrowser browser = lease.browser();
+        boolean locked = false;
+        try {
+            locked = browser.lock.tryLock(DISPOSE_LOCK_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!locked) {
+            log.info("Shared Chrome busy; disposing browser context {} without the step lock", lease.contextId());
+        }
+        try {
+            disposeContext(browser, lease.contextId());
+        } finally {
+            if (locked) {
+                browser.lock.unlock();
+            }
+        }
+        release(browser);
+    }
+
+    private static void disposeContext(SharedBrowser browser, String contextId) {
+        try {
+            browser.driver.executeCdpCommand("Target.disposeBrowserContext", Map.of("browserContextId", contextId));
+        } catch (WebDriverException e) {
+            log.warn("Error while disposing browser context {}: {}", contextId, e.getMessage());
+        }
+    }
+
+    private SharedBrowser allocate(boolean headless) {
+        Launch launch = null;
+        CompletableFuture<SharedBrowser> pending = null;
+        synchronized (this) {
+            for (SharedBrowser b : browsers) {
+                if (b.headless == headless && b.contexts < contextsPerBrowser) {
+                    b.contexts++;
+                    return b;
+                }
+            }
+            for (Launch l : launching) {
+                if (l.headless == headless && l.reserved < contextsPerBrowser) {
+                    l.reserved++;
+                    pending = l.ready;
+                    break;
+                }
+            }
+            if (pending == null) {
+                launch = new Launch(headless);
+                launching.add(launch);
+            }
+        }
+        if (pending != null) {
+            try {
+                return pending.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException r ? r : e;
+            }
+        }
+        SharedBrowser b;
+        try {
+            b = launch(headless);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                launching.remove(launch);
+            }
+            launch.ready.completeExceptionally(e);
+            throw e;
+        }
+        int total;
+        boolean stale;
+        synchronized (this) {
+            launching.remove(launch);
+            stale = closed;
+            if (!stale) {
+                b.contexts = launch.reserved;
+                browsers.add(b);
+            }
+            total = browsers.size();
+        }
+        if (stale) {
+            // 启动期间池已关闭（服务端退出）
+            quit(b);
+            IllegalStateException e = new IllegalStateException("Browser context pool is closed");
+            launch.ready.completeExceptionally(e);
+            throw e;
+        }
+        launch.ready.complete(b);
+        log.info("Started shared Chrome #{} (headless={}) for browser contexts", total, headless);
+        return b;
+    }
+
+    private static SharedBrowser launch(boolean headless) {
+        ChromeOptions options = new ChromeOptions();
+        if (headless) {
+            options.addArguments("--headless=new");
+        }
+        options.addArguments("--remote-allow-origins=*");
+        ChromeDriverService service = ChromeDriverService.createDefaultService();
+        ChromeDriver driver = new ChromeDriver(service, options);
+        return new SharedBrowser(driver, BrowserProcesses.driverProcess(service.getUrl().getPort()), headless);
+    }
+
+    private synchronized void release(SharedBrowser b) {
+        if (--b.contexts > 0 || !browsers.remove(b)) {
+            return;
+        }
+        quit(b);
+    }
+
+    private static void quit(SharedBrowser b) {
+        List<ProcessHandle> tree = BrowserProcesses.tree(b.driverProcess);
+        try {
+            b.driver.quit();
+        } catch (Exception e) {
+            log.warn("Error while closing shared Chrome: {}", e.getMessage());
+        }
+        BrowserProcesses.killAll(tree);
+    }
+
+    /** 共享 Chrome 的驱动进程（孤儿检测时视为存活） */
+    synchronized Set<Long> driverPids() {
+        return browsers.stream()
+                .map(b -> b.driverProcess)
+                .filter(Objects::nonNull)
+                .map(ProcessHandle::pid)
+                .collect(Collectors.toSet());
+    }
+
+    synchronized Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("contextsPerBrowser", contextsPerBrowser);
+        m.put("sharedBrowsers", browsers.size());
+        m.put("launching", launching.size());
+        m.put("contexts", browsers.stream().mapToInt(b -> b.contexts).sum());
+        return m;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        browsers.forEach(BrowserContextPool::quit);
+        browsers.clear();
+    }
+}
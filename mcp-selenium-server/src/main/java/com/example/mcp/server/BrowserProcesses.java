@@ -0,0 +1,77 @@
+package com.example.mcp.server;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * chromedriver/Chrome 进程树工具：驱动进程是本 JVM 的直接子进程（命令行带 {@code --port=N}），
+ * Chrome 及其渲染进程是驱动进程的后代。
+ */
+final class BrowserProcesses {
+
+    private BrowserProcesses() {
+    }
+
+    /** 按驱动服务端口找到对应的 chromedriver 子进程；找不到返回 null */
+    static ProcessHandle driverProcess(int port) {
+        String portArg = "--port=" + port;
+        return ProcessHandle.current().children()
+                .filter(BrowserProcesses::isDriver)
+                .filter(p -> p.info().arguments().map(args -> Arrays.asList(args).contains(portArg)).orElse(false))
+                .findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * 进程树快照（后代在前、根在最后）。驱动退出后 Chrome 会被过继给 init，不再是它的后代，
+     * 因此需在 quit 之前取快照，之后用 {@link #killAll} 清理残留。
+     */
+    static List<ProcessHandle> tree(ProcessHandle root) {
+        if (root == null) {
+            return List.of();
+        }
+        List<ProcessHandle> tree = new ArrayList<>(root.descendants().toList());
+        tree.add(root);
+        return tree;
+    }
+
+    /** 结束仍存活的进程；返回实际结束的个数 */
+    static int killAll(List<ProcessHandle> processes) {
+        int killed = 0;
+        for (ProcessHandle p : processes) {
+            if (p.isAlive() && p.destroyForcibly()) {
+                killed++;
+            }
+        }
+        return killed;
+    }
+
+    static int killTree(ProcessHandle root) {
+        return killAll(tree(root));
+    }
+
+    /**
+     * 结束不属于任何存活会话的 chromedriver 子进程及其后代（quit 失败、会话异常结束后残留）。
+     * 启动不足 minAge 的进程跳过：可能是正在 open_browser、尚未登记到会话的驱动。
+     */
+    static int killOrphanDrivers(Set<Long> liveDriverPids, Duration minAge) {
+        Instant cutoff = Instant.now().minus(minAge);
+        return ProcessHandle.current().children()
+                .filter(BrowserProcesses::isDriver)
+                .filter(p -> !liveDriverPids.contains(p.pid()))
+                .filter(p -> p.info().startInstant().map(start -> start.isBefore(cutoff)).orElse(false))
+                .mapToInt(BrowserProcesses::killTree)
+                .sum();
+    }
+
+    private static boolean isDriver(ProcessHandle p) {
+        return p.info().command()
+                .map(c -> Path.of(c).getFileName().toString().startsWith("chromedriver"))
+                .orElse(false);
+    }
+}
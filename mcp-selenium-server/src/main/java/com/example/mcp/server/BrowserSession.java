@@ -0,0 +1,63 @@
+package com.example.mcp.server;
+
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeOptions;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 一个浏览器会话：独占一个 WebDriver（高密度模式下为共享 Chrome 中的一个上下文）与下载目录，占用调度器的一个浏览器许可。
+ * 同一会话的步骤通过 {@link #lock} 串行执行，不同会话可并发。
+ */
+final class BrowserSession {
+    final String id;
+    final String clientId;
+    final boolean ephemeral; // 无 sessionId 的一次性请求
+    final long createdAt = System.currentTimeMillis();
+    final ReentrantLock lock = new ReentrantLock();
+    final AtomicBoolean ended = new AtomicBoolean();
+
+    volatile WebDriver driver;
+    volatile ProcessHandle driverProcess; // chromedriver 子进程（其后代为 Chrome）
+    volatile ChromeOptions options;       // open_browser 的启动参数，watchdog 重启时复用
+    volatile BrowserContextPool.Lease context; // 高密度模式：共享 Chrome 中的隔离上下文（此时 driver 为共享驱动）
+    final BrowserWatchdog.Usage usage = new BrowserWatchdog.Usage();
+    volatile Path downloadDir = Path.of("downloads");
+    volatile long lastUsedAt = createdAt;
+    volatile String lastUrl;               // 最近一次已知页面地址（goto/get_current_url/restore_state），用于按 URL 模式取超时
+    long pageLoadTimeoutMs = -1;           // 已设置到驱动的页面加载超时；仅执行线程持锁访问，换驱动时重置
+    SelectorHealer.Healing healing;        // 当前步骤用到的替代选择器；仅执行线程持锁访问，每步开始时清空
+    volatile boolean cancelled;            // 已收到 cancel：执行线程在步骤之间检查，不再开始新步骤
+    private Thread runner;                 // 正在执行本会话步骤的线程；cancel 据此中断阻塞中的等待
+
+    BrowserSession(String id, String clientId, boolean ephemeral) {
+        this.id = id;
+        this.clientId = clientId;
+        this.ephemeral = ephemeral;
+    }
+
+    /** 执行线程持会话锁进入 */
+    synchronized void enter() {
+        runner = Thread.currentThread();
+    }
+
+    /** 执行线程离开；清掉 cancel 发出、尚未被阻塞调用消费的中断，不影响该线程之后的工作 */
+    synchronized void exit() {
+        runner = null;
+        if (cancelled) {
+            Thread.interrupted();
+        }
+    }
+
+    /** 标记取消并中断执行线程（只在其处于本会话的步骤中时）。@return 是否有步骤正在执行 */
+    synchronized boolean cancel() {
+        cancelled = true;
+        if (runner == null) {
+            return false;
+        }
+        runner.interrupt();
+        return true;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.mcp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 浏览器资源看门狗：周期采样每个会话 chromedriver 进程树（含 Chrome 全部子进程）的 RSS 与 CPU。
+ * <ul>
+ *     <li>{@code mcp.watchdog.max-rss-mb}：进程树 RSS 合计超过即标记回收（共享页会被重复计入，阈值按偏保守设置）</li>
+ *     <li>{@code mcp.watchdog.max-cpu-percent}：采样区间平均 CPU（100 = 一个核）连续 {@code cpu-strikes} 次超过即标记回收，0 关闭</li>
+ * </ul>
+ * 采样线程只读 /proc 与 {@link ProcessHandle}，不碰 WebDriver；被标记的浏览器由执行线程在下一步之前重启
+ * （见 {@code ActionEngine#recycleIfFlagged}），恢复 URL 与 cookie。RSS 仅在 Linux 上可用。
+ */
+@Component
+public class BrowserWatchdog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BrowserWatchdog.class);
+    private static final Path PROC = Path.of("/proc");
+
+    /** 单个会话的最近一次采样与回收状态 */
+    static final class Usage {
+        volatile long rssMb = -1;
+        volatile double cpuPercent = -1;
+        volatile int processes;
+        volatile long sampledAt;
+        volatile String recycleReason; // 非 null：等待执行线程重启
+        final AtomicInteger recycles = new AtomicInteger();
+        private long lastCpuNanos = -1;
+        private long lastWallNanos;
+        private int cpuStrikes;
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("rssMb", rssMb);
+            m.put("cpuPercent", Math.round(cpuPercent * 10) / 10.0);
+            m.put("processes", processes);
+            m.put("sampledAt", sampledAt == 0 ? null : Instant.ofEpochMilli(sampledAt).toString());
+            m.put("recycles", recycles.get());
+            m.put("recyclePending", recycleReason != null);
+            return m;
+        }
+    }
+
+    private final boolean enabled;
+    private final long intervalMs;
+    private final long maxRssMb;
+    private final double maxCpuPercent;
+    private final int cpuStrikes;
+    private final AtomicLong flagged = new AtomicLong();
+    private final AtomicLong recycled = new AtomicLong();
+    private volatile ScheduledExecutorService timer;
+
+    public BrowserWatchdog(@Value("${mcp.watchdog.enabled:true}") boolean enabled,
+                           @Value("${mcp.watchdog.sample-interval-ms:10000}") long intervalMs,
+                           @Value("${mcp.watchdog.max-rss-mb:2048}") long maxRssMb,
+                           @Value("${mcp.watchdog.max-cpu-percent:0}") double maxCpuPercent,
+                           @Value("${mcp.watchdog.cpu-strikes:3}") int cpuStrikes) {
+        this.enabled = enabled;
+        this.intervalMs = Math.max(1000, intervalMs);
+        this.maxRssMb = Math.max(0, maxRssMb);
+        this.maxCpuPercent = Math.max(0, maxCpuPercent);
+        this.cpuStrikes = Math.max(1, cpuStrikes);
+    }
+
+    synchronized void start(Runnable tick) {
+        if (!enabled || timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mcp-browser-watchdog");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                tick.run();
+            } catch (RuntimeException e) {
+                log.warn("Browser watchdog tick failed: {}", e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** 采样一个会话的进程树并更新 usage；越限时设置 recycleReason 并返回 true（已在等待回收的不重复标记） */
+    boolean sample(BrowserSession s, ProcessHandle driverProcess) {
+        Usage u = s.usage;
+        List<ProcessHandle> tree = BrowserProcesses.tree(driverProcess);
+        long rssKb = 0;
+        boolean rssKnown = false;
+        long cpuNanos = 0;
+        int alive = 0;
+        for (ProcessHandle p : tree) {
+            if (!p.isAlive()) {
+                continue;
+            }
+            alive++;
+            long kb = rssKb(p.pid());
+            if (kb >= 0) {
+                rssKb += kb;
+                rssKnown = true;
+            }
+            cpuNanos += p.info().totalCpuDuration().map(Duration::toNanos).orElse(0L);
+        }
+        long now = System.nanoTime();
+        u.processes = alive;
+        u.rssMb = rssKnown ? rssKb / 1024 : -1;
+        if (u.lastCpuNanos >= 0 && now > u.lastWallNanos) {
+            // 进程退出后累计值可能回落，按 0 计
+            u.cpuPercent = Math.max(0, cpuNanos - u.lastCpuNanos) * 100.0 / (now - u.lastWallNanos);
+        }
+        u.lastCpuNanos = cpuNanos;
+        u.lastWallNanos = now;
+        u.sampledAt = System.currentTimeMillis();
+
+        String reason = null;
+        if (maxRssMb > 0 && u.rssMb > maxRssMb) {
+            reason = "rss " + u.rssMb + "MB > " + maxRssMb + "MB";
+        }
+        if (maxCpuPercent > 0 && u.cpuPercent > maxCpuPercent) {
+            if (++u.cpuStrikes >= cpuStrikes && reason == null) {
+                reason = String.format(Locale.ROOT, "cpu %.0f%% > %.0f%% for %d samples", u.cpuPercent, maxCpuPercent, u.cpuStrikes);
+            }
+        } else {
+            u.cpuStrikes = 0;
+        }
+        if (reason == null || u.recycleReason != null) {
+            return false;
+        }
+        u.recycleReason = reason;
+        flagged.incrementAndGet();
+        log.warn("[Watchdog] session {} flagged for browser restart: {}", s.id, reason);
+        return true;
+    }
+
+    void recordRecycle(BrowserSession s) {
+        s.usage.recycles.incrementAndGet();
+        recycled.incrementAndGet();
+    }
+
+    /** /proc/&lt;pid&gt;/status 的 VmRSS（kB）；非 Linux 或进程已退出返回 -1 */
+    private static long rssKb(long pid) {
+        try {
+            for (String line : Files.readAllLines(PROC.resolve(Long.toString(pid)).resolve("status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.substring(6).replace("kB", "").trim());
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return -1;
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("sampleIntervalMs", intervalMs);
+        m.put("maxRssMb", maxRssMb);
+        m.put("maxCpuPercent", maxCpuPercent);
+        m.put("cpuStrikes", cpuStrikes);
+        m.put("flagged", flagged.get());
+        m.put("recycled", recycled.get());
+        return m;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.example.mcp.server;
+
+import io.github.bonigarcia.wdm.WebDriverManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * 离线优先解析 chromedriver 路径，结果写入系统属性 {@code webdriver.chrome.driver}：
+ * <ol>
+ *     <li>已显式设置 {@code webdriver.chrome.driver} 且文件可执行：直接使用</li>
+ *     <li>本地清单（{@code mcp.driver.manifest}）记录的驱动仍在，且本机 Chrome 的指纹（路径/大小/修改时间）未变：
+ *     直接使用，不启动进程、不联网</li>
+ *     <li>扫描 Selenium/WebDriverManager 缓存（{@code ~/.cache/selenium/chromedriver}）、PATH 与发行版常见位置，
+ *     优先与本机 Chrome 主版本一致的驱动</li>
+ *     <li>仍未找到且未开启 {@code mcp.driver.offline}：WebDriverManager 在线解析</li>
+ * </ol>
+ * 第 3、4 步成功后回写清单，下次启动走第 2 步。
+ */
+@Component
+public class ChromeDriverResolver {
+
+    private static final Logger log = LoggerFactory.getLogger(ChromeDriverResolver.class);
+    static final String DRIVER_PROPERTY = "webdriver.chrome.driver";
+    private static final boolean WINDOWS = System.getProperty("os.name", "").toLowerCase(Locale.ROOT).contains("win");
+    private static final String DRIVER_NAME = WINDOWS ? "chromedriver.exe" : "chromedriver";
+    private static final List<String> CHROME_LOCATIONS = List.of(
+            "/usr/bin/google-chrome", "/usr/bin/google-chrome-stable", "/opt/google/chrome/chrome",
+            "/usr/bin/chromium", "/usr/bin/chromium-browser", "/snap/bin/chromium",
+            "/Applications/Google Chrome.app/Contents/MacOS/Google Chrome");
+    private static final List<String> DRIVER_LOCATIONS = List.of(
+            "/usr/bin/chromedriver", "/usr/local/bin/chromedriver",
+            "/usr/lib/chromium/chromedriver", "/usr/lib/chromium-browser/chromedriver");
+    private static final Pattern VERSION = Pattern.compile("(\\d+)\\.\\d+\\.\\d+(?:\\.\\d+)?");
+
+    /** @param source system-property | manifest | local-scan | webdrivermanager | none */
+    public record Resolution(String driverPath, String source, long elapsedMs) {
+    }
+
+    private final Path manifest;
+    private final boolean offline;
+
+    public ChromeDriverResolver(@Value("${mcp.driver.manifest:}") String manifest,
+                                @Value("${mcp.driver.offline:false}") boolean offline) {
+        this.manifest = StringUtils.hasText(manifest)
+                ? Path.of(manifest)
+                : Path.of(System.getProperty("user.home"), ".cache", "mcp-selenium", "chromedriver.properties");
+        this.offline = offline;
+    }
+
+    public Resolution resolve() {
+        long started = System.nanoTime();
+        Resolution r = doResolve(started);
+        if (r.driverPath() != null) {
+            System.setProperty(DRIVER_PROPERTY, r.driverPath());
+            log.info("chromedriver resolved via {} in {}ms: {}", r.source(), r.elapsedMs(), r.driverPath());
+        } else {
+            log.warn("chromedriver not found locally (offline={}); Selenium will try its own lookup on open_browser", offline);
+        }
+        return r;
+    }
+
+    private Resolution doResolve(long started) {
+        String explicit = System.getProperty(DRIVER_PROPERTY);
+        if (StringUtils.hasText(explicit) && Files.isExecutable(Path.of(explicit))) {
+            return done(explicit, "system-property", started);
+        }
+        Path chrome = findChrome();
+        String fingerprint = fingerprint(chrome);
+        Properties cached = loadManifest();
+        String cachedDriver = cached.getProperty("driver");
+        if (cachedDriver != null && Files.isExecutable(Path.of(cachedDriver))
+                && Objects.equals(fingerprint, cached.getProperty("chrome"))) {
+            return done(cachedDriver, "manifest", started);
+        }
+        // 清单缺失或失效时才启动 chrome --version
+        String chromeMajor = chromeMajor(chrome);
+        Path found = findLocalDriver(chromeMajor);
+        if (found != null) {
+            saveManifest(found.toString(), fingerprint, chromeMajor);
+            return done(found.toString(), "local-scan", started);
+        }
+        if (offline) {
+            return done(null, "none", started);
+        }
+        WebDriverManager wdm = WebDriverManager.chromedriver();
+        wdm.setup();
+        String downloaded = wdm.getDownloadedDriverPath();
+        if (downloaded != null) {
+            saveManifest(downloaded, fingerprint, chromeMajor);
+        }
+        return done(downloaded, downloaded == null ? "none" : "webdrivermanager", started);
+    }
+
+    private static Resolution done(String path, String source, long started) {
+        return new Resolution(path, source, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private Path findChrome() {
+        String env = System.getenv("CHROME_BIN");
+        if (StringUtils.hasText(env) && Files.isExecutable(Path.of(env))) {
+            return Path.of(env);
+        }
+        for (String candidate : CHROME_LOCATIONS) {
+            Path p = Path.of(candidate);
+            if (Files.isExecutable(p)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    private static String fingerprint(Path chrome) {
+        if (chrome == null) {
+            return "none";
+        }
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(chrome.toRealPath(), BasicFileAttributes.class);
+            return chrome.toRealPath() + "|" + attrs.size() + "|" + attrs.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            return chrome.toString();
+        }
+    }
+
+    private static String chromeMajor(Path chrome) {
+        if (chrome == null) {
+            return null;
+        }
+        try {
+            Process p = new ProcessBuilder(chrome.toString(), "--version").redirectErrorStream(true).start();
+            // 先等进程结束再读：挂起且不输出的 Chrome 不会让 readLine 永远阻塞（一行版本号放得进管道缓冲）
+            if (!p.waitFor(5, TimeUnit.SECONDS)) {
+                p.destroyForcibly();
+                log.debug("chrome --version did not exit within 5s");
+                return null;
+            }
+            String out;
+            try (BufferedReader r = new BufferedReader(new InputStreamReader(p.getInputStream(), StandardCharsets.UTF_8))) {
+                out = r.readLine();
+            }
+            Matcher m = VERSION.matcher(out == null ? "" : out);
+            return m.find() ? m.group(1) : null;
+        } catch (IOException e) {
+            log.debug("chrome --version failed: {}", e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /** 缓存中主版本匹配的驱动 → PATH/系统位置（发行版驱动随浏览器一起升级）→ 缓存中版本最高的驱动 */
+    private Path findLocalDriver(String chromeMajor) {
+        List<Path> cachedDrivers = cachedDrivers();
+        if (chromeMajor != null) {
+            for (Path p : cachedDrivers) {
+                if (versionOf(p).startsWith(chromeMajor + ".")) {
+                    return p;
+                }
+            }
+        }
+        List<Path> system = new ArrayList<>();
+        String path = System.getenv("PATH");
+        if (path != null) {
+            for (String dir : path.split(java.io.File.pathSeparator)) {
+                if (!dir.isBlank()) {
+                    system.add(Path.of(dir, DRIVER_NAME));
+                }
+            }
+        }
+        DRIVER_LOCATIONS.forEach(l -> system.add(Path.of(l)));
+        for (Path p : system) {
+            if (Files.isExecutable(p)) {
+                return p;
+            }
+        }
+        return cachedDrivers.isEmpty() ? null : cachedDrivers.get(0);
+    }
+
+    /** ~/.cache/selenium/chromedriver/&lt;platform&gt;/&lt;version&gt;/chromedriver，按版本从高到低 */
+    private static List<Path> cachedDrivers() {
+        Path root = Path.of(System.getProperty("user.home"), ".cache", "selenium", "chromedriver");
+        if (!Files.isDirectory(root)) {
+            return List.of();
+        }
+        try (Stream<Path> walk = Files.walk(root, 4)) {
+            return walk.filter(p -> p.getFileName().toString().equals(DRIVER_NAME) && Files.isExecutable(p))
+                    .sorted((a, b) -> compareVersions(b, a))
+                    .toList();
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+
+    private static String versionOf(Path driver) {
+        Path dir = driver.getParent();
+        return dir == null ? "" : dir.getFileName().toString();
+    }
+
+    /** 目录名形如 126.0.6478.126，按数字逐段比较 */
+    private static int compareVersions(Path a, Path b) {
+        return Arrays.compare(versionParts(a), versionParts(b));
+    }
+
+    private static int[] versionParts(Path driver) {
+        return Arrays.stream(versionOf(driver).split("\\.")).mapToInt(part -> {
+            try {
+                return Integer.parseInt(part);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }).toArray();
+    }
+
+    private Properties loadManifest() {
+        Properties props = new Properties();
+        if (Files.isRegularFile(manifest)) {
+            try (InputStream in = Files.newInputStream(manifest)) {
+                props.load(in);
+            } catch (IOException e) {
+                log.debug("Ignoring unreadable driver manifest {}: {}", manifest, e.getMessage());
+            }
+        }
+        return props;
+    }
+
+    private void saveManifest(String driver, String chromeFingerprint, String chromeMajor) {
+        Properties props = new Properties();
+        props.setProperty("driver", driver);
+        props.setProperty("chrome", chromeFingerprint);
+        if (chromeMajor != null) {
+            props.setProperty("chromeMajor", chromeMajor);
+        }
+        props.setProperty("resolvedAt", Instant.now().toString());
+        try {
+            Files.createDirectories(manifest.toAbsolutePath().getParent());
+            try (OutputStream out = Files.newOutputStream(manifest)) {
+                props.store(out, "chromedriver resolved by mcp-selenium-server; delete to re-resolve");
+            }
+        } catch (IOException e) {
+            log.debug("Could not write driver manifest {}: {}", manifest, e.getMessage());
+        }
+    }
+}
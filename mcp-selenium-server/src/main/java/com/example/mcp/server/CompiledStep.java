@@ -0,0 +1,97 @@
+package com.example.mcp.server;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.Keys;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 编译后的单个动作：类型、定位器、按键、超时等都已解析并校验，执行阶段不再解释原始 {@code Action}。
+ * 实例不可变，可在多次请求间共享（见 {@link PlanCompiler} 的计划缓存）。
+ * timeoutMs 未由动作显式给出（timeoutExplicit=false）时是固定默认值，执行时可被 {@link AdaptiveTimeouts} 的学习值替换。
+ * index 是展开宏之后在计划内的位置，actionIndex 是对应的请求动作序号（宏内步骤为其 call_macro 的序号）。
+ */
+record CompiledStep(int index,
+                    int actionIndex,
+                    Kind kind,
+                    String selector,
+                    By locator,
+                    String text,
+                    String url,
+                    Keys key,
+                    long timeoutMs,
+                    boolean timeoutExplicit,
+                    int x,
+                    int y,
+                    Integer frameIndex,
+                    boolean headless,
+                    Path downloadDir,
+                    List<String> keywords,
+                    int limit,
+                    String scopeSelector,
+                    long ttlMs,
+                    double tolerance,
+                    List<VisualComparator.Region> ignoreRegions,
+                    String note,
+                    String macro) {
+
+    enum Kind {
+        OPEN_BROWSER("open_browser", false),
+        SET_DOWNLOAD_DIR("set_download_dir", false),
+        GOTO("goto", true),
+        CLICK("click", true),
+        TYPE("type", true),
+        KEY_PRESS("key_press", true),
+        FIND_TEXT("find_text", true),
+        WAIT("wait", false),
+        WAIT_FOR_SELECTOR("wait_for_selector", true),
+        SCROLL_BY("scroll_by", true),
+        SCROLL_TO("scroll_to", true),
+        SWITCH_TO_FRAME("switch_to_frame", true),
+        SWITCH_TO_DEFAULT("switch_to_default", true),
+        SENSE_ELEMENTS("sense_elements", true),
+        DOWNLOAD_LINK("download_link", true),
+        GET_TITLE("get_title", true),
+        GET_CURRENT_URL("get_current_url", true),
+        SCREENSHOT("screenshot", true),
+        SCREENSHOT_ASSERT("screenshot_assert", true),
+        SAVE_STATE("save_state", true),
+        RESTORE_STATE("restore_state", true),
+        CALL_MACRO("call_macro", false), // 编译时展开，不会出现在编译结果中
+        CLOSE("close", false),
+        QUIT("quit", false);
+
+        private static final Map<String, Kind> BY_TYPE = new HashMap<>();
+
+        static {
+            for (Kind k : values()) {
+                BY_TYPE.put(k.type, k);
+            }
+        }
+
+        private final String type;
+        private final boolean needsBrowser;
+
+        Kind(String type, boolean needsBrowser) {
+            this.type = type;
+            this.needsBrowser = needsBrowser;
+        }
+
+        /** 协议中的动作名，也是结果 map 的键 */
+        String type() {
+            return type;
+        }
+
+        /** 执行前必须已有打开的浏览器 */
+        boolean needsBrowser() {
+            return needsBrowser;
+        }
+
+        static Kind of(String type) {
+            return type == null ? null : BY_TYPE.get(type);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.mcp.server;
+
+import com.example.mcp.server.proto.Action;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 服务端宏：客户端用 {@code define_macro} 方法登记命名、带参数的子计划（如登录、打开仪表盘），
+ * 计划中的 {@code call_macro}（name + args）由 {@link PlanCompiler} 在编译时展开，请求里不必重复整段动作。
+ * <p>
+ * 动作的字符串字段（selector/text/url/by/scope/note/downloadDir/name/keywords 及嵌套 call_macro 的 args）可写 {@code ${param}} 占位符；
+ * 参数声明为 {@code user} 或 {@code user=默认值}。登记时即拆好每个字段的占位符片段，展开只做拼接，
+ * 不含占位符的动作直接复用。宏可以调用其他宏（最多 {@value #MAX_DEPTH} 层，禁止循环）。
+ * 重新定义同名宏会使引用宏的已缓存计划失效（{@link #generation()}）。宏只存在内存中，服务端重启后需重新登记。
+ */
+@Component
+public class MacroRegistry {
+
+    static final int MAX_DEPTH = 8;
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,63}");
+    private static final Pattern PARAM = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+    private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^}]*)}");
+
+    /** 定义或展开失败（未知宏、缺少参数、循环调用等） */
+    static final class MacroException extends IllegalArgumentException {
+        private static final long serialVersionUID = 1L;
+
+        MacroException(String message) {
+            super(message);
+        }
+    }
+
+    /** 按占位符拆开的字符串：literal 与参数名交替，parts[0] 是开头的字面量 */
+    private record Template(List<String> parts) {
+
+        static Template parse(String raw, Set<String> params, List<String> errors, String where) {
+            if (raw == null || !raw.contains("${")) {
+                return null;
+            }
+            List<String> parts = new ArrayList<>();
+            Matcher m = PLACEHOLDER.matcher(raw);
+            int last = 0;
+            while (m.find()) {
+                parts.add(raw.substring(last, m.start()));
+                String param = m.group(1).trim();
+                if (!params.contains(param)) {
+                    errors.add(where + ": undeclared parameter '" + param + "'");
+                }
+                parts.add(param);
+                last = m.end();
+            }
+            parts.add(raw.substring(last));
+            return new Template(List.copyOf(parts));
+        }
+
+        String render(Map<String, String> args) {
+            StringBuilder sb = new StringBuilder(parts.get(0));
+            for (int i = 1; i < parts.size(); i += 2) {
+                sb.append(args.get(parts.get(i))).append(parts.get(i + 1));
+            }
+            return sb.toString();
+        }
+    }
+
+    /** 宏中的一个动作；fields 为空表示不含占位符，展开时原样复用 */
+    private record Step(Action action, Map<String, Template> fields, List<Template> keywords) {
+    }
+
+    /** @param defaults 参数名 → 默认值（null = 必填），按声明顺序 */
+    record Macro(String name, Map<String, String> defaults, List<Step> steps, long version) {
+
+        List<String> params() {
+            return new ArrayList<>(defaults.keySet());
+        }
+    }
+
+    private final int maxMacros;
+    private final Map<String, Macro> macros = new ConcurrentHashMap<>();
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong expansions = new AtomicLong();
+
+    public MacroRegistry(@Value("${mcp.macro.max-macros:512}") int maxMacros) {
+        this.maxMacros = Math.max(1, maxMacros);
+    }
+
+    /** 登记（或替换）宏；结构错误一次性列出 */
+    synchronized Macro define(String name, List<String> params, List<Action> actions) {
+        List<String> errors = new ArrayList<>();
+        if (name == null || !NAME.matcher(name).matches()) {
+            errors.add("macro name required: 1-64 chars of [A-Za-z0-9._-]");
+        }
+        if (actions == null || actions.isEmpty()) {
+            errors.add("macro needs at least one action");
+        }
+        Map<String, String> defaults = new LinkedHashMap<>();
+        for (String p : params == null ? List.<String>of() : params) {
+            String decl = p == null ? "" : p.trim();
+            int eq = decl.indexOf('=');
+            String param = eq < 0 ? decl : decl.substring(0, eq).trim();
+            if (!PARAM.matcher(param).matches()) {
+                errors.add("invalid parameter '" + decl + "'");
+            } else if (defaults.containsKey(param)) {
+                errors.add("duplicate parameter '" + param + "'");
+            } else {
+                defaults.put(param, eq < 0 ? null : decl.substring(eq + 1));
+            }
+        }
+        if (name != null && !macros.containsKey(name) && macros.size() >= maxMacros) {
+            errors.add("too many macros (mcp.macro.max-macros=" + maxMacros + ")");
+        }
+        List<Step> steps = new ArrayList<>();
+        for (int i = 0; actions != null && i < actions.size(); i++) {
+            Action a = actions.get(i);
+            String where = "action#" + (i + 1);
+            if (a == null || CompiledStep.Kind.of(a.getType()) == null) {
+                errors.add(where + ": unknown action type '" + (a == null ? null : a.getType()) + "'");
+                continue;
+            }
+            Map<String, Template> fields = new HashMap<>();
+            Set<String> keys = defaults.keySet();
+            putTemplate(fields, "selector", a.getSelector(), keys, errors, where);
+            putTemplate(fields, "text", a.getText(), keys, errors, where);
+            putTemplate(fields, "url", a.getUrl(), keys, errors, where);
+            putTemplate(fields, "by", a.getBy(), keys, errors, where);
+            putTemplate(fields, "scope", a.getScope(), keys, errors, where);
+            putTemplate(fields, "note", a.getNote(), keys, errors, where);
+            putTemplate(fields, "downloadDir", a.getDownloadDir(), keys, errors, where);
+            putTemplate(fields, "name", a.getName(), keys, errors, where);
+            if (a.getArgs() != null) {
+                a.getArgs().forEach((k, v) -> putTemplate(fields, "args." + k, v, keys, errors, where));
+            }
+            List<Template> keywords = null;
+            if (a.getKeywords() != null && a.getKeywords().stream().anyMatch(k -> k != null && k.contains("${"))) {
+                keywords = new ArrayList<>();
+                for (String k : a.getKeywords()) {
+                    Template t = Template.parse(k, keys, errors, where);
+                    keywords.add(t != null ? t : new Template(List.of(k == null ? "" : k)));
+                }
+            }
+            steps.add(new Step(a, Map.copyOf(fields), keywords));
+        }
+        if (!errors.isEmpty()) {
+            throw new MacroException(String.join("; ", errors));
+        }
+        Macro macro = new Macro(name, Collections.unmodifiableMap(defaults), List.copyOf(steps),
+                generation.incrementAndGet());
+        macros.put(name, macro);
+        return macro;
+    }
+
+    private static void putTemplate(Map<String, Template> fields, String field, String raw,
+                                    Set<String> params, List<String> errors, String where) {
+        Template t = Template.parse(raw, params, errors, where + " " + field);
+        if (t != null) {
+            fields.put(field, t);
+        }
+    }
+
+    synchronized boolean remove(String name) {
+        if (macros.remove(name) == null) {
+            return false;
+        }
+        generation.incrementAndGet();
+        return true;
+    }
+
+    /** 登记/删除计数；计划缓存据此判断引用宏的计划是否过期 */
+    long generation() {
+        return generation.get();
+    }
+
+    /**
+     * 展开 call_macro 为宏的动作（参数已代入）；嵌套的 call_macro 原样保留，由调用方按 stack 继续展开。
+     * @param stack 当前展开链上的宏名，用于检测循环与深度
+     */
+    List<Action> expand(String name, Map<String, String> args, List<String> stack) {
+        if (!StringUtils.hasText(name)) {
+            throw new MacroException("name required");
+        }
+        if (stack.contains(name)) {
+            throw new MacroException("recursive macro call " + String.join(" -> ", stack) + " -> " + name);
+        }
+        if (stack.size() >= MAX_DEPTH) {
+            throw new MacroException("macro nesting deeper than " + MAX_DEPTH);
+        }
+        Macro macro = macros.get(name);
+        if (macro == null) {
+            throw new MacroException("unknown macro '" + name + "' (define it with define_macro)");
+        }
+        Map<String, String> values = new HashMap<>();
+        Set<String> missing = new LinkedHashSet<>();
+        macro.defaults().forEach((param, def) -> {
+            String v = args == null ? null : args.get(param);
+            if (v == null) {
+                v = def;
+            }
+            if (v == null) {
+                missing.add(param);
+            } else {
+                values.put(param, v);
+            }
+        });
+        if (!missing.isEmpty()) {
+            throw new MacroException("macro '" + name + "' missing argument(s) " + missing);
+        }
+        if (args != null) {
+            Set<String> unknown = new LinkedHashSet<>(args.keySet());
+            unknown.removeAll(macro.defaults().keySet());
+            if (!unknown.isEmpty()) {
+                throw new MacroException("macro '" + name + "' has no parameter(s) " + unknown);
+            }
+        }
+        expansions.incrementAndGet();
+        List<Action> out = new ArrayList<>(macro.steps().size());
+        for (Step step : macro.steps()) {
+            out.add(step.fields().isEmpty() && step.keywords() == null ? step.action() : render(step, values));
+        }
+        return out;
+    }
+
+    private static Action render(Step step, Map<String, String> values) {
+        Action src = step.action();
+        Map<String, Template> f = step.fields();
+        Action a = new Action();
+        a.setType(src.getType());
+        a.setSelector(value(f.get("selector"), src.getSelector(), values));
+        a.setText(value(f.get("text"), src.getText(), values));
+        a.setUrl(value(f.get("url"), src.getUrl(), values));
+        a.setBy(value(f.get("by"), src.getBy(), values));
+        a.setScope(value(f.get("scope"), src.getScope(), values));
+        a.setNote(value(f.get("note"), src.getNote(), values));
+        a.setDownloadDir(value(f.get("downloadDir"), src.getDownloadDir(), values));
+        a.setName(value(f.get("name"), src.getName(), values));
+        a.setKeywords(step.keywords() == null ? src.getKeywords()
+                : step.keywords().stream().map(t -> t.render(values)).toList());
+        a.setLimit(src.getLimit());
+        a.setHeadless(src.getHeadless());
+        a.setTimeoutMs(src.getTimeoutMs());
+        a.setX(src.getX());
+        a.setY(src.getY());
+        a.setFrameIndex(src.getFrameIndex());
+        a.setWaitVisible(src.getWaitVisible());
+        a.setTtlMs(src.getTtlMs());
+        a.setTolerance(src.getTolerance());
+        a.setIgnoreRegions(src.getIgnoreRegions());
+        if (src.getArgs() != null) {
+            // 嵌套 call_macro 的实参可以引用外层参数
+            Map<String, String> args = new LinkedHashMap<>();
+            src.getArgs().forEach((k, v) -> args.put(k, value(f.get("args." + k), v, values)));
+            a.setArgs(args);
+        }
+        return a;
+    }
+
+    private static String value(Template t, String raw, Map<String, String> values) {
+        return t == null ? raw : t.render(values);
+    }
+
+    /** list_macros / define_macro 的返回形状 */
+    static Map<String, Object> describe(Macro m) {
+        Map<String, Object> d = new LinkedHashMap<>();
+        d.put("name", m.name());
+        d.put("params", m.params());
+        d.put("actions", m.steps().size());
+        d.put("version", m.version());
+        return d;
+    }
+
+    List<Map<String, Object>> list() {
+        return macros.values().stream()
+                .sorted(Comparator.comparing(Macro::name))
+                .map(MacroRegistry::describe)
+                .toList();
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("macros", macros.size());
+        m.put("maxMacros", maxMacros);
+        m.put("generation", generation.get());
+        m.put("expansions", expansions.get());
+        return m;
+    }
+}
@@ -0,0 +1,368 @@
+package com.example.mcp.server;
+
+import com.example.mcp.server.proto.Action;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Keys;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * 把请求中的动作列表编译成不可变的 {@link CompiledStep} 序列，并在触碰浏览器之前做结构校验：
+ * 未知类型、缺少 selector/url/text、非法 by/按键/超时、quit 之后未重新 open_browser 等直接拒绝。
+ * 编译结果按计划内容（{@link Action#equals}）做 LRU 缓存，重复计划跳过解析。
+ * {@code call_macro} 在此展开为 {@link MacroRegistry} 中的宏，展开后的步骤与普通动作一样校验；
+ * 引用宏的缓存计划在任何宏重新定义后失效。
+ */
+@Component
+public class PlanCompiler {
+
+    static final long MAX_TIMEOUT_MS = 600_000;
+    private static final int MAX_IGNORE_REGIONS = 64;
+    /** 快照名同时是文件名 */
+    private static final Pattern SNAPSHOT_NAME = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,63}");
+
+    /** 结构校验失败；errors 逐条指出 action 序号与原因 */
+    public static final class InvalidPlan extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<String> errors;
+
+        InvalidPlan(List<String> errors) {
+            super(String.join("; ", errors));
+            this.errors = List.copyOf(errors);
+        }
+
+        public List<String> getErrors() { return errors; }
+    }
+
+    /**
+     * @param steps                  编译后的步骤
+     * @param needsBrowserBeforeOpen 计划在任何 open_browser 之前就需要浏览器：只有会话已有浏览器时才可执行
+     * @param macroGeneration        展开时的 {@link MacroRegistry#generation()}；不含 call_macro 为 -1
+     */
+    record CompiledPlan(List<CompiledStep> steps, boolean needsBrowserBeforeOpen, long macroGeneration) {
+    }
+
+    /** 展开宏之后的一个动作及其来源 */
+    private record Flat(Action action, int actionIndex, String macro) {
+    }
+
+    private final int cacheSize;
+    private final MacroRegistry macros;
+    private final Map<List<Action>, CompiledPlan> cache;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public PlanCompiler(@Value("${mcp.plan.cache-size:256}") int cacheSize, MacroRegistry macros) {
+        this.cacheSize = Math.max(0, cacheSize);
+        this.macros = macros;
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Action>, CompiledPlan> eldest) {
+                return size() > PlanCompiler.this.cacheSize;
+            }
+        });
+    }
+
+    CompiledPlan compile(List<Action> actions) throws InvalidPlan {
+        // 键是请求动作的快照；Action 反序列化后不再修改
+        List<Action> key = Collections.unmodifiableList(new ArrayList<>(actions));
+        CompiledPlan cached = cache.get(key);
+        if (cached != null && (cached.macroGeneration() < 0 || cached.macroGeneration() == macros.generation())) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        CompiledPlan compiled;
+        try {
+            compiled = doCompile(key);
+        } catch (InvalidPlan e) {
+            rejected.incrementAndGet();
+            throw e;
+        }
+        if (cacheSize > 0) {
+            cache.put(key, compiled);
+        }
+        return compiled;
+    }
+
+    public Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("cached", cache.size());
+        m.put("cacheSize", cacheSize);
+        m.put("hits", hits.get());
+        m.put("misses", misses.get());
+        m.put("rejected", rejected.get());
+        return m;
+    }
+
+    private CompiledPlan doCompile(List<Action> actions) throws InvalidPlan {
+        List<String> errors = new ArrayList<>();
+        // 先读代数：展开期间有宏被重新定义时，缓存的计划会在下次命中时判为过期
+        long generation = macros.generation();
+        boolean usesMacros = false;
+        List<Flat> flat = new ArrayList<>(actions.size());
+        for (int i = 0; i < actions.size(); i++) {
+            Action a = actions.get(i);
+            if (a != null && CompiledStep.Kind.CALL_MACRO.type().equals(a.getType())) {
+                usesMacros = true;
+                try {
+                    expand(a, i, "", new ArrayList<>(), flat);
+                } catch (IllegalArgumentException e) {
+                    errors.add("action#" + (i + 1) + " call_macro: " + e.getMessage());
+                }
+            } else {
+                flat.add(new Flat(a, i, null));
+            }
+        }
+        List<CompiledStep> steps = new ArrayList<>(flat.size());
+        // 浏览器状态推演：null = 取决于会话，TRUE = 本计划已 open_browser，FALSE = 本计划已 close/quit
+        Boolean browser = null;
+        String closedAt = null;
+        boolean needsBrowserBeforeOpen = false;
+        for (Flat f : flat) {
+            Action a = f.action();
+            String where = "action#" + (f.actionIndex() + 1) + (f.macro() == null ? "" : " (" + f.macro() + ")");
+            if (a == null) {
+                errors.add(where + ": null action");
+                continue;
+            }
+            CompiledStep.Kind kind = CompiledStep.Kind.of(a.getType());
+            if (kind == null) {
+                errors.add(where + ": unknown action type '" + a.getType() + "'");
+                continue;
+            }
+            try {
+                steps.add(compileStep(steps.size(), f.actionIndex(), f.macro(), kind, a));
+            } catch (IllegalArgumentException e) {
+                errors.add(where + " " + kind.type() + ": " + e.getMessage());
+                continue;
+            }
+            switch (kind) {
+                case OPEN_BROWSER -> browser = true;
+                case CLOSE, QUIT -> {
+                    browser = false;
+                    closedAt = where;
+                }
+                default -> {
+                    if (!kind.needsBrowser()) {
+                        break;
+                    }
+                    if (Boolean.FALSE.equals(browser)) {
+                        errors.add(where + " " + kind.type() + ": browser closed by " + closedAt
+                                + "; call open_browser first");
+                    } else if (browser == null) {
+                        needsBrowserBeforeOpen = true;
+                    }
+                }
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new InvalidPlan(errors);
+        }
+        return new CompiledPlan(List.copyOf(steps), needsBrowserBeforeOpen, usesMacros ? generation : -1);
+    }
+
+    /** 递归展开 call_macro；macro 标记形如 login#2 或 open_task#1/login#3（嵌套） */
+    private void expand(Action call, int actionIndex, String prefix, List<String> stack, List<Flat> out) {
+        String name = call.getName() == null ? null : call.getName().trim();
+        List<Action> body = macros.expand(name, call.getArgs(), stack);
+        stack.add(name);
+        for (int k = 0; k < body.size(); k++) {
+            Action a = body.get(k);
+            String label = prefix + name + "#" + (k + 1);
+            if (CompiledStep.Kind.CALL_MACRO.type().equals(a.getType())) {
+                expand(a, actionIndex, label + "/", stack, out);
+            } else {
+                out.add(new Flat(a, actionIndex, label));
+            }
+        }
+        stack.remove(stack.size() - 1);
+    }
+
+    private CompiledStep compileStep(int index, int actionIndex, String macro, CompiledStep.Kind kind, Action a) {
+        String selector = StringUtils.hasText(a.getSelector()) ? a.getSelector().trim() : null;
+        By locator = null;
+        Keys key = null;
+        String text = a.getText();
+        Integer frameIndex = a.getFrameIndex();
+        List<VisualComparator.Region> ignoreRegions = List.of();
+        switch (kind) {
+            case CLICK, TYPE, SCROLL_TO, DOWNLOAD_LINK, WAIT_FOR_SELECTOR -> locator = locate(a.getBy(), selector);
+            case KEY_PRESS -> {
+                key = parseKey(a.getText());
+                if (selector != null) {
+                    locator = locate(a.getBy(), selector);
+                }
+            }
+            case SWITCH_TO_FRAME -> {
+                if (frameIndex != null) {
+                    if (frameIndex < 0) {
+                        throw new IllegalArgumentException("frameIndex must be >= 0");
+                    }
+                } else {
+                    if (selector == null) {
+                        throw new IllegalArgumentException("frameIndex or selector required");
+                    }
+                    locator = locate(a.getBy(), selector);
+                }
+            }
+            case GOTO -> {
+                if (!StringUtils.hasText(a.getUrl())) {
+                    throw new IllegalArgumentException("url required");
+                }
+            }
+            case FIND_TEXT -> {
+                if (a.getText() == null || a.getText().isEmpty()) {
+                    throw new IllegalArgumentException("text required");
+                }
+            }
+            case SAVE_STATE, RESTORE_STATE -> {
+                // 快照名放在 text 中执行
+                text = requireName(a);
+                if (a.getTtlMs() != null && a.getTtlMs() <= 0) {
+                    throw new IllegalArgumentException("ttlMs must be > 0");
+                }
+            }
+            case SCREENSHOT_ASSERT -> {
+                // 基线名放在 text 中执行；给了 selector 时只截该元素
+                text = requireName(a);
+                if (selector != null) {
+                    locator = locate(a.getBy(), selector);
+                }
+                if (a.getTolerance() != null && (a.getTolerance() < 0 || a.getTolerance() > 1)) {
+                    throw new IllegalArgumentException("tolerance must be between 0 and 1");
+                }
+                ignoreRegions = regions(a.getIgnoreRegions());
+            }
+            default -> {
+            }
+        }
+        long timeoutMs = switch (kind) {
+            case WAIT -> timeout(a, 1000);
+            case WAIT_FOR_SELECTOR -> timeout(a, 10_000);
+            case DOWNLOAD_LINK -> timeout(a, 20_000);
+            case CLICK, TYPE, SCROLL_TO -> timeout(a, Boolean.TRUE.equals(a.getWaitVisible()) ? 10_000 : 0);
+            default -> timeout(a, 0);
+        };
+        Path downloadDir = StringUtils.hasText(a.getDownloadDir()) ? Path.of(a.getDownloadDir()) : null;
+        List<String> keywords = List.of();
+        int limit = 0;
+        String scopeSelector = null;
+        if (kind == CompiledStep.Kind.SENSE_ELEMENTS) {
+            List<String> raw = a.getKeywords();
+            if ((raw == null || raw.isEmpty()) && a.getText() != null) {
+                raw = List.of(a.getText());
+            }
+            keywords = raw == null ? List.of() : raw.stream().filter(Objects::nonNull).toList();
+            limit = a.getLimit() != null && a.getLimit() > 0 ? Math.min(a.getLimit(), 20) : 8;
+            scopeSelector = scopeToSelector(a.getScope());
+        }
+        return new CompiledStep(index, actionIndex, kind, selector, locator, text, a.getUrl(), key,
+                timeoutMs, a.getTimeoutMs() != null,
+                a.getX() == null ? 0 : a.getX(),
+                a.getY() == null ? 300 : a.getY(),
+                frameIndex,
+                Boolean.TRUE.equals(a.getHeadless()),
+                downloadDir,
+                keywords, limit, scopeSelector,
+                a.getTtlMs() == null ? 0 : a.getTtlMs(),
+                a.getTolerance() == null ? -1 : a.getTolerance(),
+                ignoreRegions,
+                StringUtils.hasText(a.getNote()) ? a.getNote() : null,
+                macro);
+    }
+
+    private String requireName(Action a) {
+        String name = StringUtils.hasText(a.getName()) ? a.getName().trim() : null;
+        if (name == null || !SNAPSHOT_NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("name required: 1-64 chars of [A-Za-z0-9._-], not starting with '.', '_' or '-'");
+        }
+        return name;
+    }
+
+    private List<VisualComparator.Region> regions(List<Map<String, Integer>> raw) {
+        if (raw == null || raw.isEmpty()) {
+            return List.of();
+        }
+        if (raw.size() > MAX_IGNORE_REGIONS) {
+            throw new IllegalArgumentException("at most " + MAX_IGNORE_REGIONS + " ignoreRegions");
+        }
+        List<VisualComparator.Region> out = new ArrayList<>(raw.size());
+        for (Map<String, Integer> r : raw) {
+            int x = r == null ? -1 : r.getOrDefault("x", 0);
+            int y = r == null ? -1 : r.getOrDefault("y", 0);
+            int width = r == null ? 0 : r.getOrDefault("width", 0);
+            int height = r == null ? 0 : r.getOrDefault("height", 0);
+            if (x < 0 || y < 0 || width <= 0 || height <= 0) {
+                throw new IllegalArgumentException("ignoreRegions entries need x,y >= 0 and width,height > 0");
+            }
+            out.add(new VisualComparator.Region(x, y, width, height));
+        }
+        return List.copyOf(out);
+    }
+
+    private By locate(String by, String selector) {
+        if (selector == null) {
+            throw new IllegalArgumentException("selector required");
+        }
+        if (by == null) {
+            by = selector.startsWith("//") ? "xpath" : "css";
+        }
+        return switch (by) {
+            case "xpath" -> By.xpath(selector);
+            case "css" -> By.cssSelector(selector);
+            default -> throw new IllegalArgumentException("unsupported locator 'by': " + by);
+        };
+    }
+
+    private Keys parseKey(String name) {
+        if (name == null || name.isBlank()) {
+            return Keys.ENTER;
+        }
+        try {
+            return Keys.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown key '" + name + "'");
+        }
+    }
+
+    private long timeout(Action a, long defaultMs) {
+        if (a.getTimeoutMs() == null) {
+            return defaultMs;
+        }
+        if (a.getTimeoutMs() < 0) {
+            throw new IllegalArgumentException("timeoutMs must be >= 0");
+        }
+        return Math.min(a.getTimeoutMs(), MAX_TIMEOUT_MS);
+    }
+
+    private String scopeToSelector(String scope) {
+        if (!StringUtils.hasText(scope)) {
+            return "input, textarea, select, button, a, [role=button], [role=link], [role=search]";
+        }
+        return switch (scope.toLowerCase(Locale.ROOT)) {
+            case "forms", "inputs" ->
+                    "input, textarea, select, button, [role=textbox]";
+            case "links" ->
+                    "a, [role=link]";
+            case "actions", "buttons" ->
+                    "button, [role=button], input[type='submit'], input[type='button']";
+            default ->
+                    "input, textarea, select, button, a, [role=button], [role=link], [role=search]";
+        };
+    }
+}
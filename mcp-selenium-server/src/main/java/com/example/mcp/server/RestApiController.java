@@ -3,19 +3,61 @@ package com.example.mcp.server;
 
 import com.example.mcp.server.proto.RequestEnvelope;
 import com.example.mcp.server.proto.ResponseEnvelope;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.Map;
+
 @RestController
 @RequestMapping("/api")
 public class RestApiController {
-    private final SeleniumServerApplication app;
+    private final ActionEngine app;
 
-    public RestApiController(SeleniumServerApplication app) {
+    public RestApiController(ActionEngine app) {
         this.app = app;
     }
 
     @PostMapping("/execute")
-    public ResponseEnvelope execute(@RequestBody RequestEnvelope req) {
+    public ResponseEntity<ResponseEnvelope> execute(@RequestBody RequestEnvelope req) {
+        ResponseEnvelope resp = app.handlePublic(req);
+        if (Boolean.TRUE.equals(resp.getData().get("rejected"))) {
+            long retryAfterMs = resp.getData().get("retryAfterMs") instanceof Number n ? n.longValue() : 1000L;
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(Math.max(1, (retryAfterMs + 999) / 1000)))
+                    .body(resp);
+        }
+        return ResponseEntity.ok(resp);
+    }
+
+    @GetMapping("/health")
+    public Map<String, Object> health() {
+        return app.health();
+    }
+
+    /** 存活会话与回收记录；结束会话用 POST /api/execute 的 kill_session 方法，放弃执行中的计划用 DELETE */
+    @GetMapping("/sessions")
+    public ResponseEnvelope sessions() {
+        RequestEnvelope req = new RequestEnvelope();
+        req.setMethod("list_sessions");
         return app.handlePublic(req);
     }
+
+    /** 取消会话上正在进行的计划并回收其浏览器（等同 POST /api/execute 的 cancel 方法） */
+    @DeleteMapping("/sessions/{sessionId}")
+    public ResponseEnvelope cancel(@PathVariable String sessionId,
+                                   @RequestParam(name = "clientId", required = false) String clientId) {
+        RequestEnvelope req = new RequestEnvelope();
+        req.setMethod("cancel");
+        req.setSessionId(sessionId);
+        req.setClientId(clientId);
+        return app.handlePublic(req);
+    }
+
+    /** 准入调度指标：预算占用、队列深度（按优先级/客户端）、排队等待时长、拒绝数 */
+    @GetMapping("/scheduler")
+    public Map<String, Object> scheduler() {
+        return app.schedulerMetrics();
+    }
 }
@@ -0,0 +1,318 @@
+package com.example.mcp.server;
+
+import com.example.mcp.common.KeywordMatcher;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 选择器自愈：click/type/scroll_to/key_press/download_link 找不到元素时，
+ * 以动作的 selector 中的词、note 与 text 为关键词在页面上做一次限定范围的感知（同 sense_elements 的打分），
+ * 关键词得分达到 {@code min-score}、命中 selector 中大多数词（{@code min-coverage}）并领先次优候选至少
+ * {@code min-margin} 的候选才作为替代选择器重试该步。wait_for_selector 是断言，不自愈。
+ * <p>
+ * 旧 → 新选择器按页面 URL 模式记入缓存（LRU，{@code max-entries}），并写入 {@code file}，之后的运行直接用替代选择器；
+ * 替代选择器也失效时从缓存删除，回到原选择器与重新自愈。
+ */
+@Component
+public class SelectorHealer {
+
+    private static final Logger log = LoggerFactory.getLogger(SelectorHealer.class);
+    private static final TypeReference<Map<String, Entry>> FILE_TYPE = new TypeReference<>() {
+    };
+
+    /** 选择器语法、属性名与常见标签：不作为关键词（否则标签本身就能“命中”） */
+    private static final Set<String> NOISE = Set.of(
+            "id", "class", "name", "type", "value", "data", "testid", "test", "aria", "label", "placeholder", "role",
+            "href", "src", "title", "nth", "of", "child", "first", "last", "not", "has", "is", "contains", "text",
+            "normalize", "space", "and", "or", "div", "span", "input", "button", "textarea", "select", "option",
+            "form", "li", "ul", "ol", "td", "tr", "th", "table", "tbody", "img", "svg", "path", "section", "main",
+            "nav", "header", "footer", "body", "html", "p", "h1", "h2", "h3", "h4");
+    private static final Pattern QUOTED = Pattern.compile("'([^']*)'|\"([^\"]*)\"");
+    /** 关键词与匹配器分词的最短长度 */
+    static final int MIN_KEYWORD_LENGTH = 3;
+
+    /** 缓存项：替代选择器、自愈时的关键词得分与时间 */
+    record Entry(String selector, double score, long healedAt) {
+    }
+
+    /** 本步实际使用的替代选择器（附在步骤结果上）；cached = 来自缓存而非本次感知 */
+    record Healing(String from, String to, double score, boolean cached) {
+
+        Map<String, Object> toMap() {
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("from", from);
+            m.put("to", to);
+            m.put("score", Math.round(score * 100) / 100.0);
+            m.put("cached", cached);
+            return m;
+        }
+    }
+
+    private final boolean enabled;
+    private final Path file;
+    private final double minScore;
+    private final double minCoverage;
+    private final double minMargin;
+    private final int maxEntries;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Entry> cache;
+    private final AtomicLong healed = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong unhealed = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public SelectorHealer(@Value("${mcp.healing.enabled:true}") boolean enabled,
+                          @Value("${mcp.healing.file:state/healed-selectors.json}") String file,
+                          @Value("${mcp.healing.min-score:1.0}") double minScore,
+                          @Value("${mcp.healing.min-coverage:0.6}") double minCoverage,
+                          @Value("${mcp.healing.min-margin:0.5}") double minMargin,
+                          @Value("${mcp.healing.max-entries:2000}") int maxEntries) {
+        this.enabled = enabled;
+        this.file = file == null || file.isBlank() ? null : Path.of(file);
+        this.minScore = minScore;
+        this.minCoverage = minCoverage;
+        this.minMargin = minMargin;
+        this.maxEntries = Math.max(1, maxEntries);
+        this.cache = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > SelectorHealer.this.maxEntries;
+            }
+        };
+        load();
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    /** 缓存为空时执行路径不必取当前 URL */
+    synchronized boolean hasEntries() {
+        return enabled && !cache.isEmpty();
+    }
+
+    /** @return 该页面上 selector 已知的替代选择器，没有时 null */
+    synchronized Entry lookup(String url, String selector) {
+        Entry e = cache.get(key(url, selector));
+        if (e != null) {
+            cacheHits.incrementAndGet();
+        }
+        return e;
+    }
+
+    void remember(String url, String selector, String replacement, double score) {
+        synchronized (this) {
+            cache.put(key(url, selector), new Entry(replacement, score, System.currentTimeMillis()));
+        }
+        healed.incrementAndGet();
+        save();
+    }
+
+    /** 替代选择器也失效：删除，下次回到原选择器 */
+    void forget(String url, String selector) {
+        boolean removed;
+        synchronized (this) {
+            removed = cache.remove(key(url, selector)) != null;
+        }
+        if (removed) {
+            evicted.incrementAndGet();
+            save();
+        }
+    }
+
+    void recordUnhealed() {
+        unhealed.incrementAndGet();
+    }
+
+    private static String key(String url, String selector) {
+        String pattern = AdaptiveTimeouts.pattern(url);
+        return (pattern == null ? "*" : pattern) + " " + selector;
+    }
+
+    /** 感知范围：输入类动作只看输入控件，其余看可点击元素 */
+    static String scope(CompiledStep step) {
+        return switch (step.kind()) {
+            case TYPE, KEY_PRESS -> "input, textarea, select, [contenteditable=true], [role=textbox], [role=combobox]";
+            case DOWNLOAD_LINK -> "a, button, [role=link], [role=button]";
+            default -> "input, textarea, select, button, a, label, [role=button], [role=link], [role=tab], "
+                    + "[role=menuitem], [role=checkbox], [onclick]";
+        };
+    }
+
+    /**
+     * 关键词：{@link #selectorKeywords}；note；以及非输入动作的 text
+     */
+    static List<String> keywords(CompiledStep step) {
+        Set<String> out = new LinkedHashSet<>(selectorKeywords(step));
+        if (step.note() != null && !step.note().isBlank()) {
+            out.add(step.note().trim());
+        }
+        boolean input = step.kind() == CompiledStep.Kind.TYPE || step.kind() == CompiledStep.Kind.KEY_PRESS;
+        if (!input && step.text() != null && !step.text().isBlank()) {
+            out.add(step.text().trim());
+        }
+        return new ArrayList<>(out);
+    }
+
+    /**
+     * selector 中的关键词：引号内的字面值（如 xpath 的 {@code text()='Sign in'}）整体一个，其中的词（拆开驼峰与连字符，
+     * 去掉语法词与标签）各一个。短于 {@value #MIN_KEYWORD_LENGTH} 个字符的不要：{@code in}、{@code go} 这类子串几乎处处命中
+     */
+    static List<String> selectorKeywords(CompiledStep step) {
+        Set<String> out = new LinkedHashSet<>();
+        if (step.selector() == null) {
+            return List.of();
+        }
+        Matcher quoted = QUOTED.matcher(step.selector());
+        while (quoted.find()) {
+            String literal = quoted.group(1) != null ? quoted.group(1) : quoted.group(2);
+            if (literal.trim().length() >= MIN_KEYWORD_LENGTH) {
+                out.add(literal.trim());
+            }
+        }
+        String spaced = step.selector().replaceAll("([a-z])([A-Z])", "$1 $2").toLowerCase(Locale.ROOT);
+        for (String token : spaced.split("[^\\p{L}\\p{N}]+")) {
+            if (token.length() >= MIN_KEYWORD_LENGTH && !NOISE.contains(token)
+                    && !token.chars().allMatch(Character::isDigit)) {
+                out.add(token);
+            }
+        }
+        return new ArrayList<>(out);
+    }
+
+    /** 可信的替代选择器及其关键词得分 */
+    record Candidate(String selector, double score) {
+    }
+
+    /**
+     * 从感知结果中挑选替代选择器。候选须满足：关键词得分至少 min-score；selector 中的关键词（没有时为全部关键词）
+     * 至少 min-coverage 比例整词出现在候选上；关键词得分比其余任一候选高出至少 min-margin。
+     * 只命中一个泛泛的词、或与另一元素难分高下时宁可不自愈——错的替代选择器会被记住，之后每次都点错。
+     * 与原选择器相同的候选跳过。
+     * @return 没有可信候选时 null
+     */
+    Candidate pick(String original, List<Map<String, Object>> sensed, KeywordMatcher matcher,
+                   List<String> required) {
+        List<KeywordMatcher> each = new ArrayList<>(required.size());
+        for (String keyword : required) {
+            each.add(KeywordMatcher.compile(List.of(keyword), MIN_KEYWORD_LENGTH));
+        }
+        Candidate best = null;
+        double bestTotal = 0;
+        double runnerUp = 0;
+        for (Map<String, Object> entry : sensed) {
+            String selector = String.valueOf(entry.get("selector"));
+            if (selector.equals(original) || !(entry.get("attributes") instanceof Map<?, ?> attrs)) {
+                continue;
+            }
+            String tag = String.valueOf(entry.get("tag"));
+            List<String> values = new ArrayList<>(attrs.size());
+            attrs.values().forEach(v -> values.add(String.valueOf(v)));
+            double keyword = matcher.score(tag, values);
+            double total = entry.get("score") instanceof Number n ? n.doubleValue() : keyword;
+            boolean qualified = keyword >= minScore && coverage(each, tag, values) >= minCoverage;
+            if (qualified && (best == null || keyword > best.score() || keyword == best.score() && total > bestTotal)) {
+                if (best != null) {
+                    runnerUp = Math.max(runnerUp, best.score());
+                }
+                best = new Candidate(selector, keyword);
+                bestTotal = total;
+            } else {
+                runnerUp = Math.max(runnerUp, keyword);
+            }
+        }
+        return best != null && best.score() - runnerUp >= minMargin ? best : null;
+    }
+
+    /** 整词出现在候选上的关键词比例；没有关键词时 1 */
+    private static double coverage(List<KeywordMatcher> each, String tag, List<String> values) {
+        if (each.isEmpty()) {
+            return 1;
+        }
+        int hits = 0;
+        for (KeywordMatcher m : each) {
+            if (m.score(tag, values) >= KeywordMatcher.PHRASE_WEIGHT) {
+                hits++;
+            }
+        }
+        return (double) hits / each.size();
+    }
+
+    private void save() {
+        if (file == null) {
+            return;
+        }
+        Map<String, Entry> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(cache);
+        }
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Files.createDirectories(dir);
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try {
+                mapper.writeValue(tmp.toFile(), snapshot);
+                try {
+                    Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to persist healed selectors: {}", e.getMessage());
+        }
+    }
+
+    private void load() {
+        if (!enabled || file == null || !Files.isRegularFile(file)) {
+            return;
+        }
+        try {
+            Map<String, Entry> stored = mapper.readValue(file.toFile(), FILE_TYPE);
+            synchronized (this) {
+                stored.forEach((k, v) -> {
+                    if (k != null && v != null && v.selector() != null) {
+                        cache.put(k, v);
+                    }
+                });
+            }
+            log.info("Loaded {} healed selector(s) from {}", cache.size(), file);
+        } catch (IOException e) {
+            // 文件损坏时从空缓存开始，下次自愈时覆盖
+            log.warn("Ignoring unreadable healed selector file {}: {}", file, e.getMessage());
+        }
+    }
+
+    synchronized Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("enabled", enabled);
+        m.put("entries", cache.size());
+        m.put("healed", healed.get());
+        m.put("cacheHits", cacheHits.get());
+        m.put("unhealed", unhealed.get());
+        m.put("evicted", evicted.get());
+        return m;
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.mcp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话生命周期策略与回收线程：
+ * <ul>
+ *     <li>{@code mcp.session.idle-ttl-ms}：距最后一步结束超过该时长的会话被回收（客户端崩溃、分步执行中途放弃）</li>
+ *     <li>{@code mcp.session.max-age-ms}：会话存活上限，无论是否活跃</li>
+ *     <li>{@code mcp.session.kill-orphans}：结束不属于任何会话的 chromedriver 子进程及其 Chrome 后代</li>
+ * </ul>
+ * 每个节点的浏览器上限即 {@link AdmissionScheduler} 的 {@code mcp.scheduler.max-browsers}。
+ * 正在执行步骤的会话不回收，下个周期再检查。回收记录通过 {@code list_sessions} 返回。
+ */
+@Component
+public class SessionReaper implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(SessionReaper.class);
+    private static final int RECENT = 50;
+
+    private final long idleTtlMs;
+    private final long maxAgeMs;
+    private final long intervalMs;
+    private final boolean killOrphans;
+    private final Deque<Map<String, Object>> recent = new ArrayDeque<>();
+    private final AtomicLong reclaimed = new AtomicLong();
+    private final AtomicLong orphansKilled = new AtomicLong();
+    private volatile ScheduledExecutorService timer;
+
+    public SessionReaper(@Value("${mcp.session.idle-ttl-ms:300000}") long idleTtlMs,
+                         @Value("${mcp.session.max-age-ms:3600000}") long maxAgeMs,
+                         @Value("${mcp.session.reap-interval-ms:15000}") long intervalMs,
+                         @Value("${mcp.session.kill-orphans:true}") boolean killOrphans) {
+        this.idleTtlMs = Math.max(0, idleTtlMs);
+        this.maxAgeMs = Math.max(0, maxAgeMs);
+        this.intervalMs = Math.max(1000, intervalMs);
+        this.killOrphans = killOrphans;
+    }
+
+    /** 启动周期回收；重复调用无副作用 */
+    synchronized void start(Runnable tick) {
+        if (timer != null) {
+            return;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mcp-session-reaper");
+            t.setDaemon(true);
+            return t;
+        });
+        timer.scheduleWithFixedDelay(() -> {
+            try {
+                tick.run();
+            } catch (RuntimeException e) {
+                log.warn("Session reaper tick failed: {}", e.getMessage());
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** @return 应回收的原因；仍在期限内或一次性会话返回 null */
+    String expiry(BrowserSession s, long now) {
+        if (s.ephemeral) {
+            return null;
+        }
+        if (maxAgeMs > 0 && now - s.createdAt >= maxAgeMs) {
+            return "max age " + maxAgeMs + "ms exceeded";
+        }
+        if (idleTtlMs > 0 && now - s.lastUsedAt >= idleTtlMs) {
+            return "idle for " + (now - s.lastUsedAt) + "ms";
+        }
+        return null;
+    }
+
+    boolean killOrphans() {
+        return killOrphans;
+    }
+
+    /** 驱动启动后多久才可能被视为孤儿（避免误杀正在 open_browser 的进程） */
+    Duration orphanGrace() {
+        return Duration.ofMillis(Math.max(60_000, intervalMs));
+    }
+
+    void record(BrowserSession s, String reason, boolean browserClosed, int browserProcesses) {
+        long now = System.currentTimeMillis();
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("sessionId", s.id);
+        entry.put("clientId", s.clientId);
+        entry.put("reason", reason);
+        entry.put("at", Instant.ofEpochMilli(now).toString());
+        entry.put("ageMs", now - s.createdAt);
+        entry.put("idleMs", now - s.lastUsedAt);
+        entry.put("browserClosed", browserClosed);
+        entry.put("browserProcesses", browserProcesses);
+        reclaimed.incrementAndGet();
+        synchronized (recent) {
+            recent.addFirst(entry);
+            while (recent.size() > RECENT) {
+                recent.removeLast();
+            }
+        }
+        log.info("[Reaper] reclaimed session={} client={} ({})", s.id, s.clientId, reason);
+    }
+
+    void recordOrphans(int killed) {
+        if (killed > 0) {
+            orphansKilled.addAndGet(killed);
+            log.warn("[Reaper] killed {} orphaned chromedriver/chrome processes", killed);
+        }
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("idleTtlMs", idleTtlMs);
+        m.put("maxAgeMs", maxAgeMs);
+        m.put("reapIntervalMs", intervalMs);
+        m.put("reclaimed", reclaimed.get());
+        m.put("orphansKilled", orphansKilled.get());
+        List<Map<String, Object>> copy;
+        synchronized (recent) {
+            copy = new ArrayList<>(recent);
+        }
+        m.put("recent", copy);
+        return m;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+}
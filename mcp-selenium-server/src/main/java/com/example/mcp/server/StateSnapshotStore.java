@@ -0,0 +1,238 @@
+package com.example.mcp.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.chrome.ChromeDriver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 登录态快照：{@code save_state} 把浏览器全部 cookie（CDP {@code Network.getAllCookies}）与当前页所在源的
+ * localStorage/sessionStorage 存为命名快照，{@code restore_state} 写回到另一个会话，用一步代替重复的登录流程。
+ * <p>
+ * 快照不可变，内存 + 磁盘（{@code mcp.state.dir}/&lt;name&gt;.json，权限 600，先写临时文件再原子替换）两级存储，
+ * 多个并发会话可同时恢复同一快照。过期（{@code mcp.state.ttl-ms} 或动作的 ttlMs）后视为不存在并删除。
+ * 同名再次保存时合并其他源的 storage，便于跨多个源登录后一并保存。快照文件含会话凭据，应按密钥对待。
+ */
+@Component
+public class StateSnapshotStore {
+
+    private static final Logger log = LoggerFactory.getLogger(StateSnapshotStore.class);
+
+    /** Network.setCookies 接受的 CookieParam 字段（getAllCookies 还会返回 size/session 等只读字段） */
+    private static final Set<String> COOKIE_PARAMS = Set.of(
+            "name", "value", "domain", "path", "secure", "httpOnly", "sameSite", "expires",
+            "priority", "sameParty", "sourceScheme", "sourcePort");
+
+    private static final String CAPTURE_SCRIPT = """
+            const dump = s => { const o = {}; for (let i = 0; i < s.length; i++) { const k = s.key(i); o[k] = s.getItem(k); } return o; };
+            return { origin: location.origin, url: location.href, local: dump(localStorage), session: dump(sessionStorage) };
+            """;
+    private static final String APPLY_SCRIPT = """
+            for (const [k, v] of Object.entries(arguments[0])) localStorage.setItem(k, v);
+            for (const [k, v] of Object.entries(arguments[1])) sessionStorage.setItem(k, v);
+            """;
+
+    /** 一个源的 storage 与保存时所在页面 */
+    record OriginState(String url, Map<String, String> localStorage, Map<String, String> sessionStorage) {
+    }
+
+    record Snapshot(String name, long createdAt, long expiresAt, String url,
+                    List<Map<String, Object>> cookies, Map<String, OriginState> origins) {
+
+        boolean expired(long now) {
+            return now >= expiresAt;
+        }
+    }
+
+    private final Path dir;
+    private final long defaultTtlMs;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<String, Snapshot> memory = new ConcurrentHashMap<>();
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong restores = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public StateSnapshotStore(@Value("${mcp.state.dir:state}") String dir,
+                              @Value("${mcp.state.ttl-ms:3600000}") long defaultTtlMs) {
+        this.dir = Path.of(dir);
+        this.defaultTtlMs = Math.max(1000, defaultTtlMs);
+    }
+
+    /** 捕获当前浏览器的登录态并保存；ttlMs &lt;= 0 用默认有效期 */
+    Map<String, Object> save(String name, WebDriver driver, long ttlMs) throws IOException {
+        ChromeDriver chrome = chrome(driver, "save_state");
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> cookies = (List<Map<String, Object>>) chrome
+                .executeCdpCommand("Network.getAllCookies", Map.of()).getOrDefault("cookies", List.of());
+        @SuppressWarnings("unchecked")
+        Map<String, Object> page = (Map<String, Object>) ((JavascriptExecutor) driver).executeScript(CAPTURE_SCRIPT);
+
+        long now = System.currentTimeMillis();
+        Map<String, OriginState> origins = new LinkedHashMap<>();
+        Snapshot previous = find(name, now);
+        if (previous != null) {
+            origins.putAll(previous.origins());
+        }
+        String origin = String.valueOf(page.get("origin"));
+        if (origin.startsWith("http")) { // about:blank / data: 没有可保存的 storage
+            origins.put(origin, new OriginState(String.valueOf(page.get("url")),
+                    strings(page.get("local")), strings(page.get("session"))));
+        }
+        List<Map<String, Object>> params = new ArrayList<>(cookies.size());
+        for (Map<String, Object> c : cookies) {
+            Map<String, Object> p = new LinkedHashMap<>();
+            c.forEach((k, v) -> {
+                if (COOKIE_PARAMS.contains(k) && v != null) {
+                    p.put(k, v);
+                }
+            });
+            // 会话 cookie 的 expires 为 -1，写回时需省略
+            if (Boolean.TRUE.equals(c.get("session")) || !(p.get("expires") instanceof Number n) || n.doubleValue() <= 0) {
+                p.remove("expires");
+            }
+            params.add(p);
+        }
+        Snapshot snapshot = new Snapshot(name, now, now + (ttlMs > 0 ? ttlMs : defaultTtlMs),
+                String.valueOf(page.get("url")), List.copyOf(params), Map.copyOf(origins));
+        persist(snapshot);
+        memory.put(name, snapshot);
+        saves.incrementAndGet();
+        log.info("[State] saved snapshot '{}' cookies={} origins={}", name, params.size(), origins.keySet());
+        return summary(snapshot);
+    }
+
+    /**
+     * 写回快照：cookie 经 CDP 一次写入（不需要先打开对应域），各源的 storage 需在该源的页面上写入，
+     * 最后打开 url（为空则回到保存时的页面）使应用按恢复后的状态加载。
+     */
+    Map<String, Object> restore(String name, WebDriver driver, String url) {
+        ChromeDriver chrome = chrome(driver, "restore_state");
+        Snapshot snapshot = find(name, System.currentTimeMillis());
+        if (snapshot == null) {
+            misses.incrementAndGet();
+            throw new IllegalStateException("No state snapshot named '" + name + "' (never saved or expired)");
+        }
+        if (!snapshot.cookies().isEmpty()) {
+            chrome.executeCdpCommand("Network.setCookies", Map.of("cookies", snapshot.cookies()));
+        }
+        for (OriginState state : snapshot.origins().values()) {
+            if (state.localStorage().isEmpty() && state.sessionStorage().isEmpty()) {
+                continue;
+            }
+            driver.get(state.url());
+            ((JavascriptExecutor) driver).executeScript(APPLY_SCRIPT, state.localStorage(), state.sessionStorage());
+        }
+        String target = url != null ? url : snapshot.url();
+        if (target != null && target.startsWith("http")) {
+            driver.get(target);
+        }
+        restores.incrementAndGet();
+        Map<String, Object> result = summary(snapshot);
+        result.put("url", driver.getCurrentUrl());
+        return result;
+    }
+
+    private static ChromeDriver chrome(WebDriver driver, String action) {
+        if (driver instanceof ChromeDriver chrome) {
+            return chrome;
+        }
+        throw new IllegalStateException(action + " requires a Chrome session");
+    }
+
+    /** 内存优先，其次磁盘；过期的顺带删除 */
+    private Snapshot find(String name, long now) {
+        Snapshot snapshot = memory.computeIfAbsent(name, this::load);
+        if (snapshot != null && snapshot.expired(now)) {
+            memory.remove(name, snapshot);
+            try {
+                Files.deleteIfExists(file(name));
+            } catch (IOException ignored) {
+            }
+            return null;
+        }
+        return snapshot;
+    }
+
+    private Snapshot load(String name) {
+        Path file = file(name);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try {
+            return mapper.readValue(file.toFile(), Snapshot.class);
+        } catch (IOException e) {
+            log.warn("[State] unreadable snapshot {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private void persist(Snapshot snapshot) throws IOException {
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, snapshot.name(), ".tmp");
+        try {
+            try {
+                Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException ignored) {
+            }
+            mapper.writeValue(tmp.toFile(), snapshot);
+            try {
+                Files.move(tmp, file(snapshot.name()), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file(snapshot.name()), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path file(String name) {
+        return dir.resolve(name + ".json");
+    }
+
+    private static Map<String, String> strings(Object raw) {
+        Map<String, String> out = new LinkedHashMap<>();
+        if (raw instanceof Map<?, ?> m) {
+            m.forEach((k, v) -> out.put(String.valueOf(k), v == null ? null : String.valueOf(v)));
+        }
+        return out;
+    }
+
+    private static Map<String, Object> summary(Snapshot s) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("name", s.name());
+        m.put("cookies", s.cookies().size());
+        m.put("origins", new ArrayList<>(s.origins().keySet()));
+        m.put("expiresAt", Instant.ofEpochMilli(s.expiresAt()).toString());
+        return m;
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("dir", dir.toAbsolutePath().toString());
+        m.put("defaultTtlMs", defaultTtlMs);
+        m.put("cached", memory.size());
+        m.put("saves", saves.get());
+        m.put("restores", restores.get());
+        m.put("misses", misses.get());
+        return m;
+    }
+}
@@ -0,0 +1,222 @@
+package com.example.mcp.server;
+
+import com.example.mcp.common.codec.FrameWriter;
+import com.example.mcp.common.codec.McpCodec;
+import com.example.mcp.server.proto.Action;
+import com.example.mcp.server.proto.RequestEnvelope;
+import com.example.mcp.server.proto.ResponseEnvelope;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.yaml.snakeyaml.Yaml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 轻量 STDIO 入口：不启动 Spring 上下文，直接装配 {@link ActionEngine} 服务 stdin/stdout，
+ * 驱动路径走 {@link ChromeDriverResolver} 的离线清单。适合客户端频繁重启服务端进程（fresh=true）的场景。
+ * <p>
+ * 配置沿用 application.yml 的键，改用系统属性或环境变量传入，例如
+ * {@code -Dmcp.scheduler.max-browsers=2}、{@code MCP_DRIVER_OFFLINE=true}；未设置时取 classpath 上 application.yml 的值，
+ * 与 Spring 入口共用同一份默认值。
+ * 启动分阶段耗时写入 stderr 日志，并随 health 返回（{@code data.startup}）。
+ * <p>
+ * AppCDS：{@code --warmup} 只走一遍编解码/计划编译/驱动解析后退出，用于生成类数据共享归档：
+ * <pre>
+ * java -XX:ArchiveClassesAtExit=mcp-stdio.jsa -cp "target/mcp-selenium-server-1.0.0.jar:target/lib/*" \
+ *      com.example.mcp.server.StdioMain --warmup
+ * java -XX:SharedArchiveFile=mcp-stdio.jsa -cp "target/mcp-selenium-server-1.0.0.jar:target/lib/*" \
+ *      com.example.mcp.server.StdioMain
+ * </pre>
+ */
+public final class StdioMain {
+
+    // application.yml 展开后的键值（mcp.scheduler.max-browsers → "4"）
+    private static Map<String, String> defaults = Map.of();
+
+    private StdioMain() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        // 必须是第一条语句：加载 StdioServer 等类时其静态 Logger 就会初始化 logback，
+        // 之后再设置不会生效（stdout 留给协议帧，日志只写 stderr）
+        if (System.getProperty("logback.configurationFile") == null) {
+            System.setProperty("logback.configurationFile", "logback-stdio.xml");
+        }
+        long jvmMs = StdioServer.sinceProcessStartMs();
+        long t0 = System.nanoTime();
+        OutputStream stdout = StdioServer.claimStdout();
+        Logger log = LoggerFactory.getLogger(StdioMain.class);
+        defaults = loadDefaults();
+        long t1 = System.nanoTime();
+
+        ChromeDriverResolver.Resolution driver = new ChromeDriverResolver(
+                prop("mcp.driver.manifest"),
+                Boolean.parseBoolean(prop("mcp.driver.offline"))).resolve();
+        long t2 = System.nanoTime();
+
+        AdmissionScheduler scheduler = new AdmissionScheduler(
+                Integer.parseInt(prop("mcp.scheduler.max-browsers")),
+                Integer.parseInt(prop("mcp.scheduler.max-queue")),
+                Integer.parseInt(prop("mcp.scheduler.max-queue-per-client")),
+                Long.parseLong(prop("mcp.scheduler.max-wait-ms")),
+                weights());
+        MacroRegistry macros = new MacroRegistry(Integer.parseInt(prop("mcp.macro.max-macros")));
+        PlanCompiler compiler = new PlanCompiler(Integer.parseInt(prop("mcp.plan.cache-size")), macros);
+        SessionReaper reaper = new SessionReaper(
+                Long.parseLong(prop("mcp.session.idle-ttl-ms")),
+                Long.parseLong(prop("mcp.session.max-age-ms")),
+                Long.parseLong(prop("mcp.session.reap-interval-ms")),
+                Boolean.parseBoolean(prop("mcp.session.kill-orphans")));
+        BrowserWatchdog watchdog = new BrowserWatchdog(
+                Boolean.parseBoolean(prop("mcp.watchdog.enabled")),
+                Long.parseLong(prop("mcp.watchdog.sample-interval-ms")),
+                Long.parseLong(prop("mcp.watchdog.max-rss-mb")),
+                Double.parseDouble(prop("mcp.watchdog.max-cpu-percent")),
+                Integer.parseInt(prop("mcp.watchdog.cpu-strikes")));
+        BrowserContextPool contexts = new BrowserContextPool(
+                Boolean.parseBoolean(prop("mcp.density.enabled")),
+                Integer.parseInt(prop("mcp.density.contexts-per-browser")));
+        StateSnapshotStore states = new StateSnapshotStore(
+                prop("mcp.state.dir"),
+                Long.parseLong(prop("mcp.state.ttl-ms")));
+        AdaptiveTimeouts timeouts = new AdaptiveTimeouts(
+                Boolean.parseBoolean(prop("mcp.latency.enabled")),
+                prop("mcp.latency.file"),
+                Double.parseDouble(prop("mcp.latency.safety-factor")),
+                Long.parseLong(prop("mcp.latency.min-timeout-ms")),
+                Integer.parseInt(prop("mcp.latency.min-samples")),
+                Long.parseLong(prop("mcp.latency.save-interval-ms")));
+        SelectorHealer healer = new SelectorHealer(
+                Boolean.parseBoolean(prop("mcp.healing.enabled")),
+                prop("mcp.healing.file"),
+                Double.parseDouble(prop("mcp.healing.min-score")),
+                Double.parseDouble(prop("mcp.healing.min-coverage")),
+                Double.parseDouble(prop("mcp.healing.min-margin")),
+                Integer.parseInt(prop("mcp.healing.max-entries")));
+        VisualComparator visual = new VisualComparator(
+                prop("mcp.visual.dir"),
+                prop("mcp.visual.diff-dir"),
+                Double.parseDouble(prop("mcp.visual.tolerance")),
+                Integer.parseInt(prop("mcp.visual.pixel-threshold")),
+                Integer.parseInt(prop("mcp.visual.phash-max-distance")),
+                Integer.parseInt(prop("mcp.visual.tile-size")),
+                Integer.parseInt(prop("mcp.visual.parallelism")),
+                Integer.parseInt(prop("mcp.visual.cache-mb")),
+                Boolean.parseBoolean(prop("mcp.visual.update-baselines")));
+        ActionEngine engine = new ActionEngine(scheduler, compiler, reaper, watchdog, contexts, states, macros, timeouts,
+                healer, visual);
+        McpCodec codec = McpCodec.shared();
+        long t3 = System.nanoTime();
+
+        Map<String, Object> startup = new LinkedHashMap<>();
+        startup.put("entrypoint", "stdio-lite");
+        startup.put("jvmMs", jvmMs);
+        startup.put("loggingMs", (t1 - t0) / 1_000_000);
+        startup.put("driverMs", (t2 - t1) / 1_000_000);
+        startup.put("driverSource", driver.source());
+        startup.put("engineMs", (t3 - t2) / 1_000_000);
+        startup.put("readyMs", StdioServer.sinceProcessStartMs());
+        engine.recordStartup(startup);
+
+        if (List.of(args).contains("--warmup")) {
+            warmup(engine, codec);
+            log.info("Warmup finished startup={}", startup);
+            return;
+        }
+        log.info("MCP Selenium STDIO server ready startup={}", startup);
+        try {
+            new StdioServer(engine, codec).serve(System.in, stdout);
+        } finally {
+            engine.destroy(); // 客户端断开：不留下浏览器进程
+        }
+    }
+
+    /** 触达常用路径上的类（计划编译、校验拒绝、两种分帧的编码、ChromeOptions），不启动浏览器 */
+    private static void warmup(ActionEngine engine, McpCodec codec) throws IOException {
+        Action gotoWithoutUrl = new Action();
+        gotoWithoutUrl.setType("goto");
+        RequestEnvelope req = new RequestEnvelope();
+        req.setClientId("warmup");
+        req.setMethod("execute");
+        req.setActions(List.of(gotoWithoutUrl));
+        ResponseEnvelope rejected = engine.handlePublic(req);
+        req.setMethod("health");
+        ResponseEnvelope health = engine.handlePublic(req);
+        for (McpCodec.Framing framing : McpCodec.Framing.values()) {
+            FrameWriter frames = codec.writer(OutputStream.nullOutputStream());
+            frames.switchTo(framing);
+            frames.write(rejected);
+            frames.write(health);
+            frames.close();
+        }
+        new ChromeOptions().addArguments("--headless=new", "--remote-allow-origins=*");
+    }
+
+    /** 系统属性优先，其次环境变量（mcp.plan.cache-size → MCP_PLAN_CACHE_SIZE），最后 application.yml */
+    private static String prop(String key) {
+        String value = System.getProperty(key);
+        if (value == null) {
+            value = System.getenv(key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_'));
+        }
+        if (value != null && !value.isBlank()) {
+            return value.trim();
+        }
+        String fallback = defaults.get(key);
+        if (fallback == null) {
+            throw new IllegalStateException("No default for " + key + " in application.yml");
+        }
+        return fallback;
+    }
+
+    /** application.yml 的权重，-Dmcp.scheduler.weights.&lt;clientId&gt;=N 覆盖 */
+    private static Map<String, Integer> weights() {
+        String prefix = "mcp.scheduler.weights.";
+        Map<String, String> raw = new HashMap<>();
+        defaults.forEach((k, v) -> {
+            if (k.startsWith(prefix)) {
+                raw.put(k, v);
+            }
+        });
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith(prefix)) {
+                raw.put(name, System.getProperty(name));
+            }
+        }
+        Map<String, Integer> weights = new HashMap<>();
+        raw.forEach((name, value) -> {
+            try {
+                weights.put(name.substring(prefix.length()), Integer.parseInt(value.trim()));
+            } catch (NumberFormatException ignored) {
+            }
+        });
+        return weights;
+    }
+
+    /** 读 classpath 上的 application.yml 并展开为点分键；不启动 Spring 也与其默认值一致 */
+    private static Map<String, String> loadDefaults() throws IOException {
+        try (InputStream in = StdioMain.class.getClassLoader().getResourceAsStream("application.yml")) {
+            if (in == null) {
+                throw new IOException("application.yml not found on the classpath");
+            }
+            Map<String, String> flat = new HashMap<>();
+            flatten("", new Yaml().load(in), flat);
+            return flat;
+        }
+    }
+
+    private static void flatten(String prefix, Object node, Map<String, String> out) {
+        if (node instanceof Map<?, ?> map) {
+            map.forEach((k, v) -> flatten(prefix.isEmpty() ? String.valueOf(k) : prefix + "." + k, v, out));
+        } else if (node != null) {
+            out.put(prefix, String.valueOf(node));
+        }
+    }
+}
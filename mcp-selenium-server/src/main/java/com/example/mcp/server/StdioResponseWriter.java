@@ -0,0 +1,66 @@
+package com.example.mcp.server;
+
+import com.example.mcp.common.codec.FrameWriter;
+import com.example.mcp.server.proto.RequestEnvelope;
+import com.example.mcp.server.proto.ResponseEnvelope;
+import com.example.mcp.server.proto.StepResult;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * STDIO 响应写出：一个响应仍是一帧，但 results 数组随动作完成逐条写入并（JSON 分帧时）flush，
+ * 感知结果、截图等大块内容写完即可回收，不在内存中攒成整份响应。
+ * 首个结果到来时写出 seq/stepIndex 与数组开头，{@link #finish} 补齐 status/message/data。
+ */
+final class StdioResponseWriter implements StepSink {
+
+    private final FrameWriter frames;
+    private Long seq;
+    private Integer stepIndex;
+    private JsonGenerator streaming; // 当前响应已开始流式写出时非空
+
+    StdioResponseWriter(FrameWriter frames) {
+        this.frames = frames;
+    }
+
+    void begin(RequestEnvelope req) {
+        seq = req.getSeq();
+        stepIndex = req.getStepIndex();
+    }
+
+    @Override
+    public void accept(StepResult result) throws IOException {
+        if (streaming == null) {
+            streaming = frames.beginFrame();
+            streaming.writeStartObject();
+            if (seq != null) {
+                streaming.writeNumberField("seq", seq);
+            }
+            if (stepIndex != null) {
+                streaming.writeNumberField("stepIndex", stepIndex);
+            }
+            streaming.writeArrayFieldStart("results");
+        }
+        streaming.writeObject(result);
+        frames.flushPartial(streaming);
+    }
+
+    void finish(ResponseEnvelope resp) throws IOException {
+        JsonGenerator gen = streaming;
+        streaming = null;
+        seq = null;
+        stepIndex = null;
+        if (gen == null) {
+            frames.write(resp);
+        } else {
+            gen.writeEndArray();
+            gen.writeStringField("status", resp.getStatus());
+            gen.writeStringField("message", resp.getMessage());
+            gen.writeObjectField("data", resp.getData());
+            gen.writeEndObject();
+            frames.endFrame(gen);
+        }
+        frames.flush();
+    }
+}
@@ -0,0 +1,148 @@
+package com.example.mcp.server;
+
+import com.example.mcp.common.codec.FrameReader;
+import com.example.mcp.common.codec.FrameWriter;
+import com.example.mcp.common.codec.McpCodec;
+import com.example.mcp.server.proto.RequestEnvelope;
+import com.example.mcp.server.proto.ResponseEnvelope;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * STDIO 协议循环：读线程解码请求入队，当前线程按到达顺序交给 {@link ActionEngine} 执行并流式写回。
+ * 与入口无关，Spring 与轻量入口共用。
+ */
+final class StdioServer {
+    private static final Logger log = LoggerFactory.getLogger(StdioServer.class);
+
+    private final ActionEngine engine;
+    private final McpCodec codec;
+
+    StdioServer(ActionEngine engine, McpCodec codec) {
+        this.engine = engine;
+        this.codec = codec;
+    }
+
+    /**
+     * 取得真正的进程 stdout 供协议帧使用，并把 {@code System.out} 指向 stderr：
+     * 此后 stdout 只承载协议帧（Smile 二进制帧不能与日志交错），控制台日志改写到 stderr。
+     */
+    static OutputStream claimStdout() {
+        System.setOut(System.err);
+        return new FileOutputStream(FileDescriptor.out);
+    }
+
+    /** 进程启动至今的毫秒数（含 JVM 启动）；取不到时返回 -1 */
+    static long sinceProcessStartMs() {
+        return ProcessHandle.current().info().startInstant()
+                .map(start -> Duration.between(start, Instant.now()).toMillis())
+                .orElse(-1L);
+    }
+
+    /** 服务到输入 EOF 为止 */
+    void serve(InputStream in, OutputStream out) throws IOException {
+        // 读线程只负责解码入队，执行线程按到达顺序处理：客户端可以提前写入后续步骤（流水线），
+        // 解码与往返开销和当前步骤的执行重叠
+        BlockingQueue<Inbound> inbox = new LinkedBlockingQueue<>();
+        FrameReader frameReader = codec.reader(in);
+        Thread reader = new Thread(() -> readRequests(frameReader, inbox), "mcp-stdio-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        FrameWriter frames = codec.writer(out);
+        StdioResponseWriter writer = new StdioResponseWriter(frames);
+        try {
+            while (true) {
+                Inbound inbound;
+                try {
+                    inbound = inbox.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (inbound == Inbound.EOF) {
+                    break;
+                }
+                try {
+                    if (inbound.error() != null) {
+                        throw inbound.error();
+                    }
+                    if ("negotiate".equalsIgnoreCase(inbound.request().getMethod())) {
+                        negotiate(inbound.request(), writer, frames);
+                        continue;
+                    }
+                    writer.begin(inbound.request());
+                    writer.finish(inbound.done() != null ? inbound.done() : engine.handleSequenced(inbound.request(), writer));
+                } catch (Exception e) {
+                    log.error("Process error", e);
+                    writer.finish(ResponseEnvelope.error(e.getMessage()));
+                }
+            }
+        } finally {
+            frames.close();
+        }
+    }
+
+    /**
+     * 分帧协商：应答仍按当前（JSON）格式写出，之后双方切换。读线程在解码到该请求时已切换输入格式，
+     * 客户端在收到应答前不会再发送。
+     */
+    private void negotiate(RequestEnvelope req, StdioResponseWriter writer, FrameWriter frames) throws IOException {
+        McpCodec.Framing framing = McpCodec.Framing.parse(req.getFraming());
+        ResponseEnvelope ok = ResponseEnvelope.ok("framing negotiated");
+        ok.getData().put("framing", framing.wireName());
+        writer.begin(req);
+        writer.finish(ok);
+        frames.switchTo(framing);
+        log.info("STDIO framing switched to {}", framing.wireName());
+    }
+
+    /** @param done 读线程已处理完的请求（kill_session / cancel），执行线程只按序写回应答 */
+    private record Inbound(RequestEnvelope request, Exception error, ResponseEnvelope done) {
+        static final Inbound EOF = new Inbound(null, null, null);
+    }
+
+    private void readRequests(FrameReader frames, BlockingQueue<Inbound> inbox) {
+        try {
+            while (true) {
+                RequestEnvelope req;
+                try {
+                    req = frames.read(RequestEnvelope.class);
+                } catch (JsonProcessingException e) {
+                    inbox.put(new Inbound(null, e, null)); // 单帧损坏：回报错误，继续读下一帧
+                    continue;
+                }
+                if (req == null) {
+                    break;
+                }
+                if ("negotiate".equalsIgnoreCase(req.getMethod())) {
+                    frames.switchTo(McpCodec.Framing.parse(req.getFraming()));
+                }
+                req.setReceivedAtNanos(System.nanoTime());
+                // kill_session / cancel 不排在卡住的步骤之后：读线程立即处理，执行中的步骤被中断或随浏览器回收失败返回，
+                // 已排队的同会话步骤早于 cancel，执行线程取到时直接返回 cancelled
+                ResponseEnvelope done = "kill_session".equalsIgnoreCase(req.getMethod())
+                        || "cancel".equalsIgnoreCase(req.getMethod())
+                        ? engine.handleSequenced(req, null) : null;
+                inbox.put(new Inbound(req, null, done));
+            }
+        } catch (IOException e) {
+            log.warn("STDIN reader stopped: {}", e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            inbox.offer(Inbound.EOF);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.mcp.server;
+
+import com.example.mcp.server.proto.StepResult;
+
+import java.io.IOException;
+
+/** 接收逐个完成的动作结果：STDIO 直接写出，HTTP 收集后随响应返回。 */
+@FunctionalInterface
+interface StepSink {
+    void accept(StepResult result) throws IOException;
+}
@@ -0,0 +1,515 @@
+package com.example.mcp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 视觉回归断言（{@code screenshot_assert}）：把截图与 {@code mcp.visual.dir}/&lt;name&gt;.png 基线比较。
+ * <ol>
+ *     <li>尺寸不同直接失败；像素完全相同直接通过</li>
+ *     <li>分块逐像素比较决定结果：图像切成 {@code tile-size} 的块，在专用 ForkJoinPool 上并行统计任一通道差超过
+ *     {@code pixel-threshold} 的像素；忽略区域内的像素不参与。差异像素占比（diff score）不超过 tolerance 即通过</li>
+ *     <li>感知哈希（32×32 灰度 DCT 的 64 位 pHash）距离只作提示：超过 {@code phash-max-distance} 时结果标
+ *     {@code layoutChanged}（错误页、布局大变）。它不决定成败——大片留白的页面哈希对细微变化很敏感</li>
+ * </ol>
+ * 基线解码一次后按 {@code cache-mb} 缓存在内存（文件修改时间变化时重新读取）；基线不存在时以本次截图建立，
+ * {@code update-baselines=true} 时每次覆盖（批准新外观）。只在失败时写差异图（变化像素标红，尺寸不同时超出部分也标红）
+ * 与实际截图；失败以 {@link Mismatch} 抛出，score、phashDistance、diffImage 等随步骤结果返回。
+ */
+@Component
+public class VisualComparator implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(VisualComparator.class);
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+    private static final int HASH_SIZE = 32;
+    private static final double[][] DCT = dctTable();
+
+    /** 忽略区域：截图内的像素坐标（元素截图时相对元素） */
+    record Region(int x, int y, int width, int height) {
+
+        boolean contains(int px, int py) {
+            return px >= x && px < x + width && py >= y && py < y + height;
+        }
+    }
+
+    private record Image(int width, int height, int[] pixels) {
+    }
+
+    /** 断言不通过；details 为比较结果（score、phashDistance、diffImage、actualImage …），作为步骤结果的 value */
+    static final class Mismatch extends IllegalStateException {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Map<String, Object> details;
+
+        Mismatch(String message, Map<String, Object> details) {
+            super(message);
+            this.details = details;
+        }
+
+        Map<String, Object> details() {
+            return details;
+        }
+    }
+
+    private record Baseline(Image image, long phash, long modified) {
+
+        long bytes() {
+            return (long) image.pixels().length * Integer.BYTES;
+        }
+    }
+
+    private final Path dir;
+    private final Path diffDir;
+    private final double defaultTolerance;
+    private final int pixelThreshold;
+    private final int phashMaxDistance;
+    private final int tileSize;
+    private final long cacheBytes;
+    private final boolean updateBaselines;
+    private final ForkJoinPool pool;
+    private final Map<String, Baseline> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes;
+    private final AtomicLong compared = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong baselineLoads = new AtomicLong();
+    private final AtomicLong baselineHits = new AtomicLong();
+
+    public VisualComparator(@Value("${mcp.visual.dir:baselines}") String dir,
+                            @Value("${mcp.visual.diff-dir:screens/diff}") String diffDir,
+                            @Value("${mcp.visual.tolerance:0.001}") double defaultTolerance,
+                            @Value("${mcp.visual.pixel-threshold:16}") int pixelThreshold,
+                            @Value("${mcp.visual.phash-max-distance:12}") int phashMaxDistance,
+                            @Value("${mcp.visual.tile-size:64}") int tileSize,
+                            @Value("${mcp.visual.parallelism:0}") int parallelism,
+                            @Value("${mcp.visual.cache-mb:256}") int cacheMb,
+                            @Value("${mcp.visual.update-baselines:false}") boolean updateBaselines) {
+        this.dir = Path.of(dir);
+        this.diffDir = Path.of(diffDir);
+        this.defaultTolerance = Math.max(0, Math.min(1, defaultTolerance));
+        this.pixelThreshold = Math.max(0, Math.min(255, pixelThreshold));
+        this.phashMaxDistance = Math.max(0, Math.min(64, phashMaxDistance));
+        this.tileSize = Math.max(16, tileSize);
+        this.cacheBytes = Math.max(1, cacheMb) * 1024L * 1024L;
+        this.updateBaselines = updateBaselines;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * 比较截图与基线。
+     * @param tolerance 允许的差异像素占比（0~1）；负数用默认值
+     * @return 通过时的结果（score、phashDistance、changedPixels 等）
+     * @throws Mismatch 不通过；消息含 diff score 与差异图路径，details 含同样的比较结果
+     */
+    Map<String, Object> assertMatches(String name, byte[] png, List<Region> ignore, double tolerance) throws IOException {
+        long startedNanos = System.nanoTime();
+        double limit = tolerance < 0 ? defaultTolerance : tolerance;
+        Image actual = decode(png);
+        Path file = dir.resolve(name + ".png");
+        compared.incrementAndGet();
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("name", name);
+        result.put("width", actual.width());
+        result.put("height", actual.height());
+        boolean exists = Files.isRegularFile(file);
+        if (updateBaselines || !exists) {
+            writeBaseline(name, file, png, actual);
+            created.incrementAndGet();
+            result.put("passed", true);
+            result.put(exists ? "baselineUpdated" : "baselineCreated", true);
+            result.put("baseline", file.toAbsolutePath().toString());
+            return result;
+        }
+        Baseline baseline = baseline(name, file);
+        Image base = baseline.image();
+        result.put("tolerance", limit);
+        if (base.width() != actual.width() || base.height() != actual.height()) {
+            int distance = Long.bitCount(baseline.phash() ^ phash(actual, null, List.of()));
+            result.put("phashDistance", distance);
+            result.put("layoutChanged", true);
+            result.put("baselineWidth", base.width());
+            result.put("baselineHeight", base.height());
+            int w = Math.max(base.width(), actual.width());
+            int h = Math.max(base.height(), actual.height());
+            int[] render = new int[w * h];
+            long changed = sizeDiff(base, actual, render, w, h);
+            double score = (double) changed / ((long) w * h);
+            result.put("score", Math.round(score * 1_000_000) / 1_000_000.0);
+            result.put("changedPixels", changed);
+            throw mismatch(name, png, render, w, h, result, String.format(Locale.ROOT,
+                    "size %dx%d differs from baseline %dx%d (score %.4f, phash distance %d/64)",
+                    actual.width(), actual.height(), base.width(), base.height(), score, distance));
+        }
+        if (Arrays.equals(base.pixels(), actual.pixels())) {
+            result.put("passed", true);
+            result.put("score", 0.0);
+            result.put("phashDistance", 0);
+            result.put("changedPixels", 0);
+            result.put("compareMs", elapsedMs(startedNanos));
+            return result;
+        }
+        // 忽略区域取基线像素后求哈希，与基线哈希可比；只作提示，由逐像素比较决定结果
+        int distance = Long.bitCount(baseline.phash() ^ phash(actual, base, ignore));
+        result.put("phashDistance", distance);
+        if (distance > phashMaxDistance) {
+            result.put("layoutChanged", true);
+        }
+        int tilesX = (actual.width() + tileSize - 1) / tileSize;
+        int tilesY = (actual.height() + tileSize - 1) / tileSize;
+        TileDiff diff = new TileDiff(base, actual, ignore, tilesX, tilesX * tilesY);
+        pool.invoke(diff.range(0, diff.tiles, false));
+        long changed = 0;
+        long ignored = 0;
+        for (int t = 0; t < diff.tiles; t++) {
+            changed += diff.changed[t];
+            ignored += diff.ignored[t];
+        }
+        long considered = (long) actual.width() * actual.height() - ignored;
+        double score = considered <= 0 ? 0.0 : (double) changed / considered;
+        result.put("score", Math.round(score * 1_000_000) / 1_000_000.0);
+        result.put("changedPixels", changed);
+        result.put("comparedPixels", considered);
+        if (score > limit) {
+            diff.render = new int[actual.pixels().length];
+            pool.invoke(diff.range(0, diff.tiles, true));
+            throw mismatch(name, png, diff.render, actual.width(), actual.height(), result, String.format(Locale.ROOT,
+                    "score %.4f > tolerance %.4f (%d of %d pixels differ, phash distance %d/64)",
+                    score, limit, changed, considered, distance));
+        }
+        result.put("passed", true);
+        result.put("compareMs", elapsedMs(startedNanos));
+        return result;
+    }
+
+    /** 写实际截图与差异图，生成带比较结果的断言失败 */
+    private Mismatch mismatch(String name, byte[] png, int[] render, int width, int height,
+                              Map<String, Object> details, String reason) throws IOException {
+        failed.incrementAndGet();
+        Files.createDirectories(diffDir);
+        String stem = name + "_" + LocalDateTime.now().format(TS);
+        Path actual = diffDir.resolve(stem + "_actual.png");
+        Files.write(actual, png);
+        Path image = diffDir.resolve(stem + "_diff.png");
+        BufferedImage out = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        out.setRGB(0, 0, width, height, render, 0, width);
+        ImageIO.write(out, "png", image.toFile());
+        details.put("passed", false);
+        details.put("actualImage", actual.toAbsolutePath().toString());
+        details.put("diffImage", image.toAbsolutePath().toString());
+        String message = "Visual mismatch for '" + name + "': " + reason + ", actual: " + actual.toAbsolutePath()
+                + ", diff: " + image.toAbsolutePath();
+        log.warn(message);
+        return new Mismatch(message, details);
+    }
+
+    /**
+     * 尺寸不同时的差异图（两图左上对齐，画布取两者的最大宽高）：重叠部分按 pixel-threshold 比较，
+     * 只有一方覆盖的部分都算变化。
+     * @return 变化像素数
+     */
+    private long sizeDiff(Image base, Image actual, int[] render, int w, int h) {
+        long changed = 0;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                boolean inBase = x < base.width() && y < base.height();
+                boolean inActual = x < actual.width() && y < actual.height();
+                int pa = inBase ? base.pixels()[y * base.width() + x] : 0;
+                boolean differs = !inBase || !inActual;
+                if (!differs) {
+                    int pb = actual.pixels()[y * actual.width() + x];
+                    int dr = Math.abs(((pa >> 16) & 0xff) - ((pb >> 16) & 0xff));
+                    int dg = Math.abs(((pa >> 8) & 0xff) - ((pb >> 8) & 0xff));
+                    int db = Math.abs((pa & 0xff) - (pb & 0xff));
+                    differs = Math.max(dr, Math.max(dg, db)) > pixelThreshold;
+                }
+                if (differs) {
+                    changed++;
+                }
+                int gray = 170 + (((pa >> 16) & 0xff) + ((pa >> 8) & 0xff) + (pa & 0xff)) / 9;
+                render[y * w + x] = differs ? 0xff0000 : (gray << 16) | (gray << 8) | gray;
+            }
+        }
+        return changed;
+    }
+
+    private Baseline baseline(String name, Path file) throws IOException {
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        synchronized (cache) {
+            Baseline b = cache.get(name);
+            if (b != null && b.modified() == modified) {
+                baselineHits.incrementAndGet();
+                return b;
+            }
+        }
+        Image image = decode(Files.readAllBytes(file));
+        Baseline b = new Baseline(image, phash(image, null, List.of()), modified);
+        baselineLoads.incrementAndGet();
+        cache(name, b);
+        return b;
+    }
+
+    private void writeBaseline(String name, Path file, byte[] png, Image image) throws IOException {
+        Files.createDirectories(dir);
+        Path tmp = Files.createTempFile(dir, name, ".tmp");
+        try {
+            Files.write(tmp, png);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        cache(name, new Baseline(image, phash(image, null, List.of()), Files.getLastModifiedTime(file).toMillis()));
+        log.info("Visual baseline '{}' {} at {}", name, updateBaselines ? "updated" : "created", file.toAbsolutePath());
+    }
+
+    private void cache(String name, Baseline b) {
+        synchronized (cache) {
+            Baseline old = cache.put(name, b);
+            cachedBytes += b.bytes() - (old == null ? 0 : old.bytes());
+            Iterator<Map.Entry<String, Baseline>> it = cache.entrySet().iterator();
+            while (cachedBytes > cacheBytes && cache.size() > 1 && it.hasNext()) {
+                Map.Entry<String, Baseline> eldest = it.next();
+                if (!eldest.getKey().equals(name)) {
+                    cachedBytes -= eldest.getValue().bytes();
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** 解码为 RGB 像素数组（丢弃 alpha）；经 INT_RGB 画布转换比逐像素 getRGB 快得多 */
+    private static Image decode(byte[] png) throws IOException {
+        BufferedImage src = ImageIO.read(new ByteArrayInputStream(png));
+        if (src == null) {
+            throw new IOException("unsupported screenshot image format");
+        }
+        BufferedImage rgb = src;
+        if (src.getType() != BufferedImage.TYPE_INT_RGB) {
+            rgb = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = rgb.createGraphics();
+            g.drawImage(src, 0, 0, null);
+            g.dispose();
+        }
+        int[] pixels = ((DataBufferInt) rgb.getRaster().getDataBuffer()).getData();
+        return new Image(rgb.getWidth(), rgb.getHeight(), pixels);
+    }
+
+    /**
+     * 64 位感知哈希：缩到 32×32 灰度（区域平均），二维 DCT 取左上 8×8 低频系数，与（不含直流的）中位数比较。
+     * fallback 非空时，忽略区域内取 fallback 的像素。
+     */
+    private static long phash(Image img, Image fallback, List<Region> ignore) {
+        double[][] sum = new double[HASH_SIZE][HASH_SIZE];
+        int[][] count = new int[HASH_SIZE][HASH_SIZE];
+        int w = img.width();
+        int h = img.height();
+        int[] px = img.pixels();
+        boolean masked = fallback != null && !ignore.isEmpty();
+        for (int y = 0; y < h; y++) {
+            int sy = (int) ((long) y * HASH_SIZE / h);
+            int row = y * w;
+            for (int x = 0; x < w; x++) {
+                int p = px[row + x];
+                if (masked && ignored(ignore, x, y)) {
+                    p = fallback.pixels()[row + x];
+                }
+                int sx = (int) ((long) x * HASH_SIZE / w);
+                sum[sy][sx] += ((p >> 16) & 0xff) * 0.299 + ((p >> 8) & 0xff) * 0.587 + (p & 0xff) * 0.114;
+                count[sy][sx]++;
+            }
+        }
+        double[][] small = new double[HASH_SIZE][HASH_SIZE];
+        for (int y = 0; y < HASH_SIZE; y++) {
+            for (int x = 0; x < HASH_SIZE; x++) {
+                small[y][x] = count[y][x] == 0 ? 0 : sum[y][x] / count[y][x];
+            }
+        }
+        // 可分离 DCT：先行后列，只算需要的 8×8 低频
+        double[][] rows = new double[HASH_SIZE][8];
+        for (int y = 0; y < HASH_SIZE; y++) {
+            for (int u = 0; u < 8; u++) {
+                double s = 0;
+                for (int x = 0; x < HASH_SIZE; x++) {
+                    s += small[y][x] * DCT[u][x];
+                }
+                rows[y][u] = s;
+            }
+        }
+        double[] coeffs = new double[64];
+        for (int v = 0; v < 8; v++) {
+            for (int u = 0; u < 8; u++) {
+                double s = 0;
+                for (int y = 0; y < HASH_SIZE; y++) {
+                    s += rows[y][u] * DCT[v][y];
+                }
+                coeffs[v * 8 + u] = s;
+            }
+        }
+        double[] ac = Arrays.copyOfRange(coeffs, 1, 64);
+        Arrays.sort(ac);
+        double median = ac[ac.length / 2];
+        long hash = 0;
+        for (int i = 0; i < 64; i++) {
+            if (coeffs[i] > median) {
+                hash |= 1L << i;
+            }
+        }
+        return hash;
+    }
+
+    private static double[][] dctTable() {
+        double[][] t = new double[8][HASH_SIZE];
+        for (int u = 0; u < 8; u++) {
+            for (int x = 0; x < HASH_SIZE; x++) {
+                t[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * HASH_SIZE));
+            }
+        }
+        return t;
+    }
+
+    private static boolean ignored(List<Region> regions, int x, int y) {
+        for (Region r : regions) {
+            if (r.contains(x, y)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** 各块的差异/忽略像素数由各自的任务写入自己的槽位，无需同步；render 非空时顺便生成差异图 */
+    private final class TileDiff {
+        final Image base;
+        final Image actual;
+        final List<Region> ignore;
+        final int tilesX;
+        final int tiles;
+        final int[] changed;
+        final int[] ignored;
+        int[] render;
+
+        TileDiff(Image base, Image actual, List<Region> ignore, int tilesX, int tiles) {
+            this.base = base;
+            this.actual = actual;
+            this.ignore = ignore;
+            this.tilesX = tilesX;
+            this.tiles = tiles;
+            this.changed = new int[tiles];
+            this.ignored = new int[tiles];
+        }
+
+        RecursiveAction range(int lo, int hi, boolean draw) {
+            return new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    if (hi - lo <= 4) {
+                        for (int t = lo; t < hi; t++) {
+                            tile(t, draw);
+                        }
+                    } else {
+                        int mid = (lo + hi) >>> 1;
+                        invokeAll(range(lo, mid, draw), range(mid, hi, draw));
+                    }
+                }
+            };
+        }
+
+        private void tile(int t, boolean draw) {
+            int w = actual.width();
+            int x0 = (t % tilesX) * tileSize;
+            int y0 = (t / tilesX) * tileSize;
+            int x1 = Math.min(x0 + tileSize, w);
+            int y1 = Math.min(y0 + tileSize, actual.height());
+            List<Region> local = new ArrayList<>(0);
+            for (Region r : ignore) {
+                if (r.x() < x1 && r.x() + r.width() > x0 && r.y() < y1 && r.y() + r.height() > y0) {
+                    local.add(r);
+                }
+            }
+            int[] a = base.pixels();
+            int[] b = actual.pixels();
+            int diffCount = 0;
+            int skipCount = 0;
+            for (int y = y0; y < y1; y++) {
+                int row = y * w;
+                for (int x = x0; x < x1; x++) {
+                    int i = row + x;
+                    int pa = a[i];
+                    int pb = b[i];
+                    boolean skip = !local.isEmpty() && VisualComparator.ignored(local, x, y);
+                    boolean differs = false;
+                    if (skip) {
+                        skipCount++;
+                    } else if (pa != pb) {
+                        int dr = Math.abs(((pa >> 16) & 0xff) - ((pb >> 16) & 0xff));
+                        int dg = Math.abs(((pa >> 8) & 0xff) - ((pb >> 8) & 0xff));
+                        int db = Math.abs((pa & 0xff) - (pb & 0xff));
+                        differs = Math.max(dr, Math.max(dg, db)) > pixelThreshold;
+                        if (differs) {
+                            diffCount++;
+                        }
+                    }
+                    if (draw) {
+                        // 基线淡化为灰度作背景：变化像素红色，忽略区域淡蓝
+                        int gray = 170 + (((pa >> 16) & 0xff) + ((pa >> 8) & 0xff) + (pa & 0xff)) / 9;
+                        render[i] = differs ? 0xff0000 : skip ? (gray / 2 << 16) | (gray / 2 << 8) | 0xff
+                                : (gray << 16) | (gray << 8) | gray;
+                    }
+                }
+            }
+            changed[t] = diffCount;
+            ignored[t] = skipCount;
+        }
+    }
+
+    private static long elapsedMs(long startedNanos) {
+        return (System.nanoTime() - startedNanos) / 1_000_000;
+    }
+
+    Map<String, Object> metrics() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("compared", compared.get());
+        m.put("failed", failed.get());
+        m.put("baselinesCreated", created.get());
+        m.put("baselineLoads", baselineLoads.get());
+        m.put("baselineCacheHits", baselineHits.get());
+        synchronized (cache) {
+            m.put("cachedBaselines", cache.size());
+            m.put("cachedMb", cachedBytes / (1024 * 1024));
+        }
+        m.put("parallelism", pool.getParallelism());
+        return m;
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
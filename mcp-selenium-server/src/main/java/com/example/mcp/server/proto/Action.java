@@ -5,7 +5,7 @@ import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Action {
-    private String type;       // open_browser, goto, click, type, find_text, screenshot, close, quit, wait, wait_for_selector, scroll_by, scroll_to, key_press, switch_to_frame, switch_to_default, download_link, get_title, get_current_url, sense_elements
+    private String type;       // open_browser, goto, click, type, find_text, screenshot, screenshot_assert, close, quit, wait, wait_for_selector, scroll_by, scroll_to, key_press, switch_to_frame, switch_to_default, download_link, get_title, get_current_url, sense_elements, save_state, restore_state, call_macro
     private String selector;   // css or xpath
     private String text;       // for type/find_text/key_press (e.g., ENTER)
     private String url;        // for goto
@@ -23,8 +23,18 @@ public class Action {
     private Integer x;
     private Integer y;
     private Integer frameIndex;
+    private Boolean waitVisible; // click/type/scroll_to 先等元素可见；未给 timeoutMs 时等待上限由服务端按历史耗时决定
     private String note;
 
+    // save_state / restore_state / call_macro
+    private String name;       // 快照名或宏名
+    private java.util.Map<String, String> args; // call_macro 的实参
+    private Long ttlMs;        // save_state 的有效期，缺省用服务端 mcp.state.ttl-ms
+
+    // screenshot_assert（name 为基线名）
+    private Double tolerance;  // 允许的差异像素占比 0~1，缺省用服务端 mcp.visual.tolerance
+    private java.util.List<java.util.Map<String, Integer>> ignoreRegions; // 不参与比较的区域 {x, y, width, height}
+
     public String getType() { return type; }
     public void setType(String type) { this.type = type; }
     public String getSelector() { return selector; }
@@ -55,6 +65,43 @@ public class Action {
     public void setY(Integer y) { this.y = y; }
     public Integer getFrameIndex() { return frameIndex; }
     public void setFrameIndex(Integer frameIndex) { this.frameIndex = frameIndex; }
+    public Boolean getWaitVisible() { return waitVisible; }
+    public void setWaitVisible(Boolean waitVisible) { this.waitVisible = waitVisible; }
     public String getNote() { return note; }
     public void setNote(String note) { this.note = note; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public java.util.Map<String, String> getArgs() { return args; }
+    public void setArgs(java.util.Map<String, String> args) { this.args = args; }
+    public Long getTtlMs() { return ttlMs; }
+    public void setTtlMs(Long ttlMs) { this.ttlMs = ttlMs; }
+    public Double getTolerance() { return tolerance; }
+    public void setTolerance(Double tolerance) { this.tolerance = tolerance; }
+    public java.util.List<java.util.Map<String, Integer>> getIgnoreRegions() { return ignoreRegions; }
+    public void setIgnoreRegions(java.util.List<java.util.Map<String, Integer>> ignoreRegions) { this.ignoreRegions = ignoreRegions; }
+
+    // 按全部字段比较：服务端以动作列表为键缓存编译后的计划
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof Action a)) return false;
+        return java.util.Objects.equals(type, a.type) && java.util.Objects.equals(selector, a.selector)
+                && java.util.Objects.equals(text, a.text) && java.util.Objects.equals(url, a.url)
+                && java.util.Objects.equals(by, a.by) && java.util.Objects.equals(keywords, a.keywords)
+                && java.util.Objects.equals(limit, a.limit) && java.util.Objects.equals(scope, a.scope)
+                && java.util.Objects.equals(headless, a.headless) && java.util.Objects.equals(downloadDir, a.downloadDir)
+                && java.util.Objects.equals(timeoutMs, a.timeoutMs) && java.util.Objects.equals(x, a.x)
+                && java.util.Objects.equals(y, a.y) && java.util.Objects.equals(frameIndex, a.frameIndex)
+                && java.util.Objects.equals(note, a.note) && java.util.Objects.equals(name, a.name)
+                && java.util.Objects.equals(ttlMs, a.ttlMs) && java.util.Objects.equals(args, a.args)
+                && java.util.Objects.equals(waitVisible, a.waitVisible)
+                && java.util.Objects.equals(tolerance, a.tolerance) && java.util.Objects.equals(ignoreRegions, a.ignoreRegions);
+    }
+
+    @Override
+    public int hashCode() {
+        return java.util.Objects.hash(type, selector, text, url, by, keywords, limit, scope,
+                headless, downloadDir, timeoutMs, x, y, frameIndex, note, name, ttlMs, args, waitVisible,
+                tolerance, ignoreRegions);
+    }
 }
@@ -1,6 +1,7 @@
 
 package com.example.mcp.server.proto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.util.List;
@@ -13,6 +14,14 @@ public class RequestEnvelope {
     private String sessionId;
     private Integer stepIndex;
     private Boolean sessionDone;
+    private Long seq;            // 流水线序号，原样回传
+    private Boolean stopOnError; // true 时同一 session 前序步骤失败后，已排队的后续步骤直接取消
+    private String priority;     // interactive | normal | batch（准入调度的优先级类，默认 normal）
+    private String framing;      // negotiate 方法：客户端期望的 STDIO 分帧 json | smile
+    private String macro;        // define_macro / delete_macro：宏名
+    private List<String> params; // define_macro：参数声明 name 或 name=默认值；宏体放在 actions
+    @JsonIgnore
+    private long receivedAtNanos; // 入口收到请求的时刻（System.nanoTime），判断请求是否早于 cancel；不在线上传输
 
     public String getClientId() { return clientId; }
     public void setClientId(String clientId) { this.clientId = clientId; }
@@ -26,4 +35,20 @@ public class RequestEnvelope {
     public void setStepIndex(Integer stepIndex) { this.stepIndex = stepIndex; }
     public Boolean getSessionDone() { return sessionDone; }
     public void setSessionDone(Boolean sessionDone) { this.sessionDone = sessionDone; }
+    public Long getSeq() { return seq; }
+    public void setSeq(Long seq) { this.seq = seq; }
+    public Boolean getStopOnError() { return stopOnError; }
+    public void setStopOnError(Boolean stopOnError) { this.stopOnError = stopOnError; }
+    public String getPriority() { return priority; }
+    public void setPriority(String priority) { this.priority = priority; }
+    public String getFraming() { return framing; }
+    public void setFraming(String framing) { this.framing = framing; }
+    public String getMacro() { return macro; }
+    public void setMacro(String macro) { this.macro = macro; }
+    public List<String> getParams() { return params; }
+    public void setParams(List<String> params) { this.params = params; }
+    @JsonIgnore
+    public long getReceivedAtNanos() { return receivedAtNanos; }
+    @JsonIgnore
+    public void setReceivedAtNanos(long receivedAtNanos) { this.receivedAtNanos = receivedAtNanos; }
 }
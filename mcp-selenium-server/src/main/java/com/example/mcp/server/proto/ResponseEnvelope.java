@@ -1,13 +1,23 @@
 
 package com.example.mcp.server.proto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class ResponseEnvelope {
     private String status; // ok | error
     private String message;
     private Map<String, Object> data = new HashMap<>();
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long seq;
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Integer stepIndex;
+    // 每个动作一条；STDIO 下随动作完成逐条流式写出，不在此处缓存
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private List<StepResult> results;
 
     public static ResponseEnvelope ok(String message) {
         ResponseEnvelope r = new ResponseEnvelope();
@@ -28,4 +38,10 @@ public class ResponseEnvelope {
     public void setMessage(String message) { this.message = message; }
     public Map<String, Object> getData() { return data; }
     public void setData(Map<String, Object> data) { this.data = data; }
+    public Long getSeq() { return seq; }
+    public void setSeq(Long seq) { this.seq = seq; }
+    public Integer getStepIndex() { return stepIndex; }
+    public void setStepIndex(Integer stepIndex) { this.stepIndex = stepIndex; }
+    public List<StepResult> getResults() { return results; }
+    public void setResults(List<StepResult> results) { this.results = results; }
 }
@@ -0,0 +1,64 @@
+package com.example.mcp.server.proto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.Map;
+
+/**
+ * 单个动作的执行结果：按动作序号一条，同类型动作多次出现也互不覆盖；call_macro 按展开后的每一步各一条（带 macro）。
+ * status: ok | error | skipped（前序动作失败后未执行）。
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class StepResult {
+    private int index;
+    private String type;
+    private String status;
+    private Object value;
+    private Long durationMs;
+    private String error;
+    private String macro;      // 由 call_macro 展开的步骤："宏名#序号"，index 为 call_macro 在请求中的序号
+    private Map<String, Object> healed; // 原选择器找不到元素、改用替代选择器时：from / to / score / cached
+
+    public static StepResult ok(int index, String type, Object value, long durationMs) {
+        StepResult r = new StepResult();
+        r.index = index;
+        r.type = type;
+        r.status = "ok";
+        r.value = value;
+        r.durationMs = durationMs;
+        return r;
+    }
+    public static StepResult error(int index, String type, String error, long durationMs) {
+        StepResult r = new StepResult();
+        r.index = index;
+        r.type = type;
+        r.status = "error";
+        r.error = error;
+        r.durationMs = durationMs;
+        return r;
+    }
+    public static StepResult skipped(int index, String type) {
+        StepResult r = new StepResult();
+        r.index = index;
+        r.type = type;
+        r.status = "skipped";
+        return r;
+    }
+
+    public int getIndex() { return index; }
+    public void setIndex(int index) { this.index = index; }
+    public String getType() { return type; }
+    public void setType(String type) { this.type = type; }
+    public String getStatus() { return status; }
+    public void setStatus(String status) { this.status = status; }
+    public Object getValue() { return value; }
+    public void setValue(Object value) { this.value = value; }
+    public Long getDurationMs() { return durationMs; }
+    public void setDurationMs(Long durationMs) { this.durationMs = durationMs; }
+    public String getError() { return error; }
+    public void setError(String error) { this.error = error; }
+    public String getMacro() { return macro; }
+    public void setMacro(String macro) { this.macro = macro; }
+    public Map<String, Object> getHealed() { return healed; }
+    public void setHealed(Map<String, Object> healed) { this.healed = healed; }
+}